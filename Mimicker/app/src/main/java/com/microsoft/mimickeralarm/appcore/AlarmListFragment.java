@@ -211,7 +211,7 @@ public class AlarmListFragment extends Fragment implements
 
     public void updateUI() {
         AlarmList alarmList = AlarmList.get(getActivity());
-        List<Alarm> alarms = alarmList.getAlarms();
+        List<Alarm> alarms = alarmList.getListAlarms();
 
         if (mAdapter == null) {
             mAdapter = new AlarmAdapter(alarms);
@@ -284,15 +284,26 @@ public class AlarmListFragment extends Fragment implements
             mAlarmEnabled.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
+                    // The list only holds the columns it displays, so schedule the full alarm
+                    Alarm alarm = AlarmList.get(getActivity()).getAlarm(mAlarm.getId());
+                    if (alarm == null) {
+                        return;
+                    }
                     if (mAlarmEnabled.isChecked()) {
-                        long alarmTime = mAlarm.schedule();
+                        long alarmTime = alarm.schedule();
                         Toast.makeText(getActivity(),
                                 DateTimeUtilities.getTimeUntilAlarmDisplayString(getActivity(), alarmTime),
                                 Toast.LENGTH_LONG)
                                 .show();
                     } else {
-                        mAlarm.cancel();
+                        alarm.cancel();
+                    }
+                    // The listed alarm may be the cached one, so it is replaced rather than changed
+                    int position = getAdapterPosition();
+                    if (position != RecyclerView.NO_POSITION) {
+                        mAdapter.setAlarm(position, alarm);
                     }
+                    mAlarm = alarm;
                     mCallbacks.onAlarmChanged();
                 }
             });
@@ -388,15 +399,21 @@ public class AlarmListFragment extends Fragment implements
             mAlarms = alarms;
         }
 
+        public void setAlarm(int position, Alarm alarm) {
+            mAlarms.set(position, alarm);
+        }
+
         @Override
         public void onItemDismiss(int position) {
-            Alarm alarm = mAlarms.remove(position);
-
-            Loggable.UserAction userAction = new Loggable.UserAction(Loggable.Key.ACTION_ALARM_DELETE);
-            userAction.putJSON(alarm.toJSON());
-            Logger.track(userAction);
-
-            alarm.delete();
+            // The list only holds the columns it displays, so delete the full alarm
+            Alarm alarm = AlarmList.get(getActivity()).getAlarm(mAlarms.remove(position).getId());
+            if (alarm != null) {
+                Loggable.UserAction userAction = new Loggable.UserAction(Loggable.Key.ACTION_ALARM_DELETE);
+                userAction.putAlarm(alarm);
+                Logger.track(userAction);
+
+                alarm.delete();
+            }
 
             notifyItemRemoved(position);
 
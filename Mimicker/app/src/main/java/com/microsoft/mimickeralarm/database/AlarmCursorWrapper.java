@@ -37,7 +37,6 @@ package com.microsoft.mimickeralarm.database;
 
 import android.database.Cursor;
 import android.database.CursorWrapper;
-import android.net.Uri;
 
 import com.microsoft.mimickeralarm.database.AlarmDbSchema.AlarmTable;
 import com.microsoft.mimickeralarm.model.Alarm;
@@ -46,50 +45,105 @@ import java.util.UUID;
 
 /**
  * This class implements a SQLite CursorWrapper for the alarm object data.
+ *
+ * The column indices are resolved once when the wrapper is created rather than for every row, and
+ * only the columns present in the cursor are read.  This allows callers to query with an explicit
+ * projection (e.g. AlarmTable.LIST_COLUMNS) when they only need part of the alarm data.  Columns
+ * that were not part of the projection are left unset on the returned alarm.  The UUID column must
+ * always be included.
  */
 public class AlarmCursorWrapper extends CursorWrapper {
-    public AlarmCursorWrapper(Cursor cursor) { super(cursor); }
+    private final int mUuidIndex;
+    private final int mTitleIndex;
+    private final int mEnabledIndex;
+    private final int mHourIndex;
+    private final int mMinuteIndex;
+    private final int mToneIndex;
+    private final int mDaysIndex;
+    private final int mVibrateIndex;
+    private final int mTongueTwisterIndex;
+    private final int mColorCaptureIndex;
+    private final int mExpressYourselfIndex;
+    private final int mNewIndex;
+    private final int mSnoozedIndex;
+    private final int mSnoozedHourIndex;
+    private final int mSnoozedMinuteIndex;
+    private final int mSnoozedSecondsIndex;
+    private final int mNextTriggerMillisIndex;
+
+    public AlarmCursorWrapper(Cursor cursor) {
+        super(cursor);
+        mUuidIndex = getColumnIndexOrThrow(AlarmTable.Columns.UUID);
+        mTitleIndex = getColumnIndex(AlarmTable.Columns.TITLE);
+        mEnabledIndex = getColumnIndex(AlarmTable.Columns.ENABLED);
+        mHourIndex = getColumnIndex(AlarmTable.Columns.HOUR);
+        mMinuteIndex = getColumnIndex(AlarmTable.Columns.MINUTE);
+        mToneIndex = getColumnIndex(AlarmTable.Columns.TONE);
+        mDaysIndex = getColumnIndex(AlarmTable.Columns.DAYS);
+        mVibrateIndex = getColumnIndex(AlarmTable.Columns.VIBRATE);
+        mTongueTwisterIndex = getColumnIndex(AlarmTable.Columns.TONGUE_TWISTER);
+        mColorCaptureIndex = getColumnIndex(AlarmTable.Columns.COLOR_CAPTURE);
+        mExpressYourselfIndex = getColumnIndex(AlarmTable.Columns.EXPRESS_YOURSELF);
+        mNewIndex = getColumnIndex(AlarmTable.Columns.NEW);
+        mSnoozedIndex = getColumnIndex(AlarmTable.Columns.SNOOZED);
+        mSnoozedHourIndex = getColumnIndex(AlarmTable.Columns.SNOOZED_HOUR);
+        mSnoozedMinuteIndex = getColumnIndex(AlarmTable.Columns.SNOOZED_MINUTE);
+        mSnoozedSecondsIndex = getColumnIndex(AlarmTable.Columns.SNOOZED_SECONDS);
+        mNextTriggerMillisIndex = getColumnIndex(AlarmTable.Columns.NEXT_TRIGGER_MILLIS);
+    }
 
     public Alarm getAlarm() {
-        String uuidString = getString(getColumnIndex(AlarmTable.Columns.UUID));
-        String title = getString(getColumnIndex(AlarmTable.Columns.TITLE));
-        boolean isEnabled = (getInt(getColumnIndex(AlarmTable.Columns.ENABLED)) != 0);
-        int timeHour = getInt(getColumnIndex(AlarmTable.Columns.HOUR));
-        int timeMinute = getInt(getColumnIndex(AlarmTable.Columns.MINUTE));
-        String alarmToneString = getString(getColumnIndex(AlarmTable.Columns.TONE));
-        Uri alarmTone = null;
-        if (!alarmToneString.isEmpty()) {
-            alarmTone = Uri.parse(alarmToneString);
-        }
-        String[] repeatingDays = getString(getColumnIndex(AlarmTable.Columns.DAYS)).split(",");
-        boolean vibrate = (getInt(getColumnIndex(AlarmTable.Columns.VIBRATE)) != 0);
-        boolean tongueTwister = (getInt(getColumnIndex(AlarmTable.Columns.TONGUE_TWISTER)) != 0);
-        boolean colorCapture = (getInt(getColumnIndex(AlarmTable.Columns.COLOR_CAPTURE)) != 0);
-        boolean expressYourself = (getInt(getColumnIndex(AlarmTable.Columns.EXPRESS_YOURSELF)) != 0);
-        boolean isNew = (getInt(getColumnIndex(AlarmTable.Columns.NEW)) != 0);
-        boolean isSnoozed = (getInt(getColumnIndex(AlarmTable.Columns.SNOOZED)) != 0);
-        int snoozedHour = getInt(getColumnIndex(AlarmTable.Columns.SNOOZED_HOUR));
-        int snoozedMinute = getInt(getColumnIndex(AlarmTable.Columns.SNOOZED_MINUTE));
-        int snoozedSeconds = getInt(getColumnIndex(AlarmTable.Columns.SNOOZED_SECONDS));
+        Alarm alarm = Alarm.newAlarmForDatabaseRow(UUID.fromString(getString(mUuidIndex)));
 
-        Alarm alarm = new Alarm(UUID.fromString(uuidString));
-        alarm.setTitle(title);
-        alarm.setIsEnabled(isEnabled);
-        alarm.setTimeHour(timeHour);
-        alarm.setTimeMinute(timeMinute);
-        alarm.setAlarmTone(alarmTone);
-        for (int i = 0; i < repeatingDays.length; i++) {
-            alarm.setRepeatingDay(i, !repeatingDays[i].equals("false"));
-        }
-        alarm.setVibrate(vibrate);
-        alarm.setTongueTwisterEnabled(tongueTwister);
-        alarm.setColorCaptureEnabled(colorCapture);
-        alarm.setExpressYourselfEnabled(expressYourself);
-        alarm.setNew(isNew);
-        alarm.setSnoozed(isSnoozed);
-        alarm.setSnoozeHour(snoozedHour);
-        alarm.setSnoozeMinute(snoozedMinute);
-        alarm.setSnoozeSeconds(snoozedSeconds);
+        if (mTitleIndex != -1) {
+            alarm.setTitle(getString(mTitleIndex));
+        }
+        if (mEnabledIndex != -1) {
+            alarm.setIsEnabled(getInt(mEnabledIndex) != 0);
+        }
+        if (mHourIndex != -1) {
+            alarm.setTimeHour(getInt(mHourIndex));
+        }
+        if (mMinuteIndex != -1) {
+            alarm.setTimeMinute(getInt(mMinuteIndex));
+        }
+        if (mToneIndex != -1) {
+            // The Uri is only parsed if the tone is actually needed
+            alarm.setAlarmToneString(getString(mToneIndex));
+        }
+        if (mDaysIndex != -1) {
+            alarm.setRepeatingDays(getInt(mDaysIndex));
+        }
+        if (mVibrateIndex != -1) {
+            alarm.setVibrate(getInt(mVibrateIndex) != 0);
+        }
+        if (mTongueTwisterIndex != -1) {
+            alarm.setTongueTwisterEnabled(getInt(mTongueTwisterIndex) != 0);
+        }
+        if (mColorCaptureIndex != -1) {
+            alarm.setColorCaptureEnabled(getInt(mColorCaptureIndex) != 0);
+        }
+        if (mExpressYourselfIndex != -1) {
+            alarm.setExpressYourselfEnabled(getInt(mExpressYourselfIndex) != 0);
+        }
+        if (mNewIndex != -1) {
+            alarm.setNew(getInt(mNewIndex) != 0);
+        }
+        if (mSnoozedIndex != -1) {
+            alarm.setSnoozed(getInt(mSnoozedIndex) != 0);
+        }
+        if (mSnoozedHourIndex != -1) {
+            alarm.setSnoozeHour(getInt(mSnoozedHourIndex));
+        }
+        if (mSnoozedMinuteIndex != -1) {
+            alarm.setSnoozeMinute(getInt(mSnoozedMinuteIndex));
+        }
+        if (mSnoozedSecondsIndex != -1) {
+            alarm.setSnoozeSeconds(getInt(mSnoozedSecondsIndex));
+        }
+        if (mNextTriggerMillisIndex != -1) {
+            alarm.setNextTriggerMillis(getLong(mNextTriggerMillisIndex));
+        }
 
         return alarm;
     }
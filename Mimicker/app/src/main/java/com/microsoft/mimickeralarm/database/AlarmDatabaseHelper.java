@@ -46,13 +46,14 @@ import com.microsoft.mimickeralarm.database.AlarmDbSchema.AlarmTable;
  * This class implements the methods needed to create the SQLite alarm database.
  *
  * onCreate - is called to create a new database with a SQL query
- * onUpdate - is called in the cases where the database is already created.  Depending on the
- * database version, structural changes can be made to the database.
+ * onUpdate - is called in the cases where the database is already created.  The migrations in
+ * AlarmDatabaseMigrations are applied in order to bring the schema up to date without losing the
+ * existing alarms.  Databases which are too old to be migrated are recreated.
  *
  */
 public class AlarmDatabaseHelper extends SQLiteOpenHelper{
 
-    private static final int DATABASE_VERSION = 6;
+    private static final int DATABASE_VERSION = 8;
     private static final String DATABASE_NAME = "alarmDatabase.db";
 
     public AlarmDatabaseHelper(Context context) { super(context, DATABASE_NAME, null, DATABASE_VERSION); }
@@ -76,16 +77,27 @@ public class AlarmDatabaseHelper extends SQLiteOpenHelper{
                 AlarmTable.Columns.SNOOZED + ", " +
                 AlarmTable.Columns.SNOOZED_HOUR + ", " +
                 AlarmTable.Columns.SNOOZED_MINUTE + ", " +
-                AlarmTable.Columns.SNOOZED_SECONDS +
+                AlarmTable.Columns.SNOOZED_SECONDS + ", " +
+                AlarmTable.Columns.NEXT_TRIGGER_MILLIS + " integer default 0" +
                 ")"
         );
+        createNextTriggerIndex(db);
+    }
+
+    static void createNextTriggerIndex(SQLiteDatabase db) {
+        db.execSQL("create index " + AlarmTable.NEXT_TRIGGER_INDEX + " on " + AlarmTable.NAME +
+                "(" + AlarmTable.Columns.ENABLED + ", " + AlarmTable.Columns.NEXT_TRIGGER_MILLIS + ")");
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         Log.w(AlarmDatabaseHelper.class.getSimpleName(),
                 "Upgrading database from version " + oldVersion + " to " + newVersion);
-        db.execSQL("DROP TABLE IF EXISTS " + AlarmTable.NAME);
-        onCreate(db);
+        if (AlarmDatabaseMigrations.canMigrate(oldVersion)) {
+            AlarmDatabaseMigrations.migrate(db, oldVersion, newVersion);
+        } else {
+            db.execSQL("DROP TABLE IF EXISTS " + AlarmTable.NAME);
+            onCreate(db);
+        }
     }
 }
@@ -0,0 +1,58 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * This class is the base for a single step in the alarm database schema upgrade path.  Each
+ * migration moves the database from (version - 1) to version, preserving the existing alarm data.
+ * Migrations are applied in order by AlarmDatabaseMigrations from within
+ * AlarmDatabaseHelper.onUpgrade, which SQLiteOpenHelper already runs inside a single transaction.
+ */
+public abstract class AlarmDatabaseMigration {
+    private final int mVersion;
+
+    protected AlarmDatabaseMigration(int version) {
+        mVersion = version;
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public abstract void migrate(SQLiteDatabase db);
+}
@@ -0,0 +1,198 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.microsoft.mimickeralarm.database.AlarmDbSchema.AlarmTable;
+import com.microsoft.mimickeralarm.scheduling.AlarmRecurrence;
+
+import java.util.TimeZone;
+
+/**
+ * This static class holds the ordered list of alarm database migrations and applies the ones that
+ * are needed to move between two database versions.
+ *
+ * To change the schema, bump AlarmDatabaseHelper.DATABASE_VERSION, update onCreate so that new
+ * installs get the new schema directly, and append a migration for the new version to MIGRATIONS.
+ * Databases older than FIRST_MIGRATABLE_VERSION predate the migration path and are recreated.
+ */
+public final class AlarmDatabaseMigrations {
+    public static final int FIRST_MIGRATABLE_VERSION = 6;
+
+    private static final String TAG = "AlarmDatabaseMigrations";
+
+    private static final AlarmDatabaseMigration[] MIGRATIONS = new AlarmDatabaseMigration[] {
+            new RepeatingDaysToBitmask(),
+            new AddNextTriggerMillis()
+    };
+
+    private AlarmDatabaseMigrations() {
+    }
+
+    public static boolean canMigrate(int oldVersion) {
+        return oldVersion >= FIRST_MIGRATABLE_VERSION;
+    }
+
+    public static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (AlarmDatabaseMigration migration : MIGRATIONS) {
+            int version = migration.getVersion();
+            if (version > oldVersion && version <= newVersion) {
+                Log.d(TAG, "Migrating database to version " + version);
+                migration.migrate(db);
+            }
+        }
+    }
+
+    /**
+     * Version 7 - the days column changes from a "true,false,...," string to an integer where
+     * bit (1 << i) is set if the alarm repeats on day i (0 is Sunday).
+     */
+    static final class RepeatingDaysToBitmask extends AlarmDatabaseMigration {
+        private static final String DAY_NOT_REPEATING = "false";
+
+        RepeatingDaysToBitmask() {
+            super(7);
+        }
+
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            SQLiteStatement update = db.compileStatement("update " + AlarmTable.NAME +
+                    " set " + AlarmTable.Columns.DAYS + " = ? where _id = ?");
+            Cursor cursor = db.query(AlarmTable.NAME,
+                    new String[] { "_id", AlarmTable.Columns.DAYS },
+                    null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    String days = cursor.getString(1);
+                    update.bindLong(1, days != null ? parseRepeatingDays(days) : 0);
+                    update.bindLong(2, cursor.getLong(0));
+                    update.executeUpdateDelete();
+                }
+            } finally {
+                cursor.close();
+                update.close();
+            }
+        }
+
+        // Scans the days string in place rather than splitting it.  Any entry other than "false"
+        // is treated as a repeating day, which matches how the string used to be read.
+        static int parseRepeatingDays(String days) {
+            int repeatingDays = 0;
+            int day = 0;
+            int start = 0;
+            int length = days.length();
+            while (start < length && day < 7) {
+                int end = days.indexOf(',', start);
+                if (end == -1) {
+                    end = length;
+                }
+                boolean notRepeating = (end - start == DAY_NOT_REPEATING.length()) &&
+                        days.regionMatches(start, DAY_NOT_REPEATING, 0, DAY_NOT_REPEATING.length());
+                if (!notRepeating) {
+                    repeatingDays |= (1 << day);
+                }
+                day++;
+                start = end + 1;
+            }
+            return repeatingDays;
+        }
+    }
+
+    /**
+     * Version 8 - adds the indexed next_trigger_millis column and fills it in for the alarms that
+     * are currently enabled.  New alarms that were never saved keep 0, as AlarmList does.
+     *
+     * The trigger time is computed from the version 7 columns directly, so that this step does not
+     * depend on how the model classes read a row in later versions.
+     */
+    static final class AddNextTriggerMillis extends AlarmDatabaseMigration {
+        private static final String[] COLUMNS = new String[] {
+                "_id",
+                AlarmTable.Columns.DAYS,
+                AlarmTable.Columns.HOUR,
+                AlarmTable.Columns.MINUTE,
+                AlarmTable.Columns.SNOOZED,
+                AlarmTable.Columns.SNOOZED_HOUR,
+                AlarmTable.Columns.SNOOZED_MINUTE,
+                AlarmTable.Columns.SNOOZED_SECONDS
+        };
+
+        AddNextTriggerMillis() {
+            super(8);
+        }
+
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("alter table " + AlarmTable.NAME + " add column " +
+                    AlarmTable.Columns.NEXT_TRIGGER_MILLIS + " integer default 0");
+            AlarmDatabaseHelper.createNextTriggerIndex(db);
+
+            SQLiteStatement update = db.compileStatement("update " + AlarmTable.NAME +
+                    " set " + AlarmTable.Columns.NEXT_TRIGGER_MILLIS + " = ? where _id = ?");
+            Cursor cursor = db.query(AlarmTable.NAME, COLUMNS,
+                    AlarmTable.Columns.ENABLED + " = 1 and " + AlarmTable.Columns.NEW + " = 0",
+                    null, null, null, null);
+            long now = System.currentTimeMillis();
+            TimeZone zone = TimeZone.getDefault();
+            try {
+                while (cursor.moveToNext()) {
+                    update.bindLong(1, getNextTriggerMillis(cursor, now, zone));
+                    update.bindLong(2, cursor.getLong(0));
+                    update.executeUpdateDelete();
+                }
+            } finally {
+                cursor.close();
+                update.close();
+            }
+        }
+
+        // A snoozed alarm fires at its snooze time rather than its alarm time
+        private static long getNextTriggerMillis(Cursor cursor, long now, TimeZone zone) {
+            int secondOfDay;
+            if (cursor.getInt(4) != 0) {
+                secondOfDay = AlarmRecurrence.getSecondOfDay(cursor.getInt(5), cursor.getInt(6),
+                        cursor.getInt(7));
+            } else {
+                secondOfDay = AlarmRecurrence.getSecondOfDay(cursor.getInt(2), cursor.getInt(3), 0);
+            }
+            return AlarmRecurrence.getNextOccurrence(now, zone, cursor.getInt(1), secondOfDay);
+        }
+    }
+}
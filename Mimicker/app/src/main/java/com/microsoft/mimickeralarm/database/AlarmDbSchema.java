@@ -41,12 +41,24 @@ package com.microsoft.mimickeralarm.database;
 public class AlarmDbSchema {
     public static final class AlarmTable {
         public static final String NAME = "alarms";
+        public static final String NEXT_TRIGGER_INDEX = "alarms_enabled_next_trigger";
+
+        // The subset of columns needed to display an alarm in a list
+        public static final String[] LIST_COLUMNS = new String[] {
+                Columns.UUID,
+                Columns.HOUR,
+                Columns.MINUTE,
+                Columns.TITLE,
+                Columns.ENABLED,
+                Columns.DAYS
+        };
 
         public static final class Columns {
             public static final String UUID = "uuid";
             public static final String TITLE = "title";
             public static final String HOUR = "hour";
             public static final String MINUTE = "minute";
+            // Bitmask where bit (1 << i) is set if the alarm repeats on day i, 0 being Sunday
             public static final String DAYS = "days";
             public static final String TONE = "tone";
             public static final String ENABLED = "enabled";
@@ -59,6 +71,9 @@ public class AlarmDbSchema {
             public static final String SNOOZED_HOUR = "snoozed_hour";
             public static final String SNOOZED_MINUTE = "snoozed_minute";
             public static final String SNOOZED_SECONDS = "snoozed_seconds";
+            // Epoch milliseconds at which an enabled alarm will next fire, including snoozes.
+            // Indexed together with ENABLED so the next alarm can be found with a single lookup.
+            public static final String NEXT_TRIGGER_MILLIS = "next_trigger_millis";
         }
     }
 }
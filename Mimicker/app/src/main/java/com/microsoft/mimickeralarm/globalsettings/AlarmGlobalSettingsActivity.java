@@ -54,6 +54,7 @@ import android.widget.LinearLayout;
 import com.microsoft.mimickeralarm.R;
 import com.microsoft.mimickeralarm.appcore.DividerItemDecoration;
 import com.microsoft.mimickeralarm.scheduling.AlarmNotificationManager;
+import com.microsoft.mimickeralarm.scheduling.AlarmScheduler;
 
 import java.util.List;
 
@@ -101,6 +102,7 @@ public class AlarmGlobalSettingsActivity extends AppCompatActivity {
 
         private ListPreference mSnoozeDuration;
         private ListPreference mRingDuration;
+        private ListPreference mMimicExploration;
         private VolumeSliderPreference mAlarmVolume;
         private SwitchPreferenceCompat mEnableNotifications;
         private SwitchPreferenceCompat mEnableReliability;
@@ -110,6 +112,7 @@ public class AlarmGlobalSettingsActivity extends AppCompatActivity {
             addPreferencesFromResource(R.xml.pref_global);
             mSnoozeDuration = (ListPreference)findPreference(getString(R.string.pref_snooze_duration_key));
             mRingDuration = (ListPreference)findPreference(getString(R.string.pref_ring_duration_key));
+            mMimicExploration = (ListPreference)findPreference(getString(R.string.pref_mimic_exploration_key));
             mAlarmVolume = (VolumeSliderPreference)findPreference(getString(R.string.pref_ring_volume_key));
             mEnableNotifications = (SwitchPreferenceCompat)findPreference(getString(R.string.pref_enable_notifications_key));
             mEnableReliability = (SwitchPreferenceCompat)findPreference(getString(R.string.pref_enable_reliability_key));
@@ -154,6 +157,8 @@ public class AlarmGlobalSettingsActivity extends AppCompatActivity {
                         .apply();
             } else if (key.equals(getString(R.string.pref_ring_duration_key))) {
                 mRingDuration.setSummary(mRingDuration.getEntry());
+            } else if (key.equals(getString(R.string.pref_mimic_exploration_key))) {
+                mMimicExploration.setSummary(mMimicExploration.getEntry());
             } else if (key.equals(getString(R.string.pref_enable_notifications_key))) {
                 boolean notificationsEnabled = mEnableNotifications.isChecked();
                 // As the reliability setting is dependant on notifications, we enable or
@@ -167,6 +172,9 @@ public class AlarmGlobalSettingsActivity extends AppCompatActivity {
             } else if (key.equals(getString(R.string.pref_enable_reliability_key))) {
                 AlarmNotificationManager.get(getContext())
                         .toggleWakeLock(mEnableReliability.isChecked());
+            } else if (key.equals(getString(R.string.pref_enable_warm_up_key))) {
+                AlarmScheduler.setWarmUpEnabled(getContext(),
+                        sharedPreferences.getBoolean(key, true));
             }
         }
 
@@ -181,6 +189,7 @@ public class AlarmGlobalSettingsActivity extends AppCompatActivity {
         private void setDefaultSummaryValues() {
             mSnoozeDuration.setSummary(mSnoozeDuration.getEntry());
             mRingDuration.setSummary(mRingDuration.getEntry());
+            mMimicExploration.setSummary(mMimicExploration.getEntry());
         }
     }
 }
@@ -45,10 +45,15 @@ import android.graphics.YuvImage;
 import android.hardware.Camera;
 import android.os.AsyncTask;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
+import com.microsoft.mimickeralarm.utilities.Loggable;
 import com.microsoft.mimickeralarm.utilities.Logger;
 
 import java.io.ByteArrayOutputStream;
@@ -61,7 +66,16 @@ import java.util.List;
  * since the image captured is not really for artistic purposes or for keeping,
  * this camera values speed over quality. It chooses a decent resolution, not the max, and
  * upon capture, immediately returns the last preview frame displayed as opposed to the actual
- * image captured by the camera
+ * image captured by the camera.  The frame is converted to a rotated Bitmap no wider than the
+ * requested width in a single pass by the FrameTransformer.
+ *
+ * A capture takes a burst of BURST_FRAME_COUNT consecutive preview frames and keeps the one the
+ * FrameQualityGate scores as the sharpest and best exposed, as a single frame is often taken mid
+ * motion or while focusing.  The burst buffers are allocated once and reused for every capture
+ * until the camera is stopped.
+ *
+ * The preview keeps running while a capture is processed and verified, so a retry can capture
+ * as soon as the mimic is ready again, without restarting the preview.
  *
  * To use this, pass in
  * a CapturedImageCallbackAsync to process the image returned,
@@ -73,7 +87,14 @@ import java.util.List;
  * start (call initPreview before),
  * stop,
  * onCapture (set the CapturedImageCallbackAsync),
- * onFocus (focus the camera at a certain x, y position)
+ * onFocus (focus the camera at a certain x, y position),
+ * startFrameSampling / stopFrameSampling (score live preview frames on a background thread)
+ *
+ * Frame sampling uses two preview buffers that are allocated once per sampling session and
+ * handed back to the camera after each frame, so no memory is allocated per frame.  A frame is
+ * dropped, and its buffer returned immediately, if it arrives before the sampling interval has
+ * passed or while the previous frame is still being scored.  The processed and dropped frame
+ * counts are tracked when sampling stops, so the rate can be tuned per device.
  */
 @SuppressWarnings("deprecation")
 public class CameraPreview implements SurfaceHolder.Callback {
@@ -89,30 +110,126 @@ public class CameraPreview implements SurfaceHolder.Callback {
     private boolean mFlashState;
     private FlashStateCallback mFlashStateCallback;
     private CapturedImageCallbackAsync mCapturedCapturedImageCallbackAsync;
+    private int mCaptureMaxWidth;
+    private OpenCameraTask mOpenCameraTask;
+    private processCaptureImage mCaptureTask;
     private CameraInitializedCallback mCameraInitializedCallback;
 
-    private Camera.PreviewCallback mCaptureCallback = new Camera.PreviewCallback() {
+    private static final int FRAME_BUFFER_COUNT = 2;
+    // Read on the frame thread, everything else below is only used on the main thread.  The frame
+    // thread is handed the frame to score in its message and hands back the result the same way.
+    private volatile FrameSamplingCallback mFrameSamplingCallback;
+    private HandlerThread mFrameThread;
+    private Handler mFrameHandler;
+    private long mFrameIntervalMillis;
+    private long mLastFrameMillis;
+    private int mFrameWidth;
+    private int mFrameHeight;
+    // The frame being scored on the frame thread, or null if the thread is idle
+    private byte[] mScoringFrame;
+    private int mFramesProcessed;
+    private int mFramesDropped;
+
+    private Camera.PreviewCallback mSamplingCallback = new Camera.PreviewCallback() {
         public void onPreviewFrame(byte[] data, Camera camera) {
-            camera.stopPreview();
-            if (mIsFlashSupported) {
-                // Delay turning off flash for 0.5s to allow camera to capture image
-                final Handler handler = new Handler();
-                handler.postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        changeFlashState(false);
-                        if (mFlashStateCallback != null) {
-                            mFlashStateCallback.execute(false);
-                        }
+            long now = SystemClock.elapsedRealtime();
+            if (mScoringFrame != null || now - mLastFrameMillis < mFrameIntervalMillis) {
+                mFramesDropped++;
+                camera.addCallbackBuffer(data);
+                return;
+            }
+            mLastFrameMillis = now;
+            mScoringFrame = data;
+            mFrameHandler.obtainMessage(0, mFrameWidth, mFrameHeight, data).sendToTarget();
+        }
+    };
+
+    // Runs on the frame thread.  The message holds the frame and its width and height.
+    private final Handler.Callback mScoreFrame = new Handler.Callback() {
+        @Override
+        public boolean handleMessage(Message message) {
+            FrameSamplingCallback callback = mFrameSamplingCallback;
+            boolean matched = callback != null &&
+                    callback.isMatch((byte[]) message.obj, message.arg1, message.arg2);
+            mFrameScoredHandler.obtainMessage(0, matched ? 1 : 0, 0, message.obj).sendToTarget();
+            return true;
+        }
+    };
+
+    // Runs on the main thread once a frame has been scored.  The message holds the frame and 1 in
+    // arg1 if it matched.
+    private final Handler mFrameScoredHandler = new Handler(Looper.getMainLooper(),
+            new Handler.Callback() {
+                @Override
+                public boolean handleMessage(Message message) {
+                    FrameSamplingCallback callback = mFrameSamplingCallback;
+                    if (message.obj != mScoringFrame || callback == null) {
+                        // Sampling stopped while the frame was being scored
+                        return true;
                     }
-                }, 500);
+                    byte[] frame = mScoringFrame;
+                    mScoringFrame = null;
+                    mFramesProcessed++;
+                    if (message.arg1 == 1) {
+                        stopFrameSampling();
+                        callback.onMatch();
+                    } else if (mCamera != null) {
+                        mCamera.addCallbackBuffer(frame);
+                    }
+                    return true;
+                }
+            });
+
+    private static final int BURST_FRAME_COUNT = 3;
+    private byte[][] mBurstFrames;
+    private int mBurstFramesReceived;
+    private final FrameQualityGate mBurstScorer = new FrameQualityGate(true);
+
+    // Each burst buffer is handed to the camera once per capture, so every frame fills a new one
+    private Camera.PreviewCallback mBurstCallback = new Camera.PreviewCallback() {
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            mBurstFramesReceived++;
+            if (mBurstFramesReceived == mBurstFrames.length) {
+                camera.setPreviewCallbackWithBuffer(null);
+                finishCapture(camera, null, mBurstFrames);
             }
-            new processCaptureImage().execute(data, camera);
         }
     };
 
+    private Camera.PreviewCallback mCaptureCallback = new Camera.PreviewCallback() {
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            finishCapture(camera, data, null);
+        }
+    };
+
+    // Processes either a single frame or a burst of frames.  The frames are no longer used by
+    // the camera, so the preview keeps running.
+    private void finishCapture(Camera camera, byte[] frame, byte[][] burstFrames) {
+        if (mIsFlashSupported) {
+            // Delay turning off flash for 0.5s to allow camera to capture image
+            final Handler handler = new Handler();
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    changeFlashState(false);
+                    if (mFlashStateCallback != null) {
+                        mFlashStateCallback.execute(false);
+                    }
+                }
+            }, 500);
+        }
+        // The camera may be released by stop while the capture is processed, so its parameters
+        // are read here, on the main thread
+        Camera.Parameters parameters = camera.getParameters();
+        Camera.Size previewSize = parameters.getPreviewSize();
+        mCaptureTask = new processCaptureImage(parameters.getPreviewFormat(), previewSize.width,
+                previewSize.height);
+        mCaptureTask.executeOnExecutor(MimicExecutor.CPU, frame, burstFrames);
+    }
+
     public interface CapturedImageCallbackAsync {
-        void execute(Bitmap bitmap);
+        // pixels holds the ARGB pixels of the bitmap row by row, or null if they were not read
+        void execute(Bitmap bitmap, int[] pixels);
     }
 
     public interface CameraInitializedCallback {
@@ -123,6 +240,15 @@ public class CameraPreview implements SurfaceHolder.Callback {
         void execute(boolean state);
     }
 
+    public interface FrameSamplingCallback {
+        // Called on the frame thread with an NV21 preview frame, the buffer is reused after this
+        // returns.  Returning true stops the sampling.
+        boolean isMatch(byte[] nv21, int width, int height);
+
+        // Called on the main thread after a frame has matched
+        void onMatch();
+    }
+
     private OnCameraPreviewException mOnException;
 
     public CameraPreview(SurfaceView surfaceView,
@@ -146,7 +272,8 @@ public class CameraPreview implements SurfaceHolder.Callback {
 
     @Override
     public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
-        (new OpenCameraTask()).execute();
+        mOpenCameraTask = new OpenCameraTask();
+        mOpenCameraTask.executeOnExecutor(MimicExecutor.CAMERA);
     }
 
     @Override
@@ -166,11 +293,23 @@ public class CameraPreview implements SurfaceHolder.Callback {
     }
 
     public void stop() {
+        stopFrameSampling();
+        // Only tasks that have not started yet are cancelled, a running task finishes its work
+        if (mOpenCameraTask != null) {
+            mOpenCameraTask.cancel(false);
+            mOpenCameraTask = null;
+        }
+        if (mCaptureTask != null) {
+            mCaptureTask.cancel(false);
+            mCaptureTask = null;
+        }
         if (mCamera != null) {
             changeFlashState(false);
             mCamera.stopPreview();
             mCamera.release();
             mCamera = null;
+            // A capture being processed keeps its own reference to the frames
+            mBurstFrames = null;
         }
     }
     public void start() throws MimicException{
@@ -184,14 +323,109 @@ public class CameraPreview implements SurfaceHolder.Callback {
         }
     }
 
-    public void onCapture(CapturedImageCallbackAsync callback, FlashStateCallback flashCallback) {
+    // Scores at most one preview frame per interval until a frame matches or sampling is stopped.
+    // Must be called on the main thread after the preview has started.
+    public void startFrameSampling(FrameSamplingCallback callback, long intervalMillis) {
+        if (mCamera == null || mFrameSamplingCallback != null) {
+            return;
+        }
+        Camera.Parameters parameters = mCamera.getParameters();
+        if (parameters.getPreviewFormat() != ImageFormat.NV21) {
+            Log.d(LOGTAG, "Frame sampling needs NV21 preview frames");
+            return;
+        }
+        mFrameWidth = parameters.getPreviewSize().width;
+        mFrameHeight = parameters.getPreviewSize().height;
+        int bufferSize = mFrameWidth * mFrameHeight *
+                ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+        for (int i = 0; i < FRAME_BUFFER_COUNT; i++) {
+            mCamera.addCallbackBuffer(new byte[bufferSize]);
+        }
+
+        mFrameThread = new HandlerThread(LOGTAG);
+        mFrameThread.start();
+        mFrameHandler = new Handler(mFrameThread.getLooper(), mScoreFrame);
+        mFrameSamplingCallback = callback;
+        mFrameIntervalMillis = intervalMillis;
+        mLastFrameMillis = 0;
+        mFramesProcessed = 0;
+        mFramesDropped = 0;
+        mCamera.setPreviewCallbackWithBuffer(mSamplingCallback);
+    }
+
+    public void stopFrameSampling() {
+        if (mFrameSamplingCallback == null) {
+            return;
+        }
+        mFrameSamplingCallback = null;
+        mScoringFrame = null;
+        if (mCamera != null) {
+            // This also releases the camera's reference to the callback buffers
+            mCamera.setPreviewCallbackWithBuffer(null);
+        }
+        mFrameThread.quit();
+        mFrameThread = null;
+        mFrameHandler = null;
+
+        Loggable.AppAction appAction = new Loggable.AppAction(Loggable.Key.APP_CAMERA_FRAMES);
+        appAction.putProp(Loggable.Key.PROP_FRAMES_PROCESSED, mFramesProcessed);
+        appAction.putProp(Loggable.Key.PROP_FRAMES_DROPPED, mFramesDropped);
+        appAction.putProp(Loggable.Key.PROP_FRAME_INTERVAL, mFrameIntervalMillis);
+        Logger.track(appAction);
+    }
+
+    public int getFramesProcessed() {
+        return mFramesProcessed;
+    }
+
+    public int getFramesDropped() {
+        return mFramesDropped;
+    }
+
+    // The captured image is scaled down to at most maxWidth after rotation
+    public void onCapture(CapturedImageCallbackAsync callback, FlashStateCallback flashCallback,
+                          int maxWidth) {
+        stopFrameSampling();
         mCapturedCapturedImageCallbackAsync = callback;
+        mCaptureMaxWidth = maxWidth;
         mFlashStateCallback = flashCallback;
-        if (mCamera != null) {
+        if (mCamera != null && !startBurst()) {
             mCamera.setOneShotPreviewCallback(mCaptureCallback);
         }
     }
 
+    private boolean startBurst() {
+        Camera.Parameters parameters = mCamera.getParameters();
+        if (parameters.getPreviewFormat() != ImageFormat.NV21) {
+            return false;
+        }
+        Camera.Size size = parameters.getPreviewSize();
+        int bufferSize = size.width * size.height * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+        if (mBurstFrames == null || mBurstFrames[0].length != bufferSize) {
+            mBurstFrames = new byte[BURST_FRAME_COUNT][bufferSize];
+        }
+        for (byte[] buffer : mBurstFrames) {
+            mCamera.addCallbackBuffer(buffer);
+        }
+        mBurstFramesReceived = 0;
+        mCamera.setPreviewCallbackWithBuffer(mBurstCallback);
+        return true;
+    }
+
+    // Called on a background thread
+    private byte[] selectBestFrame(byte[][] frames, int width, int height) {
+        byte[] bestFrame = frames[0];
+        float bestScore = -1;
+        for (byte[] frame : frames) {
+            float score = mBurstScorer.score(frame, width, height);
+            if (score > bestScore) {
+                bestScore = score;
+                bestFrame = frame;
+            }
+        }
+        return bestFrame;
+    }
+
     public void onFocus(int x, int y) {
         RectF focusRectF = new RectF(x - 10, y - 10, x + 10, y + 10);
         Matrix rotateMatrix = new Matrix();
@@ -367,6 +601,7 @@ public class CameraPreview implements SurfaceHolder.Callback {
     private class OpenCameraTask extends AsyncTask<Object, String, Boolean> {
         @Override
         protected Boolean doInBackground(Object... params) {
+            MimicExecutor.applyThreadPriority();
             if(mCamera == null) {
                 initPreview();
             }
@@ -403,18 +638,52 @@ public class CameraPreview implements SurfaceHolder.Callback {
     }
 
     private class processCaptureImage extends AsyncTask<Object, String, Boolean> {
+        private final int mFormat;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mRotation;
+        private final int mMaxWidth;
+
+        // Takes the camera settings on the main thread, as the camera is not used after that
+        processCaptureImage(int format, int width, int height) {
+            mFormat = format;
+            mWidth = width;
+            mHeight = height;
+            mRotation = mCameraRotation;
+            mMaxWidth = mCaptureMaxWidth;
+        }
+
         @Override
         // Decode the image data and rotate it to the proper orientation.
         // then run the callback, if any, on the image to do post processing
         protected Boolean doInBackground(Object... params) {
+            MimicExecutor.applyThreadPriority();
             byte[] data = (byte[]) params[0];
-            Camera camera = (Camera) params[1];
-            Camera.Parameters parameters = camera.getParameters();
-            int format = parameters.getPreviewFormat();
-            //YUV formats require more conversion
-            if (format == ImageFormat.NV21 || format == ImageFormat.YUY2 || format == ImageFormat.NV16) {
-                int w = parameters.getPreviewSize().width;
-                int h = parameters.getPreviewSize().height;
+            byte[][] burstFrames = (byte[][]) params[1];
+            int format = mFormat;
+            boolean mirror = mCameraFacing == Camera.CameraInfo.CAMERA_FACING_FRONT;
+            if (format == ImageFormat.NV21) {
+                if (burstFrames != null) {
+                    data = selectBestFrame(burstFrames, mWidth, mHeight);
+                }
+                FrameTransformer transformer = new FrameTransformer(data, mWidth, mHeight,
+                        mRotation, mirror, mMaxWidth);
+                int[] pixels = new int[transformer.getOutputWidth() * transformer.getOutputHeight()];
+                transformer.transformParallel(pixels);
+                // The bitmap must be mutable, as the shareable image is stamped onto it
+                Bitmap bitmap = Bitmap.createBitmap(transformer.getOutputWidth(),
+                        transformer.getOutputHeight(), Bitmap.Config.ARGB_8888);
+                bitmap.setPixels(pixels, 0, transformer.getOutputWidth(), 0, 0,
+                        transformer.getOutputWidth(), transformer.getOutputHeight());
+
+                if (mCapturedCapturedImageCallbackAsync != null) {
+                    mCapturedCapturedImageCallbackAsync.execute(bitmap, pixels);
+                }
+            }
+            //Other YUV formats go through JPEG
+            else if (format == ImageFormat.YUY2 || format == ImageFormat.NV16) {
+                int w = mWidth;
+                int h = mHeight;
                 // Get the YuV image
                 YuvImage yuv_image = new YuvImage(data, format, w, h, null);
                 // Convert YuV to Jpeg
@@ -425,14 +694,19 @@ public class CameraPreview implements SurfaceHolder.Callback {
                 Bitmap bitmap = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
 
                 Matrix transform = new Matrix();
-                if (mCameraFacing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+                if (mirror) {
                     transform.preScale(-1, 1);
                 }
-                transform.postRotate(mCameraRotation);
+                transform.postRotate(mRotation);
+                int rotatedWidth = (mRotation % 180 == 0) ? w : h;
+                if (rotatedWidth > mMaxWidth) {
+                    float scale = (float) mMaxWidth / rotatedWidth;
+                    transform.postScale(scale, scale);
+                }
                 bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), transform, true);
 
                 if (mCapturedCapturedImageCallbackAsync != null) {
-                    mCapturedCapturedImageCallbackAsync.execute(bitmap);
+                    mCapturedCapturedImageCallbackAsync.execute(bitmap, null);
                 }
             }
             return null;
@@ -0,0 +1,196 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+/**
+ * A pure Java engine that finds the dominant and accent colors of an image, so that the color
+ * capture mimic can often verify a capture without calling the Project Oxford Vision API.
+ *
+ * The image is passed as ARGB pixels in an int[] (e.g. from Bitmap.getPixels) and only every
+ * stride-th pixel of every stride-th row is sampled.  Each sampled pixel is converted to HSL and
+ * counted in a histogram.  Chromatic pixels are binned by hue, while pixels that are too grey,
+ * dark or light to have a meaningful hue are binned by lightness alone.  The dominant color is
+ * the average of the fullest bin, and the accent color the average of the chromatic bin with the
+ * greatest total saturation.
+ *
+ * HSL values are in the same form as ColorUtils.RGBToHSL: hue in [0, 360) and saturation and
+ * lightness in [0, 1].
+ */
+public final class ColorAnalyzer {
+    private static final int HUE_BINS = 24;
+    private static final int LIGHTNESS_BINS = 3;
+    private static final int BIN_COUNT = HUE_BINS + LIGHTNESS_BINS;
+    private static final float CHROMATIC_MIN_SATURATION = 0.2f;
+    private static final float CHROMATIC_MIN_LIGHTNESS = 0.1f;
+    private static final float CHROMATIC_MAX_LIGHTNESS = 0.9f;
+
+    private ColorAnalyzer() {
+    }
+
+    public static Result analyze(int[] pixels, int width, int height, int stride) {
+        long[] redSums = new long[BIN_COUNT];
+        long[] greenSums = new long[BIN_COUNT];
+        long[] blueSums = new long[BIN_COUNT];
+        int[] counts = new int[BIN_COUNT];
+        float[] saturationSums = new float[BIN_COUNT];
+        float[] hsl = new float[3];
+        int sampleCount = 0;
+
+        for (int y = 0; y < height; y += stride) {
+            int rowStart = y * width;
+            for (int x = 0; x < width; x += stride) {
+                int pixel = pixels[rowStart + x];
+                int red = (pixel >> 16) & 0xFF;
+                int green = (pixel >> 8) & 0xFF;
+                int blue = pixel & 0xFF;
+                rgbToHsl(red, green, blue, hsl);
+
+                int bin = getBin(hsl);
+                redSums[bin] += red;
+                greenSums[bin] += green;
+                blueSums[bin] += blue;
+                counts[bin]++;
+                saturationSums[bin] += hsl[1];
+                sampleCount++;
+            }
+        }
+
+        int dominantBin = 0;
+        int accentBin = -1;
+        for (int bin = 0; bin < BIN_COUNT; bin++) {
+            if (counts[bin] > counts[dominantBin]) {
+                dominantBin = bin;
+            }
+            if (bin < HUE_BINS && counts[bin] > 0 &&
+                    (accentBin < 0 || saturationSums[bin] > saturationSums[accentBin])) {
+                accentBin = bin;
+            }
+        }
+        if (accentBin < 0) {
+            // There are no chromatic pixels, so the accent is the dominant grey
+            accentBin = dominantBin;
+        }
+
+        return new Result(
+                getAverageColor(redSums, greenSums, blueSums, counts, dominantBin),
+                getAverageColor(redSums, greenSums, blueSums, counts, accentBin),
+                sampleCount);
+    }
+
+    // A hue range whose upper bound is below its lower bound wraps around the color wheel
+    public static boolean isInRange(float[] lowerHsl, float[] upperHsl, float[] queryHsl) {
+        for (int i = 0; i < 3; i++) {
+            boolean inRange;
+            if (upperHsl[i] < lowerHsl[i]) {
+                inRange = (queryHsl[i] >= lowerHsl[i] && queryHsl[i] <= 360)
+                        || (queryHsl[i] >= 0 && queryHsl[i] <= upperHsl[i]);
+            } else {
+                inRange = queryHsl[i] >= lowerHsl[i] && queryHsl[i] <= upperHsl[i];
+            }
+            if (!inRange) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The same conversion as ColorUtils.RGBToHSL, which is not available off the device
+    public static void rgbToHsl(int red, int green, int blue, float[] outHsl) {
+        float redFraction = red / 255f;
+        float greenFraction = green / 255f;
+        float blueFraction = blue / 255f;
+
+        float max = Math.max(redFraction, Math.max(greenFraction, blueFraction));
+        float min = Math.min(redFraction, Math.min(greenFraction, blueFraction));
+        float deltaMaxMin = max - min;
+
+        float hue;
+        float saturation;
+        float lightness = (max + min) / 2f;
+
+        if (max == min) {
+            hue = saturation = 0f;
+        } else {
+            if (max == redFraction) {
+                hue = ((greenFraction - blueFraction) / deltaMaxMin) % 6f;
+            } else if (max == greenFraction) {
+                hue = ((blueFraction - redFraction) / deltaMaxMin) + 2f;
+            } else {
+                hue = ((redFraction - greenFraction) / deltaMaxMin) + 4f;
+            }
+            saturation = deltaMaxMin / (1f - Math.abs(2f * lightness - 1f));
+        }
+
+        hue = (hue * 60f) % 360f;
+        if (hue < 0) {
+            hue += 360f;
+        }
+
+        outHsl[0] = Math.max(0f, Math.min(hue, 360f));
+        outHsl[1] = Math.max(0f, Math.min(saturation, 1f));
+        outHsl[2] = Math.max(0f, Math.min(lightness, 1f));
+    }
+
+    private static int getBin(float[] hsl) {
+        if (hsl[1] >= CHROMATIC_MIN_SATURATION &&
+                hsl[2] >= CHROMATIC_MIN_LIGHTNESS && hsl[2] <= CHROMATIC_MAX_LIGHTNESS) {
+            return Math.min((int) (hsl[0] * HUE_BINS / 360f), HUE_BINS - 1);
+        }
+        return HUE_BINS + Math.min((int) (hsl[2] * LIGHTNESS_BINS), LIGHTNESS_BINS - 1);
+    }
+
+    private static int getAverageColor(long[] redSums, long[] greenSums, long[] blueSums,
+                                       int[] counts, int bin) {
+        int count = Math.max(1, counts[bin]);
+        return 0xFF000000 |
+                (int) (redSums[bin] / count) << 16 |
+                (int) (greenSums[bin] / count) << 8 |
+                (int) (blueSums[bin] / count);
+    }
+
+    public static final class Result {
+        // The colors are in ARGB form, with an opaque alpha
+        public final int dominantColor;
+        public final int accentColor;
+        public final int sampleCount;
+
+        Result(int dominantColor, int accentColor, int sampleCount) {
+            this.dominantColor = dominantColor;
+            this.accentColor = accentColor;
+            this.sampleCount = sampleCount;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+/**
+ * A compiled classifier that maps an RGB color to the set of color classes, e.g. the colors of the
+ * color capture mimic, whose HSL ranges contain it.
+ *
+ * The RGB space is quantized to 5 bits per channel, and the classes of every one of the 32768
+ * cells are computed once, from the color at the center of the cell, when the classifier is
+ * built.  Classifying a pixel is then a single array read, so whole frames can be classified.
+ * Colors within half a quantization step (4 levels per channel) of a range boundary may be
+ * classified as the neighbouring cell is.
+ *
+ * The ranges use the same form and wrap-around rules as ColorAnalyzer.isInRange.  Classes are
+ * identified by their index, and a classification is a bitset with bit i set for class i.
+ */
+public final class ColorClassifier {
+    private static final int MAX_CLASSES = 16;
+    private static final int CHANNEL_BITS = 5;
+    private static final int CHANNEL_LEVELS = 1 << CHANNEL_BITS;
+    private static final int CHANNEL_SHIFT = 8 - CHANNEL_BITS;
+
+    private final String[] mClassNames;
+    private final short[] mTable = new short[CHANNEL_LEVELS * CHANNEL_LEVELS * CHANNEL_LEVELS];
+
+    public ColorClassifier(String[] classNames, float[][] lowerHsl, float[][] upperHsl) {
+        if (classNames.length > MAX_CLASSES) {
+            throw new IllegalArgumentException("At most " + MAX_CLASSES + " classes are supported");
+        }
+        mClassNames = classNames.clone();
+
+        float[] hsl = new float[3];
+        int halfStep = 1 << (CHANNEL_SHIFT - 1);
+        for (int red = 0; red < CHANNEL_LEVELS; red++) {
+            for (int green = 0; green < CHANNEL_LEVELS; green++) {
+                for (int blue = 0; blue < CHANNEL_LEVELS; blue++) {
+                    ColorAnalyzer.rgbToHsl((red << CHANNEL_SHIFT) + halfStep,
+                            (green << CHANNEL_SHIFT) + halfStep,
+                            (blue << CHANNEL_SHIFT) + halfStep, hsl);
+                    int classes = 0;
+                    for (int i = 0; i < classNames.length; i++) {
+                        if (ColorAnalyzer.isInRange(lowerHsl[i], upperHsl[i], hsl)) {
+                            classes |= 1 << i;
+                        }
+                    }
+                    mTable[(red << (2 * CHANNEL_BITS)) | (green << CHANNEL_BITS) | blue] =
+                            (short) classes;
+                }
+            }
+        }
+    }
+
+    // Returns the index of the class, or -1 if there is no such class
+    public int getClassIndex(String className) {
+        for (int i = 0; i < mClassNames.length; i++) {
+            if (mClassNames[i].equals(className)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Returns the classes of an RGB or ARGB color, the alpha is ignored
+    public int classify(int color) {
+        return mTable[((color >> (16 + CHANNEL_SHIFT)) & 0x1F) << (2 * CHANNEL_BITS) |
+                ((color >> (8 + CHANNEL_SHIFT)) & 0x1F) << CHANNEL_BITS |
+                ((color >> CHANNEL_SHIFT) & 0x1F)] & 0xFFFF;
+    }
+
+    public boolean isInClass(int color, int classIndex) {
+        return (classify(color) & (1 << classIndex)) != 0;
+    }
+
+    // Returns the fraction of the sampled pixels that are in the class, sampling every stride-th
+    // pixel of every stride-th row
+    public float getCoverage(int[] pixels, int width, int height, int stride, int classIndex) {
+        int classBit = 1 << classIndex;
+        int sampleCount = 0;
+        int inClassCount = 0;
+        for (int y = 0; y < height; y += stride) {
+            int rowStart = y * width;
+            for (int x = 0; x < width; x += stride) {
+                if ((classify(pixels[rowStart + x]) & classBit) != 0) {
+                    inClassCount++;
+                }
+                sampleCount++;
+            }
+        }
+        return sampleCount == 0 ? 0 : (float) inClassCount / sampleCount;
+    }
+
+    // Returns the coverage of the class in an NV21 camera preview frame, converting only the
+    // sampled pixels to RGB.  This allocates nothing, so it can be called on every preview frame.
+    public float getCoverageNv21(byte[] nv21, int width, int height, int stride, int classIndex) {
+        int classBit = 1 << classIndex;
+        int frameSize = width * height;
+        int sampleCount = 0;
+        int inClassCount = 0;
+        for (int y = 0; y < height; y += stride) {
+            int rowStart = y * width;
+            // Each pair of rows shares a row of interleaved V and U samples
+            int chromaRowStart = frameSize + (y >> 1) * width;
+            for (int x = 0; x < width; x += stride) {
+                int chromaIndex = chromaRowStart + (x & ~1);
+                int color = FrameTransformer.yuvToRgb(nv21[rowStart + x] & 0xFF,
+                        nv21[chromaIndex + 1] & 0xFF, nv21[chromaIndex] & 0xFF);
+                if ((classify(color) & classBit) != 0) {
+                    inClassCount++;
+                }
+                sampleCount++;
+            }
+        }
+        return sampleCount == 0 ? 0 : (float) inClassCount / sampleCount;
+    }
+}
@@ -135,11 +135,17 @@ public class CountDownTimerView extends View {
         }
     }
 
+    public long getMillisUntilFinished() {
+        return mMillisUntilFinished;
+    }
+
     public boolean hasExpired() {
         return (mMillisUntilFinished == 0);
     }
 
     private void createNewTimer(long millisUntilFinished) {
+        // The time left is known before the first tick
+        mMillisUntilFinished = millisUntilFinished;
         mTimer = new CountDownTimer(millisUntilFinished, sInterval) {
             @Override
             public void onTick(long millisUntilFinished) {
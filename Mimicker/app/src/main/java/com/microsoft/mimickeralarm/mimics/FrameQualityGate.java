@@ -0,0 +1,253 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+/**
+ * Rejects captures that are too dark, too bright or too blurry to be recognized, before any time
+ * is spent uploading them, and scores burst frames so the best of them can be kept.
+ *
+ * The luma of a grid of sampled pixels is checked for its mean and for the fraction of clipped
+ * pixels.  Sharpness is measured with the variance of the 4-neighbour Laplacian, which is low
+ * when there are no edges, as in a blurry or featureless image.  A capture is checked on the
+ * sharpest of a 4x4 grid of tiles, less the noise floor of the flattest tile, so a sharp face in
+ * front of a plain wall is not diluted by the wall and sensor noise is not taken for detail.
+ * Burst frames of the same scene are scored on the variance over the whole frame.  The grid is
+ * reused between calls, so checking and scoring do not allocate once it has grown to the frame
+ * size.
+ */
+final class FrameQualityGate {
+    static final int RESULT_OK = 0;
+    static final int RESULT_TOO_DARK = 1;
+    static final int RESULT_TOO_BRIGHT = 2;
+    static final int RESULT_BLURRY = 3;
+
+    // Captures are checked at every 2nd pixel, full size preview frames are scored at every 4th
+    private static final int CHECK_STRIDE = 2;
+    private static final int SCORE_STRIDE = 4;
+    // Mid grey, sRGB 118, four stops under and two stops over through the camera's 2.2 gamma.
+    // Faces and colors are still found in a dark, noisy capture, while highlights clip sooner.
+    private static final int MIN_MEAN_LUMA = 34;
+    private static final int MAX_MEAN_LUMA = 221;
+    // Pixels this close to black or white are clipped
+    private static final int CLIP_MARGIN = 8;
+    private static final float MAX_CLIPPED_FRACTION = 0.6f;
+    // Calibrated on the synthetic captures of the tests' CaptureScenes, a face drawn on a plain
+    // wall at 500x666, the size of a front camera capture, with up to 3 levels of sensor noise.
+    // The sharp face scores over 300, and over 70 once blurred by a Gaussian of 1 pixel.  Blurred
+    // by 2 pixels it scores under 35.
+    private static final float MIN_DETAIL_VARIANCE = 40f;
+    // The Laplacian variance of sensor noise of 3 levels standard deviation, 20 * 3 * 3.  A
+    // flattest tile above this is texture rather than noise, so noisier captures pass.
+    private static final float MAX_NOISE_VARIANCE = 180f;
+    // Badly exposed frames keep this fraction of their sharpness score
+    private static final float BAD_EXPOSURE_WEIGHT = 0.25f;
+    private static final int TILES_PER_SIDE = 4;
+    private static final int TILE_COUNT = TILES_PER_SIDE * TILES_PER_SIDE;
+
+    private final boolean mCheckSharpness;
+    // Luma of the sampled grid and its statistics, reused between calls
+    private int[] mLuma = new int[0];
+    private int mGridWidth;
+    private int mGridHeight;
+    private long mMeanLuma;
+    private int mDarkCount;
+    private int mBrightCount;
+    // Laplacian statistics of each tile of the grid, reused between calls
+    private final long[] mTileSums = new long[TILE_COUNT];
+    private final long[] mTileSquares = new long[TILE_COUNT];
+    private final int[] mTileCounts = new int[TILE_COUNT];
+
+    FrameQualityGate(boolean checkSharpness) {
+        mCheckSharpness = checkSharpness;
+    }
+
+    synchronized int check(int[] argb, int width, int height) {
+        if (!sampleArgb(argb, width, height)) {
+            return RESULT_OK;
+        }
+        int exposure = getExposureResult();
+        if (exposure != RESULT_OK) {
+            return exposure;
+        }
+        if (mCheckSharpness) {
+            computeLaplacian();
+            if (getDetailVariance() < MIN_DETAIL_VARIANCE) {
+                return RESULT_BLURRY;
+            }
+        }
+        return RESULT_OK;
+    }
+
+    // Scores an NV21 frame for sharpness, penalizing bad exposure.  Only the relative scores of
+    // frames of the same size are meaningful.
+    synchronized float score(byte[] nv21, int width, int height) {
+        if (!sampleNv21(nv21, width, height)) {
+            return 0;
+        }
+        computeLaplacian();
+        float sharpness = getLaplacianVariance();
+        return getExposureResult() == RESULT_OK ? sharpness : sharpness * BAD_EXPOSURE_WEIGHT;
+    }
+
+    private boolean sampleArgb(int[] argb, int width, int height) {
+        if (!prepareGrid(width, height, CHECK_STRIDE)) {
+            return false;
+        }
+        int index = 0;
+        for (int y = 0; y < height; y += CHECK_STRIDE) {
+            int rowStart = y * width;
+            for (int x = 0; x < width; x += CHECK_STRIDE) {
+                int pixel = argb[rowStart + x];
+                // Rec. 601 luma in 8 bit fixed point
+                addLuma(index++, (77 * ((pixel >> 16) & 0xFF) + 150 * ((pixel >> 8) & 0xFF) +
+                        29 * (pixel & 0xFF)) >> 8);
+            }
+        }
+        mMeanLuma /= index;
+        return true;
+    }
+
+    private boolean sampleNv21(byte[] nv21, int width, int height) {
+        if (!prepareGrid(width, height, SCORE_STRIDE)) {
+            return false;
+        }
+        int index = 0;
+        for (int y = 0; y < height; y += SCORE_STRIDE) {
+            int rowStart = y * width;
+            for (int x = 0; x < width; x += SCORE_STRIDE) {
+                addLuma(index++, nv21[rowStart + x] & 0xFF);
+            }
+        }
+        mMeanLuma /= index;
+        return true;
+    }
+
+    private boolean prepareGrid(int width, int height, int stride) {
+        mGridWidth = (width + stride - 1) / stride;
+        mGridHeight = (height + stride - 1) / stride;
+        int gridSize = mGridWidth * mGridHeight;
+        if (mLuma.length < gridSize) {
+            mLuma = new int[gridSize];
+        }
+        // mMeanLuma holds the sum until sampling is done
+        mMeanLuma = 0;
+        mDarkCount = 0;
+        mBrightCount = 0;
+        return gridSize > 0;
+    }
+
+    private void addLuma(int index, int luma) {
+        mLuma[index] = luma;
+        mMeanLuma += luma;
+        if (luma < CLIP_MARGIN) {
+            mDarkCount++;
+        } else if (luma > 255 - CLIP_MARGIN) {
+            mBrightCount++;
+        }
+    }
+
+    private int getExposureResult() {
+        int gridSize = mGridWidth * mGridHeight;
+        if (mMeanLuma < MIN_MEAN_LUMA || mDarkCount > MAX_CLIPPED_FRACTION * gridSize) {
+            return RESULT_TOO_DARK;
+        }
+        if (mMeanLuma > MAX_MEAN_LUMA || mBrightCount > MAX_CLIPPED_FRACTION * gridSize) {
+            return RESULT_TOO_BRIGHT;
+        }
+        return RESULT_OK;
+    }
+
+    // Sums the Laplacian and its square over each tile of the grid
+    private void computeLaplacian() {
+        for (int tile = 0; tile < TILE_COUNT; tile++) {
+            mTileSums[tile] = 0;
+            mTileSquares[tile] = 0;
+            mTileCounts[tile] = 0;
+        }
+        for (int y = 1; y < mGridHeight - 1; y++) {
+            int rowStart = y * mGridWidth;
+            int tileRowStart = y * TILES_PER_SIDE / mGridHeight * TILES_PER_SIDE;
+            for (int x = 1; x < mGridWidth - 1; x++) {
+                int center = rowStart + x;
+                int laplacian = mLuma[center - 1] + mLuma[center + 1] + mLuma[center - mGridWidth] +
+                        mLuma[center + mGridWidth] - 4 * mLuma[center];
+                int tile = tileRowStart + x * TILES_PER_SIDE / mGridWidth;
+                mTileSums[tile] += laplacian;
+                mTileSquares[tile] += laplacian * laplacian;
+                mTileCounts[tile]++;
+            }
+        }
+    }
+
+    // The variance of the Laplacian over the whole grid
+    private float getLaplacianVariance() {
+        if (mGridWidth < 3 || mGridHeight < 3) {
+            return Float.MAX_VALUE;
+        }
+        long sum = 0;
+        long sumOfSquares = 0;
+        long count = 0;
+        for (int tile = 0; tile < TILE_COUNT; tile++) {
+            sum += mTileSums[tile];
+            sumOfSquares += mTileSquares[tile];
+            count += mTileCounts[tile];
+        }
+        return getVariance(sum, sumOfSquares, count);
+    }
+
+    // The Laplacian variance of the sharpest tile above the noise floor, which is taken from the
+    // flattest tile
+    private float getDetailVariance() {
+        if (mGridWidth < 3 || mGridHeight < 3) {
+            return Float.MAX_VALUE;
+        }
+        float sharpest = 0;
+        float flattest = Float.MAX_VALUE;
+        for (int tile = 0; tile < TILE_COUNT; tile++) {
+            if (mTileCounts[tile] > 0) {
+                float variance = getVariance(mTileSums[tile], mTileSquares[tile], mTileCounts[tile]);
+                sharpest = Math.max(sharpest, variance);
+                flattest = Math.min(flattest, variance);
+            }
+        }
+        return sharpest - Math.min(flattest, MAX_NOISE_VARIANCE);
+    }
+
+    private static float getVariance(long sum, long sumOfSquares, long count) {
+        float mean = (float) sum / count;
+        return (float) sumOfSquares / count - mean * mean;
+    }
+}
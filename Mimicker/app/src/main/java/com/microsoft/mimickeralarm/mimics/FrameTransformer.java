@@ -0,0 +1,271 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts an NV21 camera preview frame straight to the ARGB pixels of the captured image, in a
+ * single pass that also rotates, mirrors and downscales it to at most a maximum width.  This
+ * replaces compressing the frame to JPEG, decoding it and copying it through a rotation and a
+ * scaling Bitmap, so a capture needs one output buffer and no encoding until it is uploaded.
+ *
+ * The mirror is applied before the clockwise rotation, as the camera preview does for the front
+ * camera.  Downscaling samples the nearest source pixel, averaging the 2x2 luma block that shares
+ * its chroma sample when the frame is at least halved.
+ *
+ * Rows of the output can be transformed independently with transformRows.  transformParallel
+ * splits the output into one horizontal strip per core, transforming the first on the calling
+ * thread and the others on a shared pool of strip threads.  The pool is created on first use and
+ * is shared by every mimic, so it is never shut down by them.  Instead its threads stop once they
+ * have been idle for STRIP_THREAD_KEEP_ALIVE_SECONDS, and are started again for the next frame.
+ * A strip that the pool no longer accepts is transformed on the calling thread.
+ */
+public final class FrameTransformer {
+    private static final int CORE_COUNT = Runtime.getRuntime().availableProcessors();
+    // Strips smaller than this are not worth handing to another thread
+    private static final int MIN_STRIP_ROWS = 32;
+    // Long enough to cover the retries of one mimic, short enough not to keep threads for the day
+    private static final long STRIP_THREAD_KEEP_ALIVE_SECONDS = 30;
+    private static ExecutorService sStripExecutor;
+
+    private final byte[] mFrame;
+    private final int mFrameWidth;
+    private final int mFrameHeight;
+    private final boolean mAverageLuma;
+    private final int mOutputWidth;
+    private final int mOutputHeight;
+    // The source pixel of rotated pixel (x, y) is (mXx * x + mXy * y + mX0, mYx * x + mYy * y + mY0)
+    private final int mXx, mXy, mX0;
+    private final int mYx, mYy, mY0;
+    // The rotated column and row sampled by each output column and row
+    private final int[] mColumns;
+    private final int[] mRows;
+
+    public FrameTransformer(byte[] nv21, int frameWidth, int frameHeight, int rotation,
+                            boolean mirror, int maxWidth) {
+        if (rotation % 90 != 0) {
+            throw new IllegalArgumentException("Unsupported rotation " + rotation);
+        }
+        rotation = ((rotation % 360) + 360) % 360;
+        mFrame = nv21;
+        mFrameWidth = frameWidth;
+        mFrameHeight = frameHeight;
+
+        boolean sideways = rotation == 90 || rotation == 270;
+        int rotatedWidth = sideways ? frameHeight : frameWidth;
+        int rotatedHeight = sideways ? frameWidth : frameHeight;
+        mOutputWidth = Math.min(rotatedWidth, maxWidth);
+        mOutputHeight = (int) ((long) rotatedHeight * mOutputWidth / rotatedWidth);
+        mAverageLuma = rotatedWidth >= 2 * mOutputWidth;
+
+        // Invert the rotation, then the mirror
+        int xx, xy, x0, yx, yy, y0;
+        switch (rotation) {
+            case 90:
+                xx = 0; xy = 1; x0 = 0;
+                yx = -1; yy = 0; y0 = frameHeight - 1;
+                break;
+            case 180:
+                xx = -1; xy = 0; x0 = frameWidth - 1;
+                yx = 0; yy = -1; y0 = frameHeight - 1;
+                break;
+            case 270:
+                xx = 0; xy = -1; x0 = frameWidth - 1;
+                yx = 1; yy = 0; y0 = 0;
+                break;
+            default:
+                xx = 1; xy = 0; x0 = 0;
+                yx = 0; yy = 1; y0 = 0;
+                break;
+        }
+        if (mirror) {
+            xx = -xx;
+            xy = -xy;
+            x0 = frameWidth - 1 - x0;
+        }
+        mXx = xx; mXy = xy; mX0 = x0;
+        mYx = yx; mYy = yy; mY0 = y0;
+
+        mColumns = new int[mOutputWidth];
+        for (int x = 0; x < mOutputWidth; x++) {
+            mColumns[x] = (int) ((long) x * rotatedWidth / mOutputWidth);
+        }
+        mRows = new int[mOutputHeight];
+        for (int y = 0; y < mOutputHeight; y++) {
+            mRows[y] = (int) ((long) y * rotatedHeight / mOutputHeight);
+        }
+    }
+
+    public int getOutputWidth() {
+        return mOutputWidth;
+    }
+
+    public int getOutputHeight() {
+        return mOutputHeight;
+    }
+
+    public void transform(int[] argb) {
+        transformRows(argb, 0, mOutputHeight);
+    }
+
+    // Transforms the output in parallel strips, returning once every strip has been written
+    public void transformParallel(int[] argb) {
+        transformParallel(argb, Math.min(CORE_COUNT, mOutputHeight / MIN_STRIP_ROWS));
+    }
+
+    // Transforms the output in the given number of strips, whatever the number of cores
+    void transformParallel(final int[] argb, int stripCount) {
+        if (stripCount <= 1) {
+            transform(argb);
+            return;
+        }
+
+        int rowsPerStrip = (mOutputHeight + stripCount - 1) / stripCount;
+        final CountDownLatch stripsDone = new CountDownLatch(stripCount - 1);
+        ExecutorService executor = getStripExecutor();
+        for (int strip = 1; strip < stripCount; strip++) {
+            final int firstRow = strip * rowsPerStrip;
+            final int endRow = Math.min(firstRow + rowsPerStrip, mOutputHeight);
+            Runnable stripTask = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        transformRows(argb, firstRow, endRow);
+                    } finally {
+                        stripsDone.countDown();
+                    }
+                }
+            };
+            try {
+                executor.execute(stripTask);
+            } catch (RejectedExecutionException ex) {
+                // The pool has been shut down
+                stripTask.run();
+            }
+        }
+        transformRows(argb, 0, rowsPerStrip);
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                stripsDone.await();
+                break;
+            } catch (InterruptedException ex) {
+                // The strips still write to argb, so they have to be waited for
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Stops the strip threads once the strips already handed to them are done, e.g. between tests.
+    // The pool is created again if another frame is transformed in parallel.
+    public static synchronized void shutdown() {
+        if (sStripExecutor != null) {
+            sStripExecutor.shutdown();
+            sStripExecutor = null;
+        }
+    }
+
+    // The calling thread transforms a strip too, so the pool has one thread less than the cores
+    private static synchronized ExecutorService getStripExecutor() {
+        if (sStripExecutor == null) {
+            int threadCount = Math.max(CORE_COUNT - 1, 1);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
+                    STRIP_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "FrameTransformer");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            sStripExecutor = executor;
+        }
+        return sStripExecutor;
+    }
+
+    // Writes output rows [firstRow, endRow) to argb, which holds the whole output image
+    public void transformRows(int[] argb, int firstRow, int endRow) {
+        int frameSize = mFrameWidth * mFrameHeight;
+        for (int y = firstRow; y < endRow; y++) {
+            int rotatedY = mRows[y];
+            int outputIndex = y * mOutputWidth;
+            for (int x = 0; x < mOutputWidth; x++) {
+                int rotatedX = mColumns[x];
+                int sourceX = mXx * rotatedX + mXy * rotatedY + mX0;
+                int sourceY = mYx * rotatedX + mYy * rotatedY + mY0;
+                int luma;
+                if (mAverageLuma) {
+                    int index = (sourceY & ~1) * mFrameWidth + (sourceX & ~1);
+                    luma = ((mFrame[index] & 0xFF) + (mFrame[index + 1] & 0xFF) +
+                            (mFrame[index + mFrameWidth] & 0xFF) +
+                            (mFrame[index + mFrameWidth + 1] & 0xFF)) >> 2;
+                } else {
+                    luma = mFrame[sourceY * mFrameWidth + sourceX] & 0xFF;
+                }
+                int chromaIndex = frameSize + (sourceY >> 1) * mFrameWidth + (sourceX & ~1);
+                argb[outputIndex + x] = 0xFF000000 | yuvToRgb(luma,
+                        mFrame[chromaIndex + 1] & 0xFF, mFrame[chromaIndex] & 0xFF);
+            }
+        }
+    }
+
+    // Converts full range BT.601 YUV, as used by the camera, to RGB in 10 bit fixed point
+    static int yuvToRgb(int luma, int u, int v) {
+        u -= 128;
+        v -= 128;
+        int red = clamp(luma + ((1436 * v) >> 10));
+        int green = clamp(luma - ((352 * u + 731 * v) >> 10));
+        int blue = clamp(luma + ((1815 * u) >> 10));
+        return (red << 16) | (green << 8) | blue;
+    }
+
+    private static int clamp(int channel) {
+        return channel < 0 ? 0 : (channel > 255 ? 255 : channel);
+    }
+}
@@ -49,11 +49,13 @@ public interface IMimicMediator {
     void start();
     void stop();
     boolean isMimicRunning();
+    long getMillisUntilTimeout();
 
     void onMimicSuccess(String successMessage);
     void onMimicFailureWithRetry(String failureMessage);
     void onMimicFailure(String failureMessage);
     void onMimicInternalError();
+    boolean onMimicCaptureRequested();
 
     void registerStateBanner(MimicStateBanner mimicStateBanner);
     void registerCountDownTimer(CountDownTimerView countDownTimerView, int timeout);
@@ -35,26 +35,27 @@
 
 package com.microsoft.mimickeralarm.mimics;
 
+import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.hardware.Camera;
 import android.os.Bundle;
-import android.support.v4.graphics.ColorUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
 import com.microsoft.mimickeralarm.R;
+import com.microsoft.mimickeralarm.appcore.AlarmApplication;
+import com.microsoft.mimickeralarm.utilities.LatencyTracer;
 import com.microsoft.mimickeralarm.utilities.Loggable;
 import com.microsoft.mimickeralarm.utilities.Logger;
 import com.microsoft.mimickeralarm.utilities.KeyUtilities;
 import com.microsoft.projectoxford.vision.VisionServiceRestClient;
 import com.microsoft.projectoxford.vision.contract.AnalyzeResult;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.util.Random;
 
 /**
@@ -70,12 +71,31 @@ import java.util.Random;
  * and accent colors. Accent colors are defined as HEX codes of RGB values which we turn to HSL and
  * compare to see if it's in range of the color we specified.
  *
+ * Before calling the Vision API the captured image is analyzed on the device by the
+ * ColorAnalyzer.  If its accent or dominant color is in range and enough of the image is the
+ * question color, the game succeeds without a network round trip.  Like the Vision API check
+ * below, the dominant color covers a capture where the question color fills the frame but is
+ * not saturated enough to be the accent.
+ *
+ * The color ranges are compiled once per process into a ColorClassifier, so that checking a
+ * pixel or an accent color against the question color is a single table lookup.
+ *
+ * The capture is also taken without a button press when the question color fills enough of
+ * several consecutive live preview frames.  That capture is then verified like any other.
+ *
  */
 public class MimicColorCaptureFragment extends MimicWithCameraFragment {
+    // Sample every 4th pixel of every 4th row for the on-device analysis
+    private static final int LOCAL_SAMPLE_STRIDE = 4;
+    // The fraction of the image that must be the question color to trust an on-device match
+    private static final float LOCAL_MIN_COVERAGE = 0.1f;
+    // Sample every 8th pixel of every 8th row of live preview frames
+    private static final int LIVE_SAMPLE_STRIDE = 8;
+    // The fraction of a live preview frame that must be the question color to match
+    private static final float LIVE_MIN_COVERAGE = 0.25f;
+    private static ColorClassifier sColorClassifier;
     private VisionServiceRestClient mVisionServiceRestClient;
     private String mQuestionColorName;
-    private float[] mQuestionColorRangeLower;
-    private float[] mQuestionColorRangeUpper;
 
     @SuppressWarnings("deprecation")
     public MimicColorCaptureFragment() {
@@ -96,13 +116,6 @@ public class MimicColorCaptureFragment extends MimicWithCameraFragment {
         mQuestionColorName = questions[new Random().nextInt(questions.length)];
         instruction.setText(String.format(resources.getString(R.string.mimic_vision_prompt), mQuestionColorName));
 
-        TypedArray colorCodeLower = resources.obtainTypedArray(resources.getIdentifier(mQuestionColorName + "_range_lower", "array", getActivity().getPackageName()));
-        mQuestionColorRangeLower = new float[]{colorCodeLower.getFloat(0, 0f), colorCodeLower.getFloat(1, 0f), colorCodeLower.getFloat(2, 0f)};
-        colorCodeLower.recycle();
-        TypedArray colorCodeUpper = resources.obtainTypedArray(resources.getIdentifier(mQuestionColorName + "_range_upper", "array", getActivity().getPackageName()));
-        mQuestionColorRangeUpper = new float[]{colorCodeUpper.getFloat(0, 0f), colorCodeUpper.getFloat(1, 0f), colorCodeUpper.getFloat(2, 0f)};
-        colorCodeUpper.recycle();
-
         Logger.init(getActivity());
         Loggable playGameEvent = new Loggable.UserAction(Loggable.Key.ACTION_GAME_COLOR);
         Logger.track(playGameEvent);
@@ -111,24 +124,49 @@ public class MimicColorCaptureFragment extends MimicWithCameraFragment {
     }
 
     @Override
-    public GameResult verify(Bitmap bitmap) {
+    public GameResult verify(Bitmap bitmap, int[] pixels) {
         GameResult gameResult = new GameResult();
         gameResult.question = ((TextView) getView().findViewById(R.id.instruction_text)).getText().toString();
 
+        if (verifyOnDevice(pixels, bitmap.getWidth(), bitmap.getHeight())) {
+            Loggable.UserAction userAction = new Loggable.UserAction(Loggable.Key.ACTION_GAME_COLOR_SUCCESS);
+            userAction.putProp(Loggable.Key.PROP_QUESTION, mQuestionColorName);
+            userAction.putProp(Loggable.Key.PROP_ON_DEVICE, true);
+            userAction.putProp(Loggable.Key.PROP_LIVE, mLiveMatched);
+            Logger.track(userAction);
+            gameResult.success = true;
+            return gameResult;
+        }
+
+        UploadBuffer output = UploadBuffer.obtain();
         try {
-            ByteArrayOutputStream output = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 100, output);
-            ByteArrayInputStream inputStream = new ByteArrayInputStream(output.toByteArray());
-            String[] features = {"Color"};
+            int quality = UploadEncoder.COLOR.encode(bitmap, output);
+            final String[] features = {"Color"};
+            int uploadBytes = output.size();
             Loggable.AppAction appAction = new Loggable.AppAction(Loggable.Key.APP_API_VISION);
+            appAction.putProp(Loggable.Key.PROP_UPLOAD_BYTES, output.size());
+            appAction.putProp(Loggable.Key.PROP_BYTES_COPIED, output.getBytesCopied());
+            appAction.putProp(Loggable.Key.PROP_QUALITY, quality);
             Logger.trackDurationStart(appAction);
-            AnalyzeResult result = mVisionServiceRestClient.analyzeImage(inputStream, features);
+            long uploadSpan = LatencyTracer.begin();
+            UploadBuffer body = output;
+            output = null;
+            AnalyzeResult result = OxfordRequest.execute(OxfordCircuitBreaker.VISION, body, getVerifyTimeoutMillis(),
+                    new OxfordRequest.Call<AnalyzeResult>() {
+                        @Override
+                        public AnalyzeResult execute(InputStream stream) throws Exception {
+                            return mVisionServiceRestClient.analyzeImage(stream, features);
+                        }
+                    });
+            long roundTripMillis = LatencyTracer.end(LatencyTracer.STAGE_MIMIC_UPLOAD, uploadSpan);
+            UploadEncoder.COLOR.onUploaded(uploadBytes, roundTripMillis);
             Logger.track(appAction);
 
-            float[] accentHsl = new float[3];
-            int[] accentRgb = hexStringToRgb(result.color.accentColor);
-            ColorUtils.RGBToHSL(accentRgb[0], accentRgb[1], accentRgb[2], accentHsl);
-            boolean colorInRange = isColorInRange(mQuestionColorRangeLower, mQuestionColorRangeUpper, accentHsl);
+            ColorClassifier classifier = getColorClassifier();
+            int accentColor = (int) Long.parseLong(result.color.accentColor, 16);
+            boolean colorInRange = classifier.isInClass(accentColor,
+                    classifier.getClassIndex(mQuestionColorName));
+            Logger.local("Accent color " + result.color.accentColor + " in range: " + colorInRange);
             Loggable.UserAction userAction = new Loggable.UserAction(Loggable.Key.ACTION_GAME_COLOR_SUCCESS);
             userAction.putProp(Loggable.Key.PROP_QUESTION, mQuestionColorName);
             userAction.putVision(result);
@@ -154,6 +192,11 @@ public class MimicColorCaptureFragment extends MimicWithCameraFragment {
             Logger.track(userAction);
         } catch (Exception ex) {
             Logger.trackException(ex);
+        } finally {
+            // Once the request has the buffer, it recycles it
+            if (output != null) {
+                output.recycle();
+            }
         }
 
         return gameResult;
@@ -169,31 +212,63 @@ public class MimicColorCaptureFragment extends MimicWithCameraFragment {
         super.gameFailure(gameResult, allowRetry);
     }
 
-    private int[] hexStringToRgb(String hex) {
-        int color = (int) Long.parseLong(hex, 16);
-        int r = (color >> 16) & 0xFF;
-        int g = (color >> 8) & 0xFF;
-        int b = (color) & 0xFF;
-        return new int[]{r, g, b};
+    // Colors are found just as well in a blurry capture
+    @Override
+    protected boolean isSharpCaptureRequired() {
+        return false;
     }
 
-    private boolean isColorInRange(float[] lowerHsl, float[] upperHsl, float[] queryHsl) {
-        boolean result = true;
-        for (int i = 0; i < 3; i++) {
-            //looped around the color wheel
-            if (upperHsl[i] < lowerHsl[i]) {
-                result &= (queryHsl[i] >= lowerHsl[i] && queryHsl[i] <= 360)
-                        || (queryHsl[i] >= 0 && queryHsl[i] <= upperHsl[i]);
-            } else {
-                result &= (queryHsl[i] >= lowerHsl[i] && queryHsl[i] <= upperHsl[i]);
+    @Override
+    protected boolean isLiveDetectionSupported() {
+        return true;
+    }
+
+    @Override
+    protected boolean isLiveFrameMatch(byte[] nv21, int width, int height) {
+        ColorClassifier classifier = getColorClassifier();
+        return classifier.getCoverageNv21(nv21, width, height, LIVE_SAMPLE_STRIDE,
+                classifier.getClassIndex(mQuestionColorName)) >= LIVE_MIN_COVERAGE;
+    }
+
+    // Returns true if the on-device analysis confidently finds the question color.  Otherwise
+    // the image is sent to the Vision API.
+    private boolean verifyOnDevice(int[] pixels, int width, int height) {
+        long analysisSpan = LatencyTracer.begin();
+        ColorClassifier classifier = getColorClassifier();
+        int questionClass = classifier.getClassIndex(mQuestionColorName);
+        ColorAnalyzer.Result result = ColorAnalyzer.analyze(pixels, width, height, LOCAL_SAMPLE_STRIDE);
+        boolean match = (classifier.isInClass(result.accentColor, questionClass) ||
+                classifier.isInClass(result.dominantColor, questionClass)) &&
+                classifier.getCoverage(pixels, width, height, LOCAL_SAMPLE_STRIDE,
+                        questionClass) >= LOCAL_MIN_COVERAGE;
+        LatencyTracer.end(LatencyTracer.STAGE_MIMIC_LOCAL_ANALYSIS, analysisSpan);
+        return match;
+    }
+
+    // Compiles the color ranges of all the questions in vision_questions.xml the first time it is
+    // called.  This is called from the verification and frame threads, so it stays off the UI
+    // thread, and uses the application context as the fragment may have been detached.
+    private static synchronized ColorClassifier getColorClassifier() {
+        if (sColorClassifier == null) {
+            Context context = AlarmApplication.getAppContext();
+            Resources resources = context.getResources();
+            String packageName = context.getPackageName();
+            String[] colorNames = resources.getStringArray(R.array.vision_color_questions);
+            float[][] lowerHsl = new float[colorNames.length][];
+            float[][] upperHsl = new float[colorNames.length][];
+            for (int i = 0; i < colorNames.length; i++) {
+                lowerHsl[i] = getColorRange(resources, colorNames[i] + "_range_lower", packageName);
+                upperHsl[i] = getColorRange(resources, colorNames[i] + "_range_upper", packageName);
             }
+            sColorClassifier = new ColorClassifier(colorNames, lowerHsl, upperHsl);
         }
+        return sColorClassifier;
+    }
 
-        Logger.local("HSL 1: " + lowerHsl[0] + " " + lowerHsl[1] + " " + lowerHsl[2]);
-        Logger.local("HSL 2: " + upperHsl[0] + " " + upperHsl[1] + " " + upperHsl[2]);
-        Logger.local("question HSL 2: " + queryHsl[0] + " " + queryHsl[1] + " " + queryHsl[2]);
-        Logger.local("result: " + result);
-
-        return result;
+    private static float[] getColorRange(Resources resources, String name, String packageName) {
+        TypedArray range = resources.obtainTypedArray(resources.getIdentifier(name, "array", packageName));
+        float[] hsl = new float[]{range.getFloat(0, 0f), range.getFloat(1, 0f), range.getFloat(2, 0f)};
+        range.recycle();
+        return hsl;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,146 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.microsoft.mimickeralarm.utilities.LatencyTracer;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The executors of the mimic pipeline.  Camera I/O, CPU bound frame work, verifications and
+ * network calls each have their own bounded executor with its own thread priority, so that a slow Project Oxford
+ * request can never hold up opening the camera or processing a capture, as it did when every
+ * task shared the AsyncTask serial executor.
+ *
+ * Tasks are still AsyncTasks, run with executeOnExecutor and cancelled with cancel.  AsyncTask
+ * lowers its thread to background priority before doInBackground, so doInBackground must start
+ * with applyThreadPriority.
+ *
+ * The time each task waits in the queue is recorded as a LatencyTracer stage, and queueing is
+ * logged with the current and maximum queue depth.  A task submitted while the queue is full is
+ * run on the submitting thread rather than rejected, as a dropped AsyncTask would leave its mimic
+ * waiting on it forever.
+ */
+final class MimicExecutor extends ThreadPoolExecutor {
+    private static final String TAG = "MimicExecutor";
+    private static final int QUEUE_CAPACITY = 16;
+
+    static final MimicExecutor CAMERA = new MimicExecutor("Camera", 1,
+            Process.THREAD_PRIORITY_FOREGROUND, LatencyTracer.STAGE_CAMERA_EXECUTOR_WAIT);
+    static final MimicExecutor CPU = new MimicExecutor("CPU", 2,
+            Process.THREAD_PRIORITY_DEFAULT, LatencyTracer.STAGE_CPU_EXECUTOR_WAIT);
+    // A call, and abandoned calls still running.  Only calls run here, so that a call is never
+    // queued behind the verification waiting on it.
+    static final MimicExecutor NETWORK = new MimicExecutor("Network", 3,
+            Process.THREAD_PRIORITY_BACKGROUND, LatencyTracer.STAGE_NETWORK_EXECUTOR_WAIT);
+    // A verification, which encodes the capture and then waits on its call, and one still
+    // returning after its mimic stopped
+    static final MimicExecutor VERIFY = new MimicExecutor("Verify", 2,
+            Process.THREAD_PRIORITY_DEFAULT, LatencyTracer.STAGE_VERIFY_EXECUTOR_WAIT);
+
+    private final String mName;
+    private final String mWaitStage;
+    private int mMaxQueueDepth;
+
+    private MimicExecutor(final String name, int threadCount, final int priority, String waitStage) {
+        super(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new PriorityThread(runnable, "Mimic " + name, priority);
+                    }
+                }, new CallerRunsPolicy() {
+                    @Override
+                    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                        Log.w(TAG, name + " executor is full, running the task on " +
+                                Thread.currentThread().getName());
+                        super.rejectedExecution(runnable, executor);
+                    }
+                });
+        mName = name;
+        mWaitStage = waitStage;
+    }
+
+    // Sets the priority of the calling thread back to that of its executor
+    static void applyThreadPriority() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof PriorityThread) {
+            Process.setThreadPriority(((PriorityThread) thread).mPriority);
+        }
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        final long waitSpan = LatencyTracer.begin();
+        int queueDepth = getQueue().size();
+        if (queueDepth > 0) {
+            int maxQueueDepth;
+            synchronized (this) {
+                mMaxQueueDepth = Math.max(mMaxQueueDepth, queueDepth);
+                maxQueueDepth = mMaxQueueDepth;
+            }
+            Log.d(TAG, mName + " executor queue depth " + queueDepth + ", max " + maxQueueDepth);
+        }
+        super.execute(new Runnable() {
+            @Override
+            public void run() {
+                LatencyTracer.end(mWaitStage, waitSpan);
+                command.run();
+            }
+        });
+    }
+
+    private static class PriorityThread extends Thread {
+        private final int mPriority;
+
+        PriorityThread(Runnable runnable, String name, int priority) {
+            super(runnable, name);
+            mPriority = priority;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(mPriority);
+            super.run();
+        }
+    }
+}
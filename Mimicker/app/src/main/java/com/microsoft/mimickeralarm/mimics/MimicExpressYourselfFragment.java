@@ -46,14 +46,14 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import com.microsoft.mimickeralarm.R;
+import com.microsoft.mimickeralarm.utilities.LatencyTracer;
 import com.microsoft.mimickeralarm.utilities.Loggable;
 import com.microsoft.mimickeralarm.utilities.Logger;
 import com.microsoft.mimickeralarm.utilities.KeyUtilities;
 import com.microsoft.projectoxford.emotion.EmotionServiceRestClient;
 import com.microsoft.projectoxford.emotion.contract.RecognizeResult;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.util.List;
 import java.util.Random;
@@ -107,17 +107,31 @@ public class MimicExpressYourselfFragment extends MimicWithCameraFragment {
     }
 
     @Override
-    public GameResult verify(Bitmap bitmap) {
+    public GameResult verify(Bitmap bitmap, int[] pixels) {
         GameResult gameResult = new GameResult();
         gameResult.question = ((TextView) getView().findViewById(R.id.instruction_text)).getText().toString();
 
+        UploadBuffer output = UploadBuffer.obtain();
         try{
-            ByteArrayOutputStream output = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 100, output);
-            ByteArrayInputStream inputStream = new ByteArrayInputStream(output.toByteArray());
+            int quality = UploadEncoder.EMOTION.encode(bitmap, output);
+            int uploadBytes = output.size();
             Loggable.AppAction appAction = new Loggable.AppAction(Loggable.Key.APP_API_EMOTION);
+            appAction.putProp(Loggable.Key.PROP_UPLOAD_BYTES, output.size());
+            appAction.putProp(Loggable.Key.PROP_BYTES_COPIED, output.getBytesCopied());
+            appAction.putProp(Loggable.Key.PROP_QUALITY, quality);
             Logger.trackDurationStart(appAction);
-            List<RecognizeResult> result = mEmotionServiceRestClient.recognizeImage(inputStream);
+            long uploadSpan = LatencyTracer.begin();
+            UploadBuffer body = output;
+            output = null;
+            List<RecognizeResult> result = OxfordRequest.execute(OxfordCircuitBreaker.EMOTION, body, getVerifyTimeoutMillis(),
+                    new OxfordRequest.Call<List<RecognizeResult>>() {
+                        @Override
+                        public List<RecognizeResult> execute(InputStream stream) throws Exception {
+                            return mEmotionServiceRestClient.recognizeImage(stream);
+                        }
+                    });
+            long roundTripMillis = LatencyTracer.end(LatencyTracer.STAGE_MIMIC_UPLOAD, uploadSpan);
+            UploadEncoder.EMOTION.onUploaded(uploadBytes, roundTripMillis);
             Logger.track(appAction);
 
             String dominantEmotion = null;
@@ -165,6 +179,12 @@ public class MimicExpressYourselfFragment extends MimicWithCameraFragment {
             Logger.trackException(ex);
             gameResult.success = false;
         }
+        finally {
+            // Once the request has the buffer, it recycles it
+            if (output != null) {
+                output.recycle();
+            }
+        }
 
         return gameResult;
     }
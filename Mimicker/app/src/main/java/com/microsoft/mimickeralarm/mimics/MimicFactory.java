@@ -46,40 +46,49 @@ import com.microsoft.mimickeralarm.model.Alarm;
 import com.microsoft.mimickeralarm.model.AlarmList;
 import com.microsoft.mimickeralarm.utilities.Logger;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
 import java.util.UUID;
 
 /**
- * simple class that spawns a random mimic game while respect that mimics enabled in settings
+ * simple class that spawns a mimic game while respect that mimics enabled in settings.  The
+ * MimicSelector picks among the enabled mimics, favoring those recently finished the quickest.
  *
- * if no internet access is detected, spawns the NoNetwork mimic.
+ * if no internet access is detected, spawns the NoNetwork mimic.  The same happens when the circuit
+ * breakers of all the enabled mimics are open, as their Project Oxford APIs have recently been
+ * failing or slow; otherwise only mimics whose API is available are picked.
+ *
+ * warmUp can be called shortly before an alarm fires to pre-select its mimic.  The mimic is picked
+ * on a background thread from those whose circuit breakers are closed, and the host of its API is
+ * resolved so that the lookup is cached by the time the mimic makes its first request.  Resolving
+ * the host says nothing of whether the API is up, that is left to the circuit breakers.  The
+ * pre-selection is dropped with clearPreselectedMimic when the alarm is edited or cancelled.
  */
 public final class MimicFactory {
 
     public static final String MIMIC_FRAGMENT_TAG = "mimic_fragment";
     private static final String TAG = "MimicFactory";
+    private static final String OXFORD_HOST = "api.projectoxford.ai";
+    private static final String SPEECH_HOST = "speech.platform.bing.com";
+    private static final Map<UUID, Class> sPreselectedMimics = new HashMap<>();
 
     public static Fragment getMimicFragment(Activity caller, UUID alarmId) {
         Alarm alarm = AlarmList.get(caller).getAlarm(alarmId);
-        List<Class> mimics = new ArrayList<>();
-
-        if (alarm.isTongueTwisterEnabled()) {
-            mimics.add(MimicTongueTwisterFragment.class);
-        }
-        if (alarm.isColorCaptureEnabled()) {
-            mimics.add(MimicColorCaptureFragment.class);
-        }
-        if (alarm.isExpressYourselfEnabled()) {
-            mimics.add(MimicExpressYourselfFragment.class);
-        }
+        List<Class> mimics = getEnabledMimics(alarm);
 
         Class mimic = null;
         if (mimics.size() > 0) {
-            if (isNetworkAvailable(caller)) {
-                int rand = new Random().nextInt(mimics.size());
-                mimic = mimics.get(rand);
+            mimics = getAvailableMimics(mimics);
+            if (mimics.size() > 0 && isNetworkAvailable(caller)) {
+                mimic = takePreselectedMimic(alarmId);
+                // The settings may have changed since the mimic was pre-selected
+                if (mimic == null || !mimics.contains(mimic)) {
+                    mimic = MimicSelector.select(mimics);
+                }
             }
             else {
                 mimic = MimicNoNetworkFragment.class;
@@ -98,9 +107,107 @@ public final class MimicFactory {
         return fragment;
     }
 
-    private static boolean isNetworkAvailable(Activity caller) {
+    // onWarmUpCompleted is run once the warm-up has finished, on the warm-up thread or straight
+    // away if there is nothing to warm up
+    public static void warmUp(Context context, final Alarm alarm, final Runnable onWarmUpCompleted) {
+        final List<Class> mimics = getAvailableMimics(getEnabledMimics(alarm));
+        if (mimics.isEmpty() || !isNetworkAvailable(context)) {
+            onWarmUpCompleted.run();
+            return;
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Class mimic = MimicSelector.select(mimics);
+                    synchronized (sPreselectedMimics) {
+                        sPreselectedMimics.put(alarm.getId(), mimic);
+                    }
+                    resolveHost(getMimicHost(mimic));
+                } finally {
+                    onWarmUpCompleted.run();
+                }
+            }
+        }, TAG).start();
+    }
+
+    public static void clearPreselectedMimic(UUID alarmId) {
+        synchronized (sPreselectedMimics) {
+            sPreselectedMimics.remove(alarmId);
+        }
+    }
+
+    public static boolean hasPreselectedMimic(UUID alarmId) {
+        synchronized (sPreselectedMimics) {
+            return sPreselectedMimics.containsKey(alarmId);
+        }
+    }
+
+    private static Class takePreselectedMimic(UUID alarmId) {
+        synchronized (sPreselectedMimics) {
+            return sPreselectedMimics.remove(alarmId);
+        }
+    }
+
+    private static List<Class> getEnabledMimics(Alarm alarm) {
+        List<Class> mimics = new ArrayList<>();
+
+        if (alarm.isTongueTwisterEnabled()) {
+            mimics.add(MimicTongueTwisterFragment.class);
+        }
+        if (alarm.isColorCaptureEnabled()) {
+            mimics.add(MimicColorCaptureFragment.class);
+        }
+        if (alarm.isExpressYourselfEnabled()) {
+            mimics.add(MimicExpressYourselfFragment.class);
+        }
+        return mimics;
+    }
+
+    private static List<Class> getAvailableMimics(List<Class> mimics) {
+        List<Class> availableMimics = new ArrayList<>();
+        for (Class mimic : mimics) {
+            OxfordCircuitBreaker circuitBreaker = getMimicCircuitBreaker(mimic);
+            if (circuitBreaker.isAvailable()) {
+                availableMimics.add(mimic);
+            } else {
+                Log.d(TAG, "Skipping " + mimic.getSimpleName() + " as the "
+                        + circuitBreaker.getName() + " circuit is open");
+            }
+        }
+        return availableMimics;
+    }
+
+    private static OxfordCircuitBreaker getMimicCircuitBreaker(Class mimic) {
+        if (mimic == MimicTongueTwisterFragment.class) {
+            return OxfordCircuitBreaker.SPEECH;
+        } else if (mimic == MimicColorCaptureFragment.class) {
+            return OxfordCircuitBreaker.VISION;
+        } else {
+            return OxfordCircuitBreaker.EMOTION;
+        }
+    }
+
+    private static String getMimicHost(Class mimic) {
+        if (mimic == MimicTongueTwisterFragment.class) {
+            return SPEECH_HOST;
+        } else {
+            return OXFORD_HOST;
+        }
+    }
+
+    private static void resolveHost(String host) {
+        try {
+            InetAddress.getByName(host);
+        } catch (UnknownHostException e) {
+            Logger.local("Couldn't resolve " + host);
+        }
+    }
+
+    private static boolean isNetworkAvailable(Context context) {
         ConnectivityManager connectivityManager
-                = (ConnectivityManager) caller.getSystemService(Context.CONNECTIVITY_SERVICE);
+                = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
         NetworkInfo activeNetworkInfo = connectivityManager.getActiveNetworkInfo();
         return activeNetworkInfo != null && activeNetworkInfo.isConnected();
     }
@@ -0,0 +1,225 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.microsoft.mimickeralarm.R;
+import com.microsoft.mimickeralarm.appcore.AlarmApplication;
+import com.microsoft.mimickeralarm.utilities.Logger;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Picks the mimic to dismiss an alarm with, favoring the mimics that users have recently been able
+ * to finish, and finish quickly.  Every network mimic keeps MimicStats of its recent outcomes, and
+ * its weight is its success rate over its mean time to dismiss, i.e. how many dismissals it
+ * achieves per second.  A mimic is then picked with a probability in proportion to its weight.
+ *
+ * With the probability of the exploration rate, which users can set in the global settings, the
+ * mimic is instead picked uniformly at random.  This keeps the stats of the other mimics fresh,
+ * and at 100% it is the uniform pick used before.
+ *
+ * The stats are persisted in their own shared preferences, keyed by a fixed name for each mimic.
+ */
+public final class MimicSelector {
+    private static final String TAG = "MimicSelector";
+    private static final String PREFERENCES = "mimic_stats";
+    private static final Random sRandom = new Random();
+
+    private MimicSelector() {
+    }
+
+    static Class select(List<Class> mimics) {
+        synchronized (sRandom) {
+            return select(mimics, getExplorationRate(), sRandom);
+        }
+    }
+
+    // Tests pass a seeded random and the exploration rate, which the settings otherwise provide
+    static Class select(List<Class> mimics, double explorationRate, Random random) {
+        if (mimics.size() == 1) {
+            return mimics.get(0);
+        }
+
+        if (random.nextDouble() < explorationRate) {
+            return mimics.get(random.nextInt(mimics.size()));
+        }
+
+        double[] weights = new double[mimics.size()];
+        double totalWeight = 0;
+        for (int i = 0; i < weights.length; i++) {
+            MimicStats stats = getStats(mimics.get(i));
+            weights[i] = stats.getWeight();
+            totalWeight += weights[i];
+            Log.d(TAG, mimics.get(i).getSimpleName() + ": " + stats);
+        }
+
+        double pick = random.nextDouble() * totalWeight;
+        for (int i = 0; i < weights.length - 1; i++) {
+            pick -= weights[i];
+            if (pick < 0) {
+                return mimics.get(i);
+            }
+        }
+        return mimics.get(weights.length - 1);
+    }
+
+    // Records how a mimic picked by the factory ended, with the time from showing it until the
+    // alarm was dismissed
+    public static void onMimicFinished(Class mimic, boolean success, long dismissMillis) {
+        String key = getMimicKey(mimic);
+        if (key == null) {
+            return;
+        }
+
+        synchronized (sRandom) {
+            MimicStats stats = getStats(mimic);
+            stats.record(success, dismissMillis);
+            getPreferences().edit().putString(key, stats.toString()).apply();
+        }
+    }
+
+    // Returns the stats the selector uses for the mimic, or empty stats if it has none
+    public static MimicStats getStats(Class mimic) {
+        String key = getMimicKey(mimic);
+        return MimicStats.fromString(key != null ? getPreferences().getString(key, null) : null);
+    }
+
+    private static double getExplorationRate() {
+        Context context = AlarmApplication.getAppContext();
+        String percentage = PreferenceManager.getDefaultSharedPreferences(context).getString(
+                context.getString(R.string.pref_mimic_exploration_key),
+                context.getString(R.string.pref_default_mimic_exploration_value));
+        try {
+            return Integer.parseInt(percentage) / 100.0;
+        } catch (NumberFormatException e) {
+            Logger.trackException(e);
+            return 1;
+        }
+    }
+
+    private static String getMimicKey(Class mimic) {
+        if (mimic == MimicTongueTwisterFragment.class) {
+            return "tongue_twister";
+        } else if (mimic == MimicColorCaptureFragment.class) {
+            return "color_capture";
+        } else if (mimic == MimicExpressYourselfFragment.class) {
+            return "express_yourself";
+        }
+        return null;
+    }
+
+    private static SharedPreferences getPreferences() {
+        return AlarmApplication.getAppContext()
+                .getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * The recent outcomes of a mimic.  Each new outcome decays the earlier ones by DECAY, so the
+     * stats follow changes in the network and in how a user plays, and a mimic without outcomes
+     * starts from one success and one failure at DEFAULT_DISMISS_MILLIS.
+     *
+     * This class is not thread safe.  The selector only records to the stats while holding its
+     * lock, and hands out fresh copies from getStats.
+     */
+    public static final class MimicStats {
+        private static final double DECAY = 0.9;
+        private static final long DEFAULT_DISMISS_MILLIS = 30 * 1000;
+        // Below this a mimic is about as quick as any, so shorter times do not add weight
+        private static final long MIN_DISMISS_MILLIS = 5 * 1000;
+
+        private double mAttempts;
+        private double mSuccesses;
+        private long mDismissMillis;
+
+        void record(boolean success, long dismissMillis) {
+            mAttempts = mAttempts * DECAY + 1;
+            mSuccesses = mSuccesses * DECAY + (success ? 1 : 0);
+            if (success) {
+                mDismissMillis = mDismissMillis == 0 ? dismissMillis :
+                        (long) (mDismissMillis * DECAY + dismissMillis * (1 - DECAY));
+            }
+        }
+
+        public double getAttempts() {
+            return mAttempts;
+        }
+
+        // Returns the recent success rate, which is 50% for a mimic without outcomes
+        public double getSuccessRate() {
+            return (mSuccesses + 1) / (mAttempts + 2);
+        }
+
+        // Returns the recent mean time to dismiss of the successful outcomes
+        public long getDismissMillis() {
+            return mDismissMillis > 0 ? mDismissMillis : DEFAULT_DISMISS_MILLIS;
+        }
+
+        public double getWeight() {
+            return getSuccessRate() / (Math.max(getDismissMillis(), MIN_DISMISS_MILLIS) / 1000.0);
+        }
+
+        // Serialized as the attempts, successes and mean time to dismiss, e.g. "3.71;2.9;21500"
+        @Override
+        public String toString() {
+            return mAttempts + ";" + mSuccesses + ";" + mDismissMillis;
+        }
+
+        // Returns empty stats if the string cannot be parsed
+        static MimicStats fromString(String value) {
+            MimicStats stats = new MimicStats();
+            if (value == null) {
+                return stats;
+            }
+
+            try {
+                String[] fields = value.split(";");
+                stats.mAttempts = Double.parseDouble(fields[0]);
+                stats.mSuccesses = Double.parseDouble(fields[1]);
+                stats.mDismissMillis = Long.parseLong(fields[2]);
+            } catch (RuntimeException e) {
+                Logger.trackException(e);
+                return new MimicStats();
+            }
+            return stats;
+        }
+    }
+}
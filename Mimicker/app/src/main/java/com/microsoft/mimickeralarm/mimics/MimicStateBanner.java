@@ -44,6 +44,7 @@ import android.util.AttributeSet;
 import android.widget.TextView;
 
 import com.microsoft.mimickeralarm.R;
+import com.microsoft.mimickeralarm.utilities.LatencyTracer;
 
 /**
  * UI class to draw the top banner in Mimics to display the state of the game (failure, success,
@@ -86,6 +87,7 @@ public class MimicStateBanner extends TextView {
     }
 
     private void animate(String message, final Command onAnimationEnd){
+        final long bannerSpan = LatencyTracer.begin();
         setText(message);
         mEnterLeftAnimation.removeAllListeners();
         mEnterLeftAnimation.addListener(new Animator.AnimatorListener() {
@@ -97,6 +99,7 @@ public class MimicStateBanner extends TextView {
 
             @Override
             public void onAnimationEnd(Animator animation) {
+                LatencyTracer.end(LatencyTracer.STAGE_MIMIC_BANNER, bannerSpan);
                 if (onAnimationEnd != null) {
                     onAnimationEnd.execute();
                 }
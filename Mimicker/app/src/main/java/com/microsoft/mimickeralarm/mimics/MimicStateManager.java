@@ -38,6 +38,8 @@ package com.microsoft.mimickeralarm.mimics;
 import android.util.Log;
 import android.view.View;
 
+import com.microsoft.mimickeralarm.utilities.LatencyTracer;
+
 import java.lang.ref.WeakReference;
 
 /**
@@ -94,6 +96,10 @@ public class MimicStateManager implements IMimicMediator {
         return mMimicRunning;
     }
 
+    public long getMillisUntilTimeout() {
+        return mCountDownTimer.getMillisUntilFinished();
+    }
+
     public void onMimicSuccess(String successMessage) {
         Log.d(TAG, "Entered onMimicSuccess!");
         if (isMimicRunning()) {
@@ -119,6 +125,7 @@ public class MimicStateManager implements IMimicMediator {
         // If the countdown timer has just expired and has already registered a failure command,
         // then we should avoid changing state
         if (isMimicRunning() && !mCountDownTimer.hasExpired()) {
+            final long retrySpan = LatencyTracer.begin();
             mCountDownTimer.pause();
             mMimicStateBanner.failure(failureMessage, new MimicStateBanner.Command() {
                 @Override
@@ -127,6 +134,7 @@ public class MimicStateManager implements IMimicMediator {
                     if (isMimicRunning()) {
                         mCountDownTimer.resume();
                         mProgressButton.setReady();
+                        LatencyTracer.end(LatencyTracer.STAGE_MIMIC_RETRY_READY, retrySpan);
                     }
                 }
             });
@@ -161,6 +169,22 @@ public class MimicStateManager implements IMimicMediator {
         }
     }
 
+    // Captures as if the camera capture button had been pressed.  Returns false if the button
+    // is not ready, e.g. while a failure banner is showing.
+    public boolean onMimicCaptureRequested() {
+        Log.d(TAG, "Entered onMimicCaptureRequested!");
+        if (!isMimicRunning() || !mProgressButton.isReady()) {
+            return false;
+        }
+        mCountDownTimer.pause();
+        mProgressButton.loading();
+        IMimicImplementation mimic = mMimicRef.get();
+        if (mimic != null) {
+            mimic.startCapture();
+        }
+        return true;
+    }
+
     public void registerStateBanner(MimicStateBanner mimicStateBanner) {
         mMimicStateBanner = mimicStateBanner;
     }
@@ -209,12 +233,7 @@ public class MimicStateManager implements IMimicMediator {
             mProgressButton.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    mCountDownTimer.pause();
-                    mProgressButton.loading();
-                    IMimicImplementation mimic = mMimicRef.get();
-                    if (mimic != null) {
-                        mimic.startCapture();
-                    }
+                    onMimicCaptureRequested();
                 }
             });
         }
@@ -41,6 +41,7 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.content.ContextCompat;
@@ -54,6 +55,7 @@ import android.widget.TextView;
 import com.microsoft.mimickeralarm.R;
 import com.microsoft.mimickeralarm.mimics.MimicFactory.MimicResultListener;
 import com.microsoft.mimickeralarm.ringing.ShareFragment;
+import com.microsoft.mimickeralarm.utilities.LatencyTracer;
 import com.microsoft.mimickeralarm.utilities.Loggable;
 import com.microsoft.mimickeralarm.utilities.Logger;
 import com.microsoft.mimickeralarm.utilities.KeyUtilities;
@@ -63,6 +65,7 @@ import com.microsoft.projectoxford.speechrecognition.MicrophoneRecognitionClient
 import com.microsoft.projectoxford.speechrecognition.RecognitionResult;
 import com.microsoft.projectoxford.speechrecognition.RecognitionStatus;
 import com.microsoft.projectoxford.speechrecognition.RecognizedPhrase;
+import com.microsoft.projectoxford.speechrecognition.SpeechClientStatus;
 import com.microsoft.projectoxford.speechrecognition.SpeechRecognitionMode;
 import com.microsoft.projectoxford.speechrecognition.SpeechRecognitionServiceFactory;
 
@@ -85,6 +88,11 @@ import java.util.Random;
  *
  * The correctness is computed by a simple Levenshtein distance calculation between the question
  * tongue twister and the final result returned by Project Oxford.
+ *
+ * The countdown keeps running while the recognition is in progress, so it is the deadline of the
+ * recognition.  The recognition is given up when the countdown expires or the mimic stops.  The
+ * speech client cannot cancel a recognition it has already sent, so its result is dropped if it
+ * still arrives.
  */
 public class MimicTongueTwisterFragment extends Fragment
         implements ISpeechRecognitionServerEvents,
@@ -102,6 +110,14 @@ public class MimicTongueTwisterFragment extends Fragment
     private String mSuccessMessage;
     private Uri mSharableUri;
     private IMimicMediator mStateManager;
+    private long mRecognitionSpan;
+    private Loggable.AppAction mRecognitionAction;
+    private long mRecognitionStartMillis;
+    // Whether the current recognition is the probe of the speech circuit breaker
+    private boolean mRecognitionProbe;
+    // Whether the outcome of the current recognition has been recorded, after which any further
+    // result or error of it is dropped
+    private boolean mRecognitionDone;
 
     @Nullable
     @Override
@@ -154,6 +170,7 @@ public class MimicTongueTwisterFragment extends Fragment
     public void onDestroy() {
         super.onDestroy();
         Logger.flush();
+        LatencyTracer.flush();
     }
 
     @Override
@@ -165,13 +182,22 @@ public class MimicTongueTwisterFragment extends Fragment
 
     @Override
     public void onFinalResponseReceived(RecognitionResult response) {
-        if (mStateManager.isMimicRunning()) {
+        if (mStateManager.isMimicRunning() && !mRecognitionDone) {
             boolean isFinalDictationMessage = mRecognitionMode == SpeechRecognitionMode.LongDictation &&
                     (response.RecognitionStatus == RecognitionStatus.EndOfDictation ||
                             response.RecognitionStatus == RecognitionStatus.DictationEndSilenceTimeout);
             if (mRecognitionMode == SpeechRecognitionMode.ShortPhrase
                     || isFinalDictationMessage) {
                 mMicClient.endMicAndRecognition();
+                LatencyTracer.end(LatencyTracer.STAGE_MIMIC_UPLOAD, mRecognitionSpan);
+                if (mRecognitionAction != null) {
+                    OxfordCircuitBreaker.SPEECH.onSuccess(mRecognitionProbe,
+                            SystemClock.elapsedRealtime() - mRecognitionStartMillis);
+                    Logger.track(mRecognitionAction);
+                } else {
+                    OxfordCircuitBreaker.SPEECH.onAbandoned(mRecognitionProbe);
+                }
+                recognitionDone();
                 for (RecognizedPhrase res : response.Results) {
                     Log.d(LOGTAG, String.valueOf(res.Confidence));
                     Log.d(LOGTAG, String.valueOf(res.DisplayText));
@@ -188,6 +214,10 @@ public class MimicTongueTwisterFragment extends Fragment
                 mTextResponse.setText(mUnderstoodText);
                 verify();
             }
+        } else {
+            // The mimic stopped or timed out while the service was still recognizing, or the
+            // result came after the recognition was given up
+            abandonRecognition();
         }
     }
 
@@ -200,12 +230,28 @@ public class MimicTongueTwisterFragment extends Fragment
     public void onError(int errorCode, final String s) {
         Loggable.AppError error = new Loggable.AppError(Loggable.Key.APP_ERROR, s);
         Logger.track(error);
+        if (mRecognitionDone) {
+            return;
+        }
+        // Only an error of the service or the network says something about the API, not one of
+        // the microphone on this device
+        if (isServiceError(errorCode)) {
+            OxfordCircuitBreaker.SPEECH.onFailure(mRecognitionProbe);
+        } else {
+            OxfordCircuitBreaker.SPEECH.onAbandoned(mRecognitionProbe);
+        }
+        recognitionDone();
     }
 
     @Override
     public void onAudioEvent(boolean recording) {
         if (!recording) {
-            stopCapture();
+            // The recognition result is still to come from the service
+            mRecognitionSpan = LatencyTracer.begin();
+            mRecognitionStartMillis = SystemClock.elapsedRealtime();
+            mRecognitionAction = new Loggable.AppAction(Loggable.Key.APP_API_SPEECH);
+            Logger.trackDurationStart(mRecognitionAction);
+            mMicClient.endMicAndRecognition();
         }
     }
 
@@ -227,6 +273,8 @@ public class MimicTongueTwisterFragment extends Fragment
 
     @Override
     public void startCapture() {
+        mRecognitionProbe = OxfordCircuitBreaker.SPEECH.onCallStarted();
+        mRecognitionDone = false;
         mMicClient.startMicAndRecognition();
     }
 
@@ -235,10 +283,15 @@ public class MimicTongueTwisterFragment extends Fragment
         if (mMicClient != null) {
             mMicClient.endMicAndRecognition();
         }
+        // Once the mimic stops, the result of a recognition still in progress is not wanted
+        if (!mStateManager.isMimicRunning()) {
+            abandonRecognition();
+        }
     }
 
     @Override
     public void onCountDownTimerExpired() {
+        abandonRecognition();
         gameFailure(false);
     }
 
@@ -284,6 +337,56 @@ public class MimicTongueTwisterFragment extends Fragment
         }
     }
 
+    // Gives up on the recognition in progress, if there is one
+    private void abandonRecognition() {
+        if (mRecognitionDone) {
+            return;
+        }
+        if (mRecognitionAction == null) {
+            // The audio was not all sent, so the service was never asked for a result
+            OxfordCircuitBreaker.SPEECH.onAbandoned(mRecognitionProbe);
+            recognitionDone();
+            return;
+        }
+        long waitedMillis = SystemClock.elapsedRealtime() - mRecognitionStartMillis;
+        Loggable.AppAction appAction = new Loggable.AppAction(Loggable.Key.APP_API_ABANDONED);
+        appAction.putProp(Loggable.Key.PROP_API, OxfordCircuitBreaker.SPEECH.getName());
+        appAction.putProp(Loggable.Key.PROP_WASTED_MILLIS, waitedMillis);
+        Logger.track(appAction);
+        // As with the other Project Oxford calls, only a recognition that was given a fair
+        // chance counts against the API.  If the user left sooner it says nothing about the API.
+        if (waitedMillis >= OxfordCircuitBreaker.SLOW_CALL_MILLIS) {
+            OxfordCircuitBreaker.SPEECH.onFailure(mRecognitionProbe);
+        } else {
+            OxfordCircuitBreaker.SPEECH.onAbandoned(mRecognitionProbe);
+        }
+        recognitionDone();
+    }
+
+    // Called once the outcome of the current recognition has been recorded
+    private void recognitionDone() {
+        mRecognitionDone = true;
+        mRecognitionAction = null;
+        mRecognitionProbe = false;
+    }
+
+    private static boolean isServiceError(int errorCode) {
+        SpeechClientStatus status = SpeechClientStatus.fromInt(errorCode);
+        if (status == null) {
+            return true;
+        }
+        switch (status) {
+            case AudioOutputFailed:
+            case MicrophoneInUse:
+            case MicrophoneUnavailable:
+            case MicrophoneStatusUnknown:
+            case InvalidArgument:
+                return false;
+            default:
+                return true;
+        }
+    }
+
     private void initialize(View view) {
         mTextResponse = (TextView) view.findViewById(R.id.understood_text);
         generateQuestion(view);
@@ -46,6 +46,9 @@ import android.hardware.SensorManager;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.v4.app.Fragment;
 import android.view.Display;
 import android.view.LayoutInflater;
@@ -60,12 +63,25 @@ import android.widget.ToggleButton;
 import com.microsoft.mimickeralarm.R;
 import com.microsoft.mimickeralarm.mimics.MimicFactory.MimicResultListener;
 import com.microsoft.mimickeralarm.ringing.ShareFragment;
+import com.microsoft.mimickeralarm.utilities.LatencyTracer;
+import com.microsoft.mimickeralarm.utilities.Loggable;
 import com.microsoft.mimickeralarm.utilities.Logger;
 
 /**
  * Base class for all camera based mimic games
  * it provides a capture button, countdown timer, game state banner, and a preview surface
  * Classes that inherits from this will only have to override the verify function.
+ * The pixels of a capture are read once, and shared by the quality gate and verify.
+ *
+ * Captures that are too dark, too bright or too blurry are rejected by a FrameQualityGate with
+ * specific feedback, without calling verify.  Each rejection is tracked, as it saves a network
+ * round trip.
+ *
+ * The quality gate runs on the CPU executor as part of the capture.  verify runs on the verify
+ * executor, as it spends most of its time waiting on its Project Oxford call, which would
+ * otherwise hold a CPU thread that frame processing needs.  The verify task is started from the
+ * main thread, like stopCapture which cancels it, so a capture that completes after the mimic
+ * has stopped is never verified.
  **/
 @SuppressWarnings("deprecation")
 abstract class MimicWithCameraFragment extends Fragment
@@ -76,6 +92,10 @@ abstract class MimicWithCameraFragment extends Fragment
     // Max width for sending to Project Oxford, reduce latency
     private static final int MAX_WIDTH = 500;
     private static final int LIGHT_THRESHOLD = 15;
+    // Live detection scores at most one preview frame per interval
+    private static final int LIVE_FRAME_INTERVAL_MILLISECONDS = 200;
+    // and captures once this many consecutive frames have matched
+    private static final int LIVE_MATCH_FRAME_COUNT = 3;
 
     protected static int CameraFacing = Camera.CameraInfo.CAMERA_FACING_FRONT;
     MimicResultListener mCallback;
@@ -89,10 +109,63 @@ abstract class MimicWithCameraFragment extends Fragment
     private ToggleButton mFlashButton;
 
     private Point mSize;
+    private FrameQualityGate mQualityGate;
+    private long mCaptureSpan;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Only used on the main thread
+    private processOnProjectOxfordAsync mVerifyTask;
+    // The elapsed realtime by which verification must finish, as the countdown runs out then
+    private volatile long mVerifyDeadlineMillis;
+    // Only used on the frame thread
+    private int mLiveMatchCount;
+    // Set when the current capture was triggered by live detection, for the telemetry
+    boolean mLiveMatched;
     private CameraPreview.CapturedImageCallbackAsync onCaptureCallback = new CameraPreview.CapturedImageCallbackAsync() {
         @Override
-        public void execute(Bitmap bitmap) {
-            new processOnProjectOxfordAsync().execute(bitmap);
+        public void execute(final Bitmap bitmap, int[] pixels) {
+            LatencyTracer.end(LatencyTracer.STAGE_MIMIC_CAPTURE, mCaptureSpan);
+            // Called on the CPU executor, which the quality gate still runs on
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            if (pixels == null) {
+                pixels = new int[width * height];
+                bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            }
+            final int quality = checkCaptureQuality(pixels, width, height);
+            final int[] capturePixels = pixels;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mStateManager.isMimicRunning()) {
+                        // stopCapture has already run, so nobody would cancel the task
+                        return;
+                    }
+                    mVerifyTask = new processOnProjectOxfordAsync(capturePixels, quality);
+                    // A rejected capture is not queued behind verifications
+                    mVerifyTask.executeOnExecutor(quality == FrameQualityGate.RESULT_OK ?
+                            MimicExecutor.VERIFY : MimicExecutor.CPU, bitmap);
+                }
+            });
+        }
+    };
+
+    private CameraPreview.FrameSamplingCallback onFrameSamplingCallback = new CameraPreview.FrameSamplingCallback() {
+        @Override
+        public boolean isMatch(byte[] nv21, int width, int height) {
+            if (isLiveFrameMatch(nv21, width, height)) {
+                return ++mLiveMatchCount >= LIVE_MATCH_FRAME_COUNT;
+            }
+            mLiveMatchCount = 0;
+            return false;
+        }
+
+        @Override
+        public void onMatch() {
+            mLiveMatched = true;
+            if (!mStateManager.onMimicCaptureRequested()) {
+                mLiveMatched = false;
+                startLiveDetection();
+            }
         }
     };
 
@@ -100,6 +173,7 @@ abstract class MimicWithCameraFragment extends Fragment
         @Override
         public void execute(boolean success) {
             if (success) {
+                startLiveDetection();
                 if (mCameraPreview.isFlashSupported()){
                     mFlashButton.setVisibility(View.VISIBLE);
                     mFlashButton.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
@@ -190,6 +264,8 @@ abstract class MimicWithCameraFragment extends Fragment
         // This toast is only shown when there is not enough light
         mTooDarkToast = Toast.makeText(getActivity(), getString(R.string.mimic_camera_too_dark), Toast.LENGTH_SHORT);
 
+        mQualityGate = new FrameQualityGate(isSharpCaptureRequired());
+
         return view;
     }
 
@@ -231,6 +307,7 @@ abstract class MimicWithCameraFragment extends Fragment
     public void onDestroy() {
         super.onDestroy();
         Logger.flush();
+        LatencyTracer.flush();
     }
 
     @Override
@@ -239,11 +316,19 @@ abstract class MimicWithCameraFragment extends Fragment
 
     @Override
     public void startCapture() {
-        mCameraPreview.onCapture(onCaptureCallback, onFlashStateCallback);
+        // The countdown is paused while the capture is verified, so its time left is the budget
+        mVerifyDeadlineMillis = SystemClock.elapsedRealtime() + mStateManager.getMillisUntilTimeout();
+        mCaptureSpan = LatencyTracer.begin();
+        mCameraPreview.onCapture(onCaptureCallback, onFlashStateCallback, MAX_WIDTH);
     }
 
     @Override
     public void stopCapture() {
+        // The result of a verification still in progress is no longer wanted
+        if (mVerifyTask != null) {
+            mVerifyTask.cancel(true);
+            mVerifyTask = null;
+        }
         mCameraPreview.stop();
     }
 
@@ -284,13 +369,9 @@ abstract class MimicWithCameraFragment extends Fragment
 
     protected void gameFailure(GameResult gameResult, boolean allowRetry) {
         if (allowRetry) {
-            try {
-                mCameraPreview.start();
-            }
-            catch (MimicException ex) {
-                Logger.trackException(ex);
-                mStateManager.onMimicInternalError();
-            }
+            // The preview kept running during verification, so it is ready for the retry
+            mLiveMatched = false;
+            startLiveDetection();
 
             String failureMessage = getString(R.string.mimic_failure_message);
             if (gameResult != null && gameResult.message != null) {
@@ -302,21 +383,100 @@ abstract class MimicWithCameraFragment extends Fragment
         }
     }
 
-    abstract protected GameResult verify(Bitmap bitmap);
+    // pixels holds the ARGB pixels of the bitmap row by row, and must not be modified
+    abstract protected GameResult verify(Bitmap bitmap, int[] pixels);
+
+    // The time left for verify to call Project Oxford, which OxfordRequest enforces
+    protected long getVerifyTimeoutMillis() {
+        return mVerifyDeadlineMillis - SystemClock.elapsedRealtime();
+    }
+
+    // Mimics that only need the colors of a capture override this to accept blurry captures
+    protected boolean isSharpCaptureRequired() {
+        return true;
+    }
+
+    // Returns the quality gate's result for the capture, and tracks it if the capture is rejected.
+    // Called on the CPU executor, so the feedback is only looked up once back on the main thread.
+    private int checkCaptureQuality(int[] pixels, int width, int height) {
+        long gateSpan = LatencyTracer.begin();
+        int result = mQualityGate.check(pixels, width, height);
+        LatencyTracer.end(LatencyTracer.STAGE_MIMIC_QUALITY_GATE, gateSpan);
+
+        String reason;
+        switch (result) {
+            case FrameQualityGate.RESULT_TOO_DARK:
+                reason = "Too dark";
+                break;
+            case FrameQualityGate.RESULT_TOO_BRIGHT:
+                reason = "Too bright";
+                break;
+            case FrameQualityGate.RESULT_BLURRY:
+                reason = "Blurry";
+                break;
+            default:
+                return result;
+        }
+        Loggable.AppAction appAction = new Loggable.AppAction(Loggable.Key.APP_CAPTURE_REJECTED);
+        appAction.putProp(Loggable.Key.PROP_REASON, reason);
+        Logger.track(appAction);
+        return result;
+    }
+
+    // Returns the feedback for a capture the quality gate rejected with the result
+    private static int getCaptureQualityMessageId(int result) {
+        switch (result) {
+            case FrameQualityGate.RESULT_TOO_DARK:
+                return R.string.mimic_camera_capture_too_dark;
+            case FrameQualityGate.RESULT_TOO_BRIGHT:
+                return R.string.mimic_camera_capture_too_bright;
+            default:
+                return R.string.mimic_camera_capture_blurry;
+        }
+    }
+
+    // Mimics that can recognize a success on a live preview frame override this and
+    // isLiveFrameMatch.  A live match only triggers a capture, which goes through the quality
+    // gate and verify like any other.
+    protected boolean isLiveDetectionSupported() {
+        return false;
+    }
+
+    // Called on the frame thread with an NV21 preview frame, which must not be kept
+    protected boolean isLiveFrameMatch(byte[] nv21, int width, int height) {
+        return false;
+    }
+
+    private void startLiveDetection() {
+        if (isLiveDetectionSupported()) {
+            mLiveMatchCount = 0;
+            mCameraPreview.startFrameSampling(onFrameSamplingCallback, LIVE_FRAME_INTERVAL_MILLISECONDS);
+        }
+    }
 
     public class processOnProjectOxfordAsync extends AsyncTask<Bitmap, String, GameResult> {
+        private final int[] mPixels;
+        // The quality gate's result for the capture
+        private final int mQuality;
+
+        processOnProjectOxfordAsync(int[] pixels, int quality) {
+            mPixels = pixels;
+            mQuality = quality;
+        }
 
         @Override
         protected GameResult doInBackground(Bitmap... bitmaps) {
+            MimicExecutor.applyThreadPriority();
             GameResult gameResult = null;
+            if (mQuality != FrameQualityGate.RESULT_OK) {
+                // The feedback is filled in on the main thread, where the fragment is attached
+                return new GameResult();
+            }
+            long verifySpan = LatencyTracer.begin();
             try {
                 if (bitmaps.length > 0) {
-                    int width = bitmaps[0].getWidth();
-                    int height = bitmaps[0].getHeight();
-                    float ratio = (float) height / width;
-                    width = Math.min(width, MAX_WIDTH);
-                    height = (int) (width * ratio);
-                    gameResult = verify(Bitmap.createScaledBitmap(bitmaps[0], width, height, true));
+                    // The capture is already scaled down to MAX_WIDTH
+                    gameResult = verify(bitmaps[0], mPixels);
                     if (gameResult.success) {
                         gameResult.shareableUri = ShareFragment.saveShareableBitmap(getActivity(), bitmaps[0], gameResult.question);
                         bitmaps[0].recycle();
@@ -325,6 +485,7 @@ abstract class MimicWithCameraFragment extends Fragment
             } catch (Exception ex) {
                 Logger.trackException(ex);
             }
+            LatencyTracer.end(LatencyTracer.STAGE_MIMIC_VERIFY, verifySpan);
             return gameResult;
         }
 
@@ -333,6 +494,9 @@ abstract class MimicWithCameraFragment extends Fragment
         protected void onPostExecute(GameResult gameResult) {
             super.onPostExecute(gameResult);
             if (mStateManager.isMimicRunning()) {
+                if (mQuality != FrameQualityGate.RESULT_OK) {
+                    gameResult.message = getString(getCaptureQualityMessageId(mQuality));
+                }
                 if (gameResult.success) {
                     gameSuccess(gameResult);
                 } else {
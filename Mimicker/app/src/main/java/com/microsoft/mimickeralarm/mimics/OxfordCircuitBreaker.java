@@ -0,0 +1,177 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.microsoft.mimickeralarm.utilities.Loggable;
+import com.microsoft.mimickeralarm.utilities.Logger;
+
+/**
+ * A circuit breaker for each Project Oxford API, fed with the outcome of every call to it.  A call
+ * that fails, or that takes longer than SLOW_CALL_MILLIS, counts against the API.  Once
+ * FAILURE_THRESHOLD of the last WINDOW_SIZE calls have counted against it the circuit opens, and
+ * MimicFactory stops picking the mimics that depend on the API, so users get the offline mimic
+ * straight away instead of waiting out the countdown on a degraded endpoint.
+ *
+ * After the open period the circuit is half-open: the API is offered again and the next call
+ * started is the probe.  onCallStarted tells each call whether it is the probe, which it passes back
+ * with its outcome.  A good probe closes the circuit, a bad one opens it again for twice as long, up
+ * to MAX_OPEN_MILLIS.  The outcomes of other calls made while the circuit is open, such as calls
+ * that started before it opened, are ignored.  While the probe is in flight the API is not offered,
+ * and a probe that is abandoned, or that has not reported within PROBE_TIMEOUT_MILLIS, lets the
+ * next call probe instead.
+ *
+ * The state is only kept in memory, as a process that has been killed since has most likely also
+ * outlived the outage.
+ */
+final class OxfordCircuitBreaker {
+    private static final String TAG = "OxfordCircuitBreaker";
+    static final long SLOW_CALL_MILLIS = 8000;
+    private static final int WINDOW_SIZE = 6;
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long MIN_OPEN_MILLIS = 30 * 1000;
+    private static final long MAX_OPEN_MILLIS = 10 * 60 * 1000;
+    // A recognition the user walked away from may never report its outcome
+    private static final long PROBE_TIMEOUT_MILLIS = 2 * SLOW_CALL_MILLIS;
+
+    static final OxfordCircuitBreaker VISION = new OxfordCircuitBreaker("Vision");
+    static final OxfordCircuitBreaker EMOTION = new OxfordCircuitBreaker("Emotion");
+    static final OxfordCircuitBreaker SPEECH = new OxfordCircuitBreaker("Speech");
+
+    private final String mName;
+    // Whether each of the last calls counted against the API, as a ring buffer
+    private final boolean[] mWindow = new boolean[WINDOW_SIZE];
+    private int mWindowCount;
+    private int mWindowNext;
+    private boolean mOpen;
+    private long mOpenUntilMillis;
+    private long mOpenMillis = MIN_OPEN_MILLIS;
+    private boolean mProbeInFlight;
+    private long mProbeStartMillis;
+
+    OxfordCircuitBreaker(String name) {
+        mName = name;
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    // Whether mimics using the API can be picked, which is also the case once the circuit is
+    // half-open
+    synchronized boolean isAvailable() {
+        return !mOpen || (SystemClock.elapsedRealtime() >= mOpenUntilMillis && !isProbeInFlight());
+    }
+
+    // Returns whether the call is the probe of the half-open circuit
+    synchronized boolean onCallStarted() {
+        if (!mOpen || SystemClock.elapsedRealtime() < mOpenUntilMillis || isProbeInFlight()) {
+            return false;
+        }
+        mProbeInFlight = true;
+        mProbeStartMillis = SystemClock.elapsedRealtime();
+        return true;
+    }
+
+    synchronized void onSuccess(boolean probe, long latencyMillis) {
+        onCall(probe, latencyMillis >= SLOW_CALL_MILLIS);
+    }
+
+    synchronized void onFailure(boolean probe) {
+        onCall(probe, true);
+    }
+
+    // For a call whose result was dropped before it said anything about the API
+    synchronized void onAbandoned(boolean probe) {
+        if (probe) {
+            mProbeInFlight = false;
+        }
+    }
+
+    private boolean isProbeInFlight() {
+        return mProbeInFlight &&
+                SystemClock.elapsedRealtime() - mProbeStartMillis < PROBE_TIMEOUT_MILLIS;
+    }
+
+    private void onCall(boolean probe, boolean bad) {
+        if (mOpen) {
+            if (!probe || !mProbeInFlight) {
+                return;
+            }
+            mProbeInFlight = false;
+            if (bad) {
+                mOpenMillis = Math.min(mOpenMillis * 2, MAX_OPEN_MILLIS);
+                open();
+            } else {
+                close();
+            }
+            return;
+        }
+
+        mWindow[mWindowNext] = bad;
+        mWindowNext = (mWindowNext + 1) % WINDOW_SIZE;
+        mWindowCount = Math.min(mWindowCount + 1, WINDOW_SIZE);
+        int badCount = 0;
+        for (int i = 0; i < mWindowCount; i++) {
+            if (mWindow[i]) {
+                badCount++;
+            }
+        }
+        if (badCount >= FAILURE_THRESHOLD) {
+            open();
+        }
+    }
+
+    private void open() {
+        mOpen = true;
+        mOpenUntilMillis = SystemClock.elapsedRealtime() + mOpenMillis;
+        mWindowCount = 0;
+        mWindowNext = 0;
+        Log.d(TAG, mName + " circuit opened for " + mOpenMillis + "ms");
+        Loggable.AppAction appAction = new Loggable.AppAction(Loggable.Key.APP_API_CIRCUIT_OPENED);
+        appAction.putProp(Loggable.Key.PROP_API, mName);
+        appAction.putProp(Loggable.Key.PROP_OPEN_MILLIS, mOpenMillis);
+        Logger.track(appAction);
+    }
+
+    private void close() {
+        mOpen = false;
+        mOpenMillis = MIN_OPEN_MILLIS;
+        Log.d(TAG, mName + " circuit closed");
+    }
+}
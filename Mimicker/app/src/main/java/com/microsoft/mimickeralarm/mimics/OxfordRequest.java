@@ -0,0 +1,159 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import android.os.SystemClock;
+
+import com.microsoft.mimickeralarm.utilities.Loggable;
+import com.microsoft.mimickeralarm.utilities.Logger;
+
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a Project Oxford call on the network executor with a deadline, which the camera mimics
+ * derive from the time left on their countdown.  The caller stops waiting, and the call is
+ * cancelled, when the deadline passes or when the calling thread is interrupted because the mimic
+ * has stopped.  The camera mimics wait from verify, which runs on the verify executor so that the
+ * wait neither holds a CPU thread nor takes a network thread from the call it waits on.
+ *
+ * The Project Oxford clients own their connections, so a call that is already sending or waiting
+ * cannot be torn down; it is interrupted and its result is dropped.  Each abandoned call that
+ * still ran is tracked with its upload size and how long it ran, which is the network time and
+ * bytes wasted on it.
+ *
+ * The outcome of each call is fed to the circuit breaker of its API.  A call that misses a deadline
+ * shorter than OxfordCircuitBreaker.SLOW_CALL_MILLIS is not held against the API, as the user
+ * may simply have left it little time.  Nor is a call that never started, e.g. because the
+ * network threads were all still busy with abandoned calls.
+ *
+ * The request takes over the UploadBuffer holding its body and recycles it once the call is
+ * done, as an abandoned call may still be reading it.  A call cancelled before it started never
+ * runs, so the caller recycles its body instead.
+ */
+final class OxfordRequest {
+    interface Call<T> {
+        T execute(InputStream body) throws Exception;
+    }
+
+    private OxfordRequest() {
+    }
+
+    static <T> T execute(OxfordCircuitBreaker breaker, final UploadBuffer body, long timeoutMillis,
+                         final Call<T> call) throws Exception {
+        final String api = breaker.getName();
+        if (timeoutMillis <= 0) {
+            body.recycle();
+            throw new MimicException(api + " has no time left to run");
+        }
+        final AtomicBoolean abandoned = new AtomicBoolean();
+        // Set by whichever comes first, the call starting or the caller giving up on it
+        final AtomicBoolean claimed = new AtomicBoolean();
+        boolean probe = breaker.onCallStarted();
+        long submitMillis = SystemClock.elapsedRealtime();
+        Future<T> future = MimicExecutor.NETWORK.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                if (!claimed.compareAndSet(false, true)) {
+                    // The caller has given up and recycled the body
+                    return null;
+                }
+                long start = SystemClock.elapsedRealtime();
+                int uploadBytes = body.size();
+                try {
+                    return call.execute(body.toInputStream());
+                } finally {
+                    body.recycle();
+                    if (abandoned.get()) {
+                        trackAbandoned(api, uploadBytes, SystemClock.elapsedRealtime() - start);
+                    }
+                }
+            }
+        });
+
+        try {
+            T result = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            breaker.onSuccess(probe, SystemClock.elapsedRealtime() - submitMillis);
+            return result;
+        } catch (ExecutionException ex) {
+            breaker.onFailure(probe);
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw ex;
+        } catch (TimeoutException ex) {
+            abandoned.set(true);
+            future.cancel(true);
+            if (!abandonUnstarted(claimed, body) &&
+                    timeoutMillis >= OxfordCircuitBreaker.SLOW_CALL_MILLIS) {
+                breaker.onFailure(probe);
+            } else {
+                breaker.onAbandoned(probe);
+            }
+            throw new MimicException(api + " missed its deadline of " + timeoutMillis + "ms");
+        } catch (InterruptedException ex) {
+            abandoned.set(true);
+            future.cancel(true);
+            abandonUnstarted(claimed, body);
+            breaker.onAbandoned(probe);
+            Thread.currentThread().interrupt();
+            throw ex;
+        }
+    }
+
+    // Returns true, having recycled the body, if the call had not started and now never will
+    private static boolean abandonUnstarted(AtomicBoolean claimed, UploadBuffer body) {
+        if (!claimed.compareAndSet(false, true)) {
+            return false;
+        }
+        body.recycle();
+        return true;
+    }
+
+    private static void trackAbandoned(String api, int uploadBytes, long wastedMillis) {
+        Loggable.AppAction appAction = new Loggable.AppAction(Loggable.Key.APP_API_ABANDONED);
+        appAction.putProp(Loggable.Key.PROP_API, api);
+        appAction.putProp(Loggable.Key.PROP_UPLOAD_BYTES, uploadBytes);
+        appAction.putProp(Loggable.Key.PROP_WASTED_MILLIS, wastedMillis);
+        Logger.track(appAction);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * A pooled, growable buffer that encoded captures are written to before being uploaded to Project
+ * Oxford.  The buffer keeps its capacity when it is recycled, so after the first capture the
+ * encoder writes without the buffer growing, and the encoded bytes are read back through
+ * toInputStream without copying them as toByteArray would.
+ *
+ * The bytes copied while growing are counted, so the copying done per capture can be tracked.
+ */
+final class UploadBuffer extends ByteArrayOutputStream {
+    // Large enough for an encode that overshoots its UploadEncoder budget
+    private static final int INITIAL_CAPACITY = 256 * 1024;
+    private static final int MAX_POOLED = 2;
+    private static final ArrayList<UploadBuffer> sPool = new ArrayList<>();
+
+    private long mBytesCopied;
+
+    private UploadBuffer() {
+        super(INITIAL_CAPACITY);
+    }
+
+    public static UploadBuffer obtain() {
+        synchronized (sPool) {
+            if (!sPool.isEmpty()) {
+                return sPool.remove(sPool.size() - 1);
+            }
+        }
+        return new UploadBuffer();
+    }
+
+    // The buffer, and any stream returned by toInputStream, must not be used after this
+    public void recycle() {
+        reset();
+        mBytesCopied = 0;
+        synchronized (sPool) {
+            if (sPool.size() < MAX_POOLED) {
+                sPool.add(this);
+            }
+        }
+    }
+
+    // Reads the buffered bytes in place
+    public InputStream toInputStream() {
+        return new ByteArrayInputStream(buf, 0, count);
+    }
+
+    public long getBytesCopied() {
+        return mBytesCopied;
+    }
+
+    @Override
+    public synchronized void write(int oneByte) {
+        countGrowth(1);
+        super.write(oneByte);
+    }
+
+    @Override
+    public synchronized void write(byte[] buffer, int offset, int length) {
+        countGrowth(length);
+        super.write(buffer, offset, length);
+    }
+
+    // Growing the buffer copies the bytes written so far
+    private void countGrowth(int length) {
+        if (count + length > buf.length) {
+            mBytesCopied += count;
+        }
+    }
+}
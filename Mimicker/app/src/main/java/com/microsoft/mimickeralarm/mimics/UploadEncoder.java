@@ -0,0 +1,181 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import android.graphics.Bitmap;
+
+/**
+ * The policy for encoding captures uploaded to Project Oxford by one type of mimic.  Each mimic
+ * type has a maximum width and a byte budget for its uploads, color detection needing far less
+ * fidelity than emotion recognition.
+ *
+ * The JPEG quality starts high and is adjusted from the size of each encode: an encode over the
+ * target size is retried at a proportionally lower quality, and then at a lower resolution once
+ * the quality has reached its minimum.  The quality that fit is kept for the next capture, and
+ * only steps back up after a capture that fit at its first attempt.
+ *
+ * The target size is the budget, lowered when the estimated upload bandwidth cannot transfer the
+ * budget within TARGET_UPLOAD_MILLIS.  The Project Oxford clients own their connections, so the
+ * transfer cannot be timed on its own.  Instead each round trip is modelled as a fixed overhead,
+ * the connection set up and the API's processing, plus the payload over the bandwidth.  The
+ * bandwidth is the slope of a least squares fit of round trip against payload size, weighted
+ * towards recent uploads.  Until the payload sizes seen vary enough to fit the slope, or when the
+ * round trip does not grow with the payload, the budget is not lowered.
+ */
+class UploadEncoder {
+    static final UploadEncoder COLOR = new UploadEncoder(320, 40 * 1024);
+    static final UploadEncoder EMOTION = new UploadEncoder(500, 80 * 1024);
+
+    private static final int MAX_QUALITY = 90;
+    private static final int MIN_QUALITY = 40;
+    private static final int MIN_TARGET_BYTES = 12 * 1024;
+    private static final int TARGET_UPLOAD_MILLIS = 1500;
+    private static final int MAX_ENCODE_ATTEMPTS = 3;
+    private static final int QUALITY_STEP = 5;
+    // Weight of the latest upload in the bandwidth fit
+    private static final float UPLOAD_SMOOTHING = 0.3f;
+    // The payload sizes must spread by at least this standard deviation to fit the bandwidth
+    private static final float MIN_BYTES_DEVIATION = 2 * 1024;
+
+    private final int mMaxWidth;
+    private final int mBudgetBytes;
+    private int mQuality = MAX_QUALITY;
+    // Weighted means, variance and covariance of the payload sizes and round trips
+    private int mUploadCount;
+    private float mMeanBytes;
+    private float mMeanMillis;
+    private float mBytesVariance;
+    private float mCovariance;
+
+    UploadEncoder(int maxWidth, int budgetBytes) {
+        mMaxWidth = maxWidth;
+        mBudgetBytes = budgetBytes;
+    }
+
+    // Encodes the bitmap into output, which is reset first.  Returns the JPEG quality used.
+    synchronized int encode(Bitmap bitmap, UploadBuffer output) {
+        int targetBytes = getTargetBytes();
+        Bitmap scaled = scaleToWidth(bitmap, mMaxWidth);
+        int quality = mQuality;
+        boolean fitFirstTime = false;
+        for (int attempt = 1; ; attempt++) {
+            output.reset();
+            compress(scaled, quality, output);
+            int size = output.size();
+            if (size <= targetBytes) {
+                fitFirstTime = attempt == 1;
+                break;
+            }
+            if (attempt == MAX_ENCODE_ATTEMPTS) {
+                break;
+            }
+            float ratio = (float) targetBytes / size;
+            if (quality > MIN_QUALITY) {
+                quality = Math.max(MIN_QUALITY, (int) (quality * ratio));
+            } else {
+                // The size is roughly proportional to the pixel count
+                Bitmap smaller = scaleToWidth(scaled, (int) (scaled.getWidth() * Math.sqrt(ratio)));
+                if (scaled != bitmap) {
+                    scaled.recycle();
+                }
+                scaled = smaller;
+            }
+        }
+        if (scaled != bitmap) {
+            scaled.recycle();
+        }
+
+        // Step back up after a capture that fit first time, so the quality can recover
+        mQuality = fitFirstTime ? Math.min(MAX_QUALITY, quality + QUALITY_STEP) : quality;
+        return quality;
+    }
+
+    // Tests replace the JPEG encoder, which needs an Android runtime
+    void compress(Bitmap bitmap, int quality, UploadBuffer output) {
+        bitmap.compress(Bitmap.CompressFormat.JPEG, quality, output);
+    }
+
+    // Records the payload size and round trip of an upload, so later captures adapt to the
+    // bandwidth
+    synchronized void onUploaded(int bytes, long roundTripMillis) {
+        if (roundTripMillis <= 0) {
+            return;
+        }
+        mUploadCount++;
+        if (mUploadCount == 1) {
+            mMeanBytes = bytes;
+            mMeanMillis = roundTripMillis;
+            return;
+        }
+        float bytesDelta = bytes - mMeanBytes;
+        float millisDelta = roundTripMillis - mMeanMillis;
+        mMeanBytes += UPLOAD_SMOOTHING * bytesDelta;
+        mMeanMillis += UPLOAD_SMOOTHING * millisDelta;
+        mBytesVariance = (1 - UPLOAD_SMOOTHING) *
+                (mBytesVariance + UPLOAD_SMOOTHING * bytesDelta * bytesDelta);
+        mCovariance = (1 - UPLOAD_SMOOTHING) *
+                (mCovariance + UPLOAD_SMOOTHING * bytesDelta * millisDelta);
+    }
+
+    // The upload bandwidth in bytes per millisecond, or 0 if it cannot be estimated yet
+    synchronized float getBandwidth() {
+        if (mBytesVariance < MIN_BYTES_DEVIATION * MIN_BYTES_DEVIATION || mCovariance <= 0) {
+            return 0;
+        }
+        return mBytesVariance / mCovariance;
+    }
+
+    synchronized int getTargetBytes() {
+        float bandwidth = getBandwidth();
+        if (bandwidth == 0) {
+            return mBudgetBytes;
+        }
+        int deliverable = (int) Math.min(Integer.MAX_VALUE, bandwidth * TARGET_UPLOAD_MILLIS);
+        return Math.max(MIN_TARGET_BYTES, Math.min(mBudgetBytes, deliverable));
+    }
+
+    synchronized int getQuality() {
+        return mQuality;
+    }
+
+    private static Bitmap scaleToWidth(Bitmap bitmap, int width) {
+        if (bitmap.getWidth() <= width) {
+            return bitmap;
+        }
+        int height = (int) ((long) bitmap.getHeight() * width / bitmap.getWidth());
+        return Bitmap.createScaledBitmap(bitmap, width, Math.max(1, height), true);
+    }
+}
@@ -41,14 +41,10 @@ import android.net.Uri;
 import com.microsoft.mimickeralarm.R;
 import com.microsoft.mimickeralarm.appcore.AlarmApplication;
 import com.microsoft.mimickeralarm.scheduling.AlarmScheduler;
-import com.microsoft.mimickeralarm.utilities.Logger;
 import com.microsoft.mimickeralarm.utilities.GeneralUtilities;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.util.Calendar;
+import java.util.TimeZone;
 import java.util.UUID;
 
 /**
@@ -56,8 +52,8 @@ import java.util.UUID;
  * necessary data to help with alarm scheduling and the user experience, it exposes the following
  * alarm actions:
  *
- * schedule - updates the alarm state appropriately and schedules the alarm via the
- * AlarmScheduler, cancelling any previous alarms that may have been set.
+ * schedule - updates the alarm state and next trigger time appropriately and schedules the alarm
+ * via the AlarmScheduler, replacing any previous alarms that may have been set.
  *
  * snooze - updates the alarm state and also sets the appropriate snooze data fields.  Schedules the
  * snoozed alarm via the AlarmScheduler.
@@ -76,8 +72,11 @@ public class Alarm {
     private String  mTitle;
     private int     mTimeHour;
     private int     mTimeMinute;
-    private boolean mRepeatingDays[];
+    // Bit (1 << i) is set if the alarm repeats on day i, where 0 is Sunday
+    private int     mRepeatingDays;
     private Uri     mAlarmTone;
+    // The tone as stored in the database, which is only parsed into mAlarmTone when first needed
+    private String  mAlarmToneString;
     private boolean mIsEnabled;
     private boolean mVibrate;
     private boolean mTongueTwisterEnabled;
@@ -88,49 +87,99 @@ public class Alarm {
     private int mSnoozeHour;
     private int mSnoozeMinute;
     private int mSnoozeSeconds;
+    // The time the alarm will next fire, including any snooze, or 0 if it is not scheduled
+    private long mNextTriggerMillis;
+    // Set by AlarmList on alarms read with only some of the columns, which must not be saved
+    private boolean mPartial;
 
     public Alarm () {
         this(UUID.randomUUID());
     }
 
     public Alarm(UUID id) {
+        this(id, true);
+    }
+
+    // Alarms read back from the database skip the defaults, as every field is about to be
+    // overwritten from the cursor
+    private Alarm(UUID id, boolean initializeDefaults) {
         mId = id;
-        Calendar calendar = Calendar.getInstance();
-        mTimeHour = calendar.get(Calendar.HOUR_OF_DAY);
-        mTimeMinute = calendar.get(Calendar.MINUTE);
-        mRepeatingDays = new boolean[]{ false, false, false, false, false, false, false };
-        mAlarmTone = GeneralUtilities.defaultRingtone();
-        mIsEnabled = true;
-        mVibrate = true;
-        mTongueTwisterEnabled = true;
-        mColorCaptureEnabled = GeneralUtilities.deviceHasRearFacingCamera();
-        mExpressYourselfEnabled = GeneralUtilities.deviceHasFrontFacingCamera();
-        mNew = false;
-        mSnoozed = false;
-        mSnoozeHour = 0;
-        mSnoozeMinute = 0;
-        mSnoozeSeconds = 0;
-        mTitle = AlarmApplication.getAppContext().getString(R.string.app_name);
+        if (initializeDefaults) {
+            Calendar calendar = Calendar.getInstance();
+            mTimeHour = calendar.get(Calendar.HOUR_OF_DAY);
+            mTimeMinute = calendar.get(Calendar.MINUTE);
+            mRepeatingDays = 0;
+            mAlarmTone = GeneralUtilities.defaultRingtone();
+            mIsEnabled = true;
+            mVibrate = true;
+            mTongueTwisterEnabled = true;
+            mColorCaptureEnabled = GeneralUtilities.deviceHasRearFacingCamera();
+            mExpressYourselfEnabled = GeneralUtilities.deviceHasFrontFacingCamera();
+            mNew = false;
+            mSnoozed = false;
+            mSnoozeHour = 0;
+            mSnoozeMinute = 0;
+            mSnoozeSeconds = 0;
+            mTitle = AlarmApplication.getAppContext().getString(R.string.app_name);
+        }
+    }
+
+    public static Alarm newAlarmForDatabaseRow(UUID id) {
+        return new Alarm(id, false);
+    }
+
+    // Returns a copy of the alarm, which AlarmList uses so that its cached alarms are never shared
+    // with callers
+    Alarm copy() {
+        Alarm alarm = new Alarm(mId, false);
+        alarm.mTitle = mTitle;
+        alarm.mTimeHour = mTimeHour;
+        alarm.mTimeMinute = mTimeMinute;
+        alarm.mRepeatingDays = mRepeatingDays;
+        alarm.mAlarmTone = mAlarmTone;
+        alarm.mAlarmToneString = mAlarmToneString;
+        alarm.mIsEnabled = mIsEnabled;
+        alarm.mVibrate = mVibrate;
+        alarm.mTongueTwisterEnabled = mTongueTwisterEnabled;
+        alarm.mColorCaptureEnabled = mColorCaptureEnabled;
+        alarm.mExpressYourselfEnabled = mExpressYourselfEnabled;
+        alarm.mNew = mNew;
+        alarm.mSnoozed = mSnoozed;
+        alarm.mSnoozeHour = mSnoozeHour;
+        alarm.mSnoozeMinute = mSnoozeMinute;
+        alarm.mSnoozeSeconds = mSnoozeSeconds;
+        alarm.mNextTriggerMillis = mNextTriggerMillis;
+        alarm.mPartial = mPartial;
+        return alarm;
+    }
+
+    void markPartial() {
+        mPartial = true;
+    }
+
+    public boolean isPartial() {
+        return mPartial;
     }
 
     public long schedule() {
         Context context = AlarmApplication.getAppContext();
-        if (isEnabled() && !isNew()) {
-            AlarmScheduler.cancelAlarm(context, this);
-        } else {
-            setIsEnabled(true);
-        }
+        setIsEnabled(true);
         // If someone edits alarm settings while in a snooze period we reset the snooze
         setSnoozed(false);
         setNew(false);
+        long alarmTime = AlarmScheduler.getAlarmTime(System.currentTimeMillis(),
+                TimeZone.getDefault(), this);
+        setNextTriggerMillis(alarmTime);
         AlarmList.get(context).updateAlarm(this);
-        return AlarmScheduler.scheduleAlarm(context, this);
+        // Registering the alarm replaces any previous registration for it
+        AlarmScheduler.scheduleAlarm(context, this);
+        return alarmTime;
     }
 
     public void snooze() {
         Context context = AlarmApplication.getAppContext();
-        // Schedule the snooze and update the alarm data with the details
-        long snoozeTime = AlarmScheduler.snoozeAlarm(context, this, getAlarmSnoozeDuration());
+        // Update the alarm data with the snooze details and schedule the snooze
+        long snoozeTime = System.currentTimeMillis() + getAlarmSnoozeDuration();
         Calendar snoozeCalendar = Calendar.getInstance();
         snoozeCalendar.setTimeInMillis(snoozeTime);
         setSnoozeHour(snoozeCalendar.get(Calendar.HOUR_OF_DAY));
@@ -138,15 +187,18 @@ public class Alarm {
         setSnoozeSeconds(snoozeCalendar.get(Calendar.SECOND));
         setSnoozed(true);
         setIsEnabled(true);
+        setNextTriggerMillis(snoozeTime);
         AlarmList.get(context).updateAlarm(this);
+        AlarmScheduler.scheduleAlarm(context, this);
     }
 
     public void delete() {
         Context context = AlarmApplication.getAppContext();
-        if (isEnabled()) {
+        boolean wasEnabled = isEnabled();
+        AlarmList.get(context).deleteAlarm(this);
+        if (wasEnabled) {
             AlarmScheduler.cancelAlarm(context, this);
         }
-        AlarmList.get(context).deleteAlarm(this);
     }
 
     public void cancel() {
@@ -154,30 +206,29 @@ public class Alarm {
         setIsEnabled(false);
         // Reset the snooze state if we are cancelling the alarm
         setSnoozed(false);
-        AlarmScheduler.cancelAlarm(context, this);
+        setNextTriggerMillis(0);
         AlarmList.get(context).updateAlarm(this);
+        AlarmScheduler.cancelAlarm(context, this);
     }
 
     public void onDismiss() {
         Context context = AlarmApplication.getAppContext();
-        boolean updateAlarm = false;
-        if (isOneShot()) {
+        boolean isOneShot = isOneShot();
+        if (isOneShot) {
             // We disable a oneshot alarm after it has been dismissed
             setIsEnabled(false);
-            updateAlarm = true;
-
+            setNextTriggerMillis(0);
         } else {
-            // Schedule the next repeating alarm if necessary
-            AlarmScheduler.scheduleAlarm(context, this);
-        }
-
-        if (isSnoozed()) {
-            setSnoozed(false);
-            updateAlarm = true;
+            setNextTriggerMillis(AlarmScheduler.getAlarmTime(System.currentTimeMillis(),
+                    TimeZone.getDefault(), this));
         }
+        setSnoozed(false);
+        // The next trigger time always changes on dismiss, so the alarm is always updated
+        AlarmList.get(context).updateAlarm(this);
 
-        if (updateAlarm) {
-            AlarmList.get(context).updateAlarm(this);
+        if (!isOneShot) {
+            // Schedule the next repeating alarm
+            AlarmScheduler.scheduleAlarm(context, this);
         }
     }
 
@@ -224,19 +275,52 @@ public class Alarm {
     }
 
     public void setRepeatingDay(int dayOfWeek, boolean value) {
-        mRepeatingDays[dayOfWeek] = value;
+        if (value) {
+            mRepeatingDays |= (1 << dayOfWeek);
+        } else {
+            mRepeatingDays &= ~(1 << dayOfWeek);
+        }
     }
 
     public Uri getAlarmTone() {
+        if (mAlarmTone == null && mAlarmToneString != null) {
+            if (!mAlarmToneString.isEmpty()) {
+                mAlarmTone = Uri.parse(mAlarmToneString);
+            }
+            mAlarmToneString = null;
+        }
         return mAlarmTone;
     }
 
     public void setAlarmTone(Uri alarmTone) {
         mAlarmTone = alarmTone;
+        mAlarmToneString = null;
+    }
+
+    // Sets the tone from its database representation without parsing it.  An empty string means
+    // the alarm has no tone.
+    public void setAlarmToneString(String alarmTone) {
+        mAlarmTone = null;
+        mAlarmToneString = alarmTone;
+    }
+
+    public String getAlarmToneString() {
+        if (mAlarmToneString != null) {
+            return mAlarmToneString;
+        }
+        return mAlarmTone != null ? mAlarmTone.toString() : "";
     }
 
     public boolean getRepeatingDay(int dayOfWeek) {
-        return mRepeatingDays[dayOfWeek];
+        return (mRepeatingDays & (1 << dayOfWeek)) != 0;
+    }
+
+    public int getRepeatingDays() {
+        return mRepeatingDays;
+    }
+
+    public void setRepeatingDays(int repeatingDays) {
+        mRepeatingDays = repeatingDays;
     }
 
     public boolean shouldVibrate() {
@@ -311,34 +395,15 @@ public class Alarm {
         mSnoozeSeconds = snoozeSeconds;
     }
 
-    public boolean isOneShot() {
-        boolean isOneShot = true;
-        for (int dayOfWeek = Calendar.SUNDAY; dayOfWeek <= Calendar.SATURDAY; ++dayOfWeek) {
-            if (getRepeatingDay(dayOfWeek - 1)) {
-                isOneShot = false;
-                break;
-            }
-        }
-        return isOneShot;
+    public long getNextTriggerMillis() {
+        return mNextTriggerMillis;
     }
 
-    public JSONObject toJSON() {
-        JSONObject json = new JSONObject();
-        try {
-            json.put("Alarm Id", getId());
-            json.put("Alarm Vibrate", shouldVibrate());
-            json.put("Alarm Time Hour", getTimeHour());
-            json.put("Alarm Time Minute", getTimeMinute());
+    public void setNextTriggerMillis(long nextTriggerMillis) {
+        mNextTriggerMillis = nextTriggerMillis;
+    }
 
-            JSONArray repeating = new JSONArray();
-            for (boolean mRepeatingDay : mRepeatingDays) {
-                repeating.put(mRepeatingDay);
-            }
-            json.put("Alarm Repeat", repeating);
-        }
-        catch (JSONException ex) {
-            Logger.trackException(ex);
-        }
-        return json;
+    public boolean isOneShot() {
+        return mRepeatingDays == 0;
     }
 }
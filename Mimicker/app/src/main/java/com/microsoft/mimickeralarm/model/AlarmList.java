@@ -39,40 +39,95 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 import com.microsoft.mimickeralarm.database.AlarmCursorWrapper;
 import com.microsoft.mimickeralarm.database.AlarmDatabaseHelper;
 import com.microsoft.mimickeralarm.database.AlarmDbSchema.AlarmTable;
+import com.microsoft.mimickeralarm.scheduling.AlarmScheduler;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
 import java.util.UUID;
 
 /**
  * This class is a singleton which represents the current list of alarms.  This is the class via
  * which we interact with the database.  This class enables us to query, update and delete alarm
  * information from the database.
+ *
+ * The alarms are loaded from the database once and kept in an in-memory cache keyed by alarm id.
+ * All reads are served from the cache, and addAlarm, updateAlarm and deleteAlarm write through to
+ * the database before updating the cache.  If the database is changed by any other means,
+ * reloadAlarms should be called so that the cache is rebuilt on the next read.
+ *
+ * getAlarm hands out a copy of the cached alarm and writes cache a copy, so callers can modify
+ * the alarm they hold, on any thread, without changing the cache until they save it with
+ * updateAlarm.  getAlarms and getListAlarms are read by the scheduler and the alarm list on every
+ * refresh, so they hand out the cached alarms themselves, which must not be modified.
  */
 public class AlarmList {
     private static final String ORDER_BY = AlarmTable.Columns.HOUR + ", " +
                                             AlarmTable.Columns.MINUTE;
+    // Served by the (enabled, next_trigger_millis) index.  New alarms that have not been saved
+    // yet are enabled but have no trigger time, so they are skipped.
+    private static final String NEXT_ALARM_CLAUSE = AlarmTable.Columns.ENABLED + " = 1 and " +
+                                            AlarmTable.Columns.NEXT_TRIGGER_MILLIS + " > ?";
+    private static final String DUE_ALARMS_CLAUSE = AlarmTable.Columns.ENABLED + " = 1 and " +
+                                            AlarmTable.Columns.NEXT_TRIGGER_MILLIS + " = ?";
+    private static final String STALE_ALARMS_CLAUSE = AlarmTable.Columns.ENABLED + " = 1 and " +
+                                            AlarmTable.Columns.NEXT_TRIGGER_MILLIS + " > 0 and " +
+                                            AlarmTable.Columns.NEXT_TRIGGER_MILLIS + " < ?";
+    // An alarm whose trigger time passed longer ago than this was missed, e.g. because the app
+    // was killed while it rang, rather than being dispatched right now
+    private static final long STALE_TRIGGER_MILLIS = 60 * 1000;
+    // Matches the ORDER_BY clause so that cached reads are ordered the same way as the database
+    private static final Comparator<Alarm> ALARM_TIME_COMPARATOR = new Comparator<Alarm>() {
+        @Override
+        public int compare(Alarm lhs, Alarm rhs) {
+            if (lhs.getTimeHour() != rhs.getTimeHour()) {
+                return lhs.getTimeHour() < rhs.getTimeHour() ? -1 : 1;
+            }
+            if (lhs.getTimeMinute() != rhs.getTimeMinute()) {
+                return lhs.getTimeMinute() < rhs.getTimeMinute() ? -1 : 1;
+            }
+            return 0;
+        }
+    };
     private static AlarmList sAlarmList;
     private Context mContext;
     private SQLiteDatabase mDatabase;
+    // Null until the first read, or after reloadAlarms has been called
+    private Map<UUID, Alarm> mAlarmCache;
+    // Sorted view of the cache which is rebuilt lazily after any write
+    private List<Alarm> mSortedAlarms;
 
-    private AlarmList(Context context) {
+    // Only called directly by tests, which need a list that is not shared
+    AlarmList(Context context) {
         mContext = context.getApplicationContext();
         mDatabase = new AlarmDatabaseHelper(mContext)
                 .getWritableDatabase();
     }
 
-    public static AlarmList get(Context context) {
+    public static synchronized AlarmList get(Context context) {
         if (sAlarmList == null) {
             sAlarmList = new AlarmList(context);
         }
         return sAlarmList;
     }
 
+    // Saving a partial alarm would overwrite the columns it was not read with
+    private static void checkNotPartial(Alarm alarm) {
+        if (alarm.isPartial()) {
+            throw new IllegalArgumentException("Partial alarm " + alarm.getId() + " cannot be saved");
+        }
+    }
+
     private static ContentValues populateContentValues(Alarm alarm) {
         ContentValues values = new ContentValues();
         values.put(AlarmTable.Columns.UUID, alarm.getId().toString());
@@ -80,13 +135,8 @@ public class AlarmList {
         values.put(AlarmTable.Columns.ENABLED, alarm.isEnabled() ? 1 : 0);
         values.put(AlarmTable.Columns.HOUR, alarm.getTimeHour());
         values.put(AlarmTable.Columns.MINUTE, alarm.getTimeMinute());
-        values.put(AlarmTable.Columns.TONE, alarm.getAlarmTone() != null ? alarm.getAlarmTone().toString() : "");
-
-        String repeatingDays = "";
-        for (int i = 0; i < 7; ++i) {
-            repeatingDays += alarm.getRepeatingDay(i) + ",";
-        }
-        values.put(AlarmTable.Columns.DAYS, repeatingDays);
+        values.put(AlarmTable.Columns.TONE, alarm.getAlarmToneString());
+        values.put(AlarmTable.Columns.DAYS, alarm.getRepeatingDays());
         values.put(AlarmTable.Columns.VIBRATE, alarm.shouldVibrate());
         values.put(AlarmTable.Columns.TONGUE_TWISTER, alarm.isTongueTwisterEnabled());
         values.put(AlarmTable.Columns.COLOR_CAPTURE, alarm.isColorCaptureEnabled());
@@ -96,68 +146,251 @@ public class AlarmList {
         values.put(AlarmTable.Columns.SNOOZED_HOUR, alarm.getSnoozeHour());
         values.put(AlarmTable.Columns.SNOOZED_MINUTE, alarm.getSnoozeMinute());
         values.put(AlarmTable.Columns.SNOOZED_SECONDS, alarm.getSnoozeSeconds());
+        values.put(AlarmTable.Columns.NEXT_TRIGGER_MILLIS, alarm.getNextTriggerMillis());
 
         return values;
     }
 
-    public void addAlarm(Alarm alarm) {
+    public synchronized void addAlarm(Alarm alarm) {
+        checkNotPartial(alarm);
         ContentValues values = populateContentValues(alarm);
 
-        mDatabase.insert(AlarmTable.NAME, null, values);
+        if (mDatabase.insert(AlarmTable.NAME, null, values) != -1 && mAlarmCache != null) {
+            mAlarmCache.put(alarm.getId(), alarm.copy());
+            mSortedAlarms = null;
+        }
     }
 
-    public List<Alarm> getAlarms() {
-        List<Alarm> alarms = new ArrayList<>();
-
-        AlarmCursorWrapper cursor = queryAlarms(null, null, ORDER_BY);
+    // Returns the cached alarms ordered by time, as a list that cannot be modified.  The alarms
+    // must not be modified either, so use getAlarm to get a copy to change and save.
+    public synchronized List<Alarm> getAlarms() {
+        loadAlarmsIfNeeded();
 
-        cursor.moveToFirst();
-        while (!cursor.isAfterLast()) {
-            alarms.add(cursor.getAlarm());
-            cursor.moveToNext();
+        if (mSortedAlarms == null) {
+            mSortedAlarms = new ArrayList<>(mAlarmCache.values());
+            // The sort is stable, so alarms with the same time keep their database order
+            Collections.sort(mSortedAlarms, ALARM_TIME_COMPARATOR);
         }
-        cursor.close();
 
-        return alarms;
+        // A write replaces the sorted view rather than changing it, so the view stays as it was
+        return Collections.unmodifiableList(mSortedAlarms);
     }
 
-    public Alarm getAlarm(UUID id) {
-        AlarmCursorWrapper cursor = queryAlarms(
-                AlarmTable.Columns.UUID + " = ?",
-                new String[]{id.toString()},
-                null
-        );
+    // Returns the alarms to show in the alarm list, ordered by time.  If the cache has not been
+    // loaded only the AlarmTable.LIST_COLUMNS are read, and these partial alarms are not cached.
+    // They are marked partial so that saving one fails, so use getAlarm to get the full alarm
+    // before changing one.  The list itself can be modified.
+    public synchronized List<Alarm> getListAlarms() {
+        if (mAlarmCache != null) {
+            return new ArrayList<>(getAlarms());
+        }
 
+        List<Alarm> alarms = new ArrayList<>();
+        AlarmCursorWrapper cursor = queryAlarms(AlarmTable.LIST_COLUMNS, null, null, ORDER_BY);
         try {
-            if (cursor.getCount() == 0) {
-                return null;
+            while (cursor.moveToNext()) {
+                Alarm alarm = cursor.getAlarm();
+                alarm.markPartial();
+                alarms.add(alarm);
             }
-
-            cursor.moveToFirst();
-            return cursor.getAlarm();
         } finally {
             cursor.close();
         }
+        return alarms;
     }
 
-    public void updateAlarm(Alarm alarm) {
+    public synchronized Alarm getAlarm(UUID id) {
+        loadAlarmsIfNeeded();
+
+        Alarm alarm = mAlarmCache.get(id);
+        return alarm != null ? alarm.copy() : null;
+    }
+
+    public synchronized void updateAlarm(Alarm alarm) {
+        checkNotPartial(alarm);
         ContentValues values = populateContentValues(alarm);
 
-        mDatabase.update(AlarmTable.NAME, values,
+        int rowsUpdated = mDatabase.update(AlarmTable.NAME, values,
                 AlarmTable.Columns.UUID + " = ?",
                 new String[]{alarm.getId().toString()});
+
+        if (rowsUpdated > 0 && mAlarmCache != null) {
+            mAlarmCache.put(alarm.getId(), alarm.copy());
+            mSortedAlarms = null;
+        }
     }
 
-    public void deleteAlarm(Alarm alarm) {
+    public synchronized void deleteAlarm(Alarm alarm) {
         mDatabase.delete(AlarmTable.NAME,
                 AlarmTable.Columns.UUID + " = ?",
                 new String[] { alarm.getId().toString() });
+
+        if (mAlarmCache != null) {
+            mAlarmCache.remove(alarm.getId());
+            mSortedAlarms = null;
+        }
+    }
+
+    // Returns the enabled alarm with the earliest next trigger time after afterMillis, or null if
+    // there is none.  Alarms whose trigger time is stale are moved to their next occurrence first,
+    // so that a missed alarm is not hidden from the query for good.
+    public synchronized Alarm getNextAlarm(long afterMillis) {
+        updateStaleTriggerTimes(afterMillis - STALE_TRIGGER_MILLIS);
+
+        Cursor cursor = mDatabase.query(
+                AlarmTable.NAME,
+                new String[] { AlarmTable.Columns.UUID },
+                NEXT_ALARM_CLAUSE,
+                new String[] { Long.toString(afterMillis) },
+                null,
+                null,
+                AlarmTable.Columns.NEXT_TRIGGER_MILLIS,
+                "1"
+        );
+
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return getAlarm(UUID.fromString(cursor.getString(0)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Returns the enabled alarms whose next trigger time is exactly triggerMillis
+    public synchronized List<Alarm> getAlarmsDueAt(long triggerMillis) {
+        List<Alarm> alarms = new ArrayList<>();
+        Cursor cursor = mDatabase.query(
+                AlarmTable.NAME,
+                new String[] { AlarmTable.Columns.UUID },
+                DUE_ALARMS_CLAUSE,
+                new String[] { Long.toString(triggerMillis) },
+                null,
+                null,
+                null
+        );
+
+        try {
+            while (cursor.moveToNext()) {
+                Alarm alarm = getAlarm(UUID.fromString(cursor.getString(0)));
+                if (alarm != null) {
+                    alarms.add(alarm);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return alarms;
+    }
+
+    // Recomputes the next trigger time of every alarm, e.g. after the system time or timezone has
+    // changed
+    public synchronized void updateNextTriggerTimes() {
+        loadAlarmsIfNeeded();
+
+        updateNextTriggerTimes(mAlarmCache.values());
+    }
+
+    // Recomputes the next trigger time of the enabled alarms that should have fired before
+    // beforeMillis.  The lookup is served by the (enabled, next_trigger_millis) index, so this is
+    // cheap when, as usual, there are none.
+    private void updateStaleTriggerTimes(long beforeMillis) {
+        List<Alarm> staleAlarms = new ArrayList<>();
+        Cursor cursor = mDatabase.query(
+                AlarmTable.NAME,
+                new String[] { AlarmTable.Columns.UUID },
+                STALE_ALARMS_CLAUSE,
+                new String[] { Long.toString(beforeMillis) },
+                null,
+                null,
+                null
+        );
+
+        try {
+            if (cursor.getCount() == 0) {
+                return;
+            }
+            loadAlarmsIfNeeded();
+            while (cursor.moveToNext()) {
+                Alarm alarm = mAlarmCache.get(UUID.fromString(cursor.getString(0)));
+                if (alarm != null) {
+                    staleAlarms.add(alarm);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        updateNextTriggerTimes(staleAlarms);
+    }
+
+    // Only the rows whose trigger time changed are updated, in a single transaction.  The alarms
+    // must be the cached instances, which are updated too.
+    private void updateNextTriggerTimes(Collection<Alarm> alarms) {
+        long now = System.currentTimeMillis();
+        TimeZone zone = TimeZone.getDefault();
+        SQLiteStatement update = mDatabase.compileStatement("update " + AlarmTable.NAME +
+                " set " + AlarmTable.Columns.NEXT_TRIGGER_MILLIS + " = ? where " +
+                AlarmTable.Columns.UUID + " = ?");
+        mDatabase.beginTransaction();
+        try {
+            for (Alarm alarm : alarms) {
+                long nextTrigger = 0;
+                if (alarm.isEnabled() && !alarm.isNew()) {
+                    nextTrigger = AlarmScheduler.getAlarmTimeIncludeSnoozed(now, zone, alarm);
+                }
+                if (nextTrigger == alarm.getNextTriggerMillis()) {
+                    continue;
+                }
+                alarm.setNextTriggerMillis(nextTrigger);
+                update.bindLong(1, nextTrigger);
+                update.bindString(2, alarm.getId().toString());
+                update.executeUpdateDelete();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+            update.close();
+        }
+    }
+
+    // Discards the cached alarms so that the next read goes back to the database.  This should be
+    // called if the alarms table is modified without going through this class.
+    public synchronized void reloadAlarms() {
+        mAlarmCache = null;
+        mSortedAlarms = null;
+    }
+
+    private void loadAlarmsIfNeeded() {
+        if (mAlarmCache != null) {
+            return;
+        }
+
+        Map<UUID, Alarm> alarms = new LinkedHashMap<>();
+
+        AlarmCursorWrapper cursor = queryAlarms(null, null, null, ORDER_BY);
+
+        try {
+            cursor.moveToFirst();
+            while (!cursor.isAfterLast()) {
+                Alarm alarm = cursor.getAlarm();
+                alarms.put(alarm.getId(), alarm);
+                cursor.moveToNext();
+            }
+        } finally {
+            cursor.close();
+        }
+
+        mAlarmCache = alarms;
+        mSortedAlarms = null;
     }
 
-    private AlarmCursorWrapper queryAlarms(String queryClause, String[] queryArgs, String orderBy) {
+    // Pass a null projection to get all columns
+    private AlarmCursorWrapper queryAlarms(String[] projection, String queryClause,
+                                           String[] queryArgs, String orderBy) {
         Cursor cursor = mDatabase.query(
                 AlarmTable.NAME,
-                null, // gets all columns
+                projection,
                 queryClause,
                 queryArgs,
                 null,
@@ -44,6 +44,7 @@ import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.support.v4.app.Fragment;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
@@ -52,6 +53,7 @@ import android.widget.Toast;
 import com.microsoft.mimickeralarm.R;
 import com.microsoft.mimickeralarm.mimics.MimicFactory;
 import com.microsoft.mimickeralarm.mimics.MimicNoNetworkFragment;
+import com.microsoft.mimickeralarm.mimics.MimicSelector;
 import com.microsoft.mimickeralarm.model.Alarm;
 import com.microsoft.mimickeralarm.model.AlarmList;
 import com.microsoft.mimickeralarm.scheduling.AlarmScheduler;
@@ -59,6 +61,9 @@ import com.microsoft.mimickeralarm.settings.AlarmSettingsFragment;
 import com.microsoft.mimickeralarm.settings.MimicsPreference;
 import com.microsoft.mimickeralarm.settings.MimicsSettingsFragment;
 import com.microsoft.mimickeralarm.utilities.GeneralUtilities;
+import com.microsoft.mimickeralarm.utilities.LatencyTracer;
+import com.microsoft.mimickeralarm.utilities.Loggable;
+import com.microsoft.mimickeralarm.utilities.Logger;
 import com.microsoft.mimickeralarm.utilities.SettingsUtilities;
 import com.microsoft.mimickeralarm.utilities.SharedWakeLock;
 
@@ -102,6 +107,9 @@ public class AlarmRingingActivity extends AppCompatActivity
     private boolean mAlarmTimedOut;
     private AlarmRingingService mRingingService;
     private boolean mIsServiceBound;
+    // The mimic being played and when it was shown, for the MimicSelector stats
+    private Class mMimicClass;
+    private long mMimicShownMillis;
 
     private ServiceConnection mServiceConnection = new ServiceConnection() {
         public void onServiceConnected(ComponentName className, IBinder service) {
@@ -186,11 +194,15 @@ public class AlarmRingingActivity extends AppCompatActivity
         registerReceiver(mScreenReceiver, new IntentFilter(Intent.ACTION_SCREEN_OFF));
 
         bindRingingService();
+
+        LatencyTracer.markAlarm(mAlarm.getId(), LatencyTracer.CHECKPOINT_SCREEN_SHOWN);
     }
 
     @Override
     public void onMimicSuccess(String shareable) {
+        onMimicFinished(true);
         mAlarm.onDismiss();
+        LatencyTracer.markAlarm(mAlarm.getId(), LatencyTracer.CHECKPOINT_DISMISSED);
         cancelAlarmTimeout();
         if (shareable != null && shareable.length() > 0) {
             GeneralUtilities.showFragmentFromRight(getSupportFragmentManager(),
@@ -203,6 +215,7 @@ public class AlarmRingingActivity extends AppCompatActivity
 
     @Override
     public void onMimicFailure() {
+        onMimicFinished(false);
         if (mAlarmTimedOut) {
             finishActivity();
         } else {
@@ -212,12 +225,22 @@ public class AlarmRingingActivity extends AppCompatActivity
 
     @Override
     public void onMimicError() {
+        // The mimic could not be played, which is not an outcome of the user playing it
+        mMimicClass = null;
         Toast.makeText(this, getString(R.string.mimic_error_toast), Toast.LENGTH_SHORT).show();
         GeneralUtilities.showFragmentFromRight(getSupportFragmentManager(),
                 MimicFactory.getNoNetworkMimic(this),
                 MimicNoNetworkFragment.NO_NETWORK_FRAGMENT_TAG);
     }
 
+    private void onMimicFinished(boolean success) {
+        if (mMimicClass != null) {
+            MimicSelector.onMimicFinished(mMimicClass, success,
+                    SystemClock.elapsedRealtime() - mMimicShownMillis);
+            mMimicClass = null;
+        }
+    }
+
     @Override
     public void onShareCompleted() {
         finishActivity();
@@ -231,12 +254,33 @@ public class AlarmRingingActivity extends AppCompatActivity
     @Override
     public void onRingingDismiss() {
         notifyControllerSilenceAlarmRinging();
+        LatencyTracer.markAlarm(mAlarm.getId(), LatencyTracer.CHECKPOINT_DISMISS_REQUESTED);
+        final long dismissMillis = SystemClock.elapsedRealtime();
+        final boolean warmedUp = MimicFactory.hasPreselectedMimic(mAlarm.getId());
         Fragment mimicFragment = MimicFactory.getMimicFragment(this, mAlarm.getId());
         if (mimicFragment != null) {
+            mMimicClass = mimicFragment.getClass();
+            mMimicShownMillis = dismissMillis;
             GeneralUtilities.showFragmentFromRight(getSupportFragmentManager(),
                     mimicFragment, MimicFactory.MIMIC_FRAGMENT_TAG);
+            // This runs once the fragment transaction has been executed
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Loggable.AppAction appAction =
+                            new Loggable.AppAction(Loggable.Key.APP_MIMIC_READY_LATENCY);
+                    appAction.putProp(Loggable.Key.PROP_LATENCY,
+                            SystemClock.elapsedRealtime() - dismissMillis);
+                    appAction.putProp(Loggable.Key.PROP_WARM_UP_ENABLED,
+                            AlarmScheduler.isWarmUpEnabled(AlarmRingingActivity.this));
+                    appAction.putProp(Loggable.Key.PROP_WARMED_UP, warmedUp);
+                    Logger.track(appAction);
+                    LatencyTracer.markAlarm(mAlarm.getId(), LatencyTracer.CHECKPOINT_MIMIC_READY);
+                }
+            });
         } else {
             mAlarm.onDismiss();
+            LatencyTracer.markAlarm(mAlarm.getId(), LatencyTracer.CHECKPOINT_DISMISSED);
             cancelAlarmTimeout();
             GeneralUtilities.showFragmentFromRight(getSupportFragmentManager(),
                     AlarmNoMimicsFragment.newInstance(mAlarm.getId().toString()),
@@ -38,14 +38,28 @@ package com.microsoft.mimickeralarm.ringing;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 
+import com.microsoft.mimickeralarm.mimics.MimicFactory;
 import com.microsoft.mimickeralarm.model.Alarm;
 import com.microsoft.mimickeralarm.model.AlarmList;
 import com.microsoft.mimickeralarm.scheduling.AlarmNotificationManager;
 import com.microsoft.mimickeralarm.scheduling.AlarmScheduler;
+import com.microsoft.mimickeralarm.utilities.LatencyTracer;
+import com.microsoft.mimickeralarm.utilities.Loggable;
+import com.microsoft.mimickeralarm.utilities.Logger;
 import com.microsoft.mimickeralarm.utilities.SharedWakeLock;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class is hosted by the AlarmRingingService. It controls the visibility of the alarm
@@ -67,17 +81,45 @@ import java.util.UUID;
  *  reshown to the user
  *  The user experience wants to be dismissed but in a scenario where another activity or task is
  *  launched i.e. the share flow
+ *
+ * The AlarmRingingService also calls warmUp shortly before an alarm is due, when the AlarmScheduler
+ * has registered a warm-up, and cancelWarmUp when a warmed up alarm is edited or cancelled.  The
+ * alarms are loaded for the warm-up on a background thread, and the rest of the warm-up runs back
+ * on the main thread.  The time from each alarm's trigger time to its ringtone playing is
+ * tracked, along with whether the warm-up was enabled and whether the controller was warmed up
+ * for it.
  */
 public final class AlarmRingingController extends AlarmRingingSessionDispatcher {
+    private static final String TAG = "AlarmRingingController";
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, TAG);
+                }
+            });
+    // Shared by every controller so that the AlarmScheduler can tell whether an alarm has
+    // anything to cancel, see isWarmedUp
+    private static final Set<UUID> sWarmedUpAlarmIds =
+            Collections.synchronizedSet(new HashSet<UUID>());
     private Context mContext;
     private AlarmRingtonePlayer mRingtonePlayer;
     private AlarmVibrator mVibrator;
     private Alarm mCurrentAlarm;
+    private long mCurrentTriggerMillis;
+    private long mWarmedUpTriggerMillis;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
     private boolean mAllowDismissRequested;
 
     public AlarmRingingController(Context context) {
         mContext = context;
         mRingtonePlayer = new AlarmRingtonePlayer(mContext);
+        mRingtonePlayer.setOnStartedListener(new AlarmRingtonePlayer.OnStartedListener() {
+            @Override
+            public void onStarted() {
+                trackRingingLatency();
+            }
+        });
         mVibrator = new AlarmVibrator(mContext);
     }
 
@@ -85,6 +127,11 @@ public final class AlarmRingingController extends AlarmRingingSessionDispatcher
         return new AlarmRingingController(context);
     }
 
+    // Returns true if the alarm has been warmed up and has not rung or been cancelled since
+    public static boolean isWarmedUp(UUID alarmId) {
+        return sWarmedUpAlarmIds.contains(alarmId);
+    }
+
     @Override
     public void beforeDispatchFirstAlarmRingingSession() {
         mRingtonePlayer.initialize();
@@ -97,6 +144,9 @@ public final class AlarmRingingController extends AlarmRingingSessionDispatcher
         // We need to handle the case where the alarm timed out. In that case we
         // wont get an explicit call from the AlarmRingingActivity to silence the alarm
         silenceAlarmRinging();
+        if (mCurrentAlarm != null) {
+            LatencyTracer.endAlarmTrace(mCurrentAlarm.getId());
+        }
         mCurrentAlarm = null;
         super.alarmRingingSessionCompleted();
     }
@@ -106,8 +156,11 @@ public final class AlarmRingingController extends AlarmRingingSessionDispatcher
         // Cleanup the state now that we are done with all ringing sessions
         mVibrator.cleanup();
         mRingtonePlayer.cleanup();
+        sWarmedUpAlarmIds.clear();
 
         SharedWakeLock.get(mContext).releaseFullWakeLock();
+        LatencyTracer.flush();
+        LatencyTracer.logSummary();
         // We should now update the notification to show the next alarm if appropriate
         AlarmNotificationManager.get(mContext).handleNextAlarmNotificationStatus();
     }
@@ -117,12 +170,95 @@ public final class AlarmRingingController extends AlarmRingingSessionDispatcher
         if (intent != null) {
             UUID alarmId = (UUID) intent.getExtras().getSerializable(AlarmScheduler.ARGS_ALARM_ID);
             mCurrentAlarm = AlarmList.get(mContext).getAlarm(alarmId);
+            mCurrentTriggerMillis = mCurrentAlarm.getNextTriggerMillis();
+            sWarmedUpAlarmIds.remove(alarmId);
+            LatencyTracer.markAlarm(alarmId, LatencyTracer.CHECKPOINT_DISPATCHED);
             startAlarmRinging();
             launchRingingUserExperience(alarmId);
             AlarmNotificationManager.get(mContext).handleAlarmRunningNotificationStatus(alarmId);
         }
     }
 
+    // Called shortly before the alarms due at triggerMillis fire.  Loads the alarms, prepares the
+    // ringtone and pre-selects the mimics, so that ringing and dismissing do not have to wait for
+    // them.  Nothing is done if an alarm is already ringing.  onWarmUpCompleted is run once the
+    // ringtone has been prepared and every mimic pre-selected, possibly on another thread.
+    public void warmUp(final long triggerMillis, final Runnable onWarmUpCompleted) {
+        if (!mAlarmIntentQueue.isEmpty()) {
+            onWarmUpCompleted.run();
+            return;
+        }
+
+        // The alarms are read from the database off the main thread
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean posted = false;
+                try {
+                    final List<Alarm> alarms =
+                            AlarmList.get(mContext).getAlarmsDueAt(triggerMillis);
+                    posted = mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            warmUp(triggerMillis, alarms, onWarmUpCompleted);
+                        }
+                    });
+                } finally {
+                    if (!posted) {
+                        onWarmUpCompleted.run();
+                    }
+                }
+            }
+        });
+    }
+
+    // Runs on the main thread once the alarms due at triggerMillis have been loaded
+    private void warmUp(long triggerMillis, List<Alarm> alarms, final Runnable onWarmUpCompleted) {
+        // An alarm may have started ringing while the alarms were loaded
+        if (alarms.isEmpty() || !mAlarmIntentQueue.isEmpty()) {
+            onWarmUpCompleted.run();
+            return;
+        }
+
+        // Counts the outstanding parts of the warm-up, plus one until they have all been started
+        final AtomicInteger pending = new AtomicInteger(1);
+        Runnable onPartCompleted = new Runnable() {
+            @Override
+            public void run() {
+                if (pending.decrementAndGet() == 0) {
+                    onWarmUpCompleted.run();
+                }
+            }
+        };
+
+        mRingtonePlayer.initialize();
+        Uri ringtone = alarms.get(0).getAlarmTone();
+        if (ringtone != null) {
+            pending.incrementAndGet();
+            mRingtonePlayer.prepare(ringtone, onPartCompleted);
+        }
+        for (Alarm alarm : alarms) {
+            pending.incrementAndGet();
+            MimicFactory.warmUp(mContext, alarm, onPartCompleted);
+            sWarmedUpAlarmIds.add(alarm.getId());
+        }
+        mWarmedUpTriggerMillis = triggerMillis;
+        onPartCompleted.run();
+    }
+
+    // Drops what was warmed up for the alarm, which has been edited or cancelled since.  The
+    // prepared ringtone is released once none of the alarms it was prepared for are left.
+    public void cancelWarmUp(UUID alarmId) {
+        MimicFactory.clearPreselectedMimic(alarmId);
+        if (!sWarmedUpAlarmIds.remove(alarmId)) {
+            return;
+        }
+        if (sWarmedUpAlarmIds.isEmpty() && mAlarmIntentQueue.isEmpty()) {
+            mRingtonePlayer.cleanup();
+            mWarmedUpTriggerMillis = 0;
+        }
+    }
+
     public void silenceAlarmRinging() {
         mVibrator.stop();
         mRingtonePlayer.stop();
@@ -154,6 +290,27 @@ public final class AlarmRingingController extends AlarmRingingSessionDispatcher
         }
     }
 
+    // Tracks the time from the alarm's trigger time to the ringtone first playing
+    private void trackRingingLatency() {
+        if (mCurrentAlarm != null) {
+            LatencyTracer.markAlarm(mCurrentAlarm.getId(), LatencyTracer.CHECKPOINT_AUDIBLE);
+        }
+        if (mCurrentTriggerMillis <= 0) {
+            return;
+        }
+
+        Loggable.AppAction appAction =
+                new Loggable.AppAction(Loggable.Key.APP_ALARM_RINGING_LATENCY);
+        appAction.putProp(Loggable.Key.PROP_LATENCY,
+                System.currentTimeMillis() - mCurrentTriggerMillis);
+        appAction.putProp(Loggable.Key.PROP_WARM_UP_ENABLED,
+                AlarmScheduler.isWarmUpEnabled(mContext));
+        appAction.putProp(Loggable.Key.PROP_WARMED_UP,
+                mCurrentTriggerMillis == mWarmedUpTriggerMillis);
+        Logger.track(appAction);
+        mCurrentTriggerMillis = 0;
+    }
+
     private void launchRingingUserExperience(UUID alarmId) {
         Intent ringingIntent = new Intent(mContext, AlarmRingingActivity.class);
         ringingIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK |
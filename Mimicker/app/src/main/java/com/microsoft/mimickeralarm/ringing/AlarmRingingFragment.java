@@ -227,7 +227,7 @@ public class AlarmRingingFragment extends Fragment {
 
         Loggable.AppAction appAction = new Loggable.AppAction(Loggable.Key.APP_ALARM_RINGING);
 
-        appAction.putJSON(mAlarm.toJSON());
+        appAction.putAlarm(mAlarm);
         Logger.track(appAction);
 
         return view;
@@ -273,7 +273,7 @@ public class AlarmRingingFragment extends Fragment {
         mShowClockOnDragEnd = false;
 
         Loggable.UserAction userAction = new Loggable.UserAction(Loggable.Key.ACTION_ALARM_DISMISS);
-        userAction.putJSON(mAlarm.toJSON());
+        userAction.putAlarm(mAlarm);
         Logger.track(userAction);
 
         mCallback.onRingingDismiss();
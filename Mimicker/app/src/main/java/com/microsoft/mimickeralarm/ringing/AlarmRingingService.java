@@ -43,6 +43,8 @@ import android.os.IBinder;
 import android.util.Log;
 
 import com.microsoft.mimickeralarm.scheduling.AlarmNotificationManager;
+import com.microsoft.mimickeralarm.scheduling.AlarmScheduler;
+import com.microsoft.mimickeralarm.utilities.LatencyTracer;
 import com.microsoft.mimickeralarm.utilities.SharedWakeLock;
 import com.microsoft.mimickeralarm.utilities.GeneralUtilities;
 
@@ -52,7 +54,10 @@ import java.util.UUID;
  * This class is the main application Service that handles the following:
  *
  *  Hosting the AlarmRingingController which receives inbound intents with the DISPATCH_ALARM
- *  action.  These intents are sent from the AlarmWakeReceiver.
+ *  and WARM_UP actions.  These intents are sent from the AlarmWakeReceiver.  The wakeful WARM_UP
+ *  intent is only completed once the warm-up has finished, so the device stays awake for it.
+ *  Intents with the CANCEL_WARM_UP action are sent from the AlarmScheduler when a warmed up alarm
+ *  is edited or cancelled.
  *
  *  Transitioning to a foreground service to host the appropriate alarm notifications when an intent
  *  with the START_FOREGROUND action is received. These intents are sent from the
@@ -77,6 +82,10 @@ public class AlarmRingingService extends Service {
             "com.microsoft.mimickeralarm.ringing.AlarmRingingService.DISPATCH_ALARM";
     public static final String ACTION_TOGGLE_WAKELOCK =
             "com.microsoft.mimickeralarm.ringing.AlarmRingingService.TOGGLE_WAKELOCK";
+    public static final String ACTION_WARM_UP =
+            "com.microsoft.mimickeralarm.ringing.AlarmRingingService.WARM_UP";
+    public static final String ACTION_CANCEL_WARM_UP =
+            "com.microsoft.mimickeralarm.ringing.AlarmRingingService.CANCEL_WARM_UP";
     public static final String ALARM_ID = "alarm_id";
     private static final String ALARM_TIME = "alarm_time";
     private static final String WAKELOCK_ENABLE = "wakelock_enable";
@@ -104,6 +113,18 @@ public class AlarmRingingService extends Service {
         context.startService(serviceIntent);
     }
 
+    // Only sent if the alarm has been warmed up, as alarms are scheduled and cancelled far more
+    // often than they are warmed up
+    public static void cancelWarmUp(Context context, UUID alarmId) {
+        if (!AlarmRingingController.isWarmedUp(alarmId)) {
+            return;
+        }
+        Intent serviceIntent = new Intent(AlarmRingingService.ACTION_CANCEL_WARM_UP);
+        serviceIntent.setClass(context, AlarmRingingService.class);
+        serviceIntent.putExtra(ALARM_ID, alarmId);
+        context.startService(serviceIntent);
+    }
+
     public static void toggleWakeLock(Context context, boolean wakelockEnable) {
         Intent serviceIntent = new Intent(AlarmRingingService.ACTION_TOGGLE_WAKELOCK);
         serviceIntent.setClass(context, AlarmRingingService.class);
@@ -133,8 +154,23 @@ public class AlarmRingingService extends Service {
         if (intent != null) {
             if (ACTION_DISPATCH_ALARM.equals(intent.getAction())) {
                 Log.d(TAG, "Schedule ringing action!");
+                LatencyTracer.markAlarm((UUID) intent.getSerializableExtra(ALARM_ID),
+                        LatencyTracer.CHECKPOINT_SERVICE_STARTED);
                 mController.registerAlarm(intent);
                 AlarmWakeReceiver.completeWakefulIntent(intent);
+            } else if (ACTION_WARM_UP.equals(intent.getAction())) {
+                Log.d(TAG, "Warm up for next alarm!");
+                final Intent wakefulIntent = intent;
+                mController.warmUp(intent.getLongExtra(AlarmScheduler.ARGS_TRIGGER_MILLIS, 0),
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                AlarmWakeReceiver.completeWakefulIntent(wakefulIntent);
+                            }
+                        });
+            } else if (ACTION_CANCEL_WARM_UP.equals(intent.getAction())) {
+                Log.d(TAG, "Cancel warm up!");
+                mController.cancelWarmUp((UUID) intent.getSerializableExtra(ALARM_ID));
             } else if (ACTION_START_FOREGROUND.equals(intent.getAction())) {
                 Log.d(TAG, "Show active notification!");
                 enableForegroundService(intent);
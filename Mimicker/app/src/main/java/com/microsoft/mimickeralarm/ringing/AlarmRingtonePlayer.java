@@ -45,55 +45,157 @@ import com.microsoft.mimickeralarm.utilities.Logger;
 /**
  * A simple utility class to wrap the system media player.  This class is utilized by the
  * AlarmRingingController.
+ *
+ * The ringtone can be prepared ahead of time with prepare, e.g. when the controller is warmed up
+ * before an alarm fires.  A call to play with the same ringtone then starts playing straight away
+ * rather than waiting for the media player to load it.  Stopping only pauses the player, so that
+ * the ringtone can also be restarted straight away.  The caller can pass prepare a callback to
+ * find out when the ringtone has been loaded, or has failed to load.
  */
 public class AlarmRingtonePlayer {
     private MediaPlayer mPlayer;
     private Context mContext;
+    private Uri mPreparedToneUri;
+    private boolean mPrepared;
+    private boolean mStartRequested;
+    private OnStartedListener mOnStartedListener;
+    private Runnable mOnPrepareCompleted;
 
     public AlarmRingtonePlayer(Context context) {
         mContext = context;
     }
 
     public void initialize() {
+        if (mPlayer != null) {
+            return;
+        }
         try {
             mPlayer = new MediaPlayer();
+            mPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+                @Override
+                public void onPrepared(MediaPlayer mp) {
+                    mPrepared = true;
+                    completePrepare();
+                    if (mStartRequested) {
+                        start();
+                    }
+                }
+            });
+            mPlayer.setOnErrorListener(new MediaPlayer.OnErrorListener() {
+                @Override
+                public boolean onError(MediaPlayer mp, int what, int extra) {
+                    Logger.local("Ringtone player error: " + what + " " + extra);
+                    mp.reset();
+                    mPreparedToneUri = null;
+                    mPrepared = false;
+                    completePrepare();
+                    return true;
+                }
+            });
         } catch (Exception e) {
             Logger.trackException(e);
         }
     }
 
     public void cleanup() {
+        completePrepare();
         if (mPlayer != null) {
             mPlayer.release();
             mPlayer = null;
         }
+        mPreparedToneUri = null;
+        mPrepared = false;
+        mStartRequested = false;
     }
 
-    public void play(Uri toneUri) {
-        try {
-            if (mPlayer != null && !mPlayer.isPlaying()) {
-                mPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
-                    @Override
-                    public void onPrepared(MediaPlayer mp) {
-                        mp.start();
-                    }
-                });
-                mPlayer.setDataSource(mContext, toneUri);
-                mPlayer.setAudioStreamType(AudioManager.STREAM_ALARM);
-                mPlayer.setLooping(true);
-                mPlayer.prepareAsync();
+    public void setOnStartedListener(OnStartedListener listener) {
+        mOnStartedListener = listener;
+    }
+
+    // Loads the ringtone without playing it
+    public void prepare(Uri toneUri) {
+        prepare(toneUri, null);
+    }
+
+    // Loads the ringtone without playing it.  onPrepareCompleted is run once the ringtone has
+    // loaded or failed to load, or straight away if there is nothing to load.
+    public void prepare(Uri toneUri, Runnable onPrepareCompleted) {
+        if (mPlayer == null || (mPrepared && toneUri.equals(mPreparedToneUri))) {
+            if (onPrepareCompleted != null) {
+                onPrepareCompleted.run();
             }
+            return;
+        }
+        completePrepare();
+        mOnPrepareCompleted = onPrepareCompleted;
+        if (toneUri.equals(mPreparedToneUri)) {
+            // The ringtone is already being loaded
+            return;
+        }
+        try {
+            mPlayer.reset();
+            mPrepared = false;
+            mPreparedToneUri = toneUri;
+            mPlayer.setDataSource(mContext, toneUri);
+            mPlayer.setAudioStreamType(AudioManager.STREAM_ALARM);
+            mPlayer.setLooping(true);
+            mPlayer.prepareAsync();
         } catch (Exception e) {
+            mPreparedToneUri = null;
             Logger.trackException(e);
+            completePrepare();
+        }
+    }
+
+    public void play(Uri toneUri) {
+        if (mPlayer == null || mPlayer.isPlaying()) {
+            return;
+        }
+        mStartRequested = true;
+        if (toneUri.equals(mPreparedToneUri) && mPrepared) {
+            start();
+        } else {
+            // The player starts once it has been prepared
+            prepare(toneUri);
         }
     }
 
     public void stop() {
-        if (mPlayer != null) {
-            if (mPlayer.isPlaying()) {
-                mPlayer.stop();
+        mStartRequested = false;
+        if (mPlayer != null && mPrepared) {
+            try {
+                if (mPlayer.isPlaying()) {
+                    mPlayer.pause();
+                }
+                mPlayer.seekTo(0);
+            } catch (Exception e) {
+                Logger.trackException(e);
             }
-            mPlayer.reset();
         }
     }
+
+    private void completePrepare() {
+        Runnable onPrepareCompleted = mOnPrepareCompleted;
+        mOnPrepareCompleted = null;
+        if (onPrepareCompleted != null) {
+            onPrepareCompleted.run();
+        }
+    }
+
+    private void start() {
+        mStartRequested = false;
+        try {
+            mPlayer.start();
+        } catch (Exception e) {
+            Logger.trackException(e);
+            return;
+        }
+        if (mOnStartedListener != null) {
+            mOnStartedListener.onStarted();
+        }
+    }
+
+    public interface OnStartedListener {
+        void onStarted();
+    }
 }
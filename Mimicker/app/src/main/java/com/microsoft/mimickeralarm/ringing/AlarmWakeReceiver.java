@@ -40,11 +40,27 @@ import android.content.Intent;
 import android.support.v4.content.WakefulBroadcastReceiver;
 import android.util.Log;
 
+import com.microsoft.mimickeralarm.model.Alarm;
+import com.microsoft.mimickeralarm.model.AlarmList;
+import com.microsoft.mimickeralarm.scheduling.AlarmScheduler;
+import com.microsoft.mimickeralarm.utilities.LatencyTracer;
+
+import java.util.List;
+import java.util.UUID;
+
 /**
  * This class is a special BroadcastReceiver that receives the PendingIntent from the AlarmManager
  * while holding the wakelock.  It forwards the intent to the AlarmRingingService to dispatch the
  * alarm. The service calls AlarmWakeReceiver.completeWakefulIntent() once it has acquired the
  * wakelock.
+ *
+ * If the AlarmScheduler only registers the next alarm, the intent carries the trigger time rather
+ * than an alarm id.  In that case every alarm due at that time is forwarded to the service, which
+ * queues them, and the AlarmScheduler is re-armed for the following alarm.
+ *
+ * The warm-up intent registered shortly before the next alarm is forwarded to the service in the
+ * same way, so that it can prepare for ringing.  The service only completes it once the warm-up
+ * has finished, which the wakelock timeout of startWakefulService bounds to a minute.
  */
 public class AlarmWakeReceiver extends WakefulBroadcastReceiver {
 
@@ -55,6 +71,33 @@ public class AlarmWakeReceiver extends WakefulBroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         Log.d(TAG, "Broadcast from AlarmManager received!");
+        if (AlarmScheduler.ACTION_WARM_UP.equals(intent.getAction())) {
+            Intent serviceIntent = new Intent(AlarmRingingService.ACTION_WARM_UP);
+            serviceIntent.setClass(context, AlarmRingingService.class);
+            serviceIntent.putExtras(intent);
+            startWakefulService(context, serviceIntent);
+        } else if (intent.hasExtra(AlarmScheduler.ARGS_ALARM_ID)) {
+            UUID alarmId = (UUID) intent.getSerializableExtra(AlarmScheduler.ARGS_ALARM_ID);
+            Alarm alarm = AlarmList.get(context).getAlarm(alarmId);
+            if (alarm != null) {
+                LatencyTracer.startAlarmTrace(alarmId, alarm.getNextTriggerMillis());
+            }
+            dispatchAlarm(context, intent);
+        } else {
+            long triggerMillis = intent.getLongExtra(AlarmScheduler.ARGS_TRIGGER_MILLIS, 0);
+            List<Alarm> alarms = AlarmList.get(context).getAlarmsDueAt(triggerMillis);
+            Log.d(TAG, "Dispatching " + alarms.size() + " alarms due at " + triggerMillis);
+            for (Alarm alarm : alarms) {
+                LatencyTracer.startAlarmTrace(alarm.getId(), triggerMillis);
+                Intent alarmIntent = new Intent();
+                alarmIntent.putExtra(AlarmScheduler.ARGS_ALARM_ID, alarm.getId());
+                dispatchAlarm(context, alarmIntent);
+            }
+            AlarmScheduler.scheduleNextAlarm(context, triggerMillis);
+        }
+    }
+
+    private void dispatchAlarm(Context context, Intent intent) {
         Intent serviceIntent = new Intent(AlarmRingingService.ACTION_DISPATCH_ALARM);
         serviceIntent.setClass(context, AlarmRingingService.class);
         serviceIntent.putExtras(intent);
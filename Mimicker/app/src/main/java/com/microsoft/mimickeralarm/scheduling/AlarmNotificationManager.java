@@ -54,10 +54,6 @@ import com.microsoft.mimickeralarm.ringing.AlarmRingingActivity;
 import com.microsoft.mimickeralarm.ringing.AlarmRingingService;
 import com.microsoft.mimickeralarm.utilities.DateTimeUtilities;
 
-import java.util.Calendar;
-import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.UUID;
 
 /**
@@ -147,19 +143,12 @@ public class AlarmNotificationManager {
         if (!shouldEnableNotifications()) return;
 
         // Find the alarm that will fire next
-        List<Alarm> alarms = AlarmList.get(mContext).getAlarms();
-        Calendar now = Calendar.getInstance();
-        SortedMap<Long, UUID> alarmValues = new TreeMap<>();
-        for (Alarm alarm : alarms) {
-            if (alarm.isEnabled()) {
-                alarmValues.put(AlarmScheduler.getAlarmTimeIncludeSnoozed(now, alarm), alarm.getId());
-            }
-        }
+        Alarm nextAlarm = AlarmList.get(mContext).getNextAlarm(System.currentTimeMillis());
 
         //  Decide whether we need to enable, update or remove the notification, or do nothing
-        if (!alarmValues.isEmpty()) {
-            Long alarmTime = alarmValues.firstKey();
-            UUID alarmId = alarmValues.get(alarmTime);
+        if (nextAlarm != null) {
+            long alarmTime = nextAlarm.getNextTriggerMillis();
+            UUID alarmId = nextAlarm.getId();
             boolean wakelockEnable = shouldEnableWakeLock();
             if (!doesCurrentStateMatchAlarmDetails(alarmId, alarmTime, wakelockEnable)) {
                 updateStateWithAlarmDetails(alarmId, alarmTime, wakelockEnable);
@@ -0,0 +1,161 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.scheduling;
+
+import java.util.TimeZone;
+
+/**
+ * This static class calculates when a weekly recurring alarm should next fire.  An alarm is
+ * described by a bitmask of repeating days, where bit (1 << i) is set for day i and 0 is Sunday,
+ * and the second of the day at which it should fire.  An empty mask is a oneshot alarm which fires
+ * at the next occurrence of that time of day.  Snoozed alarms use the same calculation with the
+ * snooze time as the time of day.
+ *
+ * The calculation only uses arithmetic on epoch milliseconds and TimeZone.getOffset, so no objects
+ * are allocated per call.  Daylight saving transitions are handled as follows:
+ *
+ *  A time that falls in a gap (clocks go forward) is moved forward by the length of the gap,
+ *  e.g. 02:30 becomes 03:30.
+ *
+ *  A time that occurs twice (clocks go back) fires at the first of the two instants that is still
+ *  in the future, i.e. the next time the wall clock shows the alarm time.
+ */
+public final class AlarmRecurrence {
+    public static final int DAYS_PER_WEEK = 7;
+    public static final int ALL_DAYS = (1 << DAYS_PER_WEEK) - 1;
+
+    private static final long MILLIS_PER_SECOND = 1000;
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * MILLIS_PER_SECOND;
+    // 1970-01-01 was a Thursday, which is day 4 when Sunday is day 0
+    private static final int EPOCH_DAY_OF_WEEK = 4;
+
+    private AlarmRecurrence() {
+    }
+
+    public static int getSecondOfDay(int hour, int minute, int second) {
+        return (hour * 60 + minute) * 60 + second;
+    }
+
+    /**
+     * Returns the first instant strictly after fromMillis at which the alarm should fire.
+     *
+     * @param fromMillis the current time in epoch milliseconds
+     * @param zone the time zone in which the alarm time of day is expressed
+     * @param repeatingDays the repeating days bitmask, or 0 for a oneshot alarm
+     * @param secondOfDay the time of day at which the alarm fires, see getSecondOfDay
+     */
+    public static long getNextOccurrence(long fromMillis, TimeZone zone, int repeatingDays,
+                                         int secondOfDay) {
+        long localFrom = fromMillis + zone.getOffset(fromMillis);
+        long epochDay = floorDiv(localFrom, MILLIS_PER_DAY);
+        long millisOfDay = localFrom - epochDay * MILLIS_PER_DAY;
+        long alarmMillisOfDay = secondOfDay * MILLIS_PER_SECOND;
+
+        // Alarms are only scheduled to the second, so an alarm time within the current second
+        // counts as already passed
+        int dayOffset = (alarmMillisOfDay / MILLIS_PER_SECOND > millisOfDay / MILLIS_PER_SECOND) ?
+                0 : 1;
+        boolean repeating = (repeatingDays & ALL_DAYS) != 0;
+        int dayOfWeek = (int) floorMod(epochDay + EPOCH_DAY_OF_WEEK, DAYS_PER_WEEK);
+        if (dayOffset == 1 && (!repeating || (repeatingDays & (1 << dayOfWeek)) != 0)) {
+            // If the clocks have just gone back, the alarm time may come round again today
+            long repeated = getRepeatedInstant(epochDay * MILLIS_PER_DAY + alarmMillisOfDay, zone);
+            if (repeated / MILLIS_PER_SECOND > fromMillis / MILLIS_PER_SECOND) {
+                return repeated;
+            }
+        }
+        if (repeating) {
+            while ((repeatingDays & (1 << ((dayOfWeek + dayOffset) % DAYS_PER_WEEK))) == 0) {
+                dayOffset++;
+            }
+        }
+
+        return localToUtc((epochDay + dayOffset) * MILLIS_PER_DAY + alarmMillisOfDay, zone,
+                fromMillis);
+    }
+
+    // Converts a local wall clock time to epoch milliseconds, preferring an instant after
+    // afterMillis if the wall clock time occurs twice.  This assumes that there is at most one
+    // offset transition within a day either side of the given time, which holds for all real time
+    // zones.
+    static long localToUtc(long localMillis, TimeZone zone, long afterMillis) {
+        int offsetBefore = zone.getOffset(localMillis - MILLIS_PER_DAY);
+        int offsetAfter = zone.getOffset(localMillis + MILLIS_PER_DAY);
+        long instantBefore = localMillis - offsetBefore;
+        if (offsetBefore == offsetAfter) {
+            return instantBefore;
+        }
+
+        long instantAfter = localMillis - offsetAfter;
+        boolean beforeValid = zone.getOffset(instantBefore) == offsetBefore;
+        boolean afterValid = zone.getOffset(instantAfter) == offsetAfter;
+        if (beforeValid && afterValid) {
+            // The wall clock time occurs twice, use the first occurrence that has not passed
+            long first = Math.min(instantBefore, instantAfter);
+            return first > afterMillis ? first : Math.max(instantBefore, instantAfter);
+        } else if (afterValid) {
+            return instantAfter;
+        }
+        // Either only the earlier offset applies, or the time falls in a gap in which case using
+        // the offset from before the transition moves it forward by the length of the gap
+        return instantBefore;
+    }
+
+    // Returns the second instant at which the wall clock shows localMillis if the clocks go back
+    // over it, or Long.MIN_VALUE if it only occurs once
+    private static long getRepeatedInstant(long localMillis, TimeZone zone) {
+        int offsetBefore = zone.getOffset(localMillis - MILLIS_PER_DAY);
+        int offsetAfter = zone.getOffset(localMillis + MILLIS_PER_DAY);
+        long instantAfter = localMillis - offsetAfter;
+        if (offsetAfter < offsetBefore && zone.getOffset(instantAfter) == offsetAfter &&
+                zone.getOffset(localMillis - offsetBefore) == offsetBefore) {
+            return instantAfter;
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            q--;
+        }
+        return q;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+}
@@ -38,31 +38,91 @@ package com.microsoft.mimickeralarm.scheduling;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.microsoft.mimickeralarm.model.AlarmList;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * This BroadcastReceiver is registered to be called for the following system intents:
  *
  * Boot - when the system is booted we want to re-register the alarms with the AlarmManager
+ * Package replaced - the AlarmManager keeps the registrations of the previous version of the app,
+ * which may need to be replaced
  * Time/Date/Timezone change - We re-register with the AlarmManager when any of these changes happen
  * in the system.
  *
- * Note that this receiver is called in the main thread, so there should not be any thread safety
- * issues with interfering with the alarm user interface functionality.
+ * Re-registering only sets and cancels the AlarmManager registrations whose trigger times have
+ * changed, see AlarmScheduler.refreshAlarms.  The database work runs on a single background
+ * thread using goAsync, so that the receiver does not hold up the main thread and broadcasts that
+ * arrive together, e.g. a time and a timezone change, are handled one after the other.  AlarmList
+ * is synchronized, so this does not interfere with the alarm user interface functionality.
  *
  * Once we have re-registered alarms, we check to see if we need to display a notification by
- * calling into the AlarmNotificationManager.
+ * calling into the AlarmNotificationManager on the main thread.
  */
 public class AlarmRegistrar extends BroadcastReceiver {
 
-    private static void refreshAlarms(Context context) {
-        AlarmScheduler.cancelAlarms(context);
-        if (AlarmScheduler.scheduleAlarms(context)) {
-            AlarmNotificationManager.get(context).handleNextAlarmNotificationStatus();
-        }
+    private static final String TAG = "AlarmRegistrar";
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, TAG);
+                }
+            });
+
+    private static boolean refreshAlarms(Context context, boolean registrationsLost) {
+        long startMillis = SystemClock.elapsedRealtime();
+        // The stored trigger times are stale after a reboot or a time/timezone change
+        AlarmList.get(context).updateNextTriggerTimes();
+        boolean alarmsScheduled = AlarmScheduler.refreshAlarms(context, registrationsLost);
+        Log.d(TAG, "Refreshed alarms in " + (SystemClock.elapsedRealtime() - startMillis) + "ms");
+        return alarmsScheduled;
+    }
+
+    // Updates the next alarm notification on the main thread and then finishes the broadcast.
+    // Returns false if the update could not be posted.
+    private static boolean postNotificationUpdate(final Context context,
+                                                  final PendingResult result) {
+        return new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    AlarmNotificationManager.get(context).handleNextAlarmNotificationStatus();
+                } finally {
+                    result.finish();
+                }
+            }
+        });
     }
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        refreshAlarms(context);
+        final Context appContext = context.getApplicationContext();
+        // The AlarmManager drops every registration when the device reboots
+        final boolean registrationsLost = Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction());
+        final PendingResult result = goAsync();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // The broadcast must be finished however the refresh ends, or the system will
+                // consider the receiver hung
+                boolean alarmsScheduled = false;
+                try {
+                    alarmsScheduled = refreshAlarms(appContext, registrationsLost);
+                } finally {
+                    if (!alarmsScheduled || !postNotificationUpdate(appContext, result)) {
+                        result.finish();
+                    }
+                }
+            }
+        });
     }
 }
@@ -39,229 +39,224 @@ import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 
 import com.microsoft.mimickeralarm.model.Alarm;
 import com.microsoft.mimickeralarm.model.AlarmList;
+import com.microsoft.mimickeralarm.ringing.AlarmRingingService;
 import com.microsoft.mimickeralarm.ringing.AlarmWakeReceiver;
 
-import java.util.Calendar;
-import java.util.List;
+import java.util.TimeZone;
+import java.util.UUID;
 
 /**
  * This static class implements all the alarm scheduling logic. The process of creating an alarm
  * is as follows:
  *
- *  - We use the Calendar class to calculate the time of the alarm to be scheduled
- *  - A PendingIntent is created to call into the AlarmWakeReceiver with the appropriate alarm id
- *  - The PendingIntent is registered with the AlarmManager to call back at the future alarm time we
- *  calculated
+ *  - We use AlarmRecurrence to calculate the time of the alarm to be scheduled, and the Alarm
+ *  class stores it as the alarm's next trigger time
+ *  - A single PendingIntent is kept registered with the AlarmManager for the earliest next
+ *  trigger time of all the enabled alarms
+ *  - When it fires, the AlarmWakeReceiver dispatches every alarm due at that instant and calls
+ *  scheduleNextAlarm to re-arm for the following one
  *
- *  This class is utilized by the AlarmRegistrar and the Alarm class.
+ * The registration cost is then the same however many alarms there are, as finding the earliest
+ * trigger time is an indexed lookup.
+ *
+ * Unless the warm-up has been turned off with setWarmUpEnabled, a second PendingIntent is
+ * registered WARM_UP_LEAD_MILLIS before the next alarm.  It lets the AlarmRingingController load
+ * the alarm, prepare the ringtone and pre-select the mimic before the alarm fires.  Whatever was
+ * warmed up for an alarm is dropped when the alarm is scheduled again or cancelled, as its
+ * settings may have changed.
+ *
+ * Every registration is recorded in a private SharedPreferences file so that refreshAlarms only
+ * needs to set and cancel the registrations that have changed.  The file also holds the flags
+ * that are kept when the registrations are cleared.  Older versions registered every alarm
+ * with its own PendingIntent without recording it, so the first refresh cancels the per alarm
+ * registration of every alarm once.
+ *
+ *  This class is utilized by the AlarmRegistrar, the AlarmWakeReceiver and the Alarm class.  The
+ *  Alarm class always updates the database before scheduling or cancelling, so the next alarm
+ *  can be looked up from the database.
  */
 public final class AlarmScheduler {
 
     public static final String ARGS_ALARM_ID = "alarm_id";
+    public static final String ARGS_TRIGGER_MILLIS = "trigger_millis";
+    public static final String ACTION_WARM_UP =
+            "com.microsoft.mimickeralarm.scheduling.AlarmScheduler.WARM_UP";
+
+    private static final long WARM_UP_LEAD_MILLIS = 30 * 1000;
+    private static final String REGISTRATIONS_PREFERENCES = "alarm_registrations";
+    private static final String NEXT_ALARM_REGISTRATION = "next_alarm";
+    private static final String LEGACY_REGISTRATIONS_CANCELLED = "legacy_registrations_cancelled";
+    private static final String WARM_UP_ENABLED = "warm_up_enabled";
+    private static final String ACTION_NEXT_ALARM =
+            "com.microsoft.mimickeralarm.scheduling.AlarmScheduler.NEXT_ALARM";
 
     private AlarmScheduler() {
     }
 
-    public static boolean scheduleAlarms(Context context) {
-        List<Alarm> alarms =  AlarmList.get(context).getAlarms();
-        boolean alarmsScheduled = false;
-        for (Alarm alarm : alarms) {
-            if (alarm.isEnabled()) {
-                scheduleAlarm(context, alarm);
-                alarmsScheduled = true;
-            }
+    // Brings the AlarmManager registrations in line with the alarms' stored trigger times.  Only
+    // the registrations which differ from the recorded ones are set or cancelled.  Pass
+    // registrationsLost when the AlarmManager has dropped every registration, e.g. after a reboot.
+    // Returns true if any alarm is scheduled.
+    public static boolean refreshAlarms(Context context, boolean registrationsLost) {
+        SharedPreferences registrations = getRegistrations(context);
+        SharedPreferences.Editor editor = registrations.edit();
+        long registeredMillis = registrationsLost ? 0 :
+                registrations.getLong(NEXT_ALARM_REGISTRATION, 0);
+
+        if (!registrations.getBoolean(LEGACY_REGISTRATIONS_CANCELLED, false)) {
+            cancelLegacyRegistrations(context);
+            editor.putBoolean(LEGACY_REGISTRATIONS_CANCELLED, true);
         }
-        return alarmsScheduled;
-    }
 
-    public static void cancelAlarms(Context context) {
-        List<Alarm> alarms =  AlarmList.get(context).getAlarms();
-        for (Alarm alarm : alarms) {
-            if (alarm.isEnabled()) {
-                cancelAlarm(context, alarm);
+        boolean alarmsScheduled = false;
+        Alarm nextAlarm = AlarmList.get(context).getNextAlarm(System.currentTimeMillis());
+        if (nextAlarm != null) {
+            long triggerMillis = nextAlarm.getNextTriggerMillis();
+            if (triggerMillis != registeredMillis) {
+                setAlarm(context, triggerMillis, createNextAlarmPendingIntent(context, triggerMillis));
+                setWarmUp(context, triggerMillis);
+                editor.putLong(NEXT_ALARM_REGISTRATION, triggerMillis);
             }
+            alarmsScheduled = true;
+        } else if (registrations.contains(NEXT_ALARM_REGISTRATION)) {
+            // The registration is no longer needed
+            AlarmManager alarmManager = getAlarmManager(context);
+            alarmManager.cancel(createNextAlarmPendingIntent(context, 0));
+            alarmManager.cancel(createWarmUpPendingIntent(context, 0));
+            editor.remove(NEXT_ALARM_REGISTRATION);
         }
-    }
+        editor.apply();
 
-    public static long scheduleAlarm(Context context, Alarm alarm) {
-        PendingIntent pendingIntent = createPendingIntent(context, alarm);
-        Calendar calenderNow = Calendar.getInstance();
-        long time = getAlarmTime(calenderNow, alarm);
-        setAlarm(context, time, pendingIntent);
-        return time;
+        return alarmsScheduled;
     }
 
-    public static long getAlarmTime(Calendar calendarFrom, Alarm alarm) {
-        if (alarm.isOneShot()) {
-            return getOneShotAlarmTime(calendarFrom, alarm);
-        } else {
-            return getRepeatingAlarmTime(calendarFrom, alarm);
-        }
+    // Registers the alarm to fire at its next trigger time, which must already be saved
+    public static void scheduleAlarm(Context context, Alarm alarm) {
+        AlarmRingingService.cancelWarmUp(context, alarm.getId());
+        scheduleNextAlarm(context, System.currentTimeMillis());
     }
 
-    private static long getOneShotAlarmTime(Calendar calendarFrom, Alarm alarm) {
-        Calendar calendarAlarm = Calendar.getInstance();
-        calendarAlarm.set(Calendar.HOUR_OF_DAY, alarm.getTimeHour());
-        calendarAlarm.set(Calendar.MINUTE, alarm.getTimeMinute());
-        calendarAlarm.set(Calendar.SECOND, 0);
-        calendarAlarm.set(Calendar.MILLISECOND, 0);
-
-        final int nowHour = calendarFrom.get(Calendar.HOUR_OF_DAY);
-        final int nowMinute = calendarFrom.get(Calendar.MINUTE);
-
-        // if we cannot schedule today then set the alarm for tomorrow
-        if ((alarm.getTimeHour() < nowHour) ||
-                (alarm.getTimeHour() == nowHour && alarm.getTimeMinute() <= nowMinute)) {
-            calendarAlarm.add(Calendar.DATE, 1);
+    // Registers the single PendingIntent for the first enabled alarm that triggers after
+    // afterMillis.  Returns false, having cancelled any registration, if there is no such alarm.
+    public static boolean scheduleNextAlarm(Context context, long afterMillis) {
+        Alarm nextAlarm = AlarmList.get(context).getNextAlarm(afterMillis);
+        if (nextAlarm == null) {
+            getAlarmManager(context).cancel(createNextAlarmPendingIntent(context, 0));
+            getAlarmManager(context).cancel(createWarmUpPendingIntent(context, 0));
+            getRegistrations(context).edit().remove(NEXT_ALARM_REGISTRATION).apply();
+            return false;
         }
 
-        return calendarAlarm.getTimeInMillis();
+        long triggerMillis = nextAlarm.getNextTriggerMillis();
+        setAlarm(context, triggerMillis, createNextAlarmPendingIntent(context, triggerMillis));
+        setWarmUp(context, triggerMillis);
+        getRegistrations(context).edit().putLong(NEXT_ALARM_REGISTRATION, triggerMillis).apply();
+        return true;
     }
 
-    private static long getRepeatingAlarmTime(Calendar calendarFrom, Alarm alarm) {
-        Calendar calendarAlarm = Calendar.getInstance();
-        calendarAlarm.set(Calendar.HOUR_OF_DAY, alarm.getTimeHour());
-        calendarAlarm.set(Calendar.MINUTE, alarm.getTimeMinute());
-        calendarAlarm.set(Calendar.SECOND, 0);
-        calendarAlarm.set(Calendar.MILLISECOND, 0);
-        boolean thisWeek = false;
-
-        final int nowDay = calendarFrom.get(Calendar.DAY_OF_WEEK);
-        final int nowHour = calendarFrom.get(Calendar.HOUR_OF_DAY);
-        final int nowMinute = calendarFrom.get(Calendar.MINUTE);
-
-        // First check if it's later today or later in the week
-        for (int dayOfWeek = Calendar.SUNDAY; dayOfWeek <= Calendar.SATURDAY; ++dayOfWeek) {
-            if (alarm.getRepeatingDay(dayOfWeek - 1) && dayOfWeek >= nowDay &&
-                    !(dayOfWeek == nowDay && alarm.getTimeHour() < nowHour) &&
-                    !(dayOfWeek == nowDay && alarm.getTimeHour() == nowHour &&
-                            alarm.getTimeMinute() <= nowMinute)) {
-                // Only increment the calendar if the alarm isn't for later today
-                if (dayOfWeek > nowDay) {
-                    calendarAlarm.add(Calendar.DATE, dayOfWeek - nowDay);
-                }
-                thisWeek = true;
-                break;
-            }
+    // Turns the warm-up on or off at runtime, and registers or cancels it for the next alarm.
+    // Whether it was on is logged with the ringing and mimic latencies so the two can be compared.
+    public static void setWarmUpEnabled(Context context, boolean enabled) {
+        getRegistrations(context).edit().putBoolean(WARM_UP_ENABLED, enabled).apply();
+        Alarm nextAlarm = AlarmList.get(context).getNextAlarm(System.currentTimeMillis());
+        if (nextAlarm == null) {
+            getAlarmManager(context).cancel(createWarmUpPendingIntent(context, 0));
+        } else {
+            setWarmUp(context, nextAlarm.getNextTriggerMillis());
         }
+    }
 
-        if (!thisWeek) {
-            for (int dayOfWeek = Calendar.SUNDAY; dayOfWeek <= Calendar.SATURDAY; ++dayOfWeek) {
-                if (alarm.getRepeatingDay(dayOfWeek - 1) && dayOfWeek <= nowDay) {
-                    calendarAlarm.add(Calendar.DATE, (7 - nowDay) + dayOfWeek);
-                    break;
-                }
-            }
-        }
+    public static boolean isWarmUpEnabled(Context context) {
+        return getRegistrations(context).getBoolean(WARM_UP_ENABLED, true);
+    }
 
-        return calendarAlarm.getTimeInMillis();
+    public static long getAlarmTime(long fromMillis, TimeZone zone, Alarm alarm) {
+        return AlarmRecurrence.getNextOccurrence(fromMillis, zone, alarm.getRepeatingDays(),
+                AlarmRecurrence.getSecondOfDay(alarm.getTimeHour(), alarm.getTimeMinute(), 0));
     }
 
-    public static long getAlarmTimeIncludeSnoozed(Calendar calendarFrom, Alarm alarm) {
+    public static long getAlarmTimeIncludeSnoozed(long fromMillis, TimeZone zone, Alarm alarm) {
         if (alarm.isSnoozed()) {
-            if (alarm.isOneShot()) {
-                return getOneShotAlarmTimeSnoozed(calendarFrom, alarm);
-            } else {
-                return getRepeatingAlarmTimeSnoozed(calendarFrom, alarm);
-            }
+            return AlarmRecurrence.getNextOccurrence(fromMillis, zone, alarm.getRepeatingDays(),
+                    AlarmRecurrence.getSecondOfDay(alarm.getSnoozeHour(), alarm.getSnoozeMinute(),
+                            alarm.getSnoozeSeconds()));
         } else {
-            return getAlarmTime(calendarFrom, alarm);
+            return getAlarmTime(fromMillis, zone, alarm);
         }
     }
 
-    private static long getOneShotAlarmTimeSnoozed(Calendar calendarFrom, Alarm alarm) {
-        Calendar calendarAlarm = Calendar.getInstance();
-        calendarAlarm.set(Calendar.HOUR_OF_DAY, alarm.getSnoozeHour());
-        calendarAlarm.set(Calendar.MINUTE, alarm.getSnoozeMinute());
-        calendarAlarm.set(Calendar.SECOND, alarm.getSnoozeSeconds());
-        calendarAlarm.set(Calendar.MILLISECOND, 0);
-
-        final int nowHour = calendarFrom.get(Calendar.HOUR_OF_DAY);
-        final int nowMinute = calendarFrom.get(Calendar.MINUTE);
-        final int nowSeconds = calendarFrom.get(Calendar.SECOND);
+    // Removes the alarm's registration, which must be called after the alarm has been disabled
+    // or deleted in the database
+    public static void cancelAlarm(Context context, Alarm alarm) {
+        AlarmRingingService.cancelWarmUp(context, alarm.getId());
+        scheduleNextAlarm(context, System.currentTimeMillis());
+    }
 
-        // if we cannot schedule today then set the alarm for tomorrow
-        if ((alarm.getSnoozeHour() < nowHour) ||
-            (alarm.getSnoozeHour() == nowHour && alarm.getSnoozeMinute() < nowMinute) ||
-            (alarm.getSnoozeHour() == nowHour && alarm.getSnoozeMinute() == nowMinute &&
-                    alarm.getSnoozeSeconds() <= nowSeconds)) {
-            calendarAlarm.add(Calendar.DATE, 1);
+    // Cancels the per alarm registrations made by older versions, which would otherwise fire
+    // alongside the next alarm registration until the device reboots
+    private static void cancelLegacyRegistrations(Context context) {
+        AlarmManager alarmManager = getAlarmManager(context);
+        for (Alarm alarm : AlarmList.get(context).getAlarms()) {
+            alarmManager.cancel(createPendingIntent(context, alarm.getId()));
         }
-
-        return calendarAlarm.getTimeInMillis();
     }
 
-    private static long getRepeatingAlarmTimeSnoozed(Calendar calendarFrom, Alarm alarm) {
-        Calendar calendarAlarm = Calendar.getInstance();
-        calendarAlarm.set(Calendar.HOUR_OF_DAY, alarm.getSnoozeHour());
-        calendarAlarm.set(Calendar.MINUTE, alarm.getSnoozeMinute());
-        calendarAlarm.set(Calendar.SECOND, alarm.getSnoozeSeconds());
-        calendarAlarm.set(Calendar.MILLISECOND, 0);
-
-        boolean thisWeek = false;
-        final int nowDay = calendarFrom.get(Calendar.DAY_OF_WEEK);
-        final int nowHour = calendarFrom.get(Calendar.HOUR_OF_DAY);
-        final int nowMinute = calendarFrom.get(Calendar.MINUTE);
-        final int nowSeconds = calendarFrom.get(Calendar.SECOND);
+    private static PendingIntent createPendingIntent(Context context, UUID alarmId) {
+        Intent intent = new Intent(context, AlarmWakeReceiver.class);
+        intent.putExtra(ARGS_ALARM_ID, alarmId);
 
-        // First check if it's later today or later in the week
-        for (int dayOfWeek = Calendar.SUNDAY; dayOfWeek <= Calendar.SATURDAY; ++dayOfWeek) {
-            if (alarm.getRepeatingDay(dayOfWeek - 1) && dayOfWeek >= nowDay &&
-                    !(dayOfWeek == nowDay && alarm.getSnoozeHour() < nowHour) &&
-                    !(dayOfWeek == nowDay && alarm.getSnoozeHour() == nowHour &&
-                            alarm.getSnoozeMinute() < nowMinute) &&
-                    !(dayOfWeek == nowDay && alarm.getSnoozeHour() == nowHour &&
-                            alarm.getSnoozeMinute() == nowMinute &&
-                            alarm.getSnoozeSeconds() <= nowSeconds)) {
-                // Only increment the calendar if the alarm isn't for later today
-                if (dayOfWeek > nowDay) {
-                    calendarAlarm.add(Calendar.DATE, dayOfWeek - nowDay);
-                }
-                thisWeek = true;
-                break;
-            }
-        }
+        return PendingIntent.getBroadcast(context, (int)Math.abs(alarmId.getLeastSignificantBits()), intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
 
-        if (!thisWeek) {
-            for (int dayOfWeek = Calendar.SUNDAY; dayOfWeek <= Calendar.SATURDAY; ++dayOfWeek) {
-                if (alarm.getRepeatingDay(dayOfWeek - 1) && dayOfWeek <= nowDay) {
-                    calendarAlarm.add(Calendar.DATE, (7 - nowDay) + dayOfWeek);
-                    break;
-                }
-            }
-        }
+    // The action keeps this PendingIntent distinct from the per alarm ones
+    private static PendingIntent createNextAlarmPendingIntent(Context context, long triggerMillis) {
+        Intent intent = new Intent(ACTION_NEXT_ALARM);
+        intent.setClass(context, AlarmWakeReceiver.class);
+        intent.putExtra(ARGS_TRIGGER_MILLIS, triggerMillis);
 
-        return calendarAlarm.getTimeInMillis();
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
     }
 
-    public static long snoozeAlarm(Context context, Alarm alarm, int snoozePeriod) {
-        PendingIntent pendingIntent = createPendingIntent(context, alarm);
-        Calendar calendarAlarm = Calendar.getInstance();
-        long now = calendarAlarm.getTimeInMillis();
-        calendarAlarm.setTimeInMillis(now + snoozePeriod);
-        long snoozeTime = calendarAlarm.getTimeInMillis();
-        setAlarm(context, snoozeTime, pendingIntent);
-        return snoozeTime;
+    private static PendingIntent createWarmUpPendingIntent(Context context, long triggerMillis) {
+        Intent intent = new Intent(ACTION_WARM_UP);
+        intent.setClass(context, AlarmWakeReceiver.class);
+        intent.putExtra(ARGS_TRIGGER_MILLIS, triggerMillis);
+
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
     }
 
-    public static void cancelAlarm(Context context, Alarm alarm) {
-        PendingIntent pIntent = createPendingIntent(context, alarm);
-        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-        alarmManager.cancel(pIntent);
+    // Records what is currently registered with the AlarmManager, with the registered trigger time
+    // of the next alarm under NEXT_ALARM_REGISTRATION
+    private static SharedPreferences getRegistrations(Context context) {
+        return context.getSharedPreferences(REGISTRATIONS_PREFERENCES, Context.MODE_PRIVATE);
     }
 
-    private static PendingIntent createPendingIntent(Context context, Alarm alarm) {
-        Intent intent = new Intent(context, AlarmWakeReceiver.class);
-        intent.putExtra(ARGS_ALARM_ID, alarm.getId());
+    private static AlarmManager getAlarmManager(Context context) {
+        return (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    }
 
-        return PendingIntent.getBroadcast(context, (int)Math.abs(alarm.getId().getLeastSignificantBits()), intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    // Registers the warm-up for the alarms due at triggerMillis, see AlarmRingingController.warmUp.
+    // The warm-up is best effort, so unlike the alarm itself it is not allowed to fire while the
+    // device is idle.  This avoids it counting against the idle alarm rate limit.
+    private static void setWarmUp(Context context, long triggerMillis) {
+        AlarmManager alarmManager = getAlarmManager(context);
+        PendingIntent pendingIntent = createWarmUpPendingIntent(context, triggerMillis);
+        long warmUpMillis = triggerMillis - WARM_UP_LEAD_MILLIS;
+        if (!isWarmUpEnabled(context) || warmUpMillis <= System.currentTimeMillis()) {
+            alarmManager.cancel(pendingIntent);
+        } else if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT) {
+            alarmManager.setExact(AlarmManager.RTC_WAKEUP, warmUpMillis, pendingIntent);
+        } else {
+            alarmManager.set(AlarmManager.RTC_WAKEUP, warmUpMillis, pendingIntent);
+        }
     }
 
     private static void setAlarm(Context context, long time, PendingIntent pendingIntent) {
-        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        AlarmManager alarmManager = getAlarmManager(context);
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M) {
             alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, time, pendingIntent);
         } else if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT) {
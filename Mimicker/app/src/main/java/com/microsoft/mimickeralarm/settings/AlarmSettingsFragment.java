@@ -281,7 +281,7 @@ public class AlarmSettingsFragment extends PreferenceFragmentCompat {
 
     private void saveSettingsAndExit() {
         Loggable.UserAction userAction = new Loggable.UserAction(Loggable.Key.ACTION_ALARM_SAVE);
-        userAction.putJSON(mAlarm.toJSON());
+        userAction.putAlarm(mAlarm);
         Logger.track(userAction);
 
         populateUpdatedSettings();
@@ -298,7 +298,7 @@ public class AlarmSettingsFragment extends PreferenceFragmentCompat {
 
     private void deleteSettingsAndExit() {
         Loggable.UserAction userAction = new Loggable.UserAction(Loggable.Key.ACTION_ALARM_DELETE);
-        userAction.putJSON(mAlarm.toJSON());
+        userAction.putAlarm(mAlarm);
         Logger.track(userAction);
 
         mAlarm.delete();
@@ -308,7 +308,7 @@ public class AlarmSettingsFragment extends PreferenceFragmentCompat {
 
     private void discardSettingsAndExit() {
         Loggable.UserAction userAction = new Loggable.UserAction(Loggable.Key.ACTION_ALARM_SAVE_DISCARD);
-        userAction.putJSON(mAlarm.toJSON());
+        userAction.putAlarm(mAlarm);
         Logger.track(userAction);
 
         mCallback.onSettingsSaveOrIgnoreChanges();
@@ -0,0 +1,87 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A sink that keeps the tracked events in memory, as a stand-in for Mixpanel in tests.  Install it
+ * with Logger.setSink and call Logger.flush before checking the events.
+ */
+public class InMemoryTelemetrySink implements TelemetrySink {
+    private final List<Event> mEvents = new ArrayList<>();
+    private int mFlushCount;
+
+    @Override
+    public synchronized void send(List<Event> events) {
+        mEvents.addAll(events);
+    }
+
+    @Override
+    public synchronized void flush() {
+        mFlushCount++;
+        notifyAll();
+    }
+
+    public synchronized List<Event> getEvents() {
+        return new ArrayList<>(mEvents);
+    }
+
+    public synchronized int getFlushCount() {
+        return mFlushCount;
+    }
+
+    // Waits for a flush after the first flushCount to reach the sink, returns false if it timed
+    // out.  Read the flush count before calling Logger.flush, as the flush may reach the sink
+    // before this is called.
+    public synchronized boolean awaitFlush(int flushCount, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (mFlushCount == flushCount) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    public synchronized void clear() {
+        mEvents.clear();
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.utilities;
+
+/**
+ * A histogram of latencies in milliseconds with logarithmically sized buckets.  Each power of two
+ * is split into four buckets, so a reported percentile is within about 20% of the actual value
+ * while the histogram stays small enough to persist as a short string.
+ *
+ * This class is not thread safe.  The LatencyTracer guards the histograms it records to, and only
+ * hands out copies from snapshot.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 24;
+    // Bucket 0 holds latencies under a millisecond and the last bucket holds everything over
+    // 2^MAX_EXPONENT milliseconds (about 4.6 hours)
+    private static final int BUCKET_COUNT = MAX_EXPONENT * SUB_BUCKETS + 2;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mTotalCount;
+    private long mMaxMillis;
+
+    void record(long millis) {
+        mCounts[getBucket(millis)]++;
+        mTotalCount++;
+        mMaxMillis = Math.max(mMaxMillis, millis);
+    }
+
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts[i] += other.mCounts[i];
+        }
+        mTotalCount += other.mTotalCount;
+        mMaxMillis = Math.max(mMaxMillis, other.mMaxMillis);
+    }
+
+    public long getTotalCount() {
+        return mTotalCount;
+    }
+
+    public long getMaxMillis() {
+        return mMaxMillis;
+    }
+
+    // Returns the upper bound of the bucket holding the given percentile, or 0 if empty
+    public long getPercentile(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * mTotalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(getBucketUpperBound(i), mMaxMillis);
+            }
+        }
+        return mMaxMillis;
+    }
+
+    // Serialized as the maximum followed by the non-empty buckets, e.g. "1200;29:3,30:1"
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(mMaxMillis).append(';');
+        boolean first = true;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (mCounts[i] > 0) {
+                if (!first) {
+                    builder.append(',');
+                }
+                builder.append(i).append(':').append(mCounts[i]);
+                first = false;
+            }
+        }
+        return builder.toString();
+    }
+
+    // Returns an empty histogram if the string cannot be parsed
+    static LatencyHistogram fromString(String value) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        if (value == null) {
+            return histogram;
+        }
+
+        try {
+            int separator = value.indexOf(';');
+            long maxMillis = Long.parseLong(value.substring(0, separator));
+            String buckets = value.substring(separator + 1);
+            if (!buckets.isEmpty()) {
+                for (String bucket : buckets.split(",")) {
+                    int colon = bucket.indexOf(':');
+                    int index = Integer.parseInt(bucket.substring(0, colon));
+                    long count = Long.parseLong(bucket.substring(colon + 1));
+                    histogram.mCounts[index] += count;
+                    histogram.mTotalCount += count;
+                }
+            }
+            histogram.mMaxMillis = maxMillis;
+        } catch (RuntimeException e) {
+            Logger.trackException(e);
+            return new LatencyHistogram();
+        }
+        return histogram;
+    }
+
+    static int getBucket(long millis) {
+        if (millis < 1) {
+            return 0;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(millis);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        // The bits just below the leading one pick the bucket within the power of two
+        int subBucket = (int) (exponent >= SUB_BUCKET_BITS ?
+                millis >> (exponent - SUB_BUCKET_BITS) : millis << (SUB_BUCKET_BITS - exponent))
+                & (SUB_BUCKETS - 1);
+        return 1 + exponent * SUB_BUCKETS + subBucket;
+    }
+
+    static long getBucketUpperBound(int bucket) {
+        if (bucket == 0) {
+            return 0;
+        }
+        if (bucket == BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+
+        int exponent = (bucket - 1) / SUB_BUCKETS;
+        int subBucket = (bucket - 1) % SUB_BUCKETS;
+        long upperBound = (long) (SUB_BUCKETS + subBucket + 1) << exponent;
+        // Round up so that the bound is never below the latencies in the bucket
+        return (upperBound + SUB_BUCKETS - 1) / SUB_BUCKETS - 1;
+    }
+}
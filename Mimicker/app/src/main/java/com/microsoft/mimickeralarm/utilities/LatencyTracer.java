@@ -0,0 +1,310 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.utilities;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.microsoft.mimickeralarm.appcore.AlarmApplication;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A lightweight tracer that feeds per-stage latency histograms, which are persisted locally so
+ * that percentiles can be reported across many alarms.
+ *
+ * Each ringing alarm gets a trace, which is started by the AlarmWakeReceiver with the alarm's
+ * scheduled time.  The ringing path then marks checkpoints on the trace (received, service
+ * started, dispatched, audible, etc.), and every stage listed in STAGES whose start and end
+ * checkpoints have both been marked is recorded.  Only the first mark of each checkpoint counts,
+ * so repeated calls e.g. when the ringtone is restarted do not skew the histograms.
+ *
+ * Work that is not part of an alarm trace, e.g. the mimic capture and upload, is measured with
+ * begin and end spans.  The Logger also records the duration of its timed events, e.g. each
+ * Project Oxford API call, under the event name with recordDuration.  The Logger measures these
+ * durations itself, so its events keep their duration when tracing is disabled.  snapshot returns the histograms of
+ * every stage and reset discards them.
+ *
+ * All times are taken from the monotonic SystemClock.elapsedRealtime clock.  The only exception
+ * is the scheduled time, which is converted from wall clock time when the trace is started.
+ * Samples are kept in memory until flush is called, so that no disk access happens on the
+ * ringing path.  Flushes merge into the persisted histograms under their own lock, so that
+ * concurrent flushes do not overwrite each other's samples and recording is never blocked on the
+ * disk.  When TRACING_ENABLED is false every call returns straight away.
+ */
+public final class LatencyTracer {
+    public static final String CHECKPOINT_SCHEDULED = "scheduled";
+    public static final String CHECKPOINT_RECEIVED = "received";
+    public static final String CHECKPOINT_SERVICE_STARTED = "service_started";
+    public static final String CHECKPOINT_DISPATCHED = "dispatched";
+    public static final String CHECKPOINT_AUDIBLE = "audible";
+    public static final String CHECKPOINT_SCREEN_SHOWN = "screen_shown";
+    public static final String CHECKPOINT_DISMISS_REQUESTED = "dismiss_requested";
+    public static final String CHECKPOINT_MIMIC_READY = "mimic_ready";
+    public static final String CHECKPOINT_DISMISSED = "dismissed";
+
+    public static final String STAGE_SCHEDULED_TO_RECEIVED = "Scheduled to received";
+    public static final String STAGE_RECEIVED_TO_SERVICE = "Received to service started";
+    public static final String STAGE_SERVICE_TO_DISPATCHED = "Service started to dispatched";
+    public static final String STAGE_DISPATCHED_TO_AUDIBLE = "Dispatched to audible";
+    public static final String STAGE_DISPATCHED_TO_SCREEN = "Dispatched to screen shown";
+    public static final String STAGE_SCHEDULED_TO_AUDIBLE = "Scheduled to audible";
+    public static final String STAGE_DISMISS_TO_MIMIC_READY = "Dismiss to mimic ready";
+    public static final String STAGE_SCHEDULED_TO_DISMISSED = "Scheduled to dismissed";
+    public static final String STAGE_MIMIC_CAPTURE = "Mimic capture";
+    public static final String STAGE_MIMIC_UPLOAD = "Mimic upload";
+    public static final String STAGE_MIMIC_VERIFY = "Mimic verify";
+    public static final String STAGE_MIMIC_LOCAL_ANALYSIS = "Mimic on-device analysis";
+    public static final String STAGE_MIMIC_QUALITY_GATE = "Mimic quality gate";
+    public static final String STAGE_MIMIC_BANNER = "Mimic banner";
+    // From a failure that allows a retry until the mimic is ready to capture again, which includes
+    // the banner animation
+    public static final String STAGE_MIMIC_RETRY_READY = "Mimic retry ready";
+    public static final String STAGE_CAMERA_EXECUTOR_WAIT = "Camera executor wait";
+    public static final String STAGE_CPU_EXECUTOR_WAIT = "CPU executor wait";
+    public static final String STAGE_NETWORK_EXECUTOR_WAIT = "Network executor wait";
+    public static final String STAGE_VERIFY_EXECUTOR_WAIT = "Verify executor wait";
+
+    // Each stage is recorded as {name, start checkpoint, end checkpoint}
+    private static final String[][] STAGES = {
+            {STAGE_SCHEDULED_TO_RECEIVED, CHECKPOINT_SCHEDULED, CHECKPOINT_RECEIVED},
+            {STAGE_RECEIVED_TO_SERVICE, CHECKPOINT_RECEIVED, CHECKPOINT_SERVICE_STARTED},
+            {STAGE_SERVICE_TO_DISPATCHED, CHECKPOINT_SERVICE_STARTED, CHECKPOINT_DISPATCHED},
+            {STAGE_DISPATCHED_TO_AUDIBLE, CHECKPOINT_DISPATCHED, CHECKPOINT_AUDIBLE},
+            {STAGE_DISPATCHED_TO_SCREEN, CHECKPOINT_DISPATCHED, CHECKPOINT_SCREEN_SHOWN},
+            {STAGE_SCHEDULED_TO_AUDIBLE, CHECKPOINT_SCHEDULED, CHECKPOINT_AUDIBLE},
+            {STAGE_DISMISS_TO_MIMIC_READY, CHECKPOINT_DISMISS_REQUESTED, CHECKPOINT_MIMIC_READY},
+            {STAGE_SCHEDULED_TO_DISMISSED, CHECKPOINT_SCHEDULED, CHECKPOINT_DISMISSED},
+    };
+    private static final double[] REPORTED_PERCENTILES = {50, 95, 99};
+
+    private static final boolean TRACING_ENABLED = true;
+    private static final String TAG = "LatencyTracer";
+    private static final String PREFERENCES = "latency_histograms";
+
+    private static final Map<UUID, Map<String, Long>> sTraces = new HashMap<>();
+    // Samples recorded since the last flush
+    private static final Map<String, LatencyHistogram> sPendingHistograms = new HashMap<>();
+    // Guards the persisted histograms.  It is always taken before the class lock, never after.
+    private static final Object sPreferencesLock = new Object();
+
+    private LatencyTracer() {
+    }
+
+    public static synchronized void startAlarmTrace(UUID alarmId, long scheduledMillis) {
+        if (!TRACING_ENABLED) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        long lateness = Math.max(0, System.currentTimeMillis() - scheduledMillis);
+        Map<String, Long> checkpoints = new HashMap<>();
+        checkpoints.put(CHECKPOINT_SCHEDULED, now - lateness);
+        sTraces.put(alarmId, checkpoints);
+        markAlarm(alarmId, CHECKPOINT_RECEIVED);
+    }
+
+    public static synchronized void markAlarm(UUID alarmId, String checkpoint) {
+        if (!TRACING_ENABLED) {
+            return;
+        }
+
+        Map<String, Long> checkpoints = sTraces.get(alarmId);
+        if (checkpoints == null || checkpoints.containsKey(checkpoint)) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        checkpoints.put(checkpoint, now);
+        for (String[] stage : STAGES) {
+            Long start = checkpoints.get(stage[1]);
+            if (stage[2].equals(checkpoint) && start != null) {
+                record(stage[0], now - start);
+            }
+        }
+    }
+
+    public static synchronized void endAlarmTrace(UUID alarmId) {
+        if (!TRACING_ENABLED) {
+            return;
+        }
+        sTraces.remove(alarmId);
+    }
+
+    // Returns the start of a span to pass to end, or 0 if tracing is disabled
+    public static long begin() {
+        return TRACING_ENABLED ? SystemClock.elapsedRealtime() : 0;
+    }
+
+    // Records the span under the stage and returns its duration in milliseconds.  Spans are only
+    // identified by their start, so any number of them can be open at once, nested or not.
+    public static synchronized long end(String stage, long spanStart) {
+        if (!TRACING_ENABLED || spanStart == 0) {
+            return 0;
+        }
+        long duration = SystemClock.elapsedRealtime() - spanStart;
+        record(stage, duration);
+        return duration;
+    }
+
+    // Records a duration in milliseconds that was measured by the caller under the stage
+    public static synchronized void recordDuration(String stage, long millis) {
+        if (!TRACING_ENABLED) {
+            return;
+        }
+        record(stage, millis);
+    }
+
+    // Adds the samples recorded since the last flush to the persisted histograms
+    public static void flush() {
+        if (!TRACING_ENABLED) {
+            return;
+        }
+
+        synchronized (sPreferencesLock) {
+            Map<String, LatencyHistogram> pending;
+            synchronized (LatencyTracer.class) {
+                if (sPendingHistograms.isEmpty()) {
+                    return;
+                }
+                pending = new HashMap<>(sPendingHistograms);
+                sPendingHistograms.clear();
+            }
+
+            SharedPreferences preferences = getPreferences();
+            SharedPreferences.Editor editor = preferences.edit();
+            for (Map.Entry<String, LatencyHistogram> entry : pending.entrySet()) {
+                LatencyHistogram histogram =
+                        LatencyHistogram.fromString(preferences.getString(entry.getKey(), null));
+                histogram.add(entry.getValue());
+                editor.putString(entry.getKey(), histogram.toString());
+            }
+            // apply updates the in-memory preferences before returning, so the next flush reads
+            // these histograms
+            editor.apply();
+        }
+    }
+
+    // Returns a copy of the histogram of every stage, including the samples not yet flushed
+    public static Map<String, LatencyHistogram> snapshot() {
+        Map<String, LatencyHistogram> histograms = new HashMap<>();
+        if (!TRACING_ENABLED) {
+            return histograms;
+        }
+
+        synchronized (sPreferencesLock) {
+            for (String stage : getPreferences().getAll().keySet()) {
+                histograms.put(stage, getHistogram(stage));
+            }
+            synchronized (LatencyTracer.class) {
+                for (Map.Entry<String, LatencyHistogram> entry : sPendingHistograms.entrySet()) {
+                    if (!histograms.containsKey(entry.getKey())) {
+                        LatencyHistogram histogram = new LatencyHistogram();
+                        histogram.add(entry.getValue());
+                        histograms.put(entry.getKey(), histogram);
+                    }
+                }
+            }
+        }
+        return histograms;
+    }
+
+    // Discards every recorded sample, both pending and persisted
+    public static void reset() {
+        synchronized (sPreferencesLock) {
+            synchronized (LatencyTracer.class) {
+                sPendingHistograms.clear();
+            }
+            getPreferences().edit().clear().apply();
+        }
+    }
+
+    // Returns the latency in milliseconds at the percentile for the stage, or 0 with no samples
+    public static long getPercentile(String stage, double percentile) {
+        synchronized (sPreferencesLock) {
+            return getHistogram(stage).getPercentile(percentile);
+        }
+    }
+
+    public static void logSummary() {
+        if (!TRACING_ENABLED) {
+            return;
+        }
+
+        for (Map.Entry<String, LatencyHistogram> entry : snapshot().entrySet()) {
+            String stage = entry.getKey();
+            LatencyHistogram histogram = entry.getValue();
+            StringBuilder summary = new StringBuilder(stage);
+            summary.append(" (").append(histogram.getTotalCount()).append(" samples):");
+            for (double percentile : REPORTED_PERCENTILES) {
+                summary.append(" p").append((int) percentile).append('=')
+                        .append(histogram.getPercentile(percentile)).append("ms");
+            }
+            Log.d(TAG, summary.toString());
+        }
+    }
+
+    // Must be called with the preferences lock held
+    private static LatencyHistogram getHistogram(String stage) {
+        LatencyHistogram histogram =
+                LatencyHistogram.fromString(getPreferences().getString(stage, null));
+        synchronized (LatencyTracer.class) {
+            LatencyHistogram pending = sPendingHistograms.get(stage);
+            if (pending != null) {
+                histogram.add(pending);
+            }
+        }
+        return histogram;
+    }
+
+    private static void record(String stage, long millis) {
+        LatencyHistogram histogram = sPendingHistograms.get(stage);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            sPendingHistograms.put(stage, histogram);
+        }
+        histogram.record(millis);
+    }
+
+    private static SharedPreferences getPreferences() {
+        return AlarmApplication.getAppContext()
+                .getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.utilities;
+
+import android.util.Log;
+
+import com.microsoft.mimickeralarm.BuildConfig;
+
+import java.util.List;
+
+/**
+ * Prints the tracked events to logcat in debug builds, and drops them otherwise.  This is the
+ * sink used until Mixpanel has been initialized, and when logging is disabled in debug builds.
+ */
+class LogcatTelemetrySink implements TelemetrySink {
+    private static final String TAG = "Logger";
+
+    @Override
+    public void send(List<Event> events) {
+        if (!BuildConfig.DEBUG) {
+            return;
+        }
+
+        for (Event event : events) {
+            double duration = event.properties.optDouble(Loggable.DURATION_PROPERTY);
+            if (!Double.isNaN(duration)) {
+                Log.d(TAG, event.name + " took " + (long) (duration * 1000) + " milliseconds");
+            }
+            Log.d(TAG, event.name);
+            Log.d(TAG, event.properties.toString());
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+}
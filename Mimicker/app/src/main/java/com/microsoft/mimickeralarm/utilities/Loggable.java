@@ -35,27 +35,80 @@
 
 package com.microsoft.mimickeralarm.utilities;
 
+import android.util.Log;
+
+import com.microsoft.mimickeralarm.model.Alarm;
+import com.microsoft.mimickeralarm.scheduling.AlarmRecurrence;
 import com.microsoft.projectoxford.emotion.contract.RecognizeResult;
 import com.microsoft.projectoxford.vision.contract.AnalyzeResult;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
+/**
+ * An event to be tracked by the Logger.  The properties are only stored as they are put, the JSON
+ * for them is built on the telemetry worker thread, so that creating and tracking an event is
+ * cheap on the calling thread.
+ *
+ * Numbers and booleans are kept unboxed in a primitive array, and every other value is copied or
+ * converted to its string when it is put.  Tracking the event takes a Snapshot of the properties,
+ * which is all the worker thread reads, so the loggable can be changed or reused straight after.
+ */
 public class Loggable {
+    // Mixpanel's property for the duration of timed events, in seconds
+    static final String DURATION_PROPERTY = "$duration";
+    private static final String TAG = "Loggable";
+    private static final int INITIAL_CAPACITY = 8;
+    private static final byte TYPE_OBJECT = 0;
+    private static final byte TYPE_LONG = 1;
+    private static final byte TYPE_DOUBLE = 2;
+    private static final byte TYPE_BOOLEAN = 3;
+
     public String Name;
-    JSONObject Properties;
+    // Set by Logger.trackDurationStart
+    long mDurationStart;
+    private String[] mKeys = new String[INITIAL_CAPACITY];
+    private byte[] mTypes = new byte[INITIAL_CAPACITY];
+    // Longs, the raw bits of doubles, and 1 or 0 for booleans
+    private long[] mPrimitives = new long[INITIAL_CAPACITY];
+    // Only immutable values, or copies that are never handed out
+    private Object[] mObjects = new Object[INITIAL_CAPACITY];
+    private int mCount;
+
+    public void putProp(String property, long value) {
+        put(property, TYPE_LONG, value, null);
+    }
+
+    public void putProp(String property, double value) {
+        put(property, TYPE_DOUBLE, Double.doubleToRawLongBits(value), null);
+    }
+
+    public void putProp(String property, boolean value) {
+        put(property, TYPE_BOOLEAN, value ? 1 : 0, null);
+    }
 
     public void putProp(String property, Object value) {
-        try {
-            Properties.put(property, value);
-        }
-        catch (JSONException ex) {
-            Logger.trackException(ex);
+        if (value instanceof Double || value instanceof Float) {
+            putProp(property, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            putProp(property, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            putProp(property, ((Boolean) value).booleanValue());
+        } else if (value instanceof double[]) {
+            put(property, TYPE_OBJECT, 0, ((double[]) value).clone());
+        } else if (value instanceof boolean[]) {
+            put(property, TYPE_OBJECT, 0, ((boolean[]) value).clone());
+        } else if (value instanceof JSONObject || value instanceof JSONArray) {
+            // Parsed back into JSON on the worker thread
+            put(property, TYPE_OBJECT, 0, new JSONText(value.toString()));
+        } else if (value != null) {
+            put(property, TYPE_OBJECT, 0, value.toString());
         }
     }
 
@@ -65,7 +118,7 @@ public class Loggable {
 
             while( keys.hasNext() ) {
                 String key = (String)keys.next();
-                Properties.put(key, json.get(key));
+                putProp(key, json.get(key));
             }
         }
         catch (JSONException ex) {
@@ -73,74 +126,163 @@ public class Loggable {
         }
     }
 
-    public void putVision(AnalyzeResult result) {
-        try {
-            Properties.put("Color Dominants", result.color.dominantColors);
-            Properties.put("Color Dominant FG", result.color.dominantColorForeground);
-            Properties.put("Color Dominant BG", result.color.dominantColorBackground);
-            Properties.put("Color Accent", result.color.accentColor);
-        }
-        catch (JSONException ex) {
-            Logger.trackException(ex);
+    public void putAlarm(Alarm alarm) {
+        putProp("Alarm Id", alarm.getId());
+        putProp("Alarm Vibrate", alarm.shouldVibrate());
+        putProp("Alarm Time Hour", alarm.getTimeHour());
+        putProp("Alarm Time Minute", alarm.getTimeMinute());
+
+        boolean[] repeating = new boolean[AlarmRecurrence.DAYS_PER_WEEK];
+        for (int i = 0; i < repeating.length; i++) {
+            repeating[i] = alarm.getRepeatingDay(i);
         }
+        putProp("Alarm Repeat", repeating);
+    }
+
+    public void putVision(AnalyzeResult result) {
+        putProp("Color Dominants", result.color.dominantColors);
+        putProp("Color Dominant FG", result.color.dominantColorForeground);
+        putProp("Color Dominant BG", result.color.dominantColorBackground);
+        putProp("Color Accent", result.color.accentColor);
     }
 
     public void putEmotions(List<RecognizeResult> results) {
-        try {
-            ArrayList<Double> scores = new ArrayList<>();
+        int count = results.size();
+        double[] anger = new double[count];
+        double[] contempt = new double[count];
+        double[] disgust = new double[count];
+        double[] fear = new double[count];
+        double[] happiness = new double[count];
+        double[] neutral = new double[count];
+        double[] sadness = new double[count];
+        double[] surprise = new double[count];
+        for (int i = 0; i < count; i++) {
+            RecognizeResult result = results.get(i);
+            anger[i] = result.scores.anger;
+            contempt[i] = result.scores.contempt;
+            disgust[i] = result.scores.disgust;
+            fear[i] = result.scores.fear;
+            happiness[i] = result.scores.happiness;
+            neutral[i] = result.scores.neutral;
+            sadness[i] = result.scores.sadness;
+            surprise[i] = result.scores.surprise;
+        }
+        putProp("Emotion Anger", anger);
+        putProp("Emotion Contempt", contempt);
+        putProp("Emotion Disgust", disgust);
+        putProp("Emotion Fear", fear);
+        putProp("Emotion Happiness", happiness);
+        putProp("Emotion Neutral", neutral);
+        putProp("Emotion Sadness", sadness);
+        putProp("Emotion Surprise", surprise);
+    }
 
-            for (int i = 0; i < results.size(); i++) {
-                scores.add(results.get(i).scores.anger);
-            }
-            Properties.put("Emotion Anger", new JSONArray(scores));
+    // Copies the properties as they are now, for the telemetry worker thread
+    Snapshot snapshot() {
+        return new Snapshot(Name, Arrays.copyOf(mKeys, mCount), Arrays.copyOf(mTypes, mCount),
+                Arrays.copyOf(mPrimitives, mCount), Arrays.copyOf(mObjects, mCount));
+    }
 
-            for (int i = 0; i < results.size(); i++) {
-                scores.set(i, results.get(i).scores.contempt);
-            }
-            Properties.put("Emotion Contempt", new JSONArray(scores));
+    private void put(String property, byte type, long primitive, Object object) {
+        if (mCount == mKeys.length) {
+            int capacity = mCount * 2;
+            mKeys = Arrays.copyOf(mKeys, capacity);
+            mTypes = Arrays.copyOf(mTypes, capacity);
+            mPrimitives = Arrays.copyOf(mPrimitives, capacity);
+            mObjects = Arrays.copyOf(mObjects, capacity);
+        }
+        mKeys[mCount] = property;
+        mTypes[mCount] = type;
+        mPrimitives[mCount] = primitive;
+        mObjects[mCount] = object;
+        mCount++;
+    }
 
-            for (int i = 0; i < results.size(); i++) {
-                scores.set(i, results.get(i).scores.disgust);
-            }
-            Properties.put("Emotion Disgust", new JSONArray(scores));
+    // The properties of a tracked event, which are never changed after the snapshot is taken
+    static final class Snapshot {
+        final String name;
+        private final String[] mKeys;
+        private final byte[] mTypes;
+        private final long[] mPrimitives;
+        private final Object[] mObjects;
+
+        private Snapshot(String name, String[] keys, byte[] types, long[] primitives,
+                         Object[] objects) {
+            this.name = name;
+            mKeys = keys;
+            mTypes = types;
+            mPrimitives = primitives;
+            mObjects = objects;
+        }
 
-            for (int i = 0; i < results.size(); i++) {
-                scores.set(i, results.get(i).scores.fear);
+        // Builds the JSON properties for the event, this is called on the telemetry worker
+        // thread.  Failures are logged locally rather than tracked, as tracking them would feed
+        // back into the pipeline.
+        JSONObject toJSON() {
+            JSONObject properties = new JSONObject();
+            for (int i = 0; i < mKeys.length; i++) {
+                try {
+                    properties.put(mKeys[i], toJSONValue(i));
+                } catch (JSONException ex) {
+                    Log.e(TAG, "Couldn't add " + mKeys[i] + " to the event " + name, ex);
+                }
             }
-            Properties.put("Emotion Fear", new JSONArray(scores));
+            return properties;
+        }
 
-            for (int i = 0; i < results.size(); i++) {
-                scores.set(i, results.get(i).scores.happiness);
+        private Object toJSONValue(int index) throws JSONException {
+            long primitive = mPrimitives[index];
+            switch (mTypes[index]) {
+                case TYPE_LONG:
+                    return primitive;
+                case TYPE_DOUBLE:
+                    return Double.longBitsToDouble(primitive);
+                case TYPE_BOOLEAN:
+                    return primitive != 0;
             }
-            Properties.put("Emotion Happiness", new JSONArray(scores));
 
-            for (int i = 0; i < results.size(); i++) {
-                scores.set(i, results.get(i).scores.neutral);
+            Object value = mObjects[index];
+            if (value instanceof double[]) {
+                JSONArray array = new JSONArray();
+                for (double element : (double[]) value) {
+                    array.put(element);
+                }
+                return array;
+            } else if (value instanceof boolean[]) {
+                JSONArray array = new JSONArray();
+                for (boolean element : (boolean[]) value) {
+                    array.put(element);
+                }
+                return array;
+            } else if (value instanceof JSONText) {
+                return new JSONTokener(((JSONText) value).text).nextValue();
             }
-            Properties.put("Emotion Neutral", new JSONArray(scores));
+            return value;
+        }
+    }
 
-            for (int i = 0; i < results.size(); i++) {
-                scores.set(i, results.get(i).scores.sadness);
-            }
-            Properties.put("Emotion Sadness", new JSONArray(scores));
+    // A JSON object or array put as a property, kept as text so that it cannot be changed
+    private static final class JSONText {
+        final String text;
 
-            for (int i = 0; i < results.size(); i++) {
-                scores.set(i, results.get(i).scores.surprise);
-            }
-            Properties.put("Emotion Surprise", new JSONArray(scores));
-        }
-        catch (JSONException ex) {
-            Logger.trackException(ex);
+        JSONText(String text) {
+            this.text = text;
         }
     }
 
     public interface Key {
         String APP_ALARM_RINGING = "An alarm rang";
+        String APP_ALARM_RINGING_LATENCY = "Started ringing an alarm";
+        String APP_MIMIC_READY_LATENCY = "Showed a mimic";
         String APP_EXCEPTION = "Exception caught";
         String APP_ERROR = "Error occurred";
         String APP_API_VISION = "Calling Vision API";
         String APP_API_EMOTION = "Calling Emotion API";
         String APP_API_SPEECH = "Calling Speech API";
+        String APP_CAMERA_FRAMES = "Sampled camera frames";
+        String APP_CAPTURE_REJECTED = "Rejected a capture";
+        String APP_API_ABANDONED = "Abandoned an API call";
+        String APP_API_CIRCUIT_OPENED = "Opened an API circuit";
 
         String ACTION_ALARM_SNOOZE = "Snoozed an alarm";
         String ACTION_ALARM_DISMISS = "Dismissed an alarm";
@@ -180,56 +322,51 @@ public class Loggable {
 
         String PROP_QUESTION = "Question";
         String PROP_DIFF = "Difference";
+        String PROP_LATENCY = "Latency";
+        String PROP_WARMED_UP = "Warmed up";
+        String PROP_WARM_UP_ENABLED = "Warm up enabled";
+        String PROP_ON_DEVICE = "Analyzed on device";
+        String PROP_LIVE = "Detected live";
+        String PROP_FRAMES_PROCESSED = "Frames processed";
+        String PROP_FRAMES_DROPPED = "Frames dropped";
+        String PROP_FRAME_INTERVAL = "Frame interval";
+        String PROP_UPLOAD_BYTES = "Upload bytes";
+        String PROP_BYTES_COPIED = "Bytes copied";
+        String PROP_QUALITY = "Quality";
+        String PROP_REASON = "Reason";
+        String PROP_API = "API";
+        String PROP_WASTED_MILLIS = "Wasted milliseconds";
+        String PROP_OPEN_MILLIS = "Open milliseconds";
     }
 
     public static class UserAction extends Loggable {
         public UserAction (String name) {
             Name = name;
-            Properties = new JSONObject();
-            try {
-                Properties.put("Type", "User Action");
-            }
-            catch (JSONException jsonEx) {
-            }
+            putProp("Type", "User Action");
         }
     }
 
     public static class AppAction extends Loggable {
         public AppAction (String name) {
             Name = name;
-            Properties = new JSONObject();
-            try {
-                Properties.put("Type", "App Action");
-            }
-            catch (JSONException jsonEx) {
-            }
+            putProp("Type", "App Action");
         }
     }
 
     public static class AppException extends Loggable {
         public AppException (String name, Exception ex) {
             Name = name;
-            Properties = new JSONObject();
-            try {
-                Properties.put("Type", "Exception");
-                Properties.put("Message", ex);
-                Properties.put("Detailed Message", ex.getMessage());
-            }
-            catch (JSONException jsonEx) {
-            }
+            putProp("Type", "Exception");
+            putProp("Message", ex);
+            putProp("Detailed Message", ex.getMessage());
         }
     }
 
     public static class AppError extends Loggable {
         public AppError (String name, String error) {
             Name = name;
-            Properties = new JSONObject();
-            try {
-                Properties.put("Type", "Error");
-                Properties.put("Message", error);
-            }
-            catch (JSONException jsonEx) {
-            }
+            putProp("Type", "Error");
+            putProp("Message", error);
         }
     }
 }
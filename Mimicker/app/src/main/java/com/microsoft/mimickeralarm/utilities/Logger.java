@@ -36,6 +36,7 @@
 package com.microsoft.mimickeralarm.utilities;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.provider.Settings.Secure;
 import android.util.Log;
 
@@ -44,16 +45,21 @@ import com.mixpanel.android.mpmetrics.MixpanelAPI;
 
 import java.util.Collections;
 
+/**
+ * Tracks usage events and exceptions.  Tracking only queues the event in the TelemetryPipeline,
+ * which builds and sends the events to the TelemetrySink on a background thread, so it is cheap
+ * to call from the UI thread.  The events go to Mixpanel once init has found a token, and to
+ * logcat in debug builds otherwise.
+ */
 public class Logger {
 
     private final static Boolean LOG_IN_DEBUG = false; // Use this to log even if in debug mode
     private final static String TAG = "Logger";
+    private static final TelemetryPipeline sPipeline =
+            new TelemetryPipeline(new LogcatTelemetrySink());
     private static Boolean sStarted = false;
     private static Context sContext;
     private static String sMixpanelToken;
-    // These are only used to time event in debug mode
-    private static long debugTimerStart;
-    private static String debugTimerName = null;
 
     private static Boolean isLogging(){
         return !BuildConfig.DEBUG || LOG_IN_DEBUG;
@@ -79,6 +85,7 @@ public class Logger {
                 mixpanel.getPeople().set("name", android_id);
                 mixpanel.getPeople().set("Build Version", BuildConfig.VERSION_NAME);
                 mixpanel.getPeople().setMap(Collections.<String, Object>unmodifiableMap(mixpanel.getDeviceInfo()));
+                sPipeline.setSink(new MixpanelTelemetrySink(mixpanel));
             }
             catch (Exception ex){
                 trackException(ex);
@@ -86,76 +93,52 @@ public class Logger {
         }
     }
 
+    // Replaces the destination of the tracked events, e.g. with an InMemoryTelemetrySink in tests
+    public static void setSink(TelemetrySink sink) {
+        sPipeline.setSink(sink);
+    }
+
+    // The fraction of events, other than exceptions and errors, that are tracked
+    public static void setSampleRate(double sampleRate) {
+        sPipeline.setSampleRate(sampleRate);
+    }
+
+    public static long getDroppedEventCount() {
+        return sPipeline.getDroppedCount();
+    }
+
     public static void local(String s) {
         if (BuildConfig.DEBUG) {
             Log.d(TAG, s);
         }
     }
 
+    // If trackDurationStart was called with the same loggable, the time since then is added to the
+    // event and recorded by the LatencyTracer under the loggable's name
     public static void track(Loggable loggable){
-        if (isLogging() && sStarted) {
-            try {
-                MixpanelAPI.getInstance(sContext, sMixpanelToken).track(loggable.Name, loggable.Properties);
-            }
-            catch (Exception ex) {
-                trackException(ex);
-            }
-        }
-        else {
-            if (debugTimerName != null) {
-                long duration = System.currentTimeMillis() - debugTimerStart;
-                Log.d(TAG, debugTimerName + " took " + duration + " milliseconds");
-                debugTimerName = null;
-            }
-            debugPrint(loggable);
+        if (loggable.mDurationStart != 0) {
+            long duration = SystemClock.elapsedRealtime() - loggable.mDurationStart;
+            loggable.mDurationStart = 0;
+            LatencyTracer.recordDuration(loggable.Name, duration);
+            loggable.putProp(Loggable.DURATION_PROPERTY, duration / 1000.0);
         }
+        sPipeline.track(loggable, !(loggable instanceof Loggable.AppError));
     }
 
+    // The loggable is the handle of the timing, so any number of timings can overlap
     public static void trackDurationStart(Loggable loggable){
-        if (isLogging() && sStarted) {
-            try {
-                MixpanelAPI.getInstance(sContext, sMixpanelToken).timeEvent(loggable.Name);
-            }
-            catch (Exception ex) {
-                trackException(ex);
-            }
-        }
-        else {
-            debugTimerName = loggable.Name;
-            debugTimerStart = System.currentTimeMillis();
-            debugPrint(loggable);
-        }
+        loggable.mDurationStart = SystemClock.elapsedRealtime();
     }
 
     public static void trackException(Exception ex) {
-        if (isLogging() && sStarted) {
-            try {
-                Loggable.AppException appException = new Loggable.AppException(Loggable.Key.APP_EXCEPTION, ex);
-                MixpanelAPI.getInstance(sContext, sMixpanelToken).track(appException.Name, appException.Properties);
-            } catch (Exception mixpanelEx) {
-                Log.e(TAG, mixpanelEx.getMessage());
-            }
-        }
-        else {
-            // This is called in a debug only scenario
+        if (BuildConfig.DEBUG) {
             Log.e(TAG, "Logging exception:" , ex);
         }
+        sPipeline.track(new Loggable.AppException(Loggable.Key.APP_EXCEPTION, ex), false);
     }
 
+    // Sends the queued events and flushes the sink in the background
     public static void flush() {
-        if (isLogging() && sStarted) {
-            try {
-                MixpanelAPI.getInstance(sContext, sMixpanelToken).flush();
-            } catch (Exception ex) {
-                trackException(ex);
-            }
-        }
-    }
-
-    public static void debugPrint(Loggable loggable) {
-        if (BuildConfig.DEBUG) {
-            Log.d(TAG, loggable.Name);
-            Log.d(TAG, loggable.Properties.toString());
-        }
+        sPipeline.flush();
     }
 }
@@ -0,0 +1,194 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.utilities;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves the work of tracking events off the calling thread.  Tracking an event only stores a
+ * snapshot of its properties in a lock-free ring buffer.  A background worker thread then builds
+ * the JSON properties and sends the events to the TelemetrySink in batches.  As the worker only
+ * reads the snapshot, callers are free to change the loggable once it has been tracked.
+ *
+ * The worker sends a batch when BATCH_SIZE records are waiting, or every BATCH_INTERVAL_MILLIS
+ * otherwise.  A flush request makes it send everything straight away and then flush the sink.
+ * Events other than exceptions can be sampled with setSampleRate.  When the buffer is full, new
+ * events are dropped and counted rather than blocking the caller.
+ */
+final class TelemetryPipeline {
+    private static final String TAG = "TelemetryPipeline";
+    private static final int CAPACITY = 1024;
+    private static final int BATCH_SIZE = 32;
+    private static final long BATCH_INTERVAL_MILLIS = 1000;
+
+    private final TelemetryRingBuffer<Record> mBuffer = new TelemetryRingBuffer<>(CAPACITY);
+    private final AtomicBoolean mFlushRequested = new AtomicBoolean();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private volatile TelemetrySink mSink;
+    private volatile double mSampleRate = 1.0;
+    private volatile Thread mWorker;
+
+    TelemetryPipeline(TelemetrySink sink) {
+        mSink = sink;
+    }
+
+    void setSink(TelemetrySink sink) {
+        mSink = sink;
+    }
+
+    void setSampleRate(double sampleRate) {
+        mSampleRate = sampleRate;
+    }
+
+    long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    void track(Loggable loggable, boolean sample) {
+        if (sample && mSampleRate < 1.0 && Math.random() >= mSampleRate) {
+            return;
+        }
+        enqueue(new Record(loggable.snapshot()));
+    }
+
+    void flush() {
+        mFlushRequested.set(true);
+        wakeWorker();
+    }
+
+    private void enqueue(Record record) {
+        if (!mBuffer.offer(record)) {
+            mDroppedCount.incrementAndGet();
+            return;
+        }
+        if (mWorker == null) {
+            startWorker();
+        } else if (mBuffer.size() >= BATCH_SIZE) {
+            wakeWorker();
+        }
+    }
+
+    private void wakeWorker() {
+        Thread worker = mWorker;
+        if (worker != null) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private synchronized void startWorker() {
+        if (mWorker != null) {
+            return;
+        }
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runWorker();
+            }
+        }, TAG);
+        worker.setDaemon(true);
+        mWorker = worker;
+        worker.start();
+    }
+
+    private void runWorker() {
+        List<TelemetrySink.Event> events = new ArrayList<>(BATCH_SIZE);
+        long reportedDroppedCount = 0;
+        while (true) {
+            boolean flushRequested = mFlushRequested.getAndSet(false);
+            Record record;
+            while ((record = mBuffer.poll()) != null) {
+                try {
+                    events.add(new TelemetrySink.Event(record.properties.name,
+                            record.properties.toJSON(), record.timeMillis));
+                } catch (RuntimeException ex) {
+                    Log.e(TAG, "Building the event " + record.properties.name + " failed", ex);
+                }
+                if (events.size() == BATCH_SIZE) {
+                    send(events);
+                }
+            }
+            send(events);
+
+            long droppedCount = mDroppedCount.get();
+            if (droppedCount != reportedDroppedCount) {
+                Log.w(TAG, "Dropped " + (droppedCount - reportedDroppedCount) + " events");
+                reportedDroppedCount = droppedCount;
+            }
+
+            if (flushRequested) {
+                try {
+                    mSink.flush();
+                } catch (Exception ex) {
+                    Log.e(TAG, "Flushing the telemetry sink failed", ex);
+                }
+            } else {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(BATCH_INTERVAL_MILLIS));
+            }
+        }
+    }
+
+    // The sink is only called from the worker thread.  Failures are logged locally rather than
+    // tracked, as tracking them would feed back into the pipeline.
+    private void send(List<TelemetrySink.Event> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        try {
+            mSink.send(new ArrayList<>(events));
+        } catch (Exception ex) {
+            Log.e(TAG, "Sending telemetry failed", ex);
+        }
+        events.clear();
+    }
+
+    private static final class Record {
+        final Loggable.Snapshot properties;
+        final long timeMillis = System.currentTimeMillis();
+
+        Record(Loggable.Snapshot properties) {
+            this.properties = properties;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.utilities;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock-free queue for the TelemetryPipeline.  Any thread can offer items, but only the
+ * telemetry worker thread may poll them.
+ *
+ * Producers claim a slot by advancing the tail, then publish the item into it.  The consumer
+ * takes items from the head until it reaches a slot that has not been published yet.  When the
+ * buffer is full offer fails rather than blocking the caller.
+ */
+final class TelemetryRingBuffer<T> {
+    private final AtomicReferenceArray<T> mSlots;
+    private final int mMask;
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+
+    // The capacity must be a power of two
+    TelemetryRingBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        mSlots = new AtomicReferenceArray<>(capacity);
+        mMask = capacity - 1;
+    }
+
+    boolean offer(T item) {
+        while (true) {
+            long tail = mTail.get();
+            if (tail - mHead.get() >= mSlots.length()) {
+                return false;
+            }
+            if (mTail.compareAndSet(tail, tail + 1)) {
+                mSlots.lazySet((int) (tail & mMask), item);
+                return true;
+            }
+        }
+    }
+
+    // Returns null if the buffer is empty, or the next item has not been published yet
+    T poll() {
+        long head = mHead.get();
+        int index = (int) (head & mMask);
+        T item = mSlots.get(index);
+        if (item == null) {
+            return null;
+        }
+        // The slot must be cleared before the head moves past it and producers can reuse it
+        mSlots.lazySet(index, null);
+        mHead.lazySet(head + 1);
+        return item;
+    }
+
+    int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.microsoft.mimickeralarm.database.AlarmDbSchema.AlarmTable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs each migration step, and the whole upgrade through AlarmDatabaseHelper, against a SQLite
+ * database written in the version 6 format.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class AlarmDatabaseMigrationsTest {
+    private static final String DATABASE_NAME = "alarmDatabase.db";
+    private static final int LARGE_ALARM_COUNT = 100000;
+    // Generous enough for Robolectric's SQLite on a slow build machine
+    private static final long LARGE_UPGRADE_BUDGET_MILLIS = 30 * 1000;
+
+    private File mDatabaseFile;
+
+    @Before
+    public void setUp() {
+        mDatabaseFile = RuntimeEnvironment.application.getDatabasePath(DATABASE_NAME);
+        mDatabaseFile.getParentFile().mkdirs();
+        mDatabaseFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mDatabaseFile.delete();
+    }
+
+    @Test
+    public void repeatingDaysToBitmask_convertsDaysStrings() {
+        SQLiteDatabase db = createVersion6Database();
+        insertVersion6Alarm(db, "false,false,false,false,false,false,false", true, false);
+        insertVersion6Alarm(db, "false,true,true,true,true,true,false", true, false);
+        insertVersion6Alarm(db, "true,false,false,false,false,false,true", true, false);
+        insertVersion6Alarm(db, null, true, false);
+
+        new AlarmDatabaseMigrations.RepeatingDaysToBitmask().migrate(db);
+
+        assertEquals(0, getDays(db, 1));
+        assertEquals(0x3e, getDays(db, 2));
+        assertEquals(0x41, getDays(db, 3));
+        assertEquals(0, getDays(db, 4));
+        db.close();
+    }
+
+    @Test
+    public void parseRepeatingDays_treatsAnythingButFalseAsRepeating() {
+        assertEquals(0x7f, AlarmDatabaseMigrations.RepeatingDaysToBitmask
+                .parseRepeatingDays("true,true,true,true,true,true,true"));
+        assertEquals(0x05, AlarmDatabaseMigrations.RepeatingDaysToBitmask
+                .parseRepeatingDays("1,false,yes,false,false,false,false"));
+        assertEquals(0x01, AlarmDatabaseMigrations.RepeatingDaysToBitmask
+                .parseRepeatingDays("true"));
+        assertEquals(0, AlarmDatabaseMigrations.RepeatingDaysToBitmask.parseRepeatingDays(""));
+    }
+
+    @Test
+    public void addNextTriggerMillis_fillsEnabledAlarms() {
+        SQLiteDatabase db = createVersion6Database();
+        insertVersion6Alarm(db, "false,true,true,true,true,true,false", true, false);
+        insertVersion6Alarm(db, "false,true,true,true,true,true,false", false, false);
+        new AlarmDatabaseMigrations.RepeatingDaysToBitmask().migrate(db);
+
+        long before = System.currentTimeMillis();
+        new AlarmDatabaseMigrations.AddNextTriggerMillis().migrate(db);
+
+        assertTrue(getColumns(db).contains(AlarmTable.Columns.NEXT_TRIGGER_MILLIS));
+        assertTrue(hasNextTriggerIndex(db));
+        assertFiresOnWeekdayAt(getNextTriggerMillis(db, 1), before, 7, 30, 0);
+        assertEquals(0, getNextTriggerMillis(db, 2));
+        db.close();
+    }
+
+    @Test
+    public void addNextTriggerMillis_skipsNewAlarms() {
+        SQLiteDatabase db = createVersion6Database();
+        long id = insertVersion6Alarm(db, "false,true,true,true,true,true,false", true, false);
+        ContentValues values = new ContentValues();
+        values.put("new", 1);
+        db.update("alarms", values, "_id = ?", new String[] { Long.toString(id) });
+        new AlarmDatabaseMigrations.RepeatingDaysToBitmask().migrate(db);
+
+        new AlarmDatabaseMigrations.AddNextTriggerMillis().migrate(db);
+
+        assertEquals(0, getNextTriggerMillis(db, id));
+        db.close();
+    }
+
+    @Test
+    public void addNextTriggerMillis_usesSnoozeTime() {
+        SQLiteDatabase db = createVersion6Database();
+        insertVersion6Alarm(db, "false,true,true,true,true,true,false", true, true);
+        new AlarmDatabaseMigrations.RepeatingDaysToBitmask().migrate(db);
+
+        long before = System.currentTimeMillis();
+        new AlarmDatabaseMigrations.AddNextTriggerMillis().migrate(db);
+
+        assertFiresOnWeekdayAt(getNextTriggerMillis(db, 1), before, 7, 40, 15);
+        db.close();
+    }
+
+    @Test
+    public void upgrade_keepsAlarmsAndMatchesNewSchema() {
+        SQLiteDatabase db = createVersion6Database();
+        insertVersion6Alarm(db, "false,true,true,true,true,true,false", true, false);
+        insertVersion6Alarm(db, "true,false,false,false,false,false,true", false, false);
+        db.close();
+
+        long before = System.currentTimeMillis();
+        db = new AlarmDatabaseHelper(RuntimeEnvironment.application).getWritableDatabase();
+        assertEquals(8, db.getVersion());
+
+        SQLiteDatabase fresh = SQLiteDatabase.create(null);
+        new AlarmDatabaseHelper(RuntimeEnvironment.application).onCreate(fresh);
+        assertEquals(getColumns(fresh), getColumns(db));
+        fresh.close();
+        assertTrue(hasNextTriggerIndex(db));
+
+        Cursor cursor = db.query(AlarmTable.NAME, null, null, null, null, null, "_id");
+        try {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Alarm 1", cursor.getString(cursor.getColumnIndex(AlarmTable.Columns.TITLE)));
+            assertEquals("content://media/internal/audio/media/1",
+                    cursor.getString(cursor.getColumnIndex(AlarmTable.Columns.TONE)));
+            assertEquals(7, cursor.getInt(cursor.getColumnIndex(AlarmTable.Columns.HOUR)));
+            assertEquals(30, cursor.getInt(cursor.getColumnIndex(AlarmTable.Columns.MINUTE)));
+            assertEquals(0x3e, cursor.getInt(cursor.getColumnIndex(AlarmTable.Columns.DAYS)));
+            assertEquals(1, cursor.getInt(cursor.getColumnIndex(AlarmTable.Columns.VIBRATE)));
+            assertFiresOnWeekdayAt(cursor.getLong(cursor.getColumnIndex(
+                    AlarmTable.Columns.NEXT_TRIGGER_MILLIS)), before, 7, 30, 0);
+            cursor.moveToNext();
+            assertEquals(0x41, cursor.getInt(cursor.getColumnIndex(AlarmTable.Columns.DAYS)));
+            assertEquals(0, cursor.getInt(cursor.getColumnIndex(AlarmTable.Columns.ENABLED)));
+            assertEquals(0, cursor.getLong(cursor.getColumnIndex(
+                    AlarmTable.Columns.NEXT_TRIGGER_MILLIS)));
+        } finally {
+            cursor.close();
+        }
+        db.close();
+    }
+
+    @Test
+    public void upgrade_recreatesDatabasesTooOldToMigrate() {
+        SQLiteDatabase db = createVersion6Database();
+        insertVersion6Alarm(db, "false,true,true,true,true,true,false", true, false);
+        db.setVersion(AlarmDatabaseMigrations.FIRST_MIGRATABLE_VERSION - 1);
+        db.close();
+
+        db = new AlarmDatabaseHelper(RuntimeEnvironment.application).getWritableDatabase();
+        assertTrue(getColumns(db).contains(AlarmTable.Columns.NEXT_TRIGGER_MILLIS));
+        Cursor cursor = db.query(AlarmTable.NAME, null, null, null, null, null, null);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+        db.close();
+    }
+
+    @Test
+    public void upgrade_largeDatabaseWithinBudget() {
+        SQLiteDatabase db = createVersion6Database();
+        // Generate the rows in SQL by doubling the table, as inserting them one at a time takes
+        // far longer than the upgrade itself
+        insertVersion6Alarm(db, null, true, false);
+        String columns = "uuid, title, enabled, hour, minute, days, tone, vibrate, " +
+                "tongue_twister, color_capture, express_yourself, new, snoozed, snoozed_hour, " +
+                "snoozed_minute, snoozed_seconds";
+        for (int count = 1; count < LARGE_ALARM_COUNT; count *= 2) {
+            db.execSQL("insert into alarms(" + columns + ") select " + columns + " from alarms");
+        }
+        db.execSQL("delete from alarms where _id > " + LARGE_ALARM_COUNT);
+        // Every third alarm is disabled and every other one repeats on weekdays
+        db.execSQL("update alarms set " +
+                "uuid = '00000000-0000-0000-0000-' || substr('000000000000' || _id, -12), " +
+                "title = 'Alarm ' || _id, " +
+                "enabled = (_id % 3 != 0), hour = _id % 24, minute = _id % 60, " +
+                "days = case _id % 2 when 0 then 'false,true,true,true,true,true,false' " +
+                "else 'false,false,false,false,false,false,false' end");
+        db.close();
+
+        long start = System.currentTimeMillis();
+        db = new AlarmDatabaseHelper(RuntimeEnvironment.application).getWritableDatabase();
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.println("Upgraded " + LARGE_ALARM_COUNT + " alarms in " + elapsed + " ms");
+        assertTrue("Upgrade took " + elapsed + " ms", elapsed < LARGE_UPGRADE_BUDGET_MILLIS);
+
+        Cursor cursor = db.rawQuery("select count(*) from " + AlarmTable.NAME + " where " +
+                AlarmTable.Columns.ENABLED + " = 1 and " +
+                AlarmTable.Columns.NEXT_TRIGGER_MILLIS + " > 0", null);
+        try {
+            cursor.moveToFirst();
+            assertEquals(LARGE_ALARM_COUNT - LARGE_ALARM_COUNT / 3, cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+        db.close();
+    }
+
+    // The schema and row format written by version 6 of the app
+    private SQLiteDatabase createVersion6Database() {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(mDatabaseFile, null);
+        db.execSQL("create table alarms( _id integer primary key autoincrement, uuid, title, " +
+                "enabled, hour, minute, days, tone, vibrate, tongue_twister, color_capture, " +
+                "express_yourself, new, snoozed, snoozed_hour, snoozed_minute, snoozed_seconds)");
+        db.setVersion(AlarmDatabaseMigrations.FIRST_MIGRATABLE_VERSION);
+        return db;
+    }
+
+    private static long insertVersion6Alarm(SQLiteDatabase db, String days, boolean enabled,
+                                            boolean snoozed) {
+        ContentValues values = new ContentValues();
+        values.put("uuid", UUID.randomUUID().toString());
+        values.put("enabled", enabled ? 1 : 0);
+        values.put("hour", 7);
+        values.put("minute", 30);
+        values.put("days", days);
+        values.put("vibrate", true);
+        values.put("tongue_twister", true);
+        values.put("color_capture", false);
+        values.put("express_yourself", true);
+        values.put("new", 0);
+        values.put("snoozed", snoozed ? 1 : 0);
+        values.put("snoozed_hour", snoozed ? 7 : 0);
+        values.put("snoozed_minute", snoozed ? 40 : 0);
+        values.put("snoozed_seconds", snoozed ? 15 : 0);
+        long id = db.insert("alarms", null, values);
+        values.clear();
+        values.put("title", "Alarm " + id);
+        values.put("tone", "content://media/internal/audio/media/" + id);
+        db.update("alarms", values, "_id = ?", new String[] { Long.toString(id) });
+        return id;
+    }
+
+    private static int getDays(SQLiteDatabase db, long id) {
+        return (int) getLong(db, AlarmTable.Columns.DAYS, id);
+    }
+
+    private static long getNextTriggerMillis(SQLiteDatabase db, long id) {
+        return getLong(db, AlarmTable.Columns.NEXT_TRIGGER_MILLIS, id);
+    }
+
+    private static long getLong(SQLiteDatabase db, String column, long id) {
+        Cursor cursor = db.query(AlarmTable.NAME, new String[] { column }, "_id = ?",
+                new String[] { Long.toString(id) }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static List<String> getColumns(SQLiteDatabase db) {
+        List<String> columns = new ArrayList<>();
+        Cursor cursor = db.rawQuery("pragma table_info(" + AlarmTable.NAME + ")", null);
+        try {
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(cursor.getColumnIndex("name")));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    private static boolean hasNextTriggerIndex(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("select name from sqlite_master where type = 'index' and " +
+                "name = ?", new String[] { AlarmTable.NEXT_TRIGGER_INDEX });
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Checks the trigger time against the calendar rather than AlarmRecurrence, which the
+    // migration itself uses
+    private static void assertFiresOnWeekdayAt(long triggerMillis, long afterMillis, int hour,
+                                               int minute, int second) {
+        assertTrue(triggerMillis > afterMillis);
+        assertTrue(triggerMillis - afterMillis <= 4 * 24 * 60 * 60 * 1000L);
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(triggerMillis);
+        int dayOfWeek = calendar.get(Calendar.DAY_OF_WEEK);
+        assertFalse(dayOfWeek == Calendar.SATURDAY || dayOfWeek == Calendar.SUNDAY);
+        assertEquals(hour, calendar.get(Calendar.HOUR_OF_DAY));
+        assertEquals(minute, calendar.get(Calendar.MINUTE));
+        assertEquals(second, calendar.get(Calendar.SECOND));
+    }
+}
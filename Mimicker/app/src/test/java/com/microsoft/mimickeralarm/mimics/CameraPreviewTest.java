@@ -0,0 +1,271 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.os.HandlerThread;
+import android.view.SurfaceView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.internal.ShadowExtractor;
+import org.robolectric.shadows.ShadowCamera;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the processed and dropped frame counts of CameraPreview's frame sampling, by feeding
+ * preview frames through a shadow camera.  Also tests that sampling can be stopped while a frame
+ * is being scored on another thread.
+ */
+@SuppressWarnings("deprecation")
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class CameraPreviewTest {
+    private static final long INTERVAL_MILLIS = 200;
+
+    private CameraPreview mCameraPreview;
+    private ShadowCamera mShadowCamera;
+    private byte[] mFrame;
+    private int mMatchCount;
+    private boolean mMatchNext;
+
+    private final CameraPreview.FrameSamplingCallback mCallback = new CameraPreview.FrameSamplingCallback() {
+        @Override
+        public boolean isMatch(byte[] nv21, int width, int height) {
+            return mMatchNext;
+        }
+
+        @Override
+        public void onMatch() {
+            mMatchCount++;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        Camera camera = Camera.open();
+        Camera.Parameters parameters = camera.getParameters();
+        parameters.setPreviewFormat(ImageFormat.NV21);
+        parameters.setPreviewSize(64, 48);
+        camera.setParameters(parameters);
+        mShadowCamera = (ShadowCamera) ShadowExtractor.extract(camera);
+        mFrame = new byte[64 * 48 * 3 / 2];
+
+        mCameraPreview = new CameraPreview(new SurfaceView(RuntimeEnvironment.application),
+                null, null, 1.0, Camera.CameraInfo.CAMERA_FACING_BACK);
+        // The camera is normally opened on the camera executor once the surface is ready
+        Field cameraField = CameraPreview.class.getDeclaredField("mCamera");
+        cameraField.setAccessible(true);
+        cameraField.set(mCameraPreview, camera);
+        // The first frame is only scored once a full interval has passed
+        ShadowSystemClock.sleep(INTERVAL_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        mCameraPreview.stop();
+    }
+
+    // Feeds a preview frame to the sampling callback and scores it
+    private void sendFrame() throws Exception {
+        mShadowCamera.invokePreviewCallback(mFrame);
+        scoreFrames();
+    }
+
+    // Runs the frames posted to the frame thread, which hands them back on the main thread
+    private void scoreFrames() throws Exception {
+        ShadowLooper frameLooper = getFrameLooper();
+        if (frameLooper != null) {
+            frameLooper.getScheduler().advanceToLastPostedRunnable();
+        }
+    }
+
+    private ShadowLooper getFrameLooper() throws Exception {
+        Field threadField = CameraPreview.class.getDeclaredField("mFrameThread");
+        threadField.setAccessible(true);
+        HandlerThread frameThread = (HandlerThread) threadField.get(mCameraPreview);
+        if (frameThread == null) {
+            return null;
+        }
+        return (ShadowLooper) ShadowExtractor.extract(frameThread.getLooper());
+    }
+
+    @Test
+    public void startFrameSampling_queuesTheCallbackBuffers() {
+        mCameraPreview.startFrameSampling(mCallback, INTERVAL_MILLIS);
+
+        assertEquals(2, mShadowCamera.getAddedCallbackBuffers().size());
+        assertEquals(64 * 48 * 3 / 2, mShadowCamera.getAddedCallbackBuffers().get(0).length);
+    }
+
+    @Test
+    public void framesWithinTheInterval_areDropped() throws Exception {
+        mCameraPreview.startFrameSampling(mCallback, INTERVAL_MILLIS);
+
+        sendFrame();
+        for (int i = 0; i < 3; i++) {
+            ShadowSystemClock.sleep(INTERVAL_MILLIS / 4);
+            sendFrame();
+        }
+        ShadowSystemClock.sleep(INTERVAL_MILLIS);
+        sendFrame();
+
+        assertEquals(2, mCameraPreview.getFramesProcessed());
+        assertEquals(3, mCameraPreview.getFramesDropped());
+    }
+
+    @Test
+    public void framesWhileScoring_areDropped() throws Exception {
+        mCameraPreview.startFrameSampling(mCallback, INTERVAL_MILLIS);
+
+        // The first frame is still waiting to be scored when the second arrives
+        mShadowCamera.invokePreviewCallback(mFrame);
+        ShadowSystemClock.sleep(INTERVAL_MILLIS);
+        mShadowCamera.invokePreviewCallback(mFrame);
+        assertEquals(0, mCameraPreview.getFramesProcessed());
+        assertEquals(1, mCameraPreview.getFramesDropped());
+
+        scoreFrames();
+        assertEquals(1, mCameraPreview.getFramesProcessed());
+        assertEquals(1, mCameraPreview.getFramesDropped());
+    }
+
+    @Test
+    public void droppedFrames_returnTheirBuffer() throws Exception {
+        mCameraPreview.startFrameSampling(mCallback, INTERVAL_MILLIS);
+        int buffers = mShadowCamera.getAddedCallbackBuffers().size();
+
+        sendFrame();
+        sendFrame();
+
+        // Both the scored and the dropped frame are handed back to the camera
+        assertEquals(buffers + 2, mShadowCamera.getAddedCallbackBuffers().size());
+    }
+
+    @Test
+    public void match_stopsSamplingAndKeepsTheCounts() throws Exception {
+        mCameraPreview.startFrameSampling(mCallback, INTERVAL_MILLIS);
+
+        sendFrame();
+        sendFrame();
+        ShadowSystemClock.sleep(INTERVAL_MILLIS);
+        mMatchNext = true;
+        sendFrame();
+        ShadowSystemClock.sleep(INTERVAL_MILLIS);
+        sendFrame();
+
+        assertEquals(1, mMatchCount);
+        assertEquals(2, mCameraPreview.getFramesProcessed());
+        assertEquals(1, mCameraPreview.getFramesDropped());
+    }
+
+    @Test
+    public void stopWhileScoring_dropsTheScoredFrame() throws Exception {
+        final CountDownLatch scoring = new CountDownLatch(1);
+        final CountDownLatch stopped = new CountDownLatch(1);
+        final byte[][] scoredFrame = new byte[1][];
+        mCameraPreview.startFrameSampling(new CameraPreview.FrameSamplingCallback() {
+            @Override
+            public boolean isMatch(byte[] nv21, int width, int height) {
+                scoredFrame[0] = nv21;
+                scoring.countDown();
+                try {
+                    stopped.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+
+            @Override
+            public void onMatch() {
+                mMatchCount++;
+            }
+        }, INTERVAL_MILLIS);
+        mShadowCamera.invokePreviewCallback(mFrame);
+        int buffers = mShadowCamera.getAddedCallbackBuffers().size();
+
+        // The frame is scored on another thread while the main thread stops sampling
+        final ShadowLooper frameLooper = getFrameLooper();
+        ShadowLooper.pauseMainLooper();
+        Thread frameThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                frameLooper.getScheduler().advanceToLastPostedRunnable();
+            }
+        });
+        frameThread.start();
+        assertTrue(scoring.await(5, TimeUnit.SECONDS));
+        mCameraPreview.stopFrameSampling();
+        stopped.countDown();
+        frameThread.join();
+        ShadowLooper.unPauseMainLooper();
+
+        assertNotNull(scoredFrame[0]);
+        assertEquals(0, mMatchCount);
+        assertEquals(0, mCameraPreview.getFramesProcessed());
+        assertEquals(buffers, mShadowCamera.getAddedCallbackBuffers().size());
+    }
+
+    @Test
+    public void startFrameSampling_resetsTheCounts() throws Exception {
+        mCameraPreview.startFrameSampling(mCallback, INTERVAL_MILLIS);
+        sendFrame();
+        sendFrame();
+        mCameraPreview.stopFrameSampling();
+        assertTrue(mCameraPreview.getFramesDropped() > 0);
+
+        mCameraPreview.startFrameSampling(mCallback, INTERVAL_MILLIS);
+
+        assertEquals(0, mCameraPreview.getFramesProcessed());
+        assertEquals(0, mCameraPreview.getFramesDropped());
+    }
+}
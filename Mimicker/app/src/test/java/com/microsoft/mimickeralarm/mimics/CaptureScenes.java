@@ -0,0 +1,213 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import java.util.Random;
+
+/**
+ * Synthetic captures for calibrating and testing FrameQualityGate.  A scene is a plain wall with
+ * a slight gradient and a face drawn in its middle: a textured oval with dark eyes, brows and
+ * mouth.  Scenes are rendered as luma, which can be blurred by a Gaussian and then turned into
+ * ARGB pixels or an NV21 frame with sensor noise and an exposure change in stops.
+ */
+final class CaptureScenes {
+    // The size of a front camera capture scaled to MimicWithCameraFragment's MAX_WIDTH
+    static final int WIDTH = 500;
+    static final int HEIGHT = 666;
+    static final int WALL_LUMA = 110;
+    static final int FACE_LUMA = 150;
+    // The camera's output gamma, for exposure changes
+    private static final double GAMMA = 2.2;
+
+    private CaptureScenes() {
+    }
+
+    // A face covering faceScale of the wall's width and height divided by 3
+    static float[] face(float faceScale, long seed) {
+        Random random = new Random(seed);
+        float centerX = WIDTH / 2f;
+        float centerY = HEIGHT / 2f;
+        float radiusX = WIDTH / 6f * faceScale;
+        float radiusY = HEIGHT / 6f * faceScale;
+
+        // Skin texture made of small random bumps
+        float[] texture = new float[WIDTH * HEIGHT];
+        for (int i = 0; i < 4000; i++) {
+            int bumpX = random.nextInt(WIDTH);
+            int bumpY = random.nextInt(HEIGHT);
+            float amplitude = (random.nextFloat() - 0.5f) * 16;
+            for (int y = Math.max(0, bumpY - 3); y < Math.min(HEIGHT, bumpY + 4); y++) {
+                for (int x = Math.max(0, bumpX - 3); x < Math.min(WIDTH, bumpX + 4); x++) {
+                    int distance = (x - bumpX) * (x - bumpX) + (y - bumpY) * (y - bumpY);
+                    texture[y * WIDTH + x] += amplitude * (float) Math.exp(-distance / 4.0);
+                }
+            }
+        }
+
+        float[] luma = wall();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (!isInOval(x, y, centerX, centerY, radiusX, radiusY)) {
+                    continue;
+                }
+                float value = FACE_LUMA + texture[y * WIDTH + x];
+                for (int side = -1; side <= 1; side += 2) {
+                    float eyeX = centerX + side * radiusX * 0.4f;
+                    if (isInOval(x, y, eyeX, centerY - radiusY * 0.2f, radiusX * 0.15f, radiusY * 0.06f)) {
+                        value = FACE_LUMA * 0.25f;
+                    }
+                    if (isInOval(x, y, eyeX, centerY - radiusY * 0.38f, radiusX * 0.22f, radiusY * 0.03f)) {
+                        value = FACE_LUMA * 0.45f;
+                    }
+                }
+                if (isInOval(x, y, centerX, centerY + radiusY * 0.45f, radiusX * 0.3f, radiusY * 0.07f)) {
+                    value = FACE_LUMA * 0.55f;
+                }
+                luma[y * WIDTH + x] = value;
+            }
+        }
+        return luma;
+    }
+
+    // A plain wall with a slight gradient
+    static float[] wall() {
+        float[] luma = new float[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                luma[y * WIDTH + x] = WALL_LUMA + 10f * (x - WIDTH / 2f) / WIDTH +
+                        8f * (y - HEIGHT / 2f) / HEIGHT;
+            }
+        }
+        return luma;
+    }
+
+    // Fine texture over the whole capture, as a bookshelf or a patterned shirt
+    static float[] texture(long seed) {
+        Random random = new Random(seed);
+        float[] luma = new float[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                luma[y * WIDTH + x] = 128 + 40 * (float) (Math.sin(x / 3.0) * Math.sin(y / 4.0)) +
+                        random.nextFloat() * 10;
+            }
+        }
+        return luma;
+    }
+
+    // A separable Gaussian blur, extending the edges
+    static float[] blur(float[] luma, float sigma) {
+        if (sigma <= 0) {
+            return luma.clone();
+        }
+        int radius = (int) Math.ceil(3 * sigma);
+        float[] kernel = new float[2 * radius + 1];
+        float kernelSum = 0;
+        for (int i = -radius; i <= radius; i++) {
+            kernel[i + radius] = (float) Math.exp(-i * i / (2 * sigma * sigma));
+            kernelSum += kernel[i + radius];
+        }
+        for (int i = 0; i < kernel.length; i++) {
+            kernel[i] /= kernelSum;
+        }
+
+        float[] rows = new float[luma.length];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                float sum = 0;
+                for (int i = -radius; i <= radius; i++) {
+                    sum += kernel[i + radius] * luma[y * WIDTH + clamp(x + i, WIDTH - 1)];
+                }
+                rows[y * WIDTH + x] = sum;
+            }
+        }
+        float[] blurred = new float[luma.length];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                float sum = 0;
+                for (int i = -radius; i <= radius; i++) {
+                    sum += kernel[i + radius] * rows[clamp(y + i, HEIGHT - 1) * WIDTH + x];
+                }
+                blurred[y * WIDTH + x] = sum;
+            }
+        }
+        return blurred;
+    }
+
+    // Gray ARGB pixels, exposed by the given stops and with Gaussian noise of the given deviation
+    static int[] toArgb(float[] luma, float stops, float noise, long seed) {
+        int[] gray = toGray(luma, stops, noise, seed);
+        int[] argb = new int[gray.length];
+        for (int i = 0; i < gray.length; i++) {
+            argb[i] = 0xFF000000 | (gray[i] << 16) | (gray[i] << 8) | gray[i];
+        }
+        return argb;
+    }
+
+    // An NV21 frame of the scene with neutral chroma
+    static byte[] toNv21(float[] luma, float stops, float noise, long seed) {
+        int[] gray = toGray(luma, stops, noise, seed);
+        byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < gray.length; i++) {
+            nv21[i] = (byte) gray[i];
+        }
+        for (int i = gray.length; i < nv21.length; i++) {
+            nv21[i] = (byte) 128;
+        }
+        return nv21;
+    }
+
+    private static int[] toGray(float[] luma, float stops, float noise, long seed) {
+        Random random = new Random(seed);
+        // A stop doubles the light, which raises the gamma encoded luma by 2^(1 / GAMMA)
+        double gain = Math.pow(2, stops / GAMMA);
+        int[] gray = new int[luma.length];
+        for (int i = 0; i < luma.length; i++) {
+            gray[i] = clamp((int) Math.round(luma[i] * gain + random.nextGaussian() * noise), 255);
+        }
+        return gray;
+    }
+
+    private static boolean isInOval(int x, int y, float centerX, float centerY, float radiusX,
+                                    float radiusY) {
+        float dx = (x - centerX) / radiusX;
+        float dy = (y - centerY) / radiusY;
+        return dx * dx + dy * dy <= 1;
+    }
+
+    private static int clamp(int value, int max) {
+        return value < 0 ? 0 : (value > max ? max : value);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the ColorAnalyzer's HSL conversion, range checks, and dominant and accent colors on
+ * synthetic images.
+ */
+public class ColorAnalyzerTest {
+    private static final float HUE_DELTA = 0.1f;
+    private static final float HSL_DELTA = 0.002f;
+    private static final int RED = 0xFFFF0000;
+    private static final int BLUE = 0xFF0000FF;
+    private static final int PALE_BLUE = 0xFFB0B0C8;
+    private static final int GREY = 0xFF808080;
+    private static final int WHITE = 0xFFFFFFFF;
+
+    @Test
+    public void rgbToHsl_convertsKnownColors() {
+        assertHsl(0, 1, 0.5f, 255, 0, 0);
+        assertHsl(120, 1, 0.5f, 0, 255, 0);
+        assertHsl(240, 1, 0.5f, 0, 0, 255);
+        assertHsl(60, 1, 0.5f, 255, 255, 0);
+        assertHsl(300, 1, 0.5f, 255, 0, 255);
+        assertHsl(30.1f, 1, 0.5f, 255, 128, 0);
+        assertHsl(0, 0, 0, 0, 0, 0);
+        assertHsl(0, 0, 1, 255, 255, 255);
+        assertHsl(0, 0, 128 / 255f, 128, 128, 128);
+    }
+
+    @Test
+    public void rgbToHsl_roundTripsThroughHslToRgb() {
+        Random random = new Random(42);
+        float[] hsl = new float[3];
+        for (int i = 0; i < 100000; i++) {
+            int red = random.nextInt(256);
+            int green = random.nextInt(256);
+            int blue = random.nextInt(256);
+
+            ColorAnalyzer.rgbToHsl(red, green, blue, hsl);
+
+            int[] rgb = hslToRgb(hsl);
+            String message = red + "," + green + "," + blue + " -> " + Arrays.toString(hsl);
+            assertEquals(message, red, rgb[0], 1);
+            assertEquals(message, green, rgb[1], 1);
+            assertEquals(message, blue, rgb[2], 1);
+        }
+    }
+
+    @Test
+    public void isInRange_wrapsHueAroundTheColorWheel() {
+        float[] lower = {340, 0.3f, 0.2f};
+        float[] upper = {20, 1, 0.8f};
+
+        assertTrue(ColorAnalyzer.isInRange(lower, upper, new float[] {350, 0.5f, 0.5f}));
+        assertTrue(ColorAnalyzer.isInRange(lower, upper, new float[] {0, 0.5f, 0.5f}));
+        assertTrue(ColorAnalyzer.isInRange(lower, upper, new float[] {20, 0.5f, 0.5f}));
+        assertFalse(ColorAnalyzer.isInRange(lower, upper, new float[] {180, 0.5f, 0.5f}));
+        // Only the hue wraps, so the other components must still be in range
+        assertFalse(ColorAnalyzer.isInRange(lower, upper, new float[] {0, 0.1f, 0.5f}));
+        assertFalse(ColorAnalyzer.isInRange(lower, upper, new float[] {0, 0.5f, 0.9f}));
+    }
+
+    @Test
+    public void analyze_solidImage() {
+        ColorAnalyzer.Result result = ColorAnalyzer.analyze(newImage(10, 7, RED), 10, 7, 3);
+
+        assertEquals(RED, result.dominantColor);
+        assertEquals(RED, result.accentColor);
+        // Columns 0, 3, 6 and 9 of rows 0, 3 and 6
+        assertEquals(12, result.sampleCount);
+    }
+
+    @Test
+    public void analyze_findsTheSaturatedAccentOnADominantBackground() {
+        int width = 100;
+        int height = 100;
+        int[] pixels = newImage(width, height, GREY);
+        fill(pixels, width, 0, 20, WHITE);
+        fill(pixels, width, 20, 30, BLUE);
+        fill(pixels, width, 30, 40, PALE_BLUE);
+
+        ColorAnalyzer.Result result = ColorAnalyzer.analyze(pixels, width, height, 1);
+
+        assertEquals(GREY, result.dominantColor);
+        assertEquals(BLUE, result.accentColor);
+        assertEquals(width * height, result.sampleCount);
+    }
+
+    @Test
+    public void analyze_averagesTheColorsOfABin() {
+        int width = 10;
+        int[] pixels = newImage(width, 2, 0xFFF00000);
+        fill(pixels, width, 1, 2, 0xFFD00000);
+
+        ColorAnalyzer.Result result = ColorAnalyzer.analyze(pixels, width, 2, 1);
+
+        assertEquals(0xFFE00000, result.dominantColor);
+        assertEquals(0xFFE00000, result.accentColor);
+    }
+
+    @Test
+    public void analyze_usesTheDominantGreyAsAccentWithoutChromaticPixels() {
+        int width = 20;
+        int[] pixels = newImage(width, 20, GREY);
+        fill(pixels, width, 0, 5, WHITE);
+
+        ColorAnalyzer.Result result = ColorAnalyzer.analyze(pixels, width, 20, 2);
+
+        assertEquals(GREY, result.dominantColor);
+        assertEquals(GREY, result.accentColor);
+    }
+
+    private static void assertHsl(float hue, float saturation, float lightness,
+                                  int red, int green, int blue) {
+        float[] hsl = new float[3];
+        ColorAnalyzer.rgbToHsl(red, green, blue, hsl);
+        String message = red + "," + green + "," + blue + " -> " + Arrays.toString(hsl);
+        assertEquals(message, hue, hsl[0], HUE_DELTA);
+        assertEquals(message, saturation, hsl[1], HSL_DELTA);
+        assertEquals(message, lightness, hsl[2], HSL_DELTA);
+    }
+
+    // The standard conversion back from HSL, e.g. as in ColorUtils.HSLToColor
+    private static int[] hslToRgb(float[] hsl) {
+        float chroma = (1 - Math.abs(2 * hsl[2] - 1)) * hsl[1];
+        float secondary = chroma * (1 - Math.abs((hsl[0] / 60f) % 2f - 1));
+        float match = hsl[2] - chroma / 2;
+        float red;
+        float green;
+        float blue;
+        switch ((int) hsl[0] / 60) {
+            case 0:
+                red = chroma; green = secondary; blue = 0;
+                break;
+            case 1:
+                red = secondary; green = chroma; blue = 0;
+                break;
+            case 2:
+                red = 0; green = chroma; blue = secondary;
+                break;
+            case 3:
+                red = 0; green = secondary; blue = chroma;
+                break;
+            case 4:
+                red = secondary; green = 0; blue = chroma;
+                break;
+            default:
+                red = chroma; green = 0; blue = secondary;
+                break;
+        }
+        return new int[] {
+                Math.round((red + match) * 255),
+                Math.round((green + match) * 255),
+                Math.round((blue + match) * 255)
+        };
+    }
+
+    private static int[] newImage(int width, int height, int color) {
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, color);
+        return pixels;
+    }
+
+    // Fills the rows from startRow up to endRow
+    private static void fill(int[] pixels, int width, int startRow, int endRow, int color) {
+        Arrays.fill(pixels, startRow * width, endRow * width, color);
+    }
+}
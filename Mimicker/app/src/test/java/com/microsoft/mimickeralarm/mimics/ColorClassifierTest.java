@@ -0,0 +1,189 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the ColorClassifier with the color ranges of vision_questions.xml against the exact HSL
+ * check of ColorAnalyzer.isInRange.  The quantized table is expected to agree on about 97% of
+ * random colors, and only to differ within half a quantization step of a range boundary.
+ */
+public class ColorClassifierTest {
+    private static final String[] COLOR_NAMES = {"red", "green", "yellow", "blue"};
+    private static final float[][] LOWER_HSL = {
+            {313, 0.3f, 0.15f},
+            {61, 0.3f, 0.15f},
+            {24, 0.3f, 0.15f},
+            {159, 0.3f, 0.15f}
+    };
+    private static final float[][] UPPER_HSL = {
+            {28, 1.0f, 0.8f},
+            {171, 1.0f, 0.8f},
+            {70, 1.0f, 0.8f},
+            {270, 1.0f, 0.8f}
+    };
+    private static final int HALF_STEP = 4;
+    private static final int CASES = 1000000;
+    private static final double EXPECTED_AGREEMENT = 0.97;
+    private static final double AGREEMENT_DELTA = 0.01;
+
+    private final ColorClassifier mClassifier =
+            new ColorClassifier(COLOR_NAMES, LOWER_HSL, UPPER_HSL);
+
+    @Test
+    public void classify_agreesWithTheExactCheckAwayFromBoundaries() {
+        Random random = new Random(42);
+        int agreements = 0;
+        for (int i = 0; i < CASES; i++) {
+            int color = 0xFF000000 | random.nextInt(0x1000000);
+            int classes = mClassifier.classify(color);
+            if (classes == getExactClasses(color)) {
+                agreements++;
+            } else {
+                assertTrue(String.format("%06X", color & 0xFFFFFF),
+                        isNearBoundary(color, classes));
+            }
+        }
+
+        // 96.6% with this seed
+        assertEquals(EXPECTED_AGREEMENT, (double) agreements / CASES, AGREEMENT_DELTA);
+    }
+
+    @Test
+    public void classify_ignoresAlpha() {
+        int red = 0x00E01010;
+        assertEquals(1, mClassifier.classify(red));
+        assertEquals(1, mClassifier.classify(0xFF000000 | red));
+        assertTrue(mClassifier.isInClass(0x80000000 | red, mClassifier.getClassIndex("red")));
+    }
+
+    @Test
+    public void getClassIndex_findsTheClassesInOrder() {
+        for (int i = 0; i < COLOR_NAMES.length; i++) {
+            assertEquals(i, mClassifier.getClassIndex(COLOR_NAMES[i]));
+        }
+        assertEquals(-1, mClassifier.getClassIndex("purple"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsTooManyClasses() {
+        String[] names = new String[17];
+        float[][] ranges = new float[17][];
+        Arrays.fill(names, "red");
+        Arrays.fill(ranges, LOWER_HSL[0]);
+        new ColorClassifier(names, ranges, ranges);
+    }
+
+    @Test
+    public void getCoverage_countsTheSampledPixelsInTheClass() {
+        int width = 8;
+        int height = 8;
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, 0xFF808080);
+        // The even rows are sampled with a stride of 2, and a quarter of them are blue
+        Arrays.fill(pixels, 0, 2 * width, 0xFF1020E0);
+
+        assertEquals(0.25f, mClassifier.getCoverage(pixels, width, height, 2,
+                mClassifier.getClassIndex("blue")), 0);
+        assertEquals(0f, mClassifier.getCoverage(pixels, width, height, 2,
+                mClassifier.getClassIndex("green")), 0);
+    }
+
+    @Test
+    public void getCoverageNv21_matchesTheCoverageOfTheConvertedFrame() {
+        Random random = new Random(7);
+        int width = 64;
+        int height = 48;
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        random.nextBytes(nv21);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int chromaIndex = width * height + (y >> 1) * width + (x & ~1);
+                pixels[y * width + x] = FrameTransformer.yuvToRgb(nv21[y * width + x] & 0xFF,
+                        nv21[chromaIndex + 1] & 0xFF, nv21[chromaIndex] & 0xFF);
+            }
+        }
+
+        for (int classIndex = 0; classIndex < COLOR_NAMES.length; classIndex++) {
+            for (int stride = 1; stride <= 8; stride *= 2) {
+                assertEquals(mClassifier.getCoverage(pixels, width, height, stride, classIndex),
+                        mClassifier.getCoverageNv21(nv21, width, height, stride, classIndex), 0);
+            }
+        }
+    }
+
+    private static int getExactClasses(int color) {
+        float[] hsl = new float[3];
+        ColorAnalyzer.rgbToHsl((color >> 16) & 0xFF, (color >> 8) & 0xFF, color & 0xFF, hsl);
+        int classes = 0;
+        for (int i = 0; i < COLOR_NAMES.length; i++) {
+            if (ColorAnalyzer.isInRange(LOWER_HSL[i], UPPER_HSL[i], hsl)) {
+                classes |= 1 << i;
+            }
+        }
+        return classes;
+    }
+
+    // Returns true if a color within half a quantization step of the given one is classified
+    // exactly as the table classifies it
+    private static boolean isNearBoundary(int color, int classes) {
+        int red = (color >> 16) & 0xFF;
+        int green = (color >> 8) & 0xFF;
+        int blue = color & 0xFF;
+        for (int dr = -HALF_STEP; dr <= HALF_STEP; dr++) {
+            for (int dg = -HALF_STEP; dg <= HALF_STEP; dg++) {
+                for (int db = -HALF_STEP; db <= HALF_STEP; db++) {
+                    int r = red + dr;
+                    int g = green + dg;
+                    int b = blue + db;
+                    if (r >= 0 && r < 256 && g >= 0 && g < 256 && b >= 0 && b < 256 &&
+                            getExactClasses(r << 16 | g << 8 | b) == classes) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
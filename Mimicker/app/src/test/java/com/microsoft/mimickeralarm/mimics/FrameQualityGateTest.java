@@ -0,0 +1,164 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import org.junit.Test;
+
+import static com.microsoft.mimickeralarm.mimics.CaptureScenes.HEIGHT;
+import static com.microsoft.mimickeralarm.mimics.CaptureScenes.WIDTH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests FrameQualityGate on the synthetic captures of CaptureScenes, which its thresholds are
+ * calibrated on.  A face on a plain wall must pass while sharp or slightly soft, at up to 3
+ * levels of sensor noise, and be rejected once blurred by 2 pixels.  Exposure is checked in stops
+ * from the scene's mean, which is close to mid grey.
+ */
+public class FrameQualityGateTest {
+    private static final float[] FACE_SCALES = {1f, 0.6f};
+    private static final float[] NOISE_LEVELS = {0f, 2f, 3f};
+
+    private final FrameQualityGate mGate = new FrameQualityGate(true);
+
+    @Test
+    public void sharpFaceOnPlainWall_passes() {
+        for (float scale : FACE_SCALES) {
+            for (float noise : NOISE_LEVELS) {
+                assertEquals("scale " + scale + " noise " + noise, FrameQualityGate.RESULT_OK,
+                        checkFace(scale, 0, noise, 0));
+            }
+        }
+    }
+
+    @Test
+    public void faceBlurredBy1Pixel_passes() {
+        for (float scale : FACE_SCALES) {
+            for (float noise : NOISE_LEVELS) {
+                assertEquals("scale " + scale + " noise " + noise, FrameQualityGate.RESULT_OK,
+                        checkFace(scale, 1, noise, 0));
+            }
+        }
+    }
+
+    @Test
+    public void faceBlurredBy2Pixels_isBlurry() {
+        for (float scale : FACE_SCALES) {
+            for (float noise : NOISE_LEVELS) {
+                assertEquals("scale " + scale + " noise " + noise, FrameQualityGate.RESULT_BLURRY,
+                        checkFace(scale, 2, noise, 0));
+            }
+        }
+    }
+
+    @Test
+    public void plainWall_isBlurry() {
+        for (float noise : NOISE_LEVELS) {
+            assertEquals("noise " + noise, FrameQualityGate.RESULT_BLURRY,
+                    check(CaptureScenes.wall(), 0, noise));
+        }
+    }
+
+    @Test
+    public void textureAllOver_passesUntilBlurred() {
+        float[] texture = CaptureScenes.texture(1);
+
+        assertEquals(FrameQualityGate.RESULT_OK, check(texture, 0, 2));
+        assertEquals(FrameQualityGate.RESULT_OK, check(CaptureScenes.blur(texture, 1), 0, 2));
+        assertEquals(FrameQualityGate.RESULT_BLURRY, check(CaptureScenes.blur(texture, 2), 0, 2));
+    }
+
+    @Test
+    public void sharpnessCheckDisabled_passesBlurryCaptures() {
+        FrameQualityGate gate = new FrameQualityGate(false);
+        int[] argb = CaptureScenes.toArgb(CaptureScenes.blur(CaptureScenes.face(1, 1), 4), 0, 2, 2);
+
+        assertEquals(FrameQualityGate.RESULT_OK, gate.check(argb, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void underexposure_isTooDarkBeyondFourStops() {
+        assertEquals(FrameQualityGate.RESULT_OK, checkFace(1, 0, 2, -3.5f));
+        assertEquals(FrameQualityGate.RESULT_TOO_DARK, checkFace(1, 0, 2, -4.5f));
+    }
+
+    @Test
+    public void overexposure_isTooBrightBeyondTwoStops() {
+        assertEquals(FrameQualityGate.RESULT_OK, checkFace(1, 0, 2, 1.5f));
+        assertEquals(FrameQualityGate.RESULT_TOO_BRIGHT, checkFace(1, 0, 2, 2.5f));
+    }
+
+    @Test
+    public void mostlyClippedCapture_isRejectedWhateverItsMean() {
+        // 65% black and 35% white averages to a normal luma
+        int[] argb = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = i < argb.length * 65 / 100 ? 0xFF000000 : 0xFFFFFFFF;
+        }
+        assertEquals(FrameQualityGate.RESULT_TOO_DARK, mGate.check(argb, WIDTH, HEIGHT));
+
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = i < argb.length * 35 / 100 ? 0xFF000000 : 0xFFFFFFFF;
+        }
+        assertEquals(FrameQualityGate.RESULT_TOO_BRIGHT, mGate.check(argb, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void tinyCapture_passes() {
+        assertEquals(FrameQualityGate.RESULT_OK, mGate.check(new int[]{0xFF808080}, 1, 1));
+        assertEquals(FrameQualityGate.RESULT_OK, mGate.check(new int[0], 0, 0));
+    }
+
+    @Test
+    public void score_prefersSharpAndWellExposedFrames() {
+        float[] face = CaptureScenes.face(1, 1);
+        float sharp = mGate.score(CaptureScenes.toNv21(face, 0, 2, 2), WIDTH, HEIGHT);
+        float soft = mGate.score(CaptureScenes.toNv21(CaptureScenes.blur(face, 1), 0, 2, 2),
+                WIDTH, HEIGHT);
+        float dark = mGate.score(CaptureScenes.toNv21(face, -5, 2, 2), WIDTH, HEIGHT);
+
+        assertTrue(sharp + " > " + soft, sharp > soft);
+        assertTrue(sharp + " > " + dark, sharp > dark);
+    }
+
+    private int checkFace(float scale, float blurSigma, float noise, float stops) {
+        return check(CaptureScenes.blur(CaptureScenes.face(scale, 1), blurSigma), stops, noise);
+    }
+
+    private int check(float[] luma, float stops, float noise) {
+        return mGate.check(CaptureScenes.toArgb(luma, stops, noise, 2), WIDTH, HEIGHT);
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Random;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that FrameTransformer produces the same image whether it transforms a frame on one thread
+ * or in parallel strips, for every rotation and mirror and for downscaled and full size output.
+ * The single threaded transform is itself checked against a direct rotation of a small frame.
+ * Also tests that the shared strip threads stop by themselves once idle.
+ */
+public class FrameTransformerTest {
+    private static final int[] ROTATIONS = {0, 90, 180, 270};
+    private static final int[][] FRAME_SIZES = {{640, 480}, {1280, 720}, {176, 144}, {98, 66}};
+    private static final int[] MAX_WIDTHS = {500, 1920, 61};
+    private static final int[] STRIP_COUNTS = {2, 3, 4, 7};
+
+    private final Random mRandom = new Random(42);
+
+    @After
+    public void tearDown() {
+        FrameTransformer.shutdown();
+    }
+
+    @Test
+    public void transformParallel_matchesTransform() {
+        for (int[] size : FRAME_SIZES) {
+            byte[] frame = randomFrame(size[0], size[1]);
+            for (int rotation : ROTATIONS) {
+                for (int mirror = 0; mirror < 2; mirror++) {
+                    for (int maxWidth : MAX_WIDTHS) {
+                        FrameTransformer transformer = new FrameTransformer(frame, size[0],
+                                size[1], rotation, mirror == 1, maxWidth);
+                        int[] expected = newOutput(transformer);
+                        transformer.transform(expected);
+                        for (int strips : STRIP_COUNTS) {
+                            int[] actual = newOutput(transformer);
+                            transformer.transformParallel(actual, strips);
+                            assertArrayEquals(size[0] + "x" + size[1] + " rotated " + rotation +
+                                    " mirrored " + (mirror == 1) + " to " + maxWidth + " in " +
+                                    strips + " strips", expected, actual);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void transformParallel_withMoreStripsThanRows() {
+        byte[] frame = randomFrame(16, 6);
+        FrameTransformer transformer = new FrameTransformer(frame, 16, 6, 0, false, 16);
+        int[] expected = newOutput(transformer);
+        transformer.transform(expected);
+        int[] actual = newOutput(transformer);
+
+        transformer.transformParallel(actual, 5);
+
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void transformParallel_afterShutdown() {
+        byte[] frame = randomFrame(640, 480);
+        FrameTransformer transformer = new FrameTransformer(frame, 640, 480, 90, true, 500);
+        int[] expected = newOutput(transformer);
+        transformer.transform(expected);
+        int[] first = newOutput(transformer);
+        transformer.transformParallel(first, 4);
+
+        FrameTransformer.shutdown();
+        int[] second = newOutput(transformer);
+        transformer.transformParallel(second, 4);
+
+        assertArrayEquals(expected, first);
+        assertArrayEquals(expected, second);
+    }
+
+    @Test
+    public void stripThreads_stopWhenIdle() throws Exception {
+        byte[] frame = randomFrame(640, 480);
+        FrameTransformer transformer = new FrameTransformer(frame, 640, 480, 0, false, 640);
+        transformer.transformParallel(newOutput(transformer), 4);
+
+        Field executorField = FrameTransformer.class.getDeclaredField("sStripExecutor");
+        executorField.setAccessible(true);
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) executorField.get(null);
+        assertTrue(executor.allowsCoreThreadTimeOut());
+        assertTrue(executor.getKeepAliveTime(TimeUnit.SECONDS) > 0);
+    }
+
+    @Test
+    public void transform_rotatesAndMirrors() {
+        // A 4x2 frame of distinct gray levels, with neutral chroma
+        int width = 4;
+        int height = 2;
+        byte[] frame = new byte[width * height * 3 / 2];
+        for (int i = 0; i < width * height; i++) {
+            frame[i] = (byte) (i * 30);
+        }
+        for (int i = width * height; i < frame.length; i++) {
+            frame[i] = (byte) 128;
+        }
+
+        for (int rotation : ROTATIONS) {
+            for (int mirror = 0; mirror < 2; mirror++) {
+                FrameTransformer transformer = new FrameTransformer(frame, width, height,
+                        rotation, mirror == 1, width);
+                int[] actual = newOutput(transformer);
+                transformer.transform(actual);
+
+                int[] expected = rotate(frame, width, height, rotation, mirror == 1);
+                assertArrayEquals("rotated " + rotation + " mirrored " + (mirror == 1),
+                        expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void outputSize_isScaledToTheMaxWidthAfterRotation() {
+        FrameTransformer transformer = new FrameTransformer(new byte[1280 * 720 * 3 / 2],
+                1280, 720, 90, false, 500);
+
+        assertEquals(500, transformer.getOutputWidth());
+        assertEquals(888, transformer.getOutputHeight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedRotation_throws() {
+        new FrameTransformer(new byte[16 * 16 * 3 / 2], 16, 16, 45, false, 16);
+    }
+
+    private byte[] randomFrame(int width, int height) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        mRandom.nextBytes(frame);
+        return frame;
+    }
+
+    private static int[] newOutput(FrameTransformer transformer) {
+        return new int[transformer.getOutputWidth() * transformer.getOutputHeight()];
+    }
+
+    // Mirrors, then rotates clockwise, the gray pixels of a frame with neutral chroma
+    private static int[] rotate(byte[] frame, int width, int height, int rotation, boolean mirror) {
+        boolean sideways = rotation == 90 || rotation == 270;
+        int outputWidth = sideways ? height : width;
+        int outputHeight = sideways ? width : height;
+        int[] output = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int mirroredX = mirror ? width - 1 - x : x;
+                int outputX;
+                int outputY;
+                switch (rotation) {
+                    case 90:
+                        outputX = height - 1 - y;
+                        outputY = mirroredX;
+                        break;
+                    case 180:
+                        outputX = width - 1 - mirroredX;
+                        outputY = height - 1 - y;
+                        break;
+                    case 270:
+                        outputX = y;
+                        outputY = width - 1 - mirroredX;
+                        break;
+                    default:
+                        outputX = mirroredX;
+                        outputY = y;
+                        break;
+                }
+                int gray = frame[y * width + x] & 0xFF;
+                output[outputY * outputWidth + outputX] = 0xFF000000 | (gray << 16) | (gray << 8) | gray;
+            }
+        }
+        assertEquals(outputWidth * outputHeight, output.length);
+        return output;
+    }
+}
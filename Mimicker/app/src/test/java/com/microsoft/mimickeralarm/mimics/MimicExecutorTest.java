@@ -0,0 +1,149 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the mimic executors do not hold each other up, by saturating the network executor
+ * with calls that never return and its queue with calls waiting behind them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class MimicExecutorTest {
+    private static final int NETWORK_THREADS = 3;
+    private static final int QUEUE_CAPACITY = 16;
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private CountDownLatch mRelease;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        mRelease = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(NETWORK_THREADS);
+        for (int i = 0; i < NETWORK_THREADS; i++) {
+            MimicExecutor.NETWORK.execute(blockingTask(started));
+        }
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        for (int i = 0; i < QUEUE_CAPACITY; i++) {
+            MimicExecutor.NETWORK.execute(blockingTask(null));
+        }
+        assertEquals(QUEUE_CAPACITY, MimicExecutor.NETWORK.getQueue().size());
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mRelease.countDown();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while ((MimicExecutor.NETWORK.getActiveCount() > 0 ||
+                !MimicExecutor.NETWORK.getQueue().isEmpty()) &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void cameraOpen_isNotQueuedBehindNetwork() throws InterruptedException {
+        final CountDownLatch opened = new CountDownLatch(1);
+        final AtomicReference<String> threadName = new AtomicReference<>();
+        MimicExecutor.CAMERA.execute(new Runnable() {
+            @Override
+            public void run() {
+                threadName.set(Thread.currentThread().getName());
+                opened.countDown();
+            }
+        });
+
+        assertTrue(opened.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("Mimic Camera", threadName.get());
+    }
+
+    @Test
+    public void captureProcessing_isNotQueuedBehindNetwork() throws InterruptedException {
+        final CountDownLatch processed = new CountDownLatch(1);
+        MimicExecutor.CPU.execute(new Runnable() {
+            @Override
+            public void run() {
+                processed.countDown();
+            }
+        });
+
+        assertTrue(processed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void fullQueue_runsTaskOnCaller() {
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+        MimicExecutor.NETWORK.execute(new Runnable() {
+            @Override
+            public void run() {
+                thread.set(Thread.currentThread());
+            }
+        });
+
+        assertSame(Thread.currentThread(), thread.get());
+        assertEquals(QUEUE_CAPACITY, MimicExecutor.NETWORK.getQueue().size());
+    }
+
+    private Runnable blockingTask(final CountDownLatch started) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (started != null) {
+                    started.countDown();
+                }
+                try {
+                    mRelease.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+}
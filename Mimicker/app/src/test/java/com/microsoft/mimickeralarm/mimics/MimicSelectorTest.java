@@ -0,0 +1,152 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import com.microsoft.mimickeralarm.appcore.AlarmApplication;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that MimicSelector picks mimics in proportion to the weight of their recorded stats, and
+ * uniformly when it explores, using a seeded random so the picks are repeatable.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class MimicSelectorTest {
+    private static final int PICKS = 20000;
+    private static final double TOLERANCE = 0.02;
+
+    private final List<Class> mMimics = Arrays.<Class>asList(MimicTongueTwisterFragment.class,
+            MimicColorCaptureFragment.class, MimicExpressYourselfFragment.class);
+
+    @Before
+    public void setUp() throws Exception {
+        setAppContext(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        setAppContext(null);
+    }
+
+    @Test
+    public void select_withoutStats_picksUniformly() {
+        assertFrequencies(new double[]{1, 1, 1}, pick(0, new Random(42)));
+    }
+
+    @Test
+    public void select_picksInProportionToWeight() {
+        for (int i = 0; i < 10; i++) {
+            MimicSelector.onMimicFinished(MimicTongueTwisterFragment.class, true, 10 * 1000);
+            MimicSelector.onMimicFinished(MimicColorCaptureFragment.class, i % 2 == 0, 20 * 1000);
+            MimicSelector.onMimicFinished(MimicExpressYourselfFragment.class, i % 5 == 0, 40 * 1000);
+        }
+
+        double[] weights = new double[mMimics.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = MimicSelector.getStats(mMimics.get(i)).getWeight();
+        }
+        assertFrequencies(weights, pick(0, new Random(42)));
+    }
+
+    @Test
+    public void select_withFullExploration_ignoresStats() {
+        for (int i = 0; i < 10; i++) {
+            MimicSelector.onMimicFinished(MimicTongueTwisterFragment.class, true, 5 * 1000);
+            MimicSelector.onMimicFinished(MimicExpressYourselfFragment.class, false, 60 * 1000);
+        }
+
+        assertFrequencies(new double[]{1, 1, 1}, pick(1, new Random(42)));
+    }
+
+    @Test
+    public void select_isRepeatableWithSameSeed() {
+        MimicSelector.onMimicFinished(MimicColorCaptureFragment.class, true, 8 * 1000);
+        Random first = new Random(7);
+        Random second = new Random(7);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(MimicSelector.select(mMimics, 0.2, first),
+                    MimicSelector.select(mMimics, 0.2, second));
+        }
+    }
+
+    @Test
+    public void select_singleMimic_isPicked() {
+        List<Class> mimics = Arrays.<Class>asList(MimicColorCaptureFragment.class);
+
+        assertEquals(MimicColorCaptureFragment.class,
+                MimicSelector.select(mimics, 0, new Random(42)));
+    }
+
+    private int[] pick(double explorationRate, Random random) {
+        int[] counts = new int[mMimics.size()];
+        for (int i = 0; i < PICKS; i++) {
+            counts[mMimics.indexOf(MimicSelector.select(mMimics, explorationRate, random))]++;
+        }
+        return counts;
+    }
+
+    private static void assertFrequencies(double[] weights, int[] counts) {
+        double totalWeight = 0;
+        for (double weight : weights) {
+            totalWeight += weight;
+        }
+        for (int i = 0; i < weights.length; i++) {
+            assertEquals("mimic " + i, weights[i] / totalWeight, (double) counts[i] / PICKS,
+                    TOLERANCE);
+        }
+    }
+
+    private static void setAppContext(Object context) throws Exception {
+        Field appContext = AlarmApplication.class.getDeclaredField("sContext");
+        appContext.setAccessible(true);
+        appContext.set(null, context);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import com.microsoft.mimickeralarm.mimics.MimicSelector.MimicStats;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the decayed outcomes of MimicStats, the prior of a mimic without outcomes, its weight and
+ * its serialization.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class MimicStatsTest {
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void emptyStats_startFromPrior() {
+        MimicStats stats = new MimicStats();
+
+        assertEquals(0, stats.getAttempts(), DELTA);
+        assertEquals(0.5, stats.getSuccessRate(), DELTA);
+        assertEquals(30 * 1000, stats.getDismissMillis());
+        assertEquals(0.5 / 30, stats.getWeight(), DELTA);
+    }
+
+    @Test
+    public void record_decaysEarlierOutcomes() {
+        MimicStats stats = new MimicStats();
+        stats.record(true, 20 * 1000);
+        stats.record(false, 60 * 1000);
+        stats.record(false, 60 * 1000);
+
+        assertEquals(1 + 0.9 + 0.81, stats.getAttempts(), DELTA);
+        // One success, decayed twice, plus the prior of one success in two attempts
+        assertEquals((0.81 + 1) / (2.71 + 2), stats.getSuccessRate(), DELTA);
+    }
+
+    @Test
+    public void record_averagesDismissTimeOfSuccesses() {
+        MimicStats stats = new MimicStats();
+        stats.record(true, 20 * 1000);
+        assertEquals(20 * 1000, stats.getDismissMillis());
+
+        stats.record(true, 10 * 1000);
+        assertEquals(19 * 1000, stats.getDismissMillis());
+
+        // A failure says nothing about how long a success takes
+        stats.record(false, 60 * 1000);
+        assertEquals(19 * 1000, stats.getDismissMillis());
+    }
+
+    @Test
+    public void record_followsRecentOutcomes() {
+        MimicStats stats = new MimicStats();
+        for (int i = 0; i < 20; i++) {
+            stats.record(false, 60 * 1000);
+        }
+        assertTrue(stats.getSuccessRate() < 0.15);
+
+        for (int i = 0; i < 20; i++) {
+            stats.record(true, 15 * 1000);
+        }
+
+        assertTrue(stats.getSuccessRate() > 0.8);
+        // Bounded by the decay, however many outcomes there have been
+        assertTrue(stats.getAttempts() < 10);
+    }
+
+    @Test
+    public void getWeight_isDismissalsPerSecond() {
+        MimicStats stats = new MimicStats();
+        stats.record(true, 10 * 1000);
+
+        assertEquals((2.0 / 3) / 10, stats.getWeight(), DELTA);
+    }
+
+    @Test
+    public void getWeight_doesNotRewardTimesBelowMinimum() {
+        MimicStats quick = new MimicStats();
+        quick.record(true, 1000);
+        MimicStats minimum = new MimicStats();
+        minimum.record(true, 5000);
+
+        assertEquals(minimum.getWeight(), quick.getWeight(), DELTA);
+    }
+
+    @Test
+    public void fromString_readsToString() {
+        MimicStats stats = new MimicStats();
+        stats.record(true, 21500);
+        stats.record(false, 40000);
+
+        MimicStats read = MimicStats.fromString(stats.toString());
+
+        assertEquals(stats.getAttempts(), read.getAttempts(), DELTA);
+        assertEquals(stats.getSuccessRate(), read.getSuccessRate(), DELTA);
+        assertEquals(stats.getDismissMillis(), read.getDismissMillis());
+        assertEquals(stats.toString(), read.toString());
+    }
+
+    @Test
+    public void fromString_returnsEmptyStatsForMissingOrInvalidValues() {
+        String[] values = {null, "", "3.71;2.9", "3.71;two;21500", "garbage"};
+        for (String value : values) {
+            MimicStats stats = MimicStats.fromString(value);
+
+            assertEquals(value, 0, stats.getAttempts(), DELTA);
+            assertEquals(value, 0.5, stats.getSuccessRate(), DELTA);
+            assertEquals(value, 30 * 1000, stats.getDismissMillis());
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests OxfordCircuitBreaker by running OxfordRequest calls against a local stub server with
+ * different latency and error profiles.  The stub's latency advances the shadow clock, which the
+ * breaker and the request measure with, so a slow endpoint is simulated without waiting for it.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class OxfordCircuitBreakerTest {
+    private static final long FAST_MILLIS = 300;
+    private static final long SLOW_MILLIS = OxfordCircuitBreaker.SLOW_CALL_MILLIS + 1000;
+    private static final long OPEN_MILLIS = 30 * 1000;
+    private static final long DEADLINE_MILLIS = 20 * 1000;
+
+    private OxfordCircuitBreaker mBreaker;
+    private HttpServer mServer;
+    private URL mUrl;
+    // The stub's profile
+    private volatile int mStatus;
+    private volatile long mLatencyMillis;
+    private volatile long mRealDelayMillis;
+
+    @Before
+    public void setUp() throws IOException {
+        mBreaker = new OxfordCircuitBreaker("Stub");
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream body = exchange.getRequestBody();
+                while (body.read() != -1) {
+                }
+                ShadowSystemClock.sleep(mLatencyMillis);
+                if (mRealDelayMillis > 0) {
+                    try {
+                        Thread.sleep(mRealDelayMillis);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                exchange.sendResponseHeaders(mStatus, -1);
+                exchange.close();
+            }
+        });
+        mServer.start();
+        mUrl = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/");
+        setProfile(200, FAST_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void healthyEndpoint_staysAvailable() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assertEquals(200, call(DEADLINE_MILLIS));
+        }
+
+        assertTrue(mBreaker.isAvailable());
+    }
+
+    @Test
+    public void erroringEndpoint_opensCircuit() throws Exception {
+        setProfile(500, FAST_MILLIS);
+        callFailing(2);
+        assertTrue(mBreaker.isAvailable());
+
+        callFailing(1);
+
+        assertFalse(mBreaker.isAvailable());
+    }
+
+    @Test
+    public void slowEndpoint_opensCircuit() throws Exception {
+        setProfile(200, SLOW_MILLIS);
+        for (int i = 0; i < 3; i++) {
+            call(DEADLINE_MILLIS);
+        }
+
+        assertFalse(mBreaker.isAvailable());
+    }
+
+    @Test
+    public void occasionalErrors_keepCircuitClosed() throws Exception {
+        for (int i = 0; i < 12; i++) {
+            if (i % 3 == 0) {
+                setProfile(500, FAST_MILLIS);
+                callFailing(1);
+            } else {
+                setProfile(200, FAST_MILLIS);
+                call(DEADLINE_MILLIS);
+            }
+        }
+
+        assertTrue(mBreaker.isAvailable());
+    }
+
+    @Test
+    public void callsWhileOpen_doNotCloseCircuit() throws Exception {
+        openCircuit();
+        setProfile(200, FAST_MILLIS);
+
+        call(DEADLINE_MILLIS);
+
+        assertFalse(mBreaker.isAvailable());
+        ShadowSystemClock.sleep(OPEN_MILLIS);
+        assertTrue(mBreaker.isAvailable());
+    }
+
+    @Test
+    public void goodProbe_closesCircuit() throws Exception {
+        openCircuit();
+        ShadowSystemClock.sleep(OPEN_MILLIS);
+        setProfile(200, FAST_MILLIS);
+
+        call(DEADLINE_MILLIS);
+
+        assertTrue(mBreaker.isAvailable());
+        assertFalse(mBreaker.onCallStarted());
+    }
+
+    @Test
+    public void badProbe_reopensCircuitForLonger() throws Exception {
+        openCircuit();
+        ShadowSystemClock.sleep(OPEN_MILLIS);
+
+        callFailing(1);
+
+        assertFalse(mBreaker.isAvailable());
+        ShadowSystemClock.sleep(OPEN_MILLIS);
+        assertFalse(mBreaker.isAvailable());
+        ShadowSystemClock.sleep(OPEN_MILLIS);
+        assertTrue(mBreaker.isAvailable());
+    }
+
+    @Test
+    public void onlyOneCallProbes() throws Exception {
+        openCircuit();
+        ShadowSystemClock.sleep(OPEN_MILLIS);
+
+        assertTrue(mBreaker.onCallStarted());
+        assertFalse(mBreaker.isAvailable());
+        // A second call while the probe is in flight does not decide anything
+        setProfile(200, FAST_MILLIS);
+        call(DEADLINE_MILLIS);
+        assertFalse(mBreaker.isAvailable());
+
+        mBreaker.onFailure(true);
+
+        assertFalse(mBreaker.isAvailable());
+    }
+
+    @Test
+    public void abandonedProbe_letsNextCallProbe() throws Exception {
+        openCircuit();
+        ShadowSystemClock.sleep(OPEN_MILLIS);
+        // The stub answers after the short deadline, which does not count against the API
+        setProfile(200, 0);
+        mRealDelayMillis = 500;
+        try {
+            call(100);
+            fail("The call should have missed its deadline");
+        } catch (MimicException ex) {
+            // Expected
+        }
+        assertTrue(mBreaker.isAvailable());
+
+        mRealDelayMillis = 0;
+        call(DEADLINE_MILLIS);
+
+        assertTrue(mBreaker.isAvailable());
+        assertFalse(mBreaker.onCallStarted());
+    }
+
+    @Test
+    public void silentProbe_timesOut() throws Exception {
+        openCircuit();
+        ShadowSystemClock.sleep(OPEN_MILLIS);
+        assertTrue(mBreaker.onCallStarted());
+        assertFalse(mBreaker.isAvailable());
+
+        ShadowSystemClock.sleep(2 * OxfordCircuitBreaker.SLOW_CALL_MILLIS);
+
+        assertTrue(mBreaker.isAvailable());
+        assertTrue(mBreaker.onCallStarted());
+    }
+
+    @Test
+    public void unstartedCall_isNotRunAndRecyclesItsBody() throws Exception {
+        openCircuit();
+        ShadowSystemClock.sleep(OPEN_MILLIS);
+        // Keep every network thread busy so that the call never starts
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            MimicExecutor.NETWORK.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        UploadBuffer body = UploadBuffer.obtain();
+        final AtomicBoolean ran = new AtomicBoolean();
+        try {
+            OxfordRequest.execute(mBreaker, body, 100, new OxfordRequest.Call<Integer>() {
+                @Override
+                public Integer execute(InputStream stream) {
+                    ran.set(true);
+                    return 200;
+                }
+            });
+            fail("The call should have missed its deadline");
+        } catch (MimicException ex) {
+            // Expected
+        } finally {
+            release.countDown();
+        }
+
+        assertSame(body, UploadBuffer.obtain());
+        // The probe never reached the API, so the next call probes instead
+        assertTrue(mBreaker.isAvailable());
+        assertTrue(mBreaker.onCallStarted());
+        Thread.sleep(100);
+        assertFalse(ran.get());
+    }
+
+    private void setProfile(int status, long latencyMillis) {
+        mStatus = status;
+        mLatencyMillis = latencyMillis;
+    }
+
+    private void openCircuit() throws Exception {
+        setProfile(500, FAST_MILLIS);
+        callFailing(3);
+        assertFalse(mBreaker.isAvailable());
+    }
+
+    private void callFailing(int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            try {
+                call(DEADLINE_MILLIS);
+                fail("The stub should have failed the call");
+            } catch (IOException ex) {
+                // Expected
+            }
+        }
+    }
+
+    private int call(long timeoutMillis) throws Exception {
+        UploadBuffer body = UploadBuffer.obtain();
+        body.write(new byte[4 * 1024]);
+        return OxfordRequest.execute(mBreaker, body, timeoutMillis, new OxfordRequest.Call<Integer>() {
+            @Override
+            public Integer execute(InputStream stream) throws Exception {
+                HttpURLConnection connection = (HttpURLConnection) mUrl.openConnection();
+                try {
+                    connection.setDoOutput(true);
+                    OutputStream output = connection.getOutputStream();
+                    byte[] buffer = new byte[4096];
+                    int read;
+                    while ((read = stream.read(buffer)) != -1) {
+                        output.write(buffer, 0, read);
+                    }
+                    output.close();
+                    int status = connection.getResponseCode();
+                    if (status != 200) {
+                        throw new IOException("The stub returned " + status);
+                    }
+                    return status;
+                } finally {
+                    connection.disconnect();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests UploadBuffer by posting an encoded capture to a local stub server, the way the Project
+ * Oxford clients post the stream they are given.  The capture is written in the 4 KB chunks of
+ * Bitmap.compress and is compared with the ByteArrayOutputStream and toByteArray path that the
+ * buffer replaced, counting the bytes each copies.
+ */
+public class UploadBufferTest {
+    private static final int CAPTURE_BYTES = 180 * 1024;
+    private static final int CHUNK_BYTES = 4 * 1024;
+
+    private final byte[] mCapture = new byte[CAPTURE_BYTES];
+    private HttpServer mServer;
+    private byte[] mReceived;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(42).nextBytes(mCapture);
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mReceived = readAll(exchange.getRequestBody());
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void pooledBuffer_uploadsWithoutCopying() throws IOException {
+        UploadBuffer buffer = UploadBuffer.obtain();
+        writeCapture(buffer);
+
+        post(buffer.toInputStream(), buffer.size());
+
+        assertArrayEquals(mCapture, mReceived);
+        assertEquals(0, buffer.getBytesCopied());
+        buffer.recycle();
+    }
+
+    @Test
+    public void byteArrayOutputStream_copiesTheCaptureSeveralTimes() throws IOException {
+        CountingOutputStream output = new CountingOutputStream();
+        writeCapture(output);
+
+        byte[] body = output.toByteArray();
+        post(new ByteArrayInputStream(body), body.length);
+
+        assertArrayEquals(mCapture, mReceived);
+        // The growth copies add up to about the capture size, and toByteArray copies it again
+        long copied = output.getBytesCopied() + body.length;
+        assertTrue("copied " + copied, copied > 2 * CAPTURE_BYTES);
+    }
+
+    @Test
+    public void recycledBuffer_isReusedWithItsCapacity() throws IOException {
+        UploadBuffer buffer = UploadBuffer.obtain();
+        // Larger than the initial capacity, so the first use grows the buffer
+        byte[] large = Arrays.copyOf(mCapture, 2 * CAPTURE_BYTES);
+        writeChunks(buffer, large);
+        assertTrue(buffer.getBytesCopied() > 0);
+        buffer.recycle();
+
+        UploadBuffer reused = UploadBuffer.obtain();
+        assertSame(buffer, reused);
+        assertEquals(0, reused.size());
+        assertEquals(0, reused.getBytesCopied());
+        writeChunks(reused, large);
+        assertEquals(0, reused.getBytesCopied());
+        reused.recycle();
+    }
+
+    @Test
+    public void buffersInUse_areNotShared() {
+        UploadBuffer first = UploadBuffer.obtain();
+        UploadBuffer second = UploadBuffer.obtain();
+
+        assertNotSame(first, second);
+        first.recycle();
+        second.recycle();
+    }
+
+    private void writeCapture(OutputStream output) throws IOException {
+        writeChunks(output, mCapture);
+    }
+
+    private static void writeChunks(OutputStream output, byte[] data) throws IOException {
+        for (int offset = 0; offset < data.length; offset += CHUNK_BYTES) {
+            output.write(data, offset, Math.min(CHUNK_BYTES, data.length - offset));
+        }
+    }
+
+    private void post(InputStream body, int length) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(length);
+            OutputStream requestBody = connection.getOutputStream();
+            byte[] chunk = new byte[CHUNK_BYTES];
+            int read;
+            while ((read = body.read(chunk)) != -1) {
+                requestBody.write(chunk, 0, read);
+            }
+            requestBody.close();
+            assertEquals(200, connection.getResponseCode());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] chunk = new byte[CHUNK_BYTES];
+        int read;
+        while ((read = input.read(chunk)) != -1) {
+            output.write(chunk, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    // A ByteArrayOutputStream of the default capacity that counts the bytes copied as it grows
+    private static class CountingOutputStream extends ByteArrayOutputStream {
+        private long mBytesCopied;
+
+        long getBytesCopied() {
+            return mBytesCopied;
+        }
+
+        @Override
+        public synchronized void write(byte[] buffer, int offset, int length) {
+            if (count + length > buf.length) {
+                mBytesCopied += count;
+            }
+            super.write(buffer, offset, length);
+        }
+    }
+}
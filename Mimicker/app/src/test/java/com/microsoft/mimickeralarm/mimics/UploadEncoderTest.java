@@ -0,0 +1,213 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.mimics;
+
+import android.graphics.Bitmap;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests how UploadEncoder adapts the JPEG quality and the target size.  The JPEG encoder is
+ * replaced by one whose output size is proportional to the quality and the pixel count.  The
+ * bandwidth estimate is checked against a local stub server that reads uploads at a fixed rate
+ * and then spends a fixed time processing them, as Project Oxford does.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class UploadEncoderTest {
+    private static final int BUDGET_BYTES = 40 * 1024;
+    private static final int[] UPLOAD_SIZES = {8 * 1024, 16 * 1024, 24 * 1024, 32 * 1024};
+    private static final int READ_CHUNK_BYTES = 1024;
+
+    private HttpServer mServer;
+    private volatile long mReadChunkMillis;
+    private volatile long mProcessingMillis;
+    // Bytes written per pixel and quality percent by the fake JPEG encoder
+    private float mBytesPerPixelQuality;
+    private final Bitmap mCapture = Bitmap.createBitmap(320, 240, Bitmap.Config.ARGB_8888);
+
+    private final UploadEncoder mEncoder = new UploadEncoder(320, BUDGET_BYTES) {
+        @Override
+        void compress(Bitmap bitmap, int quality, UploadBuffer output) {
+            int size = (int) (bitmap.getWidth() * bitmap.getHeight() * quality * mBytesPerPixelQuality);
+            output.write(new byte[size], 0, size);
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // Read the upload at the throttled rate, then process it
+                InputStream body = exchange.getRequestBody();
+                byte[] chunk = new byte[READ_CHUNK_BYTES];
+                try {
+                    while (body.read(chunk) != -1) {
+                        Thread.sleep(mReadChunkMillis);
+                    }
+                    Thread.sleep(mProcessingMillis);
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void captureThatFits_stepsTheQualityUp() {
+        // 90% of the budget at quality 50
+        mBytesPerPixelQuality = 0.9f * BUDGET_BYTES / (320 * 240 * 50);
+        UploadBuffer output = UploadBuffer.obtain();
+
+        // Quality 90 is too large, so the capture fits at a lower quality on a second attempt
+        int first = mEncoder.encode(mCapture, output);
+        assertEquals(first, mEncoder.getQuality());
+        // Which fits first time on the next capture, so the quality steps up
+        assertEquals(first, mEncoder.encode(mCapture, output));
+        assertEquals(first + 5, mEncoder.getQuality());
+        output.recycle();
+    }
+
+    @Test
+    public void captureThatNeverFits_keepsTheMinimumQuality() {
+        // Over the budget even at the minimum quality and half the resolution
+        mBytesPerPixelQuality = 10f * BUDGET_BYTES / (320 * 240 * 40);
+        UploadBuffer output = UploadBuffer.obtain();
+
+        assertEquals(40, mEncoder.encode(mCapture, output));
+        assertEquals(40, mEncoder.getQuality());
+        assertEquals(40, mEncoder.encode(mCapture, output));
+        assertEquals(40, mEncoder.getQuality());
+        output.recycle();
+    }
+
+    @Test
+    public void noUploads_targetTheBudget() {
+        assertEquals(BUDGET_BYTES, mEncoder.getTargetBytes());
+    }
+
+    @Test
+    public void uploadsOfOneSize_doNotLowerTheTarget() {
+        for (int i = 0; i < 5; i++) {
+            mEncoder.onUploaded(32 * 1024, 5000);
+        }
+
+        assertEquals(0, mEncoder.getBandwidth(), 0);
+        assertEquals(BUDGET_BYTES, mEncoder.getTargetBytes());
+    }
+
+    @Test
+    public void bandwidth_isTheSlopeOfTheRoundTrips() {
+        // 20 bytes per millisecond, after a 2 second overhead
+        for (int i = 0; i < 3; i++) {
+            for (int size : UPLOAD_SIZES) {
+                mEncoder.onUploaded(size, 2000 + size / 20);
+            }
+        }
+
+        assertEquals(20, mEncoder.getBandwidth(), 0.01);
+        assertEquals(20 * 1500, mEncoder.getTargetBytes(), 10);
+    }
+
+    @Test
+    public void slowUpload_lowersTheTarget() throws IOException {
+        // 16 bytes per millisecond, which transfers 24 KB in the target 1.5 seconds
+        mReadChunkMillis = READ_CHUNK_BYTES / 16;
+        mProcessingMillis = 300;
+        uploadEachSize();
+
+        assertEquals(16, mEncoder.getBandwidth(), 3);
+        assertEquals(24 * 1024, mEncoder.getTargetBytes(), 5 * 1024);
+    }
+
+    @Test
+    public void slowProcessing_doesNotLowerTheTarget() throws IOException {
+        // A fast upload to a slow API, whose round trips alone would give about 12 KB a second
+        mReadChunkMillis = 0;
+        mProcessingMillis = 1500;
+        uploadEachSize();
+
+        assertEquals(BUDGET_BYTES, mEncoder.getTargetBytes());
+    }
+
+    // Posts an upload of each size to the stub server and records its round trip
+    private void uploadEachSize() throws IOException {
+        URL url = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/");
+        for (int size : UPLOAD_SIZES) {
+            long start = System.nanoTime();
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            try {
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(size);
+                OutputStream body = connection.getOutputStream();
+                body.write(new byte[size]);
+                body.close();
+                assertEquals(200, connection.getResponseCode());
+            } finally {
+                connection.disconnect();
+            }
+            mEncoder.onUploaded(size, (System.nanoTime() - start) / 1000000);
+        }
+    }
+}
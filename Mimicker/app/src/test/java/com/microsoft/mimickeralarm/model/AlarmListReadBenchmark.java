@@ -0,0 +1,143 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.model;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.microsoft.mimickeralarm.database.AlarmDatabaseHelper;
+import com.microsoft.mimickeralarm.database.AlarmDbSchema.AlarmTable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the cost of AlarmList.getAlarms with 10, 1,000 and 50,000 alarms.  Reading through
+ * reloadAlarms first queries and maps every row, as every read did before the cache, and reading
+ * without it is served from the cache.  The mean of each is printed, so run it on its own to
+ * compare the two, e.g. "gradlew testDebugUnitTest --tests '*AlarmListReadBenchmark'".
+ *
+ * This runs on Robolectric's SQLite, so the absolute numbers are those of the JVM rather than a
+ * device, but the ratio between the two reads is what matters.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class AlarmListReadBenchmark {
+    private static final int[] ALARM_COUNTS = {10, 1000, 50000};
+    private static final long MIN_MEASURE_NANOS = 500 * 1000 * 1000L;
+
+    @Test
+    public void readCost() {
+        AlarmList alarmList = new AlarmList(RuntimeEnvironment.application);
+        SQLiteDatabase db = new AlarmDatabaseHelper(RuntimeEnvironment.application)
+                .getWritableDatabase();
+        int inserted = 0;
+        for (int count : ALARM_COUNTS) {
+            insertAlarms(db, count - inserted);
+            inserted = count;
+            alarmList.reloadAlarms();
+            assertEquals(count, alarmList.getAlarms().size());
+
+            double uncachedNanos = measure(alarmList, true);
+            double cachedNanos = measure(alarmList, false);
+            System.out.println(String.format("%6d alarms: uncached %10.1f us, cached %10.1f us",
+                    count, uncachedNanos / 1000, cachedNanos / 1000));
+            assertTrue(cachedNanos < uncachedNanos);
+        }
+        db.close();
+    }
+
+    private static double measure(AlarmList alarmList, boolean reload) {
+        // Warm up before measuring
+        for (int i = 0; i < 3; i++) {
+            read(alarmList, reload);
+        }
+        int reads = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            read(alarmList, reload);
+            reads++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MIN_MEASURE_NANOS);
+        return (double) elapsed / reads;
+    }
+
+    private static void read(AlarmList alarmList, boolean reload) {
+        if (reload) {
+            alarmList.reloadAlarms();
+        }
+        alarmList.getAlarms();
+    }
+
+    static void insertAlarms(SQLiteDatabase db, int count) {
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                values.put(AlarmTable.Columns.UUID, UUID.randomUUID().toString());
+                values.put(AlarmTable.Columns.TITLE, "Alarm " + i);
+                values.put(AlarmTable.Columns.ENABLED, i % 2);
+                values.put(AlarmTable.Columns.HOUR, i % 24);
+                values.put(AlarmTable.Columns.MINUTE, i % 60);
+                values.put(AlarmTable.Columns.DAYS, i % 128);
+                values.put(AlarmTable.Columns.TONE, "content://media/internal/audio/media/" + i);
+                values.put(AlarmTable.Columns.VIBRATE, 1);
+                values.put(AlarmTable.Columns.TONGUE_TWISTER, 1);
+                values.put(AlarmTable.Columns.COLOR_CAPTURE, 1);
+                values.put(AlarmTable.Columns.EXPRESS_YOURSELF, 1);
+                values.put(AlarmTable.Columns.NEW, 0);
+                values.put(AlarmTable.Columns.SNOOZED, 0);
+                values.put(AlarmTable.Columns.SNOOZED_HOUR, 0);
+                values.put(AlarmTable.Columns.SNOOZED_MINUTE, 0);
+                values.put(AlarmTable.Columns.SNOOZED_SECONDS, 0);
+                values.put(AlarmTable.Columns.NEXT_TRIGGER_MILLIS, 0);
+                db.insert(AlarmTable.NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
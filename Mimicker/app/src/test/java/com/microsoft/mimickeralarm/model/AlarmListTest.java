@@ -0,0 +1,239 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that the AlarmList cache writes through to the database and never shares its alarms.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class AlarmListTest {
+    private AlarmList mAlarmList;
+
+    @Before
+    public void setUp() {
+        mAlarmList = new AlarmList(RuntimeEnvironment.application);
+    }
+
+    static Alarm newAlarm(int hour, int minute) {
+        Alarm alarm = Alarm.newAlarmForDatabaseRow(UUID.randomUUID());
+        alarm.setTitle("Alarm " + hour + ":" + minute);
+        alarm.setTimeHour(hour);
+        alarm.setTimeMinute(minute);
+        alarm.setIsEnabled(true);
+        alarm.setRepeatingDays(0x3e);
+        return alarm;
+    }
+
+    @Test
+    public void getAlarm_returnsCopy() {
+        Alarm alarm = newAlarm(7, 30);
+        mAlarmList.addAlarm(alarm);
+
+        Alarm read = mAlarmList.getAlarm(alarm.getId());
+        assertNotSame(alarm, read);
+        read.setTimeHour(9);
+        read.setNextTriggerMillis(1234);
+
+        Alarm reread = mAlarmList.getAlarm(alarm.getId());
+        assertEquals(7, reread.getTimeHour());
+        assertEquals(0, reread.getNextTriggerMillis());
+    }
+
+    @Test
+    public void addAlarm_cachesCopy() {
+        Alarm alarm = newAlarm(7, 30);
+        mAlarmList.getAlarms();
+        mAlarmList.addAlarm(alarm);
+        alarm.setTitle("Unsaved edit");
+
+        assertEquals("Alarm 7:30", mAlarmList.getAlarm(alarm.getId()).getTitle());
+    }
+
+    @Test
+    public void getAlarms_returnsUnmodifiableViewInTimeOrder() {
+        Alarm late = newAlarm(9, 0);
+        Alarm early = newAlarm(6, 45);
+        mAlarmList.addAlarm(late);
+        mAlarmList.addAlarm(early);
+
+        List<Alarm> alarms = mAlarmList.getAlarms();
+        assertEquals(early.getId(), alarms.get(0).getId());
+        assertEquals(late.getId(), alarms.get(1).getId());
+        try {
+            alarms.remove(0);
+            fail("The cached alarms should not be modifiable");
+        } catch (UnsupportedOperationException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void getAlarms_doesNotCopyUntilWrite() {
+        Alarm alarm = newAlarm(7, 30);
+        mAlarmList.addAlarm(alarm);
+
+        List<Alarm> alarms = mAlarmList.getAlarms();
+        assertSame(alarms.get(0), mAlarmList.getAlarms().get(0));
+
+        Alarm edited = mAlarmList.getAlarm(alarm.getId());
+        edited.setTitle("Edited");
+        mAlarmList.updateAlarm(edited);
+
+        // A view handed out earlier keeps the alarm it had
+        assertEquals("Alarm 7:30", alarms.get(0).getTitle());
+        assertEquals("Edited", mAlarmList.getAlarms().get(0).getTitle());
+    }
+
+    @Test
+    public void getListAlarms_fromCache_canBeModified() {
+        mAlarmList.addAlarm(newAlarm(7, 30));
+        mAlarmList.getAlarms();
+
+        List<Alarm> alarms = mAlarmList.getListAlarms();
+        alarms.remove(0);
+
+        assertEquals(1, mAlarmList.getAlarms().size());
+    }
+
+    @Test
+    public void getListAlarms_readsListColumnsWithoutCaching() {
+        Alarm late = newAlarm(9, 0);
+        Alarm early = newAlarm(6, 45);
+        late.setVibrate(true);
+        mAlarmList.addAlarm(late);
+        mAlarmList.addAlarm(early);
+        mAlarmList.reloadAlarms();
+
+        List<Alarm> alarms = mAlarmList.getListAlarms();
+        assertEquals(early.getId(), alarms.get(0).getId());
+        assertEquals(late.getId(), alarms.get(1).getId());
+        assertEquals("Alarm 9:0", alarms.get(1).getTitle());
+        assertEquals(0x3e, alarms.get(1).getRepeatingDays());
+        assertFalse(alarms.get(1).shouldVibrate());
+
+        // The partial alarms must not have been cached
+        assertTrue(mAlarmList.getAlarm(late.getId()).shouldVibrate());
+        assertTrue(mAlarmList.getListAlarms().get(1).shouldVibrate());
+    }
+
+    @Test
+    public void updateAlarm_rejectsPartialAlarm() {
+        Alarm alarm = newAlarm(7, 30);
+        alarm.setVibrate(true);
+        mAlarmList.addAlarm(alarm);
+        mAlarmList.reloadAlarms();
+
+        Alarm partial = mAlarmList.getListAlarms().get(0);
+        assertTrue(partial.isPartial());
+        partial.setTitle("Edited");
+        try {
+            mAlarmList.updateAlarm(partial);
+            fail("A partial alarm should not be saved");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+
+        Alarm saved = mAlarmList.getAlarm(alarm.getId());
+        assertFalse(saved.isPartial());
+        assertEquals("Alarm 7:30", saved.getTitle());
+        assertTrue(saved.shouldVibrate());
+    }
+
+    @Test
+    public void getNextAlarm_recomputesStaleTriggerTimes() {
+        long now = System.currentTimeMillis();
+        Alarm missed = newAlarm(7, 30);
+        missed.setNextTriggerMillis(now - 60 * 60 * 1000L);
+        Alarm dispatching = newAlarm(8, 0);
+        dispatching.setNextTriggerMillis(now - 1000);
+        mAlarmList.addAlarm(missed);
+        mAlarmList.addAlarm(dispatching);
+
+        Alarm next = mAlarmList.getNextAlarm(now);
+        assertEquals(missed.getId(), next.getId());
+        assertTrue(next.getNextTriggerMillis() > now);
+        // An alarm that has only just fired is left for the ringing code to reschedule
+        assertEquals(now - 1000, mAlarmList.getAlarm(dispatching.getId()).getNextTriggerMillis());
+
+        mAlarmList.reloadAlarms();
+        assertEquals(next.getNextTriggerMillis(),
+                mAlarmList.getAlarm(missed.getId()).getNextTriggerMillis());
+    }
+
+    @Test
+    public void updateAlarm_writesThrough() {
+        Alarm alarm = newAlarm(7, 30);
+        mAlarmList.addAlarm(alarm);
+
+        Alarm edited = mAlarmList.getAlarm(alarm.getId());
+        edited.setTimeMinute(45);
+        mAlarmList.updateAlarm(edited);
+        assertEquals(45, mAlarmList.getAlarm(alarm.getId()).getTimeMinute());
+
+        mAlarmList.reloadAlarms();
+        assertEquals(45, mAlarmList.getAlarm(alarm.getId()).getTimeMinute());
+    }
+
+    @Test
+    public void deleteAlarm_removesFromCache() {
+        Alarm alarm = newAlarm(7, 30);
+        mAlarmList.addAlarm(alarm);
+        mAlarmList.deleteAlarm(alarm);
+
+        assertNull(mAlarmList.getAlarm(alarm.getId()));
+        mAlarmList.reloadAlarms();
+        assertNull(mAlarmList.getAlarm(alarm.getId()));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.model;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.microsoft.mimickeralarm.database.AlarmCursorWrapper;
+import com.microsoft.mimickeralarm.database.AlarmDatabaseHelper;
+import com.microsoft.mimickeralarm.database.AlarmDbSchema.AlarmTable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the cost per row of querying the alarms table and mapping it through
+ * AlarmCursorWrapper, with every column and with only AlarmTable.LIST_COLUMNS as the alarm list
+ * reads them.  The mean of each is printed, so run it on its own to compare the two, e.g.
+ * "gradlew testDebugUnitTest --tests '*AlarmRowMappingBenchmark'".
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class AlarmRowMappingBenchmark {
+    private static final int ALARM_COUNT = 5000;
+    private static final long MIN_MEASURE_NANOS = 500 * 1000 * 1000L;
+
+    @Test
+    public void mappingCost() {
+        SQLiteDatabase db = new AlarmDatabaseHelper(RuntimeEnvironment.application)
+                .getWritableDatabase();
+        AlarmListReadBenchmark.insertAlarms(db, ALARM_COUNT);
+
+        double allColumnsNanos = measure(db, null);
+        double listColumnsNanos = measure(db, AlarmTable.LIST_COLUMNS);
+        System.out.println(String.format("all columns %8.1f ns/row, list columns %8.1f ns/row",
+                allColumnsNanos / ALARM_COUNT, listColumnsNanos / ALARM_COUNT));
+        db.close();
+    }
+
+    private static double measure(SQLiteDatabase db, String[] projection) {
+        // Warm up before measuring
+        for (int i = 0; i < 3; i++) {
+            assertEquals(ALARM_COUNT, mapRows(db, projection));
+        }
+        int reads = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            mapRows(db, projection);
+            reads++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MIN_MEASURE_NANOS);
+        return (double) elapsed / reads;
+    }
+
+    private static int mapRows(SQLiteDatabase db, String[] projection) {
+        AlarmCursorWrapper cursor = new AlarmCursorWrapper(db.query(AlarmTable.NAME, projection,
+                null, null, null, null, null));
+        int rows = 0;
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getAlarm();
+                rows++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+}
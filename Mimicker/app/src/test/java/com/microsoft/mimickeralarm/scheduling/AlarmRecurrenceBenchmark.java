@@ -0,0 +1,120 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.scheduling;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of AlarmRecurrence.getNextOccurrence against the Calendar based calculation it
+ * replaced, over a fixed set of random alarms.  Run main from the IDE with the unit test
+ * classpath.  It runs with the GC profiler, so the allocation rate of each is reported too.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AlarmRecurrenceBenchmark {
+    private static final int ALARM_COUNT = 1024;
+    // 2016-01-01 UTC
+    private static final long FROM_MILLIS = 1451606400000L;
+
+    @Param({"UTC", "America/New_York"})
+    public String mZoneId;
+
+    private TimeZone mZone;
+    private final long[] mFromMillis = new long[ALARM_COUNT];
+    private final int[] mRepeatingDays = new int[ALARM_COUNT];
+    private final int[] mHours = new int[ALARM_COUNT];
+    private final int[] mMinutes = new int[ALARM_COUNT];
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        mZone = TimeZone.getTimeZone(mZoneId);
+        Random random = new Random(42);
+        for (int i = 0; i < ALARM_COUNT; i++) {
+            mFromMillis[i] = FROM_MILLIS + (long) (random.nextDouble() * 365 * 24 * 60 * 60 * 1000);
+            mRepeatingDays[i] = random.nextInt(AlarmRecurrence.ALL_DAYS + 1);
+            mHours[i] = random.nextInt(24);
+            mMinutes[i] = random.nextInt(60);
+        }
+    }
+
+    @Benchmark
+    public long recurrence() {
+        int i = nextIndex();
+        return AlarmRecurrence.getNextOccurrence(mFromMillis[i], mZone, mRepeatingDays[i],
+                AlarmRecurrence.getSecondOfDay(mHours[i], mMinutes[i], 0));
+    }
+
+    @Benchmark
+    public long legacyCalendar() {
+        int i = nextIndex();
+        return LegacyAlarmTime.getAlarmTime(mFromMillis[i], mZone, mRepeatingDays[i], mHours[i],
+                mMinutes[i], 0);
+    }
+
+    private int nextIndex() {
+        mNext = (mNext + 1) & (ALARM_COUNT - 1);
+        return mNext;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AlarmRecurrenceBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
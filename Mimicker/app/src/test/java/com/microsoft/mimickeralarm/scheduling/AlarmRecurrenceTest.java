@@ -0,0 +1,268 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.scheduling;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Property tests for AlarmRecurrence over random alarms and times in several time zones, half of
+ * them within two days of a daylight saving transition.  Every result must be the first instant
+ * after the given time at which the alarm should fire, and away from transitions it must match the
+ * Calendar based calculation that it replaced.
+ */
+public class AlarmRecurrenceTest {
+    private static final long MILLIS_PER_HOUR = 60 * 60 * 1000L;
+    private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+    // 2015-01-01 to 2030-01-01 UTC
+    private static final long RANGE_START = 1420070400000L;
+    private static final long RANGE_END = 1893456000000L;
+    private static final int CASES_PER_ZONE = 50000;
+    private static final String[] ZONES = {
+            "UTC",
+            "America/New_York",
+            "Europe/London",
+            "America/Sao_Paulo",
+            "America/St_Johns",
+            "Australia/Lord_Howe",
+            "Pacific/Chatham",
+            "Asia/Kolkata"
+    };
+
+    @Test
+    public void nextOccurrence_isFirstValidInstantAfterFrom() {
+        Random random = new Random(42);
+        for (String zoneId : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(zoneId);
+            List<Long> transitions = findTransitions(zone);
+            for (int i = 0; i < CASES_PER_ZONE; i++) {
+                long from = randomTime(random, transitions);
+                int repeatingDays = random.nextInt(AlarmRecurrence.ALL_DAYS + 1);
+                int secondOfDay = randomSecondOfDay(random);
+
+                long next = AlarmRecurrence.getNextOccurrence(from, zone, repeatingDays,
+                        secondOfDay);
+                String message = describe(zone, from, repeatingDays, secondOfDay, next);
+
+                // Alarms are scheduled to the second, so the current second has already passed
+                assertTrue(message, next / 1000 > from / 1000);
+                assertFiresAt(message, zone, next, repeatingDays, secondOfDay);
+                assertNoEarlierOccurrence(message, zone, from, next, repeatingDays, secondOfDay);
+            }
+        }
+    }
+
+    @Test
+    public void nextOccurrence_matchesCalendarAwayFromTransitions() {
+        Random random = new Random(7);
+        int compared = 0;
+        for (String zoneId : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(zoneId);
+            for (int i = 0; i < CASES_PER_ZONE; i++) {
+                long from = RANGE_START + (long) (random.nextDouble() * (RANGE_END - RANGE_START));
+                if (hasTransitionNear(zone, from)) {
+                    continue;
+                }
+                int repeatingDays = random.nextInt(AlarmRecurrence.ALL_DAYS + 1);
+                int hour = random.nextInt(24);
+                int minute = random.nextInt(60);
+                int second = random.nextBoolean() ? 0 : random.nextInt(60);
+
+                long next = AlarmRecurrence.getNextOccurrence(from, zone, repeatingDays,
+                        AlarmRecurrence.getSecondOfDay(hour, minute, second));
+                long legacy = LegacyAlarmTime.getAlarmTime(from, zone, repeatingDays, hour,
+                        minute, second);
+                assertEquals(describe(zone, from, repeatingDays,
+                        AlarmRecurrence.getSecondOfDay(hour, minute, second), next), legacy, next);
+                compared++;
+            }
+        }
+        assertTrue(compared > ZONES.length * CASES_PER_ZONE / 2);
+    }
+
+    @Test
+    public void nextOccurrence_movesTimesInGapForward() {
+        TimeZone zone = TimeZone.getTimeZone("America/New_York");
+        // 2016-03-13 00:00 EST, clocks go forward from 02:00 to 03:00
+        long from = 1457845200000L;
+        long next = AlarmRecurrence.getNextOccurrence(from, zone, 0,
+                AlarmRecurrence.getSecondOfDay(2, 30, 0));
+        assertEquals(from + 2 * MILLIS_PER_HOUR + 30 * 60 * 1000L, next);
+        assertEquals(3, getCalendar(zone, next).get(Calendar.HOUR_OF_DAY));
+    }
+
+    @Test
+    public void nextOccurrence_firesRepeatedTimeAtNextOccurrence() {
+        TimeZone zone = TimeZone.getTimeZone("America/New_York");
+        // 2016-11-06 01:10 EDT, clocks go back from 02:00 EDT to 01:00 EST
+        long from = 1478409000000L;
+        int secondOfDay = AlarmRecurrence.getSecondOfDay(1, 30, 0);
+        long firstOccurrence = from + 20 * 60 * 1000L;
+        assertEquals(firstOccurrence, AlarmRecurrence.getNextOccurrence(from, zone, 0,
+                secondOfDay));
+        // Once the first 01:30 has passed the alarm fires at the second one
+        assertEquals(firstOccurrence + MILLIS_PER_HOUR, AlarmRecurrence.getNextOccurrence(
+                firstOccurrence, zone, 0, secondOfDay));
+    }
+
+    @Test
+    public void nextOccurrence_treatsCurrentSecondAsPassed() {
+        TimeZone zone = TimeZone.getTimeZone("UTC");
+        // 2016-01-04 07:30:00.500, a Monday
+        long from = 1451892600500L;
+        int secondOfDay = AlarmRecurrence.getSecondOfDay(7, 30, 0);
+        assertEquals(from - 500 + MILLIS_PER_DAY,
+                AlarmRecurrence.getNextOccurrence(from, zone, 0, secondOfDay));
+        // Weekdays only, so Friday's alarm is followed by Monday's
+        int weekdays = 0x3e;
+        long friday = from + 4 * MILLIS_PER_DAY;
+        assertEquals(friday - 500 + 3 * MILLIS_PER_DAY,
+                AlarmRecurrence.getNextOccurrence(friday, zone, weekdays, secondOfDay));
+    }
+
+    // The wall clock time at the result is the alarm time on a repeating day, or later by the
+    // length of the gap if the alarm time was skipped by a transition
+    private static void assertFiresAt(String message, TimeZone zone, long next, int repeatingDays,
+                                      int secondOfDay) {
+        Calendar calendar = getCalendar(zone, next);
+        if (repeatingDays != 0) {
+            int day = calendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY;
+            assertTrue(message, (repeatingDays & (1 << day)) != 0);
+        }
+        int actualSecondOfDay = AlarmRecurrence.getSecondOfDay(
+                calendar.get(Calendar.HOUR_OF_DAY),
+                calendar.get(Calendar.MINUTE),
+                calendar.get(Calendar.SECOND));
+        if (actualSecondOfDay != secondOfDay) {
+            long gap = (actualSecondOfDay - secondOfDay) * 1000L;
+            assertTrue(message, gap > 0);
+            assertEquals(message, gap, zone.getOffset(next) - zone.getOffset(next - gap));
+        }
+    }
+
+    // Checks every instant at which the wall clock shows the alarm time on a repeating day, from
+    // the day before fromMillis up to the result, and fails if any of them is in between
+    private static void assertNoEarlierOccurrence(String message, TimeZone zone, long from,
+                                                  long next, int repeatingDays,
+                                                  int secondOfDay) {
+        Calendar day = getCalendar(zone, from);
+        day.add(Calendar.DATE, -1);
+        while (day.getTimeInMillis() < next) {
+            int dayOfWeek = day.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY;
+            if (repeatingDays == 0 || (repeatingDays & (1 << dayOfWeek)) != 0) {
+                long localMillis = getLocalMidnightMillis(day) + secondOfDay * 1000L;
+                for (long offset : new long[] {
+                        zone.getOffset(localMillis - MILLIS_PER_DAY),
+                        zone.getOffset(localMillis + MILLIS_PER_DAY)}) {
+                    long instant = localMillis - offset;
+                    if (zone.getOffset(instant) == offset && instant / 1000 > from / 1000 &&
+                            instant < next) {
+                        fail(message + " fires before " + instant);
+                    }
+                }
+            }
+            day.add(Calendar.DATE, 1);
+        }
+    }
+
+    private static boolean hasTransitionNear(TimeZone zone, long millis) {
+        int offset = zone.getOffset(millis - MILLIS_PER_DAY);
+        for (int day = 0; day <= 9; day++) {
+            if (zone.getOffset(millis + day * MILLIS_PER_DAY) != offset) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Long> findTransitions(TimeZone zone) {
+        List<Long> transitions = new ArrayList<>();
+        int offset = zone.getOffset(RANGE_START);
+        for (long millis = RANGE_START; millis < RANGE_END; millis += MILLIS_PER_HOUR / 2) {
+            int nextOffset = zone.getOffset(millis);
+            if (nextOffset != offset) {
+                transitions.add(millis);
+                offset = nextOffset;
+            }
+        }
+        return transitions;
+    }
+
+    private static long randomTime(Random random, List<Long> transitions) {
+        if (!transitions.isEmpty() && random.nextBoolean()) {
+            long transition = transitions.get(random.nextInt(transitions.size()));
+            return transition + (long) ((random.nextDouble() * 4 - 2) * MILLIS_PER_DAY);
+        }
+        return RANGE_START + (long) (random.nextDouble() * (RANGE_END - RANGE_START));
+    }
+
+    // Favors times around the usual transition hours as well as whole minutes
+    private static int randomSecondOfDay(Random random) {
+        int hour = random.nextBoolean() ? random.nextInt(4) : random.nextInt(24);
+        int second = random.nextBoolean() ? 0 : random.nextInt(60);
+        return AlarmRecurrence.getSecondOfDay(hour, random.nextInt(60), second);
+    }
+
+    private static Calendar getCalendar(TimeZone zone, long millis) {
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+
+    // Midnight of the calendar's day as if its wall clock were UTC
+    private static long getLocalMidnightMillis(Calendar calendar) {
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        utc.clear();
+        utc.set(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH),
+                calendar.get(Calendar.DAY_OF_MONTH));
+        return utc.getTimeInMillis();
+    }
+
+    private static String describe(TimeZone zone, long from, int repeatingDays, int secondOfDay,
+                                   long next) {
+        return zone.getID() + " from " + from + " days " + Integer.toBinaryString(repeatingDays) +
+                " second " + secondOfDay + " got " + next;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.scheduling;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+
+import com.microsoft.mimickeralarm.model.Alarm;
+import com.microsoft.mimickeralarm.model.AlarmList;
+import com.microsoft.mimickeralarm.ringing.AlarmRingingController;
+import com.microsoft.mimickeralarm.ringing.AlarmRingingService;
+import com.microsoft.mimickeralarm.ringing.AlarmWakeReceiver;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.internal.ShadowExtractor;
+import org.robolectric.shadows.ShadowAlarmManager;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowPendingIntent;
+
+import java.lang.reflect.Field;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that AlarmScheduler registers only the next alarm, and that it cancels the per alarm
+ * registrations left by older versions only once.  Also tests that the warm-up can be turned
+ * off at runtime, and that cancelling an alarm drops what was warmed up for it, if anything was.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class AlarmSchedulerTest {
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+
+    // The shared AlarmList keeps the database of the previous test open otherwise
+    @After
+    public void tearDown() throws Exception {
+        Field alarmList = AlarmList.class.getDeclaredField("sAlarmList");
+        alarmList.setAccessible(true);
+        alarmList.set(null, null);
+        getWarmedUpAlarmIds().clear();
+    }
+
+    @Test
+    public void refreshAlarms_registersOnlyTheNextAlarm() {
+        Context context = RuntimeEnvironment.application;
+        Alarm later = addEnabledAlarm(context, 2 * HOUR_MILLIS);
+        Alarm next = addEnabledAlarm(context, HOUR_MILLIS);
+        ShadowAlarmManager alarmManager = (ShadowAlarmManager) ShadowExtractor.extract(
+                context.getSystemService(Context.ALARM_SERVICE));
+
+        assertTrue(AlarmScheduler.refreshAlarms(context, false));
+        assertEquals(1, alarmManager.getScheduledAlarms().size() - countWarmUps(alarmManager));
+        assertEquals(next.getNextTriggerMillis(), getNextAlarmTriggerMillis(alarmManager));
+
+        next.setIsEnabled(false);
+        AlarmList.get(context).updateAlarm(next);
+        AlarmScheduler.cancelAlarm(context, next);
+        assertEquals(later.getNextTriggerMillis(), getNextAlarmTriggerMillis(alarmManager));
+
+        later.setIsEnabled(false);
+        AlarmList.get(context).updateAlarm(later);
+        assertFalse(AlarmScheduler.refreshAlarms(context, false));
+        assertEquals(0, alarmManager.getScheduledAlarms().size());
+    }
+
+    @Test
+    public void refreshAlarms_cancelsLegacyRegistrationsOnce() {
+        Context context = RuntimeEnvironment.application;
+        Alarm alarm = addEnabledAlarm(context);
+        // shadowOf cannot be used with the API 23 android.jar, see ShadowExtractor
+        ShadowAlarmManager alarmManager = (ShadowAlarmManager) ShadowExtractor.extract(
+                context.getSystemService(Context.ALARM_SERVICE));
+
+        setLegacyRegistration(context, alarm);
+        AlarmScheduler.refreshAlarms(context, false);
+        assertFalse(hasLegacyRegistration(alarmManager));
+        assertEquals(1, alarmManager.getScheduledAlarms().size() - countWarmUps(alarmManager));
+
+        // Registrations made after the first refresh are not the old version's, so they stay
+        setLegacyRegistration(context, alarm);
+        AlarmScheduler.refreshAlarms(context, true);
+        assertTrue(hasLegacyRegistration(alarmManager));
+    }
+
+    @Test
+    public void setWarmUpEnabled_registersAndCancelsTheWarmUp() {
+        Context context = RuntimeEnvironment.application;
+        addEnabledAlarm(context);
+        ShadowAlarmManager alarmManager = (ShadowAlarmManager) ShadowExtractor.extract(
+                context.getSystemService(Context.ALARM_SERVICE));
+
+        AlarmScheduler.refreshAlarms(context, false);
+        assertTrue(AlarmScheduler.isWarmUpEnabled(context));
+        assertEquals(1, countWarmUps(alarmManager));
+
+        AlarmScheduler.setWarmUpEnabled(context, false);
+        assertEquals(0, countWarmUps(alarmManager));
+
+        // The flag is kept when the registrations are lost
+        AlarmScheduler.refreshAlarms(context, true);
+        assertFalse(AlarmScheduler.isWarmUpEnabled(context));
+        assertEquals(0, countWarmUps(alarmManager));
+
+        AlarmScheduler.setWarmUpEnabled(context, true);
+        assertEquals(1, countWarmUps(alarmManager));
+    }
+
+    @Test
+    public void cancelAlarm_cancelsTheWarmUpOfTheAlarm() throws Exception {
+        Context context = RuntimeEnvironment.application;
+        Alarm alarm = addEnabledAlarm(context);
+        ShadowApplication application = (ShadowApplication) ShadowExtractor.extract(context);
+        getWarmedUpAlarmIds().add(alarm.getId());
+
+        alarm.setIsEnabled(false);
+        AlarmList.get(context).updateAlarm(alarm);
+        AlarmScheduler.cancelAlarm(context, alarm);
+
+        Intent intent = application.getNextStartedService();
+        assertEquals(AlarmRingingService.ACTION_CANCEL_WARM_UP, intent.getAction());
+        assertEquals(alarm.getId(), intent.getSerializableExtra(AlarmRingingService.ALARM_ID));
+    }
+
+    @Test
+    public void scheduleAlarm_doesNotStartTheServiceUnlessWarmedUp() {
+        Context context = RuntimeEnvironment.application;
+        Alarm alarm = addEnabledAlarm(context);
+        ShadowApplication application = (ShadowApplication) ShadowExtractor.extract(context);
+
+        AlarmScheduler.scheduleAlarm(context, alarm);
+        alarm.setIsEnabled(false);
+        AlarmList.get(context).updateAlarm(alarm);
+        AlarmScheduler.cancelAlarm(context, alarm);
+
+        assertNull(application.getNextStartedService());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<Object> getWarmedUpAlarmIds() throws Exception {
+        Field warmedUpAlarmIds = AlarmRingingController.class.getDeclaredField("sWarmedUpAlarmIds");
+        warmedUpAlarmIds.setAccessible(true);
+        return (Set<Object>) warmedUpAlarmIds.get(null);
+    }
+
+    private static Alarm addEnabledAlarm(Context context) {
+        return addEnabledAlarm(context, HOUR_MILLIS);
+    }
+
+    private static Alarm addEnabledAlarm(Context context, long inMillis) {
+        Alarm alarm = Alarm.newAlarmForDatabaseRow(UUID.randomUUID());
+        alarm.setIsEnabled(true);
+        alarm.setNextTriggerMillis(System.currentTimeMillis() + inMillis);
+        AlarmList.get(context).addAlarm(alarm);
+        return alarm;
+    }
+
+    // Registers the alarm the way versions before the next alarm registration did
+    private static void setLegacyRegistration(Context context, Alarm alarm) {
+        Intent intent = new Intent(context, AlarmWakeReceiver.class);
+        intent.putExtra(AlarmScheduler.ARGS_ALARM_ID, alarm.getId());
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context,
+                (int) Math.abs(alarm.getId().getLeastSignificantBits()), intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        ((AlarmManager) context.getSystemService(Context.ALARM_SERVICE)).set(
+                AlarmManager.RTC_WAKEUP, alarm.getNextTriggerMillis(), pendingIntent);
+    }
+
+    private static boolean hasLegacyRegistration(ShadowAlarmManager alarmManager) {
+        for (ShadowAlarmManager.ScheduledAlarm scheduled : alarmManager.getScheduledAlarms()) {
+            Intent intent = getSavedIntent(scheduled);
+            if (intent.hasExtra(AlarmScheduler.ARGS_ALARM_ID)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int countWarmUps(ShadowAlarmManager alarmManager) {
+        int warmUps = 0;
+        for (ShadowAlarmManager.ScheduledAlarm scheduled : alarmManager.getScheduledAlarms()) {
+            Intent intent = getSavedIntent(scheduled);
+            if (AlarmScheduler.ACTION_WARM_UP.equals(intent.getAction())) {
+                warmUps++;
+            }
+        }
+        return warmUps;
+    }
+
+    private static long getNextAlarmTriggerMillis(ShadowAlarmManager alarmManager) {
+        for (ShadowAlarmManager.ScheduledAlarm scheduled : alarmManager.getScheduledAlarms()) {
+            Intent intent = getSavedIntent(scheduled);
+            if (intent.hasExtra(AlarmScheduler.ARGS_TRIGGER_MILLIS) &&
+                    !AlarmScheduler.ACTION_WARM_UP.equals(intent.getAction())) {
+                assertEquals(scheduled.triggerAtTime,
+                        intent.getLongExtra(AlarmScheduler.ARGS_TRIGGER_MILLIS, 0));
+                return scheduled.triggerAtTime;
+            }
+        }
+        return 0;
+    }
+
+    private static Intent getSavedIntent(ShadowAlarmManager.ScheduledAlarm scheduled) {
+        return ((ShadowPendingIntent) ShadowExtractor.extract(scheduled.operation))
+                .getSavedIntent();
+    }
+}
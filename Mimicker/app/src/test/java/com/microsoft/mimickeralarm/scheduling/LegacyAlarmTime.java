@@ -0,0 +1,99 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.scheduling;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * The Calendar based calculation that AlarmScheduler used before AlarmRecurrence, kept as a
+ * reference for the tests and the benchmark.  It takes the current time and zone as arguments
+ * rather than reading them, but otherwise follows the old code: the alarm time is set on the
+ * current day and then whole days are added, so the result can be off by the DST offset when the
+ * current day or the alarm day is a transition day.
+ */
+final class LegacyAlarmTime {
+    private LegacyAlarmTime() {
+    }
+
+    static long getAlarmTime(long fromMillis, TimeZone zone, int repeatingDays, int hour,
+                             int minute, int second) {
+        Calendar calendarFrom = Calendar.getInstance(zone);
+        calendarFrom.setTimeInMillis(fromMillis);
+        Calendar calendarAlarm = (Calendar) calendarFrom.clone();
+        calendarAlarm.set(Calendar.HOUR_OF_DAY, hour);
+        calendarAlarm.set(Calendar.MINUTE, minute);
+        calendarAlarm.set(Calendar.SECOND, second);
+        calendarAlarm.set(Calendar.MILLISECOND, 0);
+
+        final int nowDay = calendarFrom.get(Calendar.DAY_OF_WEEK);
+        final int nowSecondOfDay = AlarmRecurrence.getSecondOfDay(
+                calendarFrom.get(Calendar.HOUR_OF_DAY),
+                calendarFrom.get(Calendar.MINUTE),
+                calendarFrom.get(Calendar.SECOND));
+        final boolean passedToday = AlarmRecurrence.getSecondOfDay(hour, minute, second) <=
+                nowSecondOfDay;
+
+        if ((repeatingDays & AlarmRecurrence.ALL_DAYS) == 0) {
+            // if we cannot schedule today then set the alarm for tomorrow
+            if (passedToday) {
+                calendarAlarm.add(Calendar.DATE, 1);
+            }
+            return calendarAlarm.getTimeInMillis();
+        }
+
+        // First check if it's later today or later in the week
+        for (int dayOfWeek = Calendar.SUNDAY; dayOfWeek <= Calendar.SATURDAY; ++dayOfWeek) {
+            if (isRepeatingDay(repeatingDays, dayOfWeek) && dayOfWeek >= nowDay &&
+                    !(dayOfWeek == nowDay && passedToday)) {
+                calendarAlarm.add(Calendar.DATE, dayOfWeek - nowDay);
+                return calendarAlarm.getTimeInMillis();
+            }
+        }
+
+        for (int dayOfWeek = Calendar.SUNDAY; dayOfWeek <= Calendar.SATURDAY; ++dayOfWeek) {
+            if (isRepeatingDay(repeatingDays, dayOfWeek) && dayOfWeek <= nowDay) {
+                calendarAlarm.add(Calendar.DATE, (7 - nowDay) + dayOfWeek);
+                break;
+            }
+        }
+        return calendarAlarm.getTimeInMillis();
+    }
+
+    private static boolean isRepeatingDay(int repeatingDays, int dayOfWeek) {
+        return (repeatingDays & (1 << (dayOfWeek - Calendar.SUNDAY))) != 0;
+    }
+}
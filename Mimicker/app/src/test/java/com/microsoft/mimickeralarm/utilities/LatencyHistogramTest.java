@@ -0,0 +1,145 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.utilities;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that LatencyHistogram buckets cover every latency without gaps, that its percentiles are
+ * within the bucket resolution of the exact ones, and that it survives being merged and persisted.
+ */
+public class LatencyHistogramTest {
+    private static final long MAX_BUCKETED_MILLIS = 1L << 24;
+
+    @Test
+    public void buckets_coverEveryLatencyInOrder() {
+        assertEquals(0, LatencyHistogram.getBucket(0));
+        assertEquals(0, LatencyHistogram.getBucketUpperBound(0));
+        int previousBucket = 0;
+        for (long millis = 1; millis < MAX_BUCKETED_MILLIS; millis++) {
+            int bucket = LatencyHistogram.getBucket(millis);
+            // Below four milliseconds some buckets are skipped, as they would hold fractions
+            assertTrue("bucket of " + millis, bucket >= previousBucket);
+            assertTrue("upper bound of " + millis,
+                    LatencyHistogram.getBucketUpperBound(bucket) >= millis);
+            assertTrue("upper bound below " + millis,
+                    LatencyHistogram.getBucketUpperBound(bucket - 1) < millis);
+            previousBucket = bucket;
+        }
+
+        int lastBucket = LatencyHistogram.getBucket(MAX_BUCKETED_MILLIS);
+        assertEquals(previousBucket + 1, lastBucket);
+        assertEquals(lastBucket, LatencyHistogram.getBucket(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.getBucketUpperBound(lastBucket));
+    }
+
+    @Test
+    public void percentiles_areWithinBucketResolution() {
+        Random random = new Random(42);
+        for (int run = 0; run < 100; run++) {
+            int samples = 1 + random.nextInt(2000);
+            long[] latencies = new long[samples];
+            LatencyHistogram histogram = new LatencyHistogram();
+            for (int i = 0; i < samples; i++) {
+                // Log-normal around a few hundred milliseconds, like the ringing stages
+                latencies[i] = (long) Math.exp(5.5 + 1.5 * random.nextGaussian());
+                histogram.record(latencies[i]);
+            }
+            Arrays.sort(latencies);
+
+            assertEquals(samples, histogram.getTotalCount());
+            assertEquals(latencies[samples - 1], histogram.getMaxMillis());
+            for (double percentile : new double[] {1, 50, 90, 95, 99, 100}) {
+                long exact = latencies[(int) Math.ceil(percentile / 100 * samples) - 1];
+                long reported = histogram.getPercentile(percentile);
+                String message = "p" + percentile + " of " + samples + " samples";
+                assertTrue(message, reported >= exact);
+                // Each power of two is split into four buckets
+                assertTrue(message, reported <= exact + exact / 4 + 1);
+            }
+        }
+    }
+
+    @Test
+    public void emptyHistogram_reportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, LatencyHistogram.fromString(null).getTotalCount());
+        assertEquals(0, LatencyHistogram.fromString(histogram.toString()).getTotalCount());
+    }
+
+    @Test
+    public void add_mergesCountsAndMaximum() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        LatencyHistogram both = new LatencyHistogram();
+        for (long millis = 1; millis <= 1000; millis++) {
+            (millis % 3 == 0 ? first : second).record(millis * 7);
+            both.record(millis * 7);
+        }
+
+        first.add(second);
+
+        assertEquals(both.toString(), first.toString());
+        assertEquals(1000, first.getTotalCount());
+        assertEquals(7000, first.getMaxMillis());
+    }
+
+    @Test
+    public void toString_roundTrips() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(0);
+        histogram.record(3);
+        histogram.record(3);
+        histogram.record(1200);
+        histogram.record(Long.MAX_VALUE);
+
+        LatencyHistogram parsed = LatencyHistogram.fromString(histogram.toString());
+
+        assertEquals(histogram.toString(), parsed.toString());
+        assertEquals(5, parsed.getTotalCount());
+        assertEquals(Long.MAX_VALUE, parsed.getMaxMillis());
+        assertEquals(3, parsed.getPercentile(50));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.utilities;
+
+import com.microsoft.mimickeralarm.appcore.AlarmApplication;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that LatencyTracer keeps every sample when it is flushed from several threads while
+ * samples are being recorded, and that the durations recorded under event names are included
+ * in snapshot and discarded by reset like the stages.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class LatencyTracerTest {
+    private static final String STAGE = "Test stage";
+    private static final int THREADS = 4;
+    private static final int SAMPLES_PER_THREAD = 2000;
+
+    @Before
+    public void setUp() throws Exception {
+        // The tracer persists through the application context, which is set in onCreate
+        setAppContext(RuntimeEnvironment.application);
+        LatencyTracer.reset();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        setAppContext(null);
+    }
+
+    @Test
+    public void concurrentFlushes_keepEverySample() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int sample = 0; sample < SAMPLES_PER_THREAD; sample++) {
+                        LatencyTracer.end(STAGE, LatencyTracer.begin());
+                        if (sample % 10 == 0) {
+                            LatencyTracer.flush();
+                        }
+                    }
+                    LatencyTracer.flush();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(THREADS * SAMPLES_PER_THREAD,
+                LatencyTracer.snapshot().get(STAGE).getTotalCount());
+    }
+
+    @Test
+    public void eventDurations_areSnapshotAndReset() {
+        LatencyTracer.recordDuration(Loggable.Key.APP_API_VISION, 100);
+        LatencyTracer.flush();
+        LatencyTracer.recordDuration(Loggable.Key.APP_API_VISION, 200);
+        LatencyTracer.recordDuration(Loggable.Key.APP_API_EMOTION, 300);
+
+        // Both the flushed and the pending samples are included
+        Map<String, LatencyHistogram> histograms = LatencyTracer.snapshot();
+        assertEquals(2, histograms.get(Loggable.Key.APP_API_VISION).getTotalCount());
+        assertEquals(1, histograms.get(Loggable.Key.APP_API_EMOTION).getTotalCount());
+
+        LatencyTracer.reset();
+        assertTrue(LatencyTracer.snapshot().isEmpty());
+        assertEquals(0, LatencyTracer.getPercentile(Loggable.Key.APP_API_VISION, 50));
+    }
+
+    private static void setAppContext(Object context) throws Exception {
+        Field appContext = AlarmApplication.class.getDeclaredField("sContext");
+        appContext.setAccessible(true);
+        appContext.set(null, context);
+    }
+}
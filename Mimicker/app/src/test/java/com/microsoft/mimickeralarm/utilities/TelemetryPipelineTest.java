@@ -0,0 +1,266 @@
+/*
+ *
+ * Copyright (c) Microsoft. All rights reserved.
+ * Licensed under the MIT license.
+ *
+ * Project Oxford: http://ProjectOxford.ai
+ *
+ * Project Oxford Mimicker Alarm Github:
+ * https://github.com/Microsoft/ProjectOxford-Apps-MimickerAlarm
+ *
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License:
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED ""AS IS"", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package com.microsoft.mimickeralarm.utilities;
+
+import com.microsoft.mimickeralarm.appcore.AlarmApplication;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the events that reach the TelemetrySink through the Logger, using an
+ * InMemoryTelemetrySink in place of Mixpanel.  Also tests that the durations of timed events are
+ * recorded by the LatencyTracer under the event name.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class TelemetryPipelineTest {
+    private static final long FLUSH_TIMEOUT_MILLIS = 5000;
+    private static final int THREADS = 4;
+    private static final int EVENTS_PER_THREAD = 500;
+
+    private InMemoryTelemetrySink mSink;
+
+    @Before
+    public void setUp() throws Exception {
+        mSink = new InMemoryTelemetrySink();
+        Logger.setSink(mSink);
+        // The tracer persists through the application context, which is set in onCreate
+        setAppContext(RuntimeEnvironment.application);
+        LatencyTracer.reset();
+        // A loggable whose start is 0 is not timed, and the test clock starts at 0
+        ShadowSystemClock.sleep(1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Logger.setSink(new LogcatTelemetrySink());
+        setAppContext(null);
+    }
+
+    @Test
+    public void track_sendsPropertiesWithTheirTypes() throws Exception {
+        UUID alarmId = UUID.randomUUID();
+        Loggable.AppAction appAction = new Loggable.AppAction(Loggable.Key.APP_ALARM_RINGING);
+        appAction.putProp(Loggable.Key.PROP_LATENCY, 1234L);
+        appAction.putProp(Loggable.Key.PROP_QUALITY, 0.5);
+        appAction.putProp(Loggable.Key.PROP_WARMED_UP, true);
+        appAction.putProp("Alarm Id", alarmId);
+        appAction.putProp("Alarm Repeat", new boolean[] {true, false});
+        appAction.putProp("Emotion Anger", new double[] {0.25, 0.75});
+
+        JSONObject properties = trackAndFlush(appAction).properties;
+
+        assertEquals("App Action", properties.getString("Type"));
+        assertEquals(1234L, properties.get(Loggable.Key.PROP_LATENCY));
+        assertEquals(0.5, properties.get(Loggable.Key.PROP_QUALITY));
+        assertEquals(true, properties.get(Loggable.Key.PROP_WARMED_UP));
+        assertEquals(alarmId.toString(), properties.get("Alarm Id"));
+        assertEquals(false, properties.getJSONArray("Alarm Repeat").get(1));
+        assertEquals(0.75, properties.getJSONArray("Emotion Anger").get(1));
+    }
+
+    @Test
+    public void changesAfterTrack_doNotReachTheEvent() throws Exception {
+        double[] scores = {0.25};
+        JSONObject json = new JSONObject().put("Nested", new JSONArray().put(1));
+        Loggable.AppAction appAction = new Loggable.AppAction(Loggable.Key.APP_ALARM_RINGING);
+        appAction.putProp(Loggable.Key.PROP_LATENCY, 1);
+        appAction.putProp("Emotion Anger", scores);
+        appAction.putProp("JSON", json);
+
+        Logger.track(appAction);
+        // Reusing the loggable straight away must not change the event already tracked
+        appAction.Name = Loggable.Key.APP_ERROR;
+        appAction.putProp(Loggable.Key.PROP_LATENCY, 2);
+        scores[0] = 1;
+        json.put("Added", true);
+        TelemetrySink.Event event = flush().get(0);
+        JSONObject properties = event.properties;
+
+        assertEquals(Loggable.Key.APP_ALARM_RINGING, event.name);
+        assertEquals(1L, properties.get(Loggable.Key.PROP_LATENCY));
+        assertEquals(0.25, properties.getJSONArray("Emotion Anger").get(0));
+        assertFalse(properties.getJSONObject("JSON").has("Added"));
+        assertEquals(1, properties.getJSONObject("JSON").getJSONArray("Nested").get(0));
+    }
+
+    @Test
+    public void invalidProperty_isDroppedWithoutTrackingAnException() throws Exception {
+        Loggable.AppAction appAction = new Loggable.AppAction(Loggable.Key.APP_ALARM_RINGING);
+        appAction.putProp(Loggable.Key.PROP_QUALITY, Double.NaN);
+        appAction.putProp(Loggable.Key.PROP_LATENCY, 1);
+
+        JSONObject properties = trackAndFlush(appAction).properties;
+
+        assertFalse(properties.has(Loggable.Key.PROP_QUALITY));
+        assertEquals(1L, properties.get(Loggable.Key.PROP_LATENCY));
+        // Wait for a second flush, in case an exception was tracked from the worker thread
+        assertTrue(flush().isEmpty());
+    }
+
+    @Test
+    public void events_areSentInOrder() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            Loggable.AppAction appAction = new Loggable.AppAction(Loggable.Key.APP_ALARM_RINGING);
+            appAction.putProp(Loggable.Key.PROP_LATENCY, i);
+            Logger.track(appAction);
+        }
+
+        List<TelemetrySink.Event> events = flush();
+
+        assertEquals(100, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals((long) i, events.get(i).properties.get(Loggable.Key.PROP_LATENCY));
+        }
+    }
+
+    @Test
+    public void nestedTimedEvents_areTimedByTheirOwnLoggable() throws Exception {
+        Loggable.AppAction outer = new Loggable.AppAction(Loggable.Key.APP_API_VISION);
+        Loggable.AppAction inner = new Loggable.AppAction(Loggable.Key.APP_API_EMOTION);
+
+        Logger.trackDurationStart(outer);
+        ShadowSystemClock.sleep(100);
+        Logger.trackDurationStart(inner);
+        ShadowSystemClock.sleep(200);
+        Logger.track(inner);
+        ShadowSystemClock.sleep(300);
+        Logger.track(outer);
+        List<TelemetrySink.Event> events = flush();
+
+        assertEquals(Loggable.Key.APP_API_EMOTION, events.get(0).name);
+        assertEquals(0.2, events.get(0).properties.getDouble(Loggable.DURATION_PROPERTY), 0);
+        assertEquals(Loggable.Key.APP_API_VISION, events.get(1).name);
+        assertEquals(0.6, events.get(1).properties.getDouble(Loggable.DURATION_PROPERTY), 0);
+
+        Map<String, LatencyHistogram> histograms = LatencyTracer.snapshot();
+        assertEquals(1, histograms.get(Loggable.Key.APP_API_EMOTION).getTotalCount());
+        assertEquals(1, histograms.get(Loggable.Key.APP_API_VISION).getTotalCount());
+    }
+
+    @Test
+    public void untrackedEvent_hasNoDuration() throws Exception {
+        Loggable.AppAction appAction = new Loggable.AppAction(Loggable.Key.APP_API_SPEECH);
+
+        JSONObject properties = trackAndFlush(appAction).properties;
+
+        assertFalse(properties.has(Loggable.DURATION_PROPERTY));
+        assertFalse(LatencyTracer.snapshot().containsKey(Loggable.Key.APP_API_SPEECH));
+    }
+
+    @Test
+    public void concurrentTimedEvents_areAllRecorded() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int event = 0; event < EVENTS_PER_THREAD; event++) {
+                        Loggable.AppAction appAction =
+                                new Loggable.AppAction(Loggable.Key.APP_API_SPEECH);
+                        Logger.trackDurationStart(appAction);
+                        Logger.track(appAction);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int timedEvents = 0;
+        for (TelemetrySink.Event event : flush()) {
+            if (event.properties.has(Loggable.DURATION_PROPERTY)) {
+                timedEvents++;
+            }
+        }
+        assertEquals(THREADS * EVENTS_PER_THREAD, timedEvents);
+        assertEquals(THREADS * EVENTS_PER_THREAD,
+                LatencyTracer.snapshot().get(Loggable.Key.APP_API_SPEECH).getTotalCount());
+    }
+
+    private TelemetrySink.Event trackAndFlush(Loggable loggable) throws InterruptedException {
+        Logger.track(loggable);
+        List<TelemetrySink.Event> events = flush();
+        assertEquals(1, events.size());
+        return events.get(0);
+    }
+
+    // Returns the events sent since the previous flush
+    private List<TelemetrySink.Event> flush() throws InterruptedException {
+        int flushCount = mSink.getFlushCount();
+        Logger.flush();
+        assertTrue(mSink.awaitFlush(flushCount, FLUSH_TIMEOUT_MILLIS));
+        List<TelemetrySink.Event> events = mSink.getEvents();
+        mSink.clear();
+        return events;
+    }
+
+    private static void setAppContext(Object context) throws Exception {
+        Field appContext = AlarmApplication.class.getDeclaredField("sContext");
+        appContext.setAccessible(true);
+        appContext.set(null, context);
+    }
+}